@@ -0,0 +1,50 @@
+import Service.BulkImportService;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command-line bulk import of accounts or messages into the database used by ConnectionUtil.
+ *
+ * Usage: BulkImport accounts|messages <file> [csv|ndjson]
+ *
+ * The format defaults to CSV for files ending in .csv and NDJSON otherwise. Progress is saved to
+ * <file>.checkpoint after every committed chunk; running the same command again resumes after the last
+ * committed line. Delete the checkpoint file to import the file again from the start.
+ */
+public class BulkImport {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("accounts") || args[0].equals("messages"))) {
+            System.out.println("Usage: BulkImport accounts|messages <file> [csv|ndjson]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[1]);
+        BulkImportService.Format format = args.length > 2
+                ? BulkImportService.Format.valueOf(args[2].toUpperCase())
+                : (file.toString().endsWith(".csv") ? BulkImportService.Format.CSV : BulkImportService.Format.NDJSON);
+        Path checkpoint = Paths.get(file + ".checkpoint");
+
+        BulkImportService importer = new BulkImportService();
+        long start = System.nanoTime();
+        BulkImportService.ProgressListener progress = result -> {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("line %d: %d imported, %d rejected (%.0f rows/s)%n",
+                    result.lines, result.imported, result.rejected, result.imported / Math.max(seconds, 1e-9));
+        };
+
+        BulkImportService.ImportResult result;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            result = args[0].equals("accounts")
+                    ? importer.importAccounts(reader, format, 0, checkpoint, progress)
+                    : importer.importMessages(reader, format, 0, checkpoint, progress);
+        }
+        for (String error : result.errors) {
+            System.out.println(error);
+        }
+        System.out.printf("Done: %d lines, %d imported, %d rejected in %.1f s%n",
+                result.lines, result.imported, result.rejected, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,105 @@
+package Controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.Locale;
+
+/**
+ * The request and response body formats of the REST API. JSON is the default; the binary formats are for
+ * service-to-service callers that would rather not spend CPU parsing text. Every format goes through Jackson with
+ * the same bindings (Account, Message, ...), so a body means the same in each format.
+ *
+ * The request format follows the Content-Type header and the response format the Accept header. Missing or
+ * unknown media types fall back to JSON, so existing clients are unaffected.
+ */
+public enum BodyFormat {
+    JSON("application/json", new ObjectMapper()),
+    SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory()), "application/smile"),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory())),
+    MESSAGE_PACK("application/x-msgpack", new ObjectMapper(new MessagePackFactory()), "application/msgpack");
+
+    private final String mediaType;
+    private final ObjectMapper mapper;
+    private final String alias;
+
+    BodyFormat(String mediaType, ObjectMapper mapper) {
+        this(mediaType, mapper, null);
+    }
+
+    BodyFormat(String mediaType, ObjectMapper mapper, String alias) {
+        this.mediaType = mediaType;
+        this.mapper = mapper;
+        this.alias = alias;
+    }
+
+    /**
+     * @return The media type sent as Content-Type for this format.
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return The shared mapper reading and writing this format; ObjectMapper is thread-safe once configured.
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * @param contentType The Content-Type header of a request, possibly null or with parameters.
+     * @return The format of the request body; JSON unless the header names a binary format.
+     */
+    public static BodyFormat ofContentType(String contentType) {
+        BodyFormat format = contentType == null ? null : ofMediaType(contentType);
+        return format == null ? JSON : format;
+    }
+
+    /**
+     * Picks the response format from an Accept header: the supported media type with the highest quality
+     * ("q" parameter), the first one listed on a tie. Wildcards and unsupported types count as JSON.
+     *
+     * @param accept The Accept header of a request, possibly null.
+     * @return The format to write the response in.
+     */
+    public static BodyFormat ofAccept(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        BodyFormat best = JSON;
+        double bestQuality = -1;
+        for (String range : accept.split(",")) {
+            double quality = 1;
+            String[] parts = range.split(";");
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (quality > 0 && quality > bestQuality) {
+                BodyFormat format = ofMediaType(parts[0]);
+                best = format == null ? JSON : format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static BodyFormat ofMediaType(String value) {
+        String mediaType = value.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        for (BodyFormat format : values()) {
+            if (format != JSON && (format.mediaType.equals(mediaType) || mediaType.equals(format.alias))) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,146 @@
+package Controller;
+
+import Model.Message;
+import Service.MessageListener;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the JSON encoding (UTF-8 bytes) of recently served messages, so hot messages are encoded once instead of
+ * on every response. List responses are written as '[', the cached fragments separated by commas, and ']'.
+ *
+ * A fragment is only used if the message it was encoded from still has the same posted_by, text and time as the
+ * message being written, so a response never holds stale content, even when a read races with an update. Updates
+ * and deletes (reported as a MessageListener) drop the fragment right away to free its memory. When the cache is
+ * full, an arbitrary entry makes room for the new one.
+ */
+public class MessageJsonCache implements MessageListener {
+    private final ObjectMapper mapper;
+    private final int maxEntries;
+    private final ConcurrentHashMap<Integer, Fragment> fragments = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param mapper The mapper encoding messages, the same as for other responses.
+     * @param maxEntries The maximum number of messages kept (0 to encode every message every time).
+     * @throws IllegalArgumentException If maxEntries is negative.
+     */
+    public MessageJsonCache(ObjectMapper mapper, int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("The cache size must not be negative.");
+        }
+        this.mapper = mapper;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void onMessageUpdated(Message message) {
+        fragments.remove(message.getMessage_id());
+    }
+
+    @Override
+    public void onMessageDeleted(Message message) {
+        fragments.remove(message.getMessage_id());
+    }
+
+    /**
+     * @param message A message to send.
+     * @return Its JSON encoding, from the cache or newly encoded (and cached).
+     */
+    public byte[] toJson(Message message) {
+        Fragment fragment = fragments.get(message.getMessage_id());
+        if (fragment != null && fragment.matches(message)) {
+            hits.increment();
+            return fragment.json;
+        }
+        misses.increment();
+        byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            // Not expected for a Message, which only holds numbers and a string
+            throw new UncheckedIOException(e);
+        }
+        if (maxEntries > 0) {
+            if (fragment == null && fragments.size() >= maxEntries) {
+                Iterator<Integer> victims = fragments.keySet().iterator();
+                if (victims.hasNext()) {
+                    fragments.remove(victims.next());
+                }
+            }
+            fragments.put(message.getMessage_id(), new Fragment(message, json));
+        }
+        return json;
+    }
+
+    /**
+     * Writes a JSON array of messages.
+     *
+     * @param messages The messages, in response order.
+     * @param out The stream to write to; it is not closed.
+     * @throws IOException If writing fails.
+     */
+    public void writeList(List<Message> messages, OutputStream out) throws IOException {
+        out.write('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(toJson(messages.get(i)));
+        }
+        out.write(']');
+    }
+
+    /**
+     * @return The number of messages currently cached.
+     */
+    public int size() {
+        return fragments.size();
+    }
+
+    /**
+     * @return The number of messages written from the cache since startup.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of messages encoded since startup.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The encoding of one message, with the fields it was encoded from.
+     */
+    private static class Fragment {
+        final int postedBy;
+        final String text;
+        final long timePostedEpoch;
+        final byte[] json;
+
+        Fragment(Message message, byte[] json) {
+            this.postedBy = message.getPosted_by();
+            this.text = message.getMessage_text();
+            this.timePostedEpoch = message.getTime_posted_epoch();
+            this.json = json;
+        }
+
+        boolean matches(Message message) {
+            return postedBy == message.getPosted_by() && timePostedEpoch == message.getTime_posted_epoch()
+                    && Objects.equals(text, message.getMessage_text());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package Controller;
+
+import Model.Message;
+import Service.MessageListener;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.http.sse.SseClient;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fans out message changes to Server-Sent Events subscribers of GET /messages/stream.
+ *
+ * Each change is serialized to JSON bytes once and shared by all subscribers. Every subscriber has a bounded
+ * queue drained by its own sender thread; a subscriber whose queue is full (a slow consumer) is disconnected
+ * instead of slowing down the request that changed the message. The most recent events are kept in a replay
+ * buffer, so a reconnecting client sending Last-Event-ID receives what it missed.
+ *
+ * Event IDs count from 1 in every process. A Last-Event-ID beyond the newest event therefore comes from before a
+ * restart, and the client receives a "reset" event, carrying the current ID, instead of a silent gap.
+ */
+public class MessageStream implements MessageListener {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int queueCapacity;
+    private final int replayCapacity;
+    private final ArrayDeque<Event> replay = new ArrayDeque<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "message-stream-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long lastEventId;
+
+    /**
+     * @param queueCapacity The number of events a subscriber may fall behind before it is disconnected.
+     * @param replayCapacity The number of recent events kept for clients resuming with Last-Event-ID.
+     * @throws IllegalArgumentException If a full replay (plus a reset event) would not fit in a subscriber queue.
+     */
+    public MessageStream(int queueCapacity, int replayCapacity) {
+        if (replayCapacity < 0 || queueCapacity <= replayCapacity) {
+            throw new IllegalArgumentException("Queue capacity must be larger than replay capacity.");
+        }
+        this.queueCapacity = queueCapacity;
+        this.replayCapacity = replayCapacity;
+    }
+
+    @Override
+    public void onMessageCreated(Message message) {
+        publish("created", message);
+    }
+
+    @Override
+    public void onMessageUpdated(Message message) {
+        publish("updated", message);
+    }
+
+    @Override
+    public void onMessageDeleted(Message message) {
+        publish("deleted", message);
+    }
+
+    /**
+     * Starts streaming to a newly connected client.
+     *
+     * @param client The SSE client; the connection is kept open until the client leaves or falls behind.
+     * @param postedBy Only messages posted by this account are sent, or all messages if null.
+     * @param lastEventId The last event the client saw before reconnecting, or null for a fresh connection.
+     */
+    public void subscribe(SseClient client, Integer postedBy, Long lastEventId) {
+        client.keepAlive();
+        Subscriber subscriber = new Subscriber(client, postedBy);
+        client.onClose(subscriber::disconnect);
+
+        synchronized (this) {
+            if (lastEventId != null && lastEventId > this.lastEventId) {
+                // The ID was handed out by an earlier process: nothing here can be matched against it
+                subscriber.offer(new Event(this.lastEventId, "reset", "{}".getBytes(StandardCharsets.UTF_8), 0));
+            } else if (lastEventId != null) {
+                Event oldest = replay.peekFirst();
+                if (oldest != null && oldest.id > lastEventId + 1) {
+                    // The client missed more than we kept: it has to reload the full list
+                    subscriber.offer(new Event(lastEventId, "reset", "{}".getBytes(StandardCharsets.UTF_8), 0));
+                }
+                // The queue is larger than the replay buffer, so the whole replay always fits
+                for (Event event : replay) {
+                    if (event.id > lastEventId && subscriber.accepts(event)) {
+                        subscriber.offer(event);
+                    }
+                }
+            }
+            // Registering under the same lock as publish(), so no event falls between replay and live delivery
+            subscribers.add(subscriber);
+        }
+        senders.execute(subscriber::run);
+    }
+
+    /**
+     * Sends a comment line to every subscriber. Comments are ignored by clients but reveal dead connections.
+     */
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offerOrDisconnect(Event.HEARTBEAT);
+        }
+    }
+
+    /**
+     * @return The number of connected subscribers.
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Disconnects every subscriber and stops the sender threads.
+     */
+    public void close() {
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            subscriber.disconnect();
+        }
+        senders.shutdownNow();
+    }
+
+    private void publish(String type, Message message) {
+        byte[] data;
+        try {
+            data = mapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        List<Subscriber> slow = new ArrayList<>();
+        synchronized (this) {
+            Event event = new Event(++lastEventId, type, data, message.getPosted_by());
+            replay.addLast(event);
+            if (replay.size() > replayCapacity) {
+                replay.removeFirst();
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.accepts(event) && !subscriber.offer(event)) {
+                    slow.add(subscriber);
+                }
+            }
+        }
+        // Disconnecting outside the lock: closing a connection may block on the network
+        for (Subscriber subscriber : slow) {
+            subscriber.disconnect();
+        }
+    }
+
+    /**
+     * A change, serialized once and shared by all subscribers.
+     */
+    private static class Event {
+        static final Event HEARTBEAT = new Event(0, null, null, 0);
+        static final Event DISCONNECT = new Event(0, null, null, 0);
+
+        final long id;
+        final String type;
+        final byte[] data;
+        final int postedBy;
+
+        Event(long id, String type, byte[] data, int postedBy) {
+            this.id = id;
+            this.type = type;
+            this.data = data;
+            this.postedBy = postedBy;
+        }
+    }
+
+    /**
+     * One connected client, its filter, and the queue of events waiting to be written to it.
+     */
+    private class Subscriber {
+        final SseClient client;
+        final Integer postedBy;
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Subscriber(SseClient client, Integer postedBy) {
+            this.client = client;
+            this.postedBy = postedBy;
+        }
+
+        boolean accepts(Event event) {
+            return postedBy == null || postedBy == event.postedBy || "reset".equals(event.type);
+        }
+
+        boolean offer(Event event) {
+            return queue.offer(event);
+        }
+
+        void offerOrDisconnect(Event event) {
+            if (!queue.offer(event)) {
+                disconnect();
+            }
+        }
+
+        void disconnect() {
+            if (subscribers.remove(this)) {
+                // Waking the sender so it closes the connection from its own thread
+                queue.clear();
+                queue.offer(Event.DISCONNECT);
+            }
+        }
+
+        /**
+         * Sender loop: all writes to the client happen on this thread, since SseClient is not thread-safe.
+         */
+        void run() {
+            try {
+                while (true) {
+                    Event event = queue.take();
+                    if (event == Event.DISCONNECT) {
+                        break;
+                    }
+                    if (event == Event.HEARTBEAT) {
+                        client.sendComment("heartbeat");
+                    } else {
+                        // A failed write closes the client, whose onClose callback queues DISCONNECT
+                        client.sendEvent(event.type, new ByteArrayInputStream(event.data), String.valueOf(event.id));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            subscribers.remove(this);
+            client.close();
+        }
+    }
+}
@@ -2,13 +2,48 @@ package Controller;
 
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.sse.SseClient;
+import org.eclipse.jetty.server.Request;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import DAO.AccountRepository;
+import DAO.MessageRepository;
 import Model.Account;
+import Model.AccountStats;
 import Model.Message;
+import Model.MessageChange;
+import Model.RecordedResponse;
+import Model.VersionedMessage;
 import Service.AccountService;
+import Service.AccountStatsService;
+import Service.BulkImportService;
+import Service.FeedService;
+import Service.IdempotencyService;
 import Service.MessageService;
+import Service.PurgeService;
+import Service.TrendingService;
+import Util.BackgroundTasks;
+import Util.BatchLoader;
+import Util.ConcurrencyLimiter;
+import Util.Config;
+import Util.RateLimiter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -24,11 +59,63 @@ public class SocialMediaController {
     // Declaring accountService and messageService as class-level fields.
     private AccountService accountService;
     private MessageService messageService;
+    // Statistics of accounts' messages for GET /accounts/{account_id}/stats, cached in memory
+    private AccountStatsService accountStatsService;
+    // Follows and home feeds for POST /follow, POST /unfollow and GET /feed
+    private FeedService feedService;
+    // Removes soft-deleted messages in the background
+    private PurgeService purgeService;
+
+    // Shared ObjectMapper for request pre-processing that must stay cheap (rate limiting, ...)
+    private final ObjectMapper sharedMapper = new ObjectMapper();
+
+    // Rate limiters for the write routes, keyed by client IP and by posting account
+    private final boolean rateLimitEnabled = Config.getBoolean("ratelimit.enabled", true);
+    private final RateLimiter<String> registerIpLimiter = RateLimiter.fromConfig("ratelimit.register.ip", 1, 10);
+    private final RateLimiter<String> messagesIpLimiter = RateLimiter.fromConfig("ratelimit.messages.ip", 20, 40);
+    private final RateLimiter<Integer> messagesAccountLimiter = RateLimiter.fromConfig("ratelimit.messages.account", 5, 20);
+
+    // Adaptive limit on concurrently processed requests; critical routes may use its reserved share
+    private final boolean concurrencyLimitEnabled = Config.getBoolean("concurrency.enabled", true);
+    private final ConcurrencyLimiter concurrencyLimiter = ConcurrencyLimiter.fromConfig();
+    private final Set<String> criticalRoutes =
+            new HashSet<>(Arrays.asList(Config.get("concurrency.critical.routes", "/login").split(",")));
+
+    // Encoded messages, so list and single-message responses do not re-encode hot messages
+    private final MessageJsonCache messageJsonCache = new MessageJsonCache(sharedMapper,
+            Config.getInt("cache.json.messages", 100000));
+
+    // Live stream of message changes for GET /messages/stream
+    private final MessageStream messageStream = new MessageStream(
+            Config.getInt("stream.queue.capacity", 1024), Config.getInt("stream.replay.capacity", 1000));
+
+    // Responses to create requests sent with an Idempotency-Key header, replayed to retries
+    private final boolean idempotencyEnabled = Config.getBoolean("idempotency.enabled", true);
+    private final IdempotencyService idempotencyService = IdempotencyService.fromConfig();
+
+    // Bulk import for administrators; off unless explicitly enabled, since the API has no authentication yet
+    private final boolean adminImportEnabled = Config.getBoolean("admin.import.enabled", false);
+    private final BulkImportService bulkImportService;
+
+    // Periodic housekeeping tasks, cancelled when the server stops
+    private final List<ScheduledFuture<?>> backgroundTasks = new ArrayList<>();
 
     // Constructing a new SocialMediaController and initializes the AccountService and MessageService.
+    // The services share one account and one message storage, as in-memory engines hold their own state.
     public SocialMediaController() {
-        this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        AccountRepository accountRepository = AccountRepository.fromConfig();
+        MessageRepository messageRepository = MessageRepository.fromConfig();
+        this.accountService = new AccountService(accountRepository);
+        this.messageService = new MessageService(messageRepository, accountRepository);
+        this.messageService.addListener(messageStream);
+        this.messageService.addListener(messageJsonCache);
+        this.accountStatsService = new AccountStatsService(messageRepository, accountRepository,
+                Config.getInt("cache.account.stats", 10000));
+        this.messageService.addListener(accountStatsService);
+        this.feedService = FeedService.fromConfig(messageRepository, accountRepository);
+        this.messageService.addListener(feedService);
+        this.purgeService = PurgeService.fromConfig(messageRepository, concurrencyLimiter::getInFlight);
+        this.bulkImportService = new BulkImportService(messageRepository, accountRepository);
     }
 
     /**
@@ -39,24 +126,202 @@ public class SocialMediaController {
      */
     public Javalin startAPI() {
         Javalin app = Javalin.create();
+
+        // Request pipeline: shedding load and rejecting over-limit clients before any handler touches the database
+        if (concurrencyLimitEnabled) {
+            app.before(this::concurrencyLimitHandler);
+            app.after(this::concurrencyReleaseHandler);
+        }
+        if (rateLimitEnabled) {
+            app.before("/register", this::registerRateLimitHandler);
+            app.before("/messages", this::messagesRateLimitHandler);
+            backgroundTasks.add(BackgroundTasks.scheduleEvery("rate-limit-eviction", () -> {
+                registerIpLimiter.evictIdle();
+                messagesIpLimiter.evictIdle();
+                messagesAccountLimiter.evictIdle();
+            }, 60 * 1000L));
+        }
+        backgroundTasks.add(BackgroundTasks.scheduleEvery("message-stream-heartbeat", messageStream::heartbeat, 15 * 1000L));
+        if (idempotencyEnabled) {
+            backgroundTasks.add(BackgroundTasks.scheduleEvery("idempotency-eviction", idempotencyService::evictExpired, 60 * 1000L));
+        }
+        backgroundTasks.add(BackgroundTasks.scheduleEvery("account-stats-expiry", accountStatsService::clear,
+                Config.getLong("cache.account.stats.ttl.ms", 10 * 1000L)));
+        purgeService.start(Config.getLong("purge.interval.ms", 1000L));
+        app.events(event -> event.serverStopped(() -> {
+            backgroundTasks.forEach(task -> task.cancel(false));
+            messageStream.close();
+            messageService.close();
+            accountService.close();
+            feedService.close();
+            purgeService.close();
+        }));
         
         // Account-related routes
-        app.post("/register", this::registerAccountHandler);
+        app.post("/register", idempotent(this::registerAccountHandler));
         app.post("/login", this::postLoginHandler);
 
         // Message-related routes
+        // The stream, change and latest routes are registered before /messages/{message_id} so they are not taken for an ID
+        app.sse("/messages/stream", this::messageStreamHandler);
+        app.get("/messages/changes", this::getMessageChangesHandler);
+        app.get("/messages/latest", this::getLatestMessagesHandler);
         app.get("/messages", this::getAllMessagesHandler);
         app.get("/messages/{message_id}", this::getMessageByMessageIdHandler);
-        app.post("/messages", this::postMessageHandler);
+        app.post("/messages", idempotent(this::postMessageHandler));
         app.patch("/messages/{message_id}", this::updateMessageHandler);
         app.delete("/messages/{message_id}", this::deleteMessageHandler);
 
         // Account and message-related routes
         app.get("/accounts/{account_id}/messages", this::getAllMessagesByAccountIdHandler);
+        app.post("/accounts/messages:batchGet", this::batchGetAccountMessagesHandler);
+        app.get("/accounts/{account_id}/stats", this::getAccountStatsHandler);
+
+        // Follow and feed routes
+        app.post("/follow", ctx -> followHandler(ctx, true));
+        app.post("/unfollow", ctx -> followHandler(ctx, false));
+        app.get("/feed", this::getFeedHandler);
+
+        // Bulk export routes
+        app.get("/export/messages", this::exportMessagesHandler);
+        app.get("/export/accounts", this::exportAccountsHandler);
+
+        // Administration routes
+        if (adminImportEnabled) {
+            app.post("/admin/import/messages", this::importMessagesHandler);
+            app.post("/admin/import/accounts", this::importAccountsHandler);
+        }
+
+        // Analytics routes
+        app.get("/trending", this::getTrendingHandler);
+
+        // Operational routes
+        app.get("/metrics", this::getMetricsHandler);
 
         return app;
     }
 
+    /**
+     * Admits the request under the adaptive concurrency limit, or sheds it with 503 Service Unavailable.
+     * The metrics route is never limited so overload stays observable.
+     *
+     * @param ctx The Javalin Context object.
+     * @throws HttpResponseException If the server is at its limit; Javalin then skips the endpoint handler.
+     */
+    private void concurrencyLimitHandler(Context ctx) {
+        String path = ctx.path();
+        if (path.equals("/metrics") || path.equals("/messages/stream") || path.startsWith("/export/")
+                || path.startsWith("/admin/")) {
+            // Long-lived streams, exports and imports would hold a slot for their whole lifetime and skew the latency
+            return;
+        }
+        if (!concurrencyLimiter.tryAcquire(criticalRoutes.contains(path))) {
+            ctx.header("Retry-After", "1");
+            throw new HttpResponseException(503, "Server is overloaded.");
+        }
+        ctx.attribute("concurrency.start", System.nanoTime());
+    }
+
+    /**
+     * Releases the concurrency slot taken by concurrencyLimitHandler and reports the request latency.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void concurrencyReleaseHandler(Context ctx) {
+        Long start = ctx.attribute("concurrency.start");
+        if (start != null) {
+            concurrencyLimiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Rate limits POST /register by client IP.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void registerRateLimitHandler(Context ctx) {
+        if (ctx.method() == HandlerType.POST) {
+            enforceRateLimit(ctx, registerIpLimiter.tryAcquire(ctx.ip()));
+        }
+    }
+
+    /**
+     * Rate limits POST /messages by client IP. The limit by posting account is applied by postMessageHandler,
+     * once the body is parsed and the account is known to exist, so made-up account IDs get no bucket.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void messagesRateLimitHandler(Context ctx) {
+        if (ctx.method() == HandlerType.POST) {
+            enforceRateLimit(ctx, messagesIpLimiter.tryAcquire(ctx.ip()));
+        }
+    }
+
+    /**
+     * Ends the request with 429 Too Many Requests if the limiter asked the client to wait.
+     *
+     * @param ctx The Javalin Context object.
+     * @param retryAfterMillis The wait returned by the limiter, 0 if the request is allowed.
+     * @throws HttpResponseException If the request is over the limit; Javalin then skips the endpoint handler.
+     */
+    private void enforceRateLimit(Context ctx, long retryAfterMillis) {
+        if (retryAfterMillis > 0) {
+            // Retry-After is in whole seconds, rounded up so clients do not retry too early
+            ctx.header("Retry-After", String.valueOf((retryAfterMillis + 999) / 1000));
+            throw new HttpResponseException(429, "Too many requests.");
+        }
+    }
+
+    /**
+     * Makes a create route idempotent for requests with an Idempotency-Key header: the first request with a key
+     * runs the handler, and retries with the same key (and the same body) get its recorded status, content type
+     * and body, with an "Idempotent-Replayed: true" header, without running it again. A retry arriving while the
+     * first request runs waits for it. Reusing a key for a different body gets 422 (Unprocessable Entity); a key
+     * that is blank or longer than 255 characters gets 400 (Client error). Requests without the header are
+     * handled as usual.
+     *
+     * @param handler The route handler.
+     * @return The handler wrapped with the idempotency check.
+     */
+    private Handler idempotent(Handler handler) {
+        if (!idempotencyEnabled) {
+            return handler;
+        }
+        return ctx -> {
+            String key = ctx.header("Idempotency-Key");
+            if (key == null) {
+                handler.handle(ctx);
+                return;
+            }
+            if (key.isBlank() || key.length() > 255) {
+                ctx.status(400).result("");
+                return;
+            }
+            AtomicBoolean ran = new AtomicBoolean();
+            RecordedResponse response;
+            try {
+                response = idempotencyService.execute(ctx.method() + " " + ctx.path() + " " + key,
+                        IdempotencyService.fingerprint(ctx.header("Content-Type"), ctx.bodyAsBytes()), () -> {
+                            ran.set(true);
+                            handler.handle(ctx);
+                            InputStream result = ctx.resultInputStream();
+                            return new RecordedResponse(ctx.statusCode(), ctx.res().getContentType(),
+                                    result == null ? new byte[0] : result.readAllBytes());
+                        });
+            } catch (IllegalStateException e) {
+                ctx.status(422).result("");
+                return;
+            }
+            if (!ran.get()) {
+                ctx.header("Idempotent-Replayed", "true");
+            }
+            ctx.status(response.getStatus()).result(response.getBody());
+            if (response.getContent_type() != null) {
+                ctx.contentType(response.getContent_type());
+            }
+        };
+    }
+
     /**
      * Registers a new account using data from the request body.
      * Validates the account data, creates the account, and responds with account details.
@@ -70,13 +335,10 @@ public class SocialMediaController {
      * to the framework or a global error handler, ensuring clean and centralized error management.
      */
     private void registerAccountHandler(Context ctx) throws JsonProcessingException {
-        // Initializing ObjectMapper to handle JSON serialization and deserialization.
-        // Deserializing request body into Account object using Jackson ObjectMapper.
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            // Deserializing the JSON request body into an Account object.
+            // Deserializing the request body (JSON or a binary format) into an Account object.
             // The account data sent by the client (username, password) is mapped to the Account class.
-            Account account = mapper.readValue(ctx.body(), Account.class);  
+            Account account = readBody(ctx, Account.class);
 
             // Delegating account registration to the service layer.
             // Calling the service layer to register the account and persist it in the database.
@@ -89,12 +351,8 @@ public class SocialMediaController {
             response.put("username", addedAccount.getUsername());
             response.put("password", addedAccount.getPassword()); // Should be removed from the response
 
-            // Serializing the response object into a JSON string and 
-            // responding with the newly created account details.
-            String jsonResponse = mapper.writeValueAsString(response);
-
-            // Sending the serialized JSON response with status 200 and the account details.
-            ctx.status(200).json(jsonResponse);
+            // Sending the response with status 200 and the account details, in the format the client accepts.
+            respond(ctx.status(200), response);
             } catch (IllegalArgumentException e) {
                 // Handling validation failures and responding with 400 Bad Request
                 ctx.status(400).result(e.getMessage());
@@ -109,10 +367,11 @@ public class SocialMediaController {
      * If successful, returns the account details in the response.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws JsonProcessingException If the request body is malformed.
      */
-    private void postLoginHandler(Context ctx) {
+    private void postLoginHandler(Context ctx) throws JsonProcessingException {
         // Deserializing request body into Account object
-        Account credentials = ctx.bodyAsClass(Account.class);
+        Account credentials = readBody(ctx, Account.class);
 
         String username = credentials.getUsername();
         String password = credentials.getPassword();
@@ -128,10 +387,10 @@ public class SocialMediaController {
             response.put("password", account.getPassword()); // Needs to be removed as the response should contain only non-sensitive data
 
             // Sending successful response with account details
-            ctx.status(200).json(response);
+            respond(ctx.status(200), response);
         } catch (IllegalArgumentException e) {
             // Catching invalid credentials errors and send the error response
-            ctx.status(401).json(e.getMessage());
+            respond(ctx.status(401), e.getMessage());
         }
     }
 
@@ -143,17 +402,18 @@ public class SocialMediaController {
      * @throws JsonProcessingException If there is an issue with JSON parsing or serialization.
      */
     private void postMessageHandler(Context ctx) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            // Deserializing the JSON request body into an Message object.
+            // Deserializing the request body (JSON or a binary format) into an Message object.
             // The message data sent by the client (posted_by, message_text,time_posted_epoch) is mapped to the Message class.
-            Message message = mapper.readValue(ctx.body(), Message.class);
+            Message message = readBody(ctx, Message.class);
 
             // Delegating account registration to the service layer.
             // Calling the service layer to verify the message and persist it in the database.
-            Message addedMessage = messageService.postMessage(message);
+            // Rate limiting by the posting account once the message is valid, before it is persisted
+            Message addedMessage = messageService.postMessage(message, rateLimitEnabled
+                    ? postedBy -> enforceRateLimit(ctx, messagesAccountLimiter.tryAcquire(postedBy)) : null);
 
-            ctx.status(200).json(addedMessage);
+            respond(ctx.status(200), addedMessage);
             } catch (IllegalArgumentException e) {
                 // Handling validation failures and responding with 400 Bad Request
                 ctx.status(400).result(e.getMessage());
@@ -164,67 +424,340 @@ public class SocialMediaController {
         }
     
     /**
-     * Retrieves all messages in the system.
+     * Retrieves all messages in the system, only the messages listed in the "ids" query parameter, or those
+     * posted within a time range (see respondWithRange).
      * 
      * @param ctx The Javalin Context object.
+     * @throws IOException If writing to the client fails.
      */
-    private void getAllMessagesHandler(Context ctx) {
+    private void getAllMessagesHandler(Context ctx) throws IOException {
+        if (ctx.queryParam("ids") != null) {
+            getMessagesByIdsHandler(ctx);
+            return;
+        }
+        if (respondWithRange(ctx, null) || respondWithViews(ctx, null, null)) {
+            return;
+        }
         List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages);
+        writeMessages(ctx, messages);
+    }
+
+    /**
+     * Retrieves the messages listed in the "ids" query parameter (comma-separated, at most
+     * MessageService.MAX_BATCH_IDS) with a single lookup. The response holds "messages", in the order their IDs
+     * were listed, and "missing_ids", the listed IDs without a message. Invalid IDs get 400 (Client error).
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void getMessagesByIdsHandler(Context ctx) {
+        Map<Integer, Message> found;
+        try {
+            List<Integer> messageIds = new ArrayList<>();
+            for (String messageId : ctx.queryParam("ids").split(",")) {
+                messageIds.add(Integer.valueOf(messageId.trim()));
+            }
+            found = messageService.getMessagesByIds(messageIds);
+        } catch (IllegalArgumentException e) {
+            // Handling invalid (including non-numeric) IDs and responding with 400 Bad Request
+            ctx.status(400).result("");
+            return;
+        }
+
+        List<Message> messages = new ArrayList<>();
+        List<Integer> missingIds = new ArrayList<>();
+        for (Map.Entry<Integer, Message> entry : found.entrySet()) {
+            if (entry.getValue() != null) {
+                messages.add(entry.getValue());
+            } else {
+                missingIds.add(entry.getKey());
+            }
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("messages", messages);
+        response.put("missing_ids", missingIds);
+        respond(ctx, response);
+    }
+
+    /**
+     * Streams message creations, updates and deletions as Server-Sent Events.
+     * Optional query parameter posted_by limits the stream to one account. A reconnecting client resumes from the
+     * Last-Event-ID header (or the last_event_id query parameter).
+     *
+     * @param client The Javalin SSE client for the connection.
+     */
+    private void messageStreamHandler(SseClient client) {
+        Context ctx = client.ctx;
+        try {
+            String postedBy = ctx.queryParam("posted_by");
+            String lastEventId = ctx.header("Last-Event-ID");
+            if (lastEventId == null) {
+                lastEventId = ctx.queryParam("last_event_id");
+            }
+            messageStream.subscribe(client,
+                    postedBy == null ? null : Integer.valueOf(postedBy),
+                    lastEventId == null ? null : Long.valueOf(lastEventId));
+        } catch (NumberFormatException e) {
+            // Invalid filters end the stream immediately
+            client.close();
+        }
     }
 
     /**
-     * Retrieves a specific message by its ID.
+     * Retrieves the message changes after the "since" sequence number, for clients syncing incrementally.
+     * The response holds the changes (oldest first) and "next_since", the value to send as "since" next time.
+     * Query parameter "limit" caps the number of changes returned (default and maximum 1000); when a full page is
+     * returned, the client should ask again right away.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void getMessageChangesHandler(Context ctx) {
+        try {
+            String sinceParam = ctx.queryParam("since");
+            String limitParam = ctx.queryParam("limit");
+            long since = sinceParam == null ? 0 : Long.parseLong(sinceParam);
+            int limit = limitParam == null ? 1000 : Math.min(1000, Integer.parseInt(limitParam));
+
+            List<MessageChange> changes = messageService.getChangesSince(since, limit);
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("changes", changes);
+            response.put("next_since", changes.isEmpty() ? since : changes.get(changes.size() - 1).getChange_seq());
+            respond(ctx, response);
+        } catch (IllegalArgumentException e) {
+            // Handling invalid (including non-numeric) parameters and responding with 400 Bad Request
+            ctx.status(400).result("");
+        }
+    }
+
+    /**
+     * Retrieves the most recently posted messages, newest first. Query parameter "limit" sets how many
+     * (default 20, maximum 1000).
+     *
+     * @param ctx The Javalin Context object.
+     * @throws IOException If writing to the client fails.
+     */
+    private void getLatestMessagesHandler(Context ctx) throws IOException {
+        List<Message> messages;
+        try {
+            String limitParam = ctx.queryParam("limit");
+            int limit = limitParam == null ? 20 : Math.min(1000, Integer.parseInt(limitParam));
+            messages = messageService.getLatestMessages(limit);
+        } catch (IllegalArgumentException e) {
+            // Handling invalid (including non-numeric) parameters and responding with 400 Bad Request
+            ctx.status(400).result("");
+            return;
+        }
+        writeMessages(ctx, messages);
+    }
+
+    /**
+     * Retrieves a specific message by its ID. The ETag header carries the message's version, for conditional
+     * updates (If-Match).
      * 
      * @param ctx The Javalin Context object.
      */
     private void getMessageByMessageIdHandler(Context ctx) {
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
+        if (respondWithViews(ctx, null, messageId)) {
+            return;
+        }
         
-        Message message = messageService.getMessageById(messageId);
+        VersionedMessage versionedMessage = messageService.getVersionedMessageById(messageId);
     
-        if (message != null) {
-            ctx.json(message);
+        if (versionedMessage != null) {
+            Message message = versionedMessage.getMessage();
+            ctx.header("ETag", entityTag(versionedMessage.getVersion()));
+            if (responseFormat(ctx) == BodyFormat.JSON) {
+                ctx.contentType("application/json").result(messageJsonCache.toJson(message));
+            } else {
+                respond(ctx, message);
+            }
         } else {
             ctx.status(200).result("");
         }
     }
 
     /**
-     * Retrieves all messages posted by a specific user.
+     * Retrieves all messages posted by a specific user, or those posted within a time range (see
+     * respondWithRange).
      * 
      * @param ctx The Javalin Context object.
+     * @throws IOException If writing to the client fails.
      */
-    private void getAllMessagesByAccountIdHandler(Context ctx) {
+    private void getAllMessagesByAccountIdHandler(Context ctx) throws IOException {
         int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+        if (respondWithRange(ctx, accountId) || respondWithViews(ctx, accountId, null)) {
+            return;
+        }
         
         List<Message> messages = messageService.getMessagesByAccountId(accountId);
     
         if (messages != null) {
-            ctx.json(messages);
+            writeMessages(ctx, messages);
         } else {
             ctx.status(200).result("");
         }
     }
     
     /**
-     * Updates an existing message.
+     * Retrieves the statistics of an account's messages: post_count, total_chars, and first_post_epoch and
+     * last_post_epoch (null without messages). They are kept up to date with every message change, so this costs
+     * one lookup whatever the number of messages. An unknown account gets an empty body.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void getAccountStatsHandler(Context ctx) {
+        int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+        AccountStats stats = accountStatsService.getAccountStats(accountId);
+        if (stats != null) {
+            respond(ctx, stats);
+        } else {
+            ctx.status(200).result("");
+        }
+    }
+
+    /**
+     * Makes an account follow another, or stop following it. The request body holds "follower_id" and
+     * "followee_id", and is sent back on success. Following oneself, an unknown account or an account already
+     * followed, unfollowing an account not followed, and invalid bodies get 400 (Client error).
+     *
+     * @param ctx The Javalin Context object.
+     * @param follow True to follow, false to unfollow.
+     */
+    private void followHandler(Context ctx, boolean follow) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        try {
+            JsonNode body = readBody(ctx, JsonNode.class);
+            JsonNode followerNode = body == null ? null : body.get("follower_id");
+            JsonNode followeeNode = body == null ? null : body.get("followee_id");
+            if (followerNode == null || !followerNode.isIntegralNumber() || !followerNode.canConvertToInt()
+                    || followeeNode == null || !followeeNode.isIntegralNumber() || !followeeNode.canConvertToInt()) {
+                throw new IllegalArgumentException(""); // "follower_id and followee_id must be numbers."
+            }
+            if (follow) {
+                feedService.follow(followerNode.asInt(), followeeNode.asInt());
+            } else {
+                feedService.unfollow(followerNode.asInt(), followeeNode.asInt());
+            }
+            response.put("follower_id", followerNode.asInt());
+            response.put("followee_id", followeeNode.asInt());
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            // Handling malformed bodies and invalid follows and responding with 400 Bad Request
+            ctx.status(400).result("");
+            return;
+        }
+        respond(ctx, response);
+    }
+
+    /**
+     * Retrieves an account's home feed: the latest messages of the accounts it follows, newest first. The query
+     * holds "account_id" and optionally "limit" (default 20, maximum 100). Messages of accounts with many followers
+     * are read within a time budget; when they could not be, the response holds the other messages and a
+     * "Feed-Partial: true" header. A missing or unknown account and an invalid limit get 400 (Client error).
+     *
+     * @param ctx The Javalin Context object.
+     * @throws IOException If the response cannot be written.
+     */
+    private void getFeedHandler(Context ctx) throws IOException {
+        FeedService.Feed feed;
+        try {
+            int accountId = Integer.parseInt(Objects.requireNonNull(ctx.queryParam("account_id")));
+            String limit = ctx.queryParam("limit");
+            feed = feedService.getFeed(accountId, limit == null ? 20 : Math.min(100, Integer.parseInt(limit)));
+        } catch (NullPointerException | IllegalArgumentException e) {
+            // Handling missing and malformed parameters (NumberFormatException included) with 400 Bad Request
+            ctx.status(400).result("");
+            return;
+        }
+        if (feed == null) {
+            ctx.status(400).result("");
+            return;
+        }
+        if (!feed.isComplete()) {
+            ctx.header("Feed-Partial", "true");
+        }
+        writeMessages(ctx, feed.getMessages());
+    }
+
+    /**
+     * Retrieves the latest messages of several accounts in one call. The request body holds "account_ids" (at most
+     * MessageService.MAX_BATCH_IDS) and optionally "limit", the number of messages per account (default 20,
+     * maximum 1000). The response holds "timelines", one {"account_id", "messages"} per existing account in the
+     * order they were listed, with the messages newest first, and "missing_account_ids", the listed accounts that
+     * do not exist. An invalid body gets 400 (Client error).
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void batchGetAccountMessagesHandler(Context ctx) {
+        Map<Integer, List<Message>> found;
+        try {
+            JsonNode body = readBody(ctx, JsonNode.class);
+            JsonNode accountIdsNode = body == null ? null : body.get("account_ids");
+            JsonNode limitNode = body == null ? null : body.get("limit");
+            if (accountIdsNode == null || !accountIdsNode.isArray()
+                    || (limitNode != null && !limitNode.canConvertToInt())) {
+                throw new IllegalArgumentException(""); // "account_ids must be a list and limit a number."
+            }
+            List<Integer> accountIds = new ArrayList<>();
+            for (JsonNode accountId : accountIdsNode) {
+                if (!accountId.isIntegralNumber() || !accountId.canConvertToInt()) {
+                    throw new IllegalArgumentException(""); // "Account IDs must be numbers."
+                }
+                accountIds.add(accountId.asInt());
+            }
+            int limit = limitNode == null ? 20 : Math.min(1000, limitNode.asInt());
+            found = messageService.getTimelines(accountIds, limit);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            // Handling malformed bodies and invalid parameters and responding with 400 Bad Request
+            ctx.status(400).result("");
+            return;
+        }
+
+        List<Map<String, Object>> timelines = new ArrayList<>();
+        List<Integer> missingAccountIds = new ArrayList<>();
+        for (Map.Entry<Integer, List<Message>> entry : found.entrySet()) {
+            if (entry.getValue() != null) {
+                Map<String, Object> timeline = new LinkedHashMap<>();
+                timeline.put("account_id", entry.getKey());
+                timeline.put("messages", entry.getValue());
+                timelines.add(timeline);
+            } else {
+                missingAccountIds.add(entry.getKey());
+            }
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("timelines", timelines);
+        response.put("missing_account_ids", missingAccountIds);
+        respond(ctx, response);
+    }
+
+    /**
+     * Updates an existing message. With an If-Match header holding the ETag the client read, the update only
+     * happens if the message is still at that version; otherwise the response status is 412 (Precondition
+     * Failed) and the client should read the message again. The response's ETag carries the new version.
      * 
      * @param ctx The Javalin Context object.
-     * @throws JsonProcessingException If there is an issue with JSON parsing or serialization.
      */
     private void updateMessageHandler(Context ctx) {
         int messageId = Integer.parseInt(ctx.pathParam("message_id")); // Getting the message_id from the URL path
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            // Deserializing the JSON request body into an Message object.
+            // Deserializing the request body (JSON or a binary format) into an Message object.
             // The message data sent by the client (posted_by, message_text,time_posted_epoch) is mapped to the Message class.
-            Message message = mapper.readValue(ctx.body(), Message.class);
+            Message message = readBody(ctx, Message.class);
 
-            // Calling the service layer to update the message
-            Message updatedMessage = messageService.updateMessage(messageId, message);
+            // Calling the service layer to update the message, if it is at a version the client expects
+            String ifMatch = ctx.header("If-Match");
+            Long expectedVersion = null;
+            if (ifMatch != null && !ifMatch.trim().equals("*")) {
+                expectedVersion = matchingVersion(ifMatch, messageId);
+            }
+            VersionedMessage updatedMessage = messageService.updateMessage(messageId, message, expectedVersion);
 
-            ctx.status(200).json(updatedMessage);
+            ctx.header("ETag", entityTag(updatedMessage.getVersion()));
+            respond(ctx.status(200), updatedMessage.getMessage());
+            } catch (ConcurrentModificationException e) {
+                // Handling a message changed since the client read it, and responding with 412 Precondition Failed
+                ctx.status(412).result("");
             } catch (IllegalArgumentException e) {
                 // Handling validation failures and responding with 400 Bad Request
                 ctx.status(400).result(e.getMessage());
@@ -233,6 +766,49 @@ public class SocialMediaController {
                 ctx.status(400).result("Invalid JSON format in request body.");
             }
         }
+
+    /**
+     * @param version A message version.
+     * @return The ETag header value for it (a strong entity tag).
+     */
+    private static String entityTag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Picks the version an update must expect from an If-Match header. A single entity tag is checked by the
+     * conditional update itself; with several, the current version is read and must be one of them.
+     *
+     * @param ifMatch The If-Match header, a comma-separated list of entity tags.
+     * @param messageId The message being updated.
+     * @return The version to expect.
+     * @throws ConcurrentModificationException If no tag can match the message (weak or unknown tags never do).
+     */
+    private Long matchingVersion(String ifMatch, int messageId) throws ConcurrentModificationException {
+        Set<Long> versions = new HashSet<>();
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                try {
+                    versions.add(Long.parseLong(tag.substring(1, tag.length() - 1)));
+                } catch (NumberFormatException e) {
+                    // Not one of our tags, so it cannot match
+                }
+            }
+        }
+        if (versions.isEmpty()) {
+            throw new ConcurrentModificationException("If-Match holds no tag of this server.");
+        }
+        VersionedMessage current = versions.size() == 1 ? null : messageService.getVersionedMessageById(messageId);
+        if (current == null) {
+            // The update checks a single tag itself, and reports a missing message
+            return versions.iterator().next();
+        }
+        if (!versions.contains(current.getVersion())) {
+            throw new ConcurrentModificationException("If-Match does not match the message.");
+        }
+        return current.getVersion();
+    }
     
     /**
      * Deletes a message by its ID.
@@ -247,10 +823,401 @@ public class SocialMediaController {
 
         if (deletedMessage != null) {
             // If the message existed and was deleted, return it in the response
-            ctx.status(200).json(deletedMessage);
+            respond(ctx.status(200), deletedMessage);
         } else {
             // If the message did not exist, return an empty body with a 200 status
             ctx.status(200).result("");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the trending hashtags and the most active posters over the last hour.
+     * Both lists are precomputed as messages are posted, so this handler does no database work.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void getTrendingHandler(Context ctx) {
+        TrendingService trendingService = messageService.getTrendingService();
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("hashtags", trendingService.getTrendingHashtags());
+        response.put("posters", trendingService.getMostActivePosters());
+
+        respond(ctx, response);
+    }
+
+    /**
+     * Reports the state of the load-protection components as JSON.
+     *
+     * @param ctx The Javalin Context object.
+     */
+    private void getMetricsHandler(Context ctx) {
+        Map<String, Object> concurrency = new LinkedHashMap<>();
+        concurrency.put("limit", concurrencyLimiter.getLimit());
+        concurrency.put("in_flight", concurrencyLimiter.getInFlight());
+        concurrency.put("shed", concurrencyLimiter.getShedCount());
+
+        Map<String, Object> rateLimit = new LinkedHashMap<>();
+        rateLimit.put("rejected", registerIpLimiter.getRejectedCount()
+                + messagesIpLimiter.getRejectedCount() + messagesAccountLimiter.getRejectedCount());
+        rateLimit.put("tracked_keys", registerIpLimiter.size() + messagesIpLimiter.size() + messagesAccountLimiter.size());
+
+        Map<String, Object> stream = new LinkedHashMap<>();
+        stream.put("subscribers", messageStream.getSubscriberCount());
+
+        Map<String, Object> jsonCache = new LinkedHashMap<>();
+        jsonCache.put("entries", messageJsonCache.size());
+        jsonCache.put("hits", messageJsonCache.getHitCount());
+        jsonCache.put("misses", messageJsonCache.getMissCount());
+
+        Map<String, Object> loader = new LinkedHashMap<>();
+        BatchLoader<Integer, VersionedMessage> messageLoader = messageService.getMessageLoader();
+        loader.put("batches", messageLoader == null ? 0 : messageLoader.getBatchCount());
+        loader.put("keys", messageLoader == null ? 0 : messageLoader.getKeyCount());
+        loader.put("coalesced", messageLoader == null ? 0 : messageLoader.getCoalescedCount());
+
+        Map<String, Object> idempotency = new LinkedHashMap<>();
+        idempotency.put("keys", idempotencyService.size());
+        idempotency.put("replays", idempotencyService.getReplayCount());
+
+        Map<String, Object> accountStats = new LinkedHashMap<>();
+        accountStats.put("entries", accountStatsService.size());
+        accountStats.put("hits", accountStatsService.getHitCount());
+        accountStats.put("misses", accountStatsService.getMissCount());
+
+        Map<String, Object> feed = new LinkedHashMap<>();
+        feed.put("buffers", feedService.size());
+        feed.put("pushes", feedService.getPushCount());
+        feed.put("pulls", feedService.getPullCount());
+        feed.put("partial", feedService.getIncompleteCount());
+
+        Map<String, Object> purge = new LinkedHashMap<>();
+        purge.put("purged", purgeService.getPurgedCount());
+        purge.put("batches", purgeService.getBatchCount());
+        purge.put("deferred", purgeService.getDeferredCount());
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("concurrency", concurrency);
+        response.put("rate_limit", rateLimit);
+        response.put("stream", stream);
+        response.put("json_cache", jsonCache);
+        response.put("message_loader", loader);
+        response.put("idempotency", idempotency);
+        response.put("account_stats", accountStats);
+        response.put("feed", feed);
+        response.put("purge", purge);
+
+        respond(ctx, response);
+    }
+
+    /**
+     * Exports messages as newline-delimited JSON (one message per line), streamed straight from a database cursor
+     * so memory use stays constant. Writes block while the client is not reading, which holds the cursor back.
+     * Optional query parameters: from and to (inclusive time_posted_epoch bounds), posted_by, and after_id to
+     * resume after the last message received. The output is gzip-compressed if the client accepts gzip.
+     *
+     * @param ctx The Javalin Context object.
+     * @throws IOException If writing to the client fails.
+     */
+    private void exportMessagesHandler(Context ctx) throws IOException {
+        Long fromEpoch;
+        Long toEpoch;
+        Integer postedBy;
+        Integer afterId;
+        try {
+            fromEpoch = ctx.queryParam("from") == null ? null : Long.valueOf(ctx.queryParam("from"));
+            toEpoch = ctx.queryParam("to") == null ? null : Long.valueOf(ctx.queryParam("to"));
+            postedBy = ctx.queryParam("posted_by") == null ? null : Integer.valueOf(ctx.queryParam("posted_by"));
+            afterId = ctx.queryParam("after_id") == null ? null : Integer.valueOf(ctx.queryParam("after_id"));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result("");
+            return;
+        }
+
+        OutputStream out = openExportStream(ctx);
+        JsonGenerator generator = createNdjsonGenerator(out);
+        try {
+            messageService.exportMessages(fromEpoch, toEpoch, postedBy, afterId, message -> {
+                generator.writeObject(message);
+                generator.writeRaw('\n');
+            });
+        } catch (IOException e) {
+            abortExport(ctx, e);
+            return;
+        }
+        generator.close();
+        out.close();
+    }
+
+    /**
+     * Exports accounts (account_id and username, never the password) as newline-delimited JSON, streamed straight
+     * from a database cursor. Optional query parameter after_id resumes after the last account received.
+     * The output is gzip-compressed if the client accepts gzip.
+     *
+     * @param ctx The Javalin Context object.
+     * @throws IOException If writing to the client fails.
+     */
+    private void exportAccountsHandler(Context ctx) throws IOException {
+        Integer afterId;
+        try {
+            afterId = ctx.queryParam("after_id") == null ? null : Integer.valueOf(ctx.queryParam("after_id"));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result("");
+            return;
+        }
+
+        OutputStream out = openExportStream(ctx);
+        JsonGenerator generator = createNdjsonGenerator(out);
+        try {
+            accountService.exportAccounts(afterId, account -> {
+                generator.writeStartObject();
+                generator.writeNumberField("account_id", account.getAccount_id());
+                generator.writeStringField("username", account.getUsername());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            });
+        } catch (IOException e) {
+            abortExport(ctx, e);
+            return;
+        }
+        generator.close();
+        out.close();
+    }
+
+    /**
+     * Handles the optional "from" and "to" (inclusive time_posted_epoch bounds), "order" ("asc", the default, or
+     * "desc" for the newest first) and "limit" (default and maximum 1000) query parameters of the message list
+     * endpoints. Invalid parameters, or combining them with "fields" or "expand", get 400 (Client error).
+     *
+     * @param ctx The Javalin Context object.
+     * @param accountId The account of GET /accounts/{account_id}/messages, or null.
+     * @return True if the response was written; false if none of the parameters is present.
+     * @throws IOException If writing to the client fails.
+     */
+    private boolean respondWithRange(Context ctx, Integer accountId) throws IOException {
+        String from = ctx.queryParam("from");
+        String to = ctx.queryParam("to");
+        String order = ctx.queryParam("order");
+        String limit = ctx.queryParam("limit");
+        if (from == null && to == null && order == null && limit == null) {
+            return false;
+        }
+        List<Message> messages;
+        try {
+            if (ctx.queryParam("fields") != null || ctx.queryParam("expand") != null) {
+                throw new IllegalArgumentException("Time ranges do not support fields or expand.");
+            }
+            messages = messageService.getMessagesInRange(accountId,
+                    from == null ? null : Long.valueOf(from),
+                    to == null ? null : Long.valueOf(to),
+                    order == null ? "asc" : order,
+                    limit == null ? 1000 : Math.min(1000, Integer.parseInt(limit)));
+        } catch (IllegalArgumentException e) {
+            // Handling invalid (including non-numeric) parameters and responding with 400 Bad Request
+            ctx.status(400).result("");
+            return true;
+        }
+        writeMessages(ctx, messages);
+        return true;
+    }
+
+    /**
+     * Handles the optional "fields" (comma-separated message fields to include) and "expand=author" (embed the
+     * author's account_id and username) query parameters of the message read endpoints. Invalid parameters get
+     * 400 (Client error).
+     *
+     * @param ctx The Javalin Context object.
+     * @param accountId The account of GET /accounts/{account_id}/messages, or null.
+     * @param messageId The message of GET /messages/{message_id}, or null.
+     * @return True if the response was written; false if neither parameter is present.
+     */
+    private boolean respondWithViews(Context ctx, Integer accountId, Integer messageId) {
+        String fields = ctx.queryParam("fields");
+        String expand = ctx.queryParam("expand");
+        if (fields == null && expand == null) {
+            return false;
+        }
+        try {
+            List<Map<String, Object>> views = messageService.getMessageViews(fields, expand, accountId, messageId);
+            if (messageId == null) {
+                respond(ctx, views);
+            } else if (!views.isEmpty()) {
+                respond(ctx, views.get(0));
+            } else {
+                ctx.status(200).result("");
+            }
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result("");
+        }
+        return true;
+    }
+
+    /**
+     * Writes a JSON array of messages directly to the servlet stream, from the encodings kept by the message
+     * JSON cache, without building the response in memory first. Clients accepting a binary format get it
+     * encoded by that format's mapper instead.
+     *
+     * @param ctx The Javalin Context object.
+     * @param messages The messages to send, in order.
+     * @throws IOException If writing to the client fails.
+     */
+    private void writeMessages(Context ctx, List<Message> messages) throws IOException {
+        if (responseFormat(ctx) != BodyFormat.JSON) {
+            respond(ctx, messages);
+            return;
+        }
+        ctx.header("Vary", "Accept");
+        ctx.res().setContentType("application/json");
+        OutputStream out = ctx.res().getOutputStream();
+        messageJsonCache.writeList(messages, out);
+        out.close();
+    }
+
+    /**
+     * @param ctx The Javalin Context object.
+     * @return The format of the request body, from its Content-Type (JSON by default).
+     */
+    private BodyFormat requestFormat(Context ctx) {
+        return BodyFormat.ofContentType(ctx.contentType());
+    }
+
+    /**
+     * @param ctx The Javalin Context object.
+     * @return The format the client accepts for the response body (JSON by default).
+     */
+    private BodyFormat responseFormat(Context ctx) {
+        return BodyFormat.ofAccept(ctx.header("Accept"));
+    }
+
+    /**
+     * Reads the request body in the format named by its Content-Type.
+     *
+     * @param ctx The Javalin Context object.
+     * @param type The class to bind the body to.
+     * @return The bound body.
+     * @throws JsonProcessingException If the body is malformed, in any format.
+     */
+    private <T> T readBody(Context ctx, Class<T> type) throws JsonProcessingException {
+        try {
+            return requestFormat(ctx).getMapper().readValue(ctx.bodyAsBytes(), type);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // The MessagePack reader reports truncated input with its own exceptions
+            throw new JsonParseException(null, "Malformed request body: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a response body in the format the client accepts. JSON goes through Javalin as before, so a String
+     * is sent as it is; the binary formats encode the value with the same bindings.
+     *
+     * @param ctx The Javalin Context object, with the status already set.
+     * @param body The value to send.
+     */
+    private void respond(Context ctx, Object body) {
+        BodyFormat format = responseFormat(ctx);
+        ctx.header("Vary", "Accept");
+        if (format == BodyFormat.JSON) {
+            ctx.json(body);
+            return;
+        }
+        try {
+            ctx.contentType(format.getMediaType()).result(format.getMapper().writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            // Not expected for the API's response types, which all have Jackson bindings
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts an NDJSON response written directly to the servlet stream, bypassing Javalin's buffered result,
+     * and wraps it in gzip if the client's Accept-Encoding allows it.
+     *
+     * @param ctx The Javalin Context object.
+     * @return The stream to write the export to; closing it completes the response.
+     * @throws IOException If the response stream cannot be opened.
+     */
+    private OutputStream openExportStream(Context ctx) throws IOException {
+        ctx.res().setContentType("application/x-ndjson");
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ctx.res().setHeader("Content-Encoding", "gzip");
+            return new GZIPOutputStream(ctx.res().getOutputStream(), 64 * 1024);
+        }
+        return ctx.res().getOutputStream();
+    }
+
+    /**
+     * Ends a failed export by dropping the connection. The 200 status and part of the body may already be sent,
+     * and a regularly ended body would look complete; without its final chunk the client sees the transfer fail
+     * and can resume with after_id.
+     *
+     * @param ctx The Javalin Context object.
+     * @param cause Why the export failed.
+     */
+    private void abortExport(Context ctx, IOException cause) {
+        System.out.println(cause.getMessage());
+        Request.getBaseRequest(ctx.req()).getHttpChannel().abort(cause);
+    }
+
+    /**
+     * Creates a JSON generator that writes one root value per line.
+     *
+     * @param out The stream to write to.
+     * @return A generator that does not close the stream on its own.
+     * @throws IOException If the generator cannot be created.
+     */
+    private JsonGenerator createNdjsonGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = sharedMapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+
+    /**
+     * Bulk imports messages from the request body (NDJSON, or CSV if the Content-Type mentions csv).
+     * Optional query parameter "skip" resumes after the given number of input lines, as reported by a failed attempt.
+     *
+     * @param ctx The Javalin Context object.
+     * @throws IOException If the request body cannot be read.
+     */
+    private void importMessagesHandler(Context ctx) throws IOException {
+        importHandler(ctx, false);
+    }
+
+    /**
+     * Bulk imports accounts from the request body (NDJSON, or CSV if the Content-Type mentions csv).
+     * Optional query parameter "skip" resumes after the given number of input lines, as reported by a failed attempt.
+     *
+     * @param ctx The Javalin Context object.
+     * @throws IOException If the request body cannot be read.
+     */
+    private void importAccountsHandler(Context ctx) throws IOException {
+        importHandler(ctx, true);
+    }
+
+    private void importHandler(Context ctx, boolean accounts) throws IOException {
+        long skip;
+        try {
+            skip = ctx.queryParam("skip") == null ? 0 : Long.parseLong(ctx.queryParam("skip"));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result("");
+            return;
+        }
+        String contentType = ctx.contentType();
+        BulkImportService.Format format = contentType != null && contentType.contains("csv")
+                ? BulkImportService.Format.CSV : BulkImportService.Format.NDJSON;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ctx.bodyInputStream(), StandardCharsets.UTF_8));
+
+        try {
+            BulkImportService.ImportResult result = accounts
+                    ? bulkImportService.importAccounts(reader, format, skip, null, null)
+                    : bulkImportService.importMessages(reader, format, skip, null, null);
+            respond(ctx, result);
+        } catch (IOException e) {
+            // Loading stopped part-way; everything before the reported line is committed
+            ctx.status(500).result(e.getMessage());
+        }
+    }
+}
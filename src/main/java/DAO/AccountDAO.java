@@ -1,42 +1,51 @@
 package DAO;
 
 import Model.Account;
+import Util.Config;
 import Util.ConnectionUtil;
 
+import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class AccountDAO {
+public class AccountDAO implements AccountRepository {
+    // Hands out the IDs of new accounts from blocks of account_id_seq
+    private final IdBlockAllocator accountIds = new IdBlockAllocator("account_id_seq", Config.getInt("ids.block.size", 20));
 
     /**
-     * Inserts a new account into the database and returns the created account with its generated ID.
+     * Inserts a new account into the database and returns the created account with its new ID. The ID comes from
+     * a block reserved from account_id_seq (see IdBlockAllocator).
      *
      * @param account The account object containing the username and password to insert.
-     * @return A new Account object with the generated account ID, or null if the insertion fails.
+     * @return A new Account object with the new account ID, or null if the insertion fails.
      */
     public Account insertAccount(Account account){
         Connection connection = null;
         PreparedStatement preparedStatement = null;
-        ResultSet pkeyResultSet = null; 
         try {
             // Establishing a connection to the database
             connection = ConnectionUtil.getConnection();
-            String sql = "INSERT INTO account (username, password) Values(?, ?)";
-            preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            // Taking the ID from the reserved block, so the insert needs no generated keys
+            int account_id = accountIds.next(connection);
+            String sql = "INSERT INTO account (account_id, username, password) Values(?, ?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
 
-            // Setting the values for username and password
-            preparedStatement.setString(1, account.getUsername());
-            preparedStatement.setString(2, account.getPassword());
+            // Setting the values for account_id, username and password
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setString(2, account.getUsername());
+            preparedStatement.setString(3, account.getPassword());
             
             // Executing the SQL statement
             preparedStatement.executeUpdate();
 
-            // Retrieving the auto-generated account ID
-            pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if (pkeyResultSet.next()) {
-                int generated_account_id = (int) pkeyResultSet.getInt(1);
-                // Returning the account with its newly generated ID
-                return new Account(generated_account_id, account.getUsername(), account.getPassword());
-            }
+            // Returning the account with its new ID
+            return new Account(account_id, account.getUsername(), account.getPassword());
         } catch (SQLException e) {
             // Logging the exception message for debugging purposes
             System.out.println(e.getMessage());
@@ -46,7 +55,6 @@ public class AccountDAO {
             // 1. Return the connection to the pool for reuse, avoiding connection pool exhaustion.
             // 2. Prevent resource leaks that can lead to memory and database issues.
             try {
-                if (pkeyResultSet != null) pkeyResultSet.close();
                 if (preparedStatement != null) preparedStatement.close();
                 if (connection != null) connection.close(); // Returning the connection to the pool
             } catch (SQLException e) {
@@ -143,4 +151,233 @@ public class AccountDAO {
         }
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streams accounts, in account_id order, to a callback without holding them in memory. Passwords are not
+     * read, so the streamed Account objects have a null password.
+     *
+     * @param afterId Only accounts with a larger account_id (null for all), to resume an interrupted export.
+     * @param callback Receives each account.
+     * @return The number of accounts streamed.
+     * @throws IOException If the callback or the query failed; the stream is abandoned.
+     */
+    public long streamAccounts(Integer afterId, RowCallback<Account> callback) throws IOException {
+        Connection connection = null;
+        Statement lazyStatement = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        long count = 0;
+        try {
+            connection = ConnectionUtil.getConnection();
+            // Letting H2 compute rows on demand instead of materializing the whole result first
+            lazyStatement = connection.createStatement();
+            lazyStatement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+
+            String sql = "SELECT account_id, username FROM account WHERE account_id > ? ORDER BY account_id";
+            preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(MessageDAO.STREAM_FETCH_SIZE);
+            preparedStatement.setInt(1, afterId == null ? Integer.MIN_VALUE : afterId);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                callback.accept(new Account(resultSet.getInt("account_id"), resultSet.getString("username"), null));
+                count++;
+            }
+        } catch (SQLException e) {
+            // Failing the stream rather than ending it early, so a truncated export is not taken for a complete one
+            throw new IOException(e);
+        } finally {
+            // Ensuring that resources (ResultSet, Statements, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (lazyStatement != null) lazyStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Inserts many accounts in one transaction using a JDBC batch, which is far faster than one insert per account.
+     * Either all accounts are inserted or none are.
+     *
+     * @param accounts The accounts to insert; their account_id is ignored.
+     * @return The number of accounts inserted, or 0 if the batch failed and was rolled back.
+     */
+    public int insertAccountsBatch(List<Account> accounts) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            String sql = "INSERT INTO account (username, password) Values(?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
+            for (Account account : accounts) {
+                preparedStatement.setString(1, account.getUsername());
+                preparedStatement.setString(2, account.getPassword());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            connection.commit();
+            return accounts.size();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException rollbackException) {
+                System.out.println(rollbackException.getMessage());
+            }
+        } finally {
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Finds which of the given usernames are already taken, in a single query.
+     *
+     * @param usernames The usernames to look up.
+     * @return The subset of usernames that exist in the database.
+     */
+    public Set<String> getExistingUsernames(Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "SELECT username FROM account WHERE username = ANY(?)";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("VARCHAR", usernames.toArray()));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                existing.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Finds which of the given account IDs exist, in a single query.
+     *
+     * @param accountIds The account IDs to look up.
+     * @return The subset of account IDs that exist in the database.
+     */
+    public Set<Integer> getExistingAccountIds(Collection<Integer> accountIds) {
+        Set<Integer> existing = new HashSet<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", accountIds.toArray()));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                existing.add(resultSet.getInt(1));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Retrieves the usernames of many accounts with a single query. Passwords are not read.
+     *
+     * @param accountIds The account IDs to look up.
+     * @return The username of each account that exists, by account_id.
+     */
+    public Map<Integer, String> getUsernamesByIds(Collection<Integer> accountIds) {
+        Map<Integer, String> found = new HashMap<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "SELECT account_id, username FROM account WHERE account_id = ANY(?)";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", accountIds.toArray()));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                found.put(resultSet.getInt(1), resultSet.getString(2));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Retrieves all accounts, including their passwords, in account_id order. Used to load the in-memory
+     * storage engine.
+     *
+     * @return A list of all accounts, or an empty list if there are none.
+     */
+    public List<Account> getAllAccounts() {
+        List<Account> accounts = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "SELECT * FROM account ORDER BY account_id";
+            preparedStatement = connection.prepareStatement(sql);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                accounts.add(new Account(resultSet.getInt("account_id"), resultSet.getString("username"),
+                        resultSet.getString("password")));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return accounts;
+    }
+}
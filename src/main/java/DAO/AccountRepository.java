@@ -0,0 +1,96 @@
+package DAO;
+
+import Model.Account;
+import Util.Config;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The storage operations the services need for accounts, implemented by each storage engine:
+ * - AccountDAO keeps accounts in the H2 database (used by the "h2" and "log" engines).
+ * - InMemoryAccountStore serves them from process memory, writing through to H2 (the "memory" engine).
+ *
+ * Implementations follow AccountDAO's conventions: lookups return null when nothing is found, and failed writes
+ * return null (or 0 for batches). Usernames are unique.
+ */
+public interface AccountRepository {
+
+    /**
+     * Creates the repository for the "storage.engine" setting. The in-memory store starts with the accounts
+     * currently in H2 and follows their changes from then on.
+     *
+     * @return A new repository; close() must be called when it is no longer used.
+     */
+    static AccountRepository fromConfig() {
+        if ("memory".equals(Config.get("storage.engine", "h2"))) {
+            return InMemoryAccountStore.loadFrom(new AccountDAO());
+        }
+        return new AccountDAO();
+    }
+
+    /**
+     * @param account The account to store; its account_id is ignored.
+     * @return The stored account with its generated ID, or null if the insert failed (e.g. the username is taken).
+     */
+    Account insertAccount(Account account);
+
+    /**
+     * @param username The username to look up.
+     * @return The account, including its password, or null if there is none.
+     */
+    Account getAccountByUserName(String username);
+
+    /**
+     * @param accountId The account ID to check.
+     * @return True if the account exists.
+     */
+    boolean accountExistsById(int accountId);
+
+    /**
+     * Streams accounts in account_id order, without their passwords.
+     *
+     * @param afterId Only accounts with a larger account_id (null for all).
+     * @param callback Receives each account.
+     * @return The number of accounts streamed.
+     * @throws IOException If the callback or the storage failed; the stream is abandoned.
+     */
+    long streamAccounts(Integer afterId, RowCallback<Account> callback) throws IOException;
+
+    /**
+     * Stores many accounts at once; either all are stored or none are.
+     *
+     * @param accounts The accounts to store; their account_id is ignored.
+     * @return The number of accounts stored, or 0 if the batch failed.
+     */
+    int insertAccountsBatch(List<Account> accounts);
+
+    /**
+     * @param usernames The usernames to look up.
+     * @return The subset of usernames that are taken.
+     */
+    Set<String> getExistingUsernames(Collection<String> usernames);
+
+    /**
+     * @param accountIds The account IDs to look up.
+     * @return The subset of IDs that exist.
+     */
+    Set<Integer> getExistingAccountIds(Collection<Integer> accountIds);
+
+    /**
+     * Looks up the usernames of many accounts in one round trip, e.g. to embed the authors of a page of messages.
+     *
+     * @param accountIds The account IDs to look up.
+     * @return The username of each account that exists, by account_id.
+     */
+    Map<Integer, String> getUsernamesByIds(Collection<Integer> accountIds);
+
+    /**
+     * Releases what the repository holds. Nothing to do for H2, whose connections are opened per call.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,31 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Hands out the change_seq values of the change log. Clients sync from GET /messages/changes by remembering the
+ * last change_seq they saw, so an entry must never become visible after an entry with a larger change_seq: it
+ * would be behind every cursor already past it and be missed for good. A clock therefore orders commits as well
+ * as numbering them. A transaction reserves its values as its last write before committing, and the clock holds
+ * off every other reservation until that transaction has committed or rolled back.
+ */
+public interface ChangeClock {
+    /**
+     * Reserves consecutive change_seq values for the ongoing transaction. Call it as the last write before the
+     * commit, as other writers wait from here until release().
+     *
+     * @param connection The connection of the ongoing transaction.
+     * @param count The number of values to reserve.
+     * @return The first reserved value.
+     * @throws SQLException If the values cannot be reserved; the caller rolls back.
+     */
+    long reserve(Connection connection, int count) throws SQLException;
+
+    /**
+     * Lets other transactions reserve values again, once the transaction that reserved has committed or rolled
+     * back. Does nothing if the calling thread holds no reservation.
+     */
+    default void release() {
+    }
+}
@@ -0,0 +1,160 @@
+package DAO;
+
+import Util.ConnectionUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps who follows whom in the 'follow' table. Its primary key (follower_id, followee_id) lists the accounts a
+ * user follows, and the follow_followee_idx index (followee_id, follower_id) lists the followers of an account.
+ * There is no foreign key to account, as accounts may live in another engine; FeedService checks them.
+ */
+public class FollowDAO {
+
+    /**
+     * Records that an account follows another.
+     *
+     * @param follower_id The account following.
+     * @param followee_id The account followed.
+     * @return True if recorded; false if it already followed it (or the insert failed).
+     */
+    public boolean insertFollow(int follower_id, int followee_id) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "INSERT INTO follow (follower_id, followee_id, created_at) Values(?, ?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followee_id);
+            preparedStatement.setLong(3, System.currentTimeMillis());
+            return preparedStatement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a follow.
+     *
+     * @param follower_id The account following.
+     * @param followee_id The account followed.
+     * @return True if removed; false if it did not follow it (or the delete failed).
+     */
+    public boolean deleteFollow(int follower_id, int followee_id) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "DELETE FROM follow WHERE follower_id = ? AND followee_id = ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followee_id);
+            return preparedStatement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param follower_id The account following.
+     * @return The accounts it follows, from the primary key, or an empty list.
+     */
+    public List<Integer> getFolloweeIds(int follower_id) {
+        return queryIds("SELECT followee_id FROM follow WHERE follower_id = ?", follower_id);
+    }
+
+    /**
+     * @param followee_id The account followed.
+     * @return Its followers, from the follow_followee_idx index, or an empty list.
+     */
+    public List<Integer> getFollowerIds(int followee_id) {
+        return queryIds("SELECT follower_id FROM follow WHERE followee_id = ?", followee_id);
+    }
+
+    /**
+     * Counts the followers of every followed account, with one pass over the follow_followee_idx index.
+     *
+     * @return The number of followers of each account that has any.
+     */
+    public Map<Integer, Integer> getFollowerCounts() {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        Map<Integer, Integer> counts = new HashMap<>();
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "SELECT followee_id, COUNT(*) FROM follow GROUP BY followee_id";
+            preparedStatement = connection.prepareStatement(sql);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                counts.put(resultSet.getInt(1), resultSet.getInt(2));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return counts;
+    }
+
+    private List<Integer> queryIds(String sql, int account_id) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<Integer> ids = new ArrayList<>();
+        try {
+            connection = ConnectionUtil.getConnection();
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, account_id);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return ids;
+    }
+}
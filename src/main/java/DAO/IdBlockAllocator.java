@@ -0,0 +1,97 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out the IDs of one table in blocks (hi/lo): a single call to the table's ID sequence reserves a whole
+ * block of IDs, which are then handed out from memory, so an insert knows its ID before writing and needs neither
+ * a sequence call of its own nor the generated keys of the statement. Rows inserted without an ID take theirs
+ * from the same sequence (it is the column default), so they never collide with a reserved block. A block is
+ * contiguous unless another session draws from the sequence during the reserving call.
+ *
+ * IDs of a block that are not used before the process stops, or before discard(), are skipped, leaving gaps. IDs
+ * are only increasing within one allocator: rows inserted with the sequence default meanwhile, or by another
+ * allocator, get IDs above the rest of the block.
+ */
+public class IdBlockAllocator {
+    private final String sequence;
+    private final int blockSize;
+    // The reserved IDs not handed out yet are block[next] to block[block.length - 1]; guarded by this
+    private int[] block = new int[0];
+    private int next;
+
+    /**
+     * @param sequence The name of the sequence the IDs are drawn from.
+     * @param blockSize The number of IDs reserved by each call to the sequence.
+     */
+    public IdBlockAllocator(String sequence, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The ID block size must be positive: " + blockSize);
+        }
+        this.sequence = sequence;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Hands out IDs, reserving a new block with one sequence call if too few are left. The reservation is not
+     * part of the connection's transaction: a rolled-back insert leaves its IDs unused.
+     *
+     * @param connection A connection to the database of the sequence.
+     * @param count The number of IDs needed.
+     * @return The IDs, in increasing order.
+     * @throws SQLException If a block cannot be reserved.
+     */
+    public synchronized int[] next(Connection connection, int count) throws SQLException {
+        int[] ids = new int[count];
+        int available = Math.min(count, block.length - next);
+        System.arraycopy(block, next, ids, 0, available);
+        next += available;
+        if (available < count) {
+            block = reserve(connection, Math.max(blockSize, count - available));
+            next = count - available;
+            System.arraycopy(block, 0, ids, available, next);
+        }
+        return ids;
+    }
+
+    /**
+     * @param connection A connection to the database of the sequence.
+     * @return The next ID.
+     * @throws SQLException If a block cannot be reserved.
+     */
+    public int next(Connection connection) throws SQLException {
+        return next(connection, 1)[0];
+    }
+
+    /**
+     * Forgets the IDs reserved but not handed out yet, after the sequence was restarted below them.
+     */
+    public synchronized void discard() {
+        block = new int[0];
+        next = 0;
+    }
+
+    private int[] reserve(Connection connection, int size) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement("SELECT NEXT VALUE FOR " + sequence + " FROM SYSTEM_RANGE(1, ?)");
+            preparedStatement.setInt(1, size);
+            resultSet = preparedStatement.executeQuery();
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (!resultSet.next()) {
+                    throw new SQLException("The " + sequence + " sequence returned fewer IDs than requested.");
+                }
+                ids[i] = resultSet.getInt(1);
+            }
+            return ids;
+        } finally {
+            if (resultSet != null) resultSet.close();
+            if (preparedStatement != null) preparedStatement.close();
+        }
+    }
+}
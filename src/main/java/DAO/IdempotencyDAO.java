@@ -0,0 +1,119 @@
+package DAO;
+
+import Model.RecordedResponse;
+import Util.ConnectionUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keeps the responses to idempotent requests in the 'idempotency_key' table, so retries are recognized after a
+ * restart and by every instance sharing the database.
+ */
+public class IdempotencyDAO {
+
+    /**
+     * Retrieves the response recorded for a key.
+     *
+     * @param idempotencyKey The scoped key of the request.
+     * @return The recorded response, or null if there is none.
+     */
+    public RecordedResponse getResponse(String idempotencyKey) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "SELECT * FROM idempotency_key WHERE idempotency_key = ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(1, idempotencyKey);
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return new RecordedResponse(idempotencyKey,
+                        resultSet.getString("fingerprint"),
+                        resultSet.getLong("created_at"),
+                        resultSet.getInt("status"),
+                        resultSet.getString("content_type"),
+                        resultSet.getBytes("body"));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the response to a request. A key already recorded (e.g. by another instance) is left unchanged.
+     *
+     * @param response The response, with its key, fingerprint and creation time.
+     * @return True if the response was recorded.
+     */
+    public boolean insertResponse(RecordedResponse response) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "INSERT INTO idempotency_key (idempotency_key, fingerprint, created_at, status, content_type, body) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(1, response.getIdempotency_key());
+            preparedStatement.setString(2, response.getFingerprint());
+            preparedStatement.setLong(3, response.getCreated_at());
+            preparedStatement.setInt(4, response.getStatus());
+            preparedStatement.setString(5, response.getContent_type());
+            preparedStatement.setBytes(6, response.getBody());
+            return preparedStatement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the responses recorded before a point in time.
+     *
+     * @param createdBefore The cutoff, in milliseconds since the epoch.
+     * @return The number of responses deleted.
+     */
+    public int deleteExpired(long createdBefore) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            String sql = "DELETE FROM idempotency_key WHERE created_at < ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, createdBefore);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return 0;
+    }
+}
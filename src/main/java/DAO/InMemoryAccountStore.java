@@ -0,0 +1,180 @@
+package DAO;
+
+import Model.Account;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves accounts from process memory, for the "memory" storage engine.
+ *
+ * Accounts are written through to H2 (see AccountDAO), which assigns their IDs and keeps them durable. The store
+ * holds a copy, loaded at startup and then kept up to date by a MirrorTrigger on the account table, so accounts
+ * added by other connections to the database, and rolled-back inserts, are reflected too. As with
+ * InMemoryMessageStore, reads are read-uncommitted: an account is served as soon as it is inserted, before the
+ * insert commits, and until a rollback removes it again.
+ *
+ * Usernames and passwords live in two arrays indexed by account_id; the username index is a ConcurrentHashMap.
+ * The application never changes an account once stored, so reads take no lock at all: changes (serialized with
+ * synchronized) fill an account's array slots, and only then publish it through the username index and the
+ * volatile maximum ID. A full array is replaced by a larger copy before the new slot is written, so a reader
+ * always finds the slots of every account it can see.
+ */
+public class InMemoryAccountStore implements AccountRepository, MirrorTrigger.Listener {
+    private final AccountDAO database;
+    private final ConcurrentHashMap<String, Integer> idsByUsername = new ConcurrentHashMap<>();
+    private volatile String[] usernames = new String[1024];
+    private volatile String[] passwords = new String[1024];
+    private volatile int maxAccountId;
+
+    private InMemoryAccountStore(AccountDAO database) {
+        this.database = database;
+    }
+
+    /**
+     * Creates a store holding a copy of the accounts of H2, mirroring their changes from then on.
+     *
+     * @param database The DAO to write to and copy from.
+     * @return The loaded store; close() stops the mirroring.
+     * @throws IllegalStateException If the account table cannot be mirrored.
+     */
+    public static InMemoryAccountStore loadFrom(AccountDAO database) {
+        InMemoryAccountStore store = new InMemoryAccountStore(database);
+        // Attaching first, so an account added while loading is not missed
+        MirrorTrigger.attach("account", store);
+        for (Account account : database.getAllAccounts()) {
+            store.put(account.getAccount_id(), account.getUsername(), account.getPassword());
+        }
+        return store;
+    }
+
+    /**
+     * Applies a change of the account table.
+     */
+    @Override
+    public synchronized void rowChanged(MirrorTrigger.Row oldRow, MirrorTrigger.Row newRow) {
+        if (oldRow != null) {
+            // Unpublishing the old state first, as a direct change of the table may rename or remove the account
+            int accountId = oldRow.getInt("account_id");
+            String username = oldRow.getString("username");
+            if (username != null) {
+                idsByUsername.remove(username, accountId);
+            }
+            if (accountId > 0 && accountId < usernames.length) {
+                usernames[accountId] = null;
+                passwords[accountId] = null;
+            }
+        }
+        if (newRow != null) {
+            put(newRow.getInt("account_id"), newRow.getString("username"), newRow.getString("password"));
+        }
+    }
+
+    @Override
+    public Account insertAccount(Account account) {
+        return database.insertAccount(account);
+    }
+
+    @Override
+    public Account getAccountByUserName(String username) {
+        Integer accountId = username == null ? null : idsByUsername.get(username);
+        if (accountId == null) {
+            return null;
+        }
+        return new Account(accountId, username, passwords[accountId]);
+    }
+
+    @Override
+    public boolean accountExistsById(int accountId) {
+        // Reading the array after the maximum ID, so every slot up to it is visible
+        String[] current = accountId <= maxAccountId ? usernames : null;
+        return accountId > 0 && current != null && current[accountId] != null;
+    }
+
+    /**
+     * Streams a consistent prefix: the accounts stored before the stream started.
+     */
+    @Override
+    public long streamAccounts(Integer afterId, RowCallback<Account> callback) throws IOException {
+        int last = maxAccountId;
+        String[] names = usernames;
+        long count = 0;
+        for (int accountId = afterId == null ? 1 : Math.max(afterId + 1, 1); accountId <= last; accountId++) {
+            if (names[accountId] != null) {
+                callback.accept(new Account(accountId, names[accountId], null));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int insertAccountsBatch(List<Account> accounts) {
+        return database.insertAccountsBatch(accounts);
+    }
+
+    @Override
+    public Set<String> getExistingUsernames(Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        for (String username : usernames) {
+            if (username != null && idsByUsername.containsKey(username)) {
+                existing.add(username);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Set<Integer> getExistingAccountIds(Collection<Integer> accountIds) {
+        Set<Integer> existing = new HashSet<>();
+        for (Integer accountId : accountIds) {
+            if (accountId != null && accountExistsById(accountId)) {
+                existing.add(accountId);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Map<Integer, String> getUsernamesByIds(Collection<Integer> accountIds) {
+        Map<Integer, String> found = new HashMap<>();
+        for (Integer accountId : accountIds) {
+            if (accountId != null && accountExistsById(accountId)) {
+                found.put(accountId, usernames[accountId]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Stops mirroring the account table.
+     */
+    @Override
+    public void close() {
+        MirrorTrigger.detach("account", this);
+    }
+
+    private synchronized void put(int accountId, String username, String password) {
+        if (accountId <= 0 || username == null) {
+            // The API never stores an account without a username
+            return;
+        }
+        if (accountId >= usernames.length) {
+            int length = Math.max(accountId + 1, usernames.length * 2);
+            passwords = Arrays.copyOf(passwords, length);
+            usernames = Arrays.copyOf(usernames, length);
+        }
+        passwords[accountId] = password;
+        usernames[accountId] = username;
+        // Publishing last: readers reach the slots only through the index or the maximum ID
+        idsByUsername.put(username, accountId);
+        maxAccountId = Math.max(maxAccountId, accountId);
+    }
+}
@@ -0,0 +1,357 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import Util.ConnectionUtil;
+import Util.IntHashMap;
+import Util.IntList;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Serves messages from process memory, for the "memory" storage engine: latency-critical deployments whose reads
+ * must not wait for the database.
+ *
+ * Every write goes through to H2 (see MessageDAO), which assigns IDs and versions, keeps the change log and the
+ * statistics, and makes the write durable. The store holds a copy of the live messages, loaded at startup and
+ * then kept up to date by a MirrorTrigger on the message table, so changes made by other connections to the
+ * database, and rolled-back changes, are reflected too.
+ *
+ * Reads are read-uncommitted: the trigger fires inside the writing transaction, so a change is served as soon as
+ * H2 has made it, before it commits. A read can therefore return a message, text or version that is rolled back
+ * a moment later (until the rollback undoes it), or a message whose POST has not been acknowledged yet, and it can
+ * be ahead of GET /messages/changes, which only lists committed changes.
+ *
+ * Messages are stored as a struct of arrays indexed by message_id (posted_by, time_posted_epoch, text and version
+ * in parallel arrays), which is compact and needs no per-message index entry since IDs are dense. A null text
+ * marks a missing or deleted message. The message IDs of each account are kept in an int-keyed open-addressing
+ * map of int lists.
+ *
+ * Changes are applied under a StampedLock. Point reads are optimistic: they read without locking and only retry
+ * under the read lock if a change was applied meanwhile, so they never block each other or contend on the lock.
+ */
+public class InMemoryMessageStore implements MessageRepository, MirrorTrigger.Listener {
+    // Messages copied per lock acquisition while streaming, so changes are not held up by a slow reader
+    private static final int STREAM_BATCH_SIZE = 1000;
+
+    private final MessageDAO database;
+    private final StampedLock lock = new StampedLock();
+
+    // Guarded by lock: messages, indexed by message_id
+    private int[] postedBy = new int[1024];
+    private long[] epochs = new long[1024];
+    private String[] texts = new String[1024];
+    private long[] versions = new long[1024];
+    private int maxMessageId;
+    private final IntHashMap<IntList> messagesByAccount = new IntHashMap<>();
+
+    private InMemoryMessageStore(MessageDAO database) {
+        this.database = database;
+    }
+
+    /**
+     * Creates a store holding a copy of the messages of H2, mirroring their changes from then on. Call it before
+     * the API starts, so no message changes while it is loaded.
+     *
+     * @param database The DAO to write to and copy from.
+     * @return The loaded store; close() stops the mirroring.
+     * @throws IllegalStateException If the message table cannot be mirrored.
+     */
+    public static InMemoryMessageStore loadFrom(MessageDAO database) {
+        InMemoryMessageStore store = new InMemoryMessageStore(database);
+        // Attaching first, so a change made while loading is not missed
+        MirrorTrigger.attach("message", store);
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(MessageDAO.STREAM_FETCH_SIZE);
+            resultSet = statement.executeQuery("SELECT message_id, posted_by, message_text, time_posted_epoch, version "
+                    + "FROM message WHERE deleted = FALSE");
+            long stamp = store.lock.writeLock();
+            try {
+                while (resultSet.next()) {
+                    store.put(resultSet.getInt("message_id"), resultSet.getInt("posted_by"),
+                            resultSet.getLong("time_posted_epoch"), resultSet.getString("message_text"),
+                            resultSet.getLong("version"));
+                }
+            } finally {
+                store.lock.unlockWrite(stamp);
+            }
+        } catch (SQLException e) {
+            MirrorTrigger.detach("message", store);
+            throw new IllegalStateException("Could not load the messages: " + e.getMessage(), e);
+        } finally {
+            // Ensuring that resources (ResultSet, Statement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (statement != null) statement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Applies a change of the message table: soft deleted and removed rows leave the store, others are copied in.
+     */
+    @Override
+    public void rowChanged(MirrorTrigger.Row oldRow, MirrorTrigger.Row newRow) {
+        long stamp = lock.writeLock();
+        try {
+            if (newRow == null || newRow.getBoolean("deleted")) {
+                int messageId = (newRow == null ? oldRow : newRow).getInt("message_id");
+                if (messageId > 0 && messageId < texts.length) {
+                    // The ID stays in its account's list; the null text tells it is gone
+                    texts[messageId] = null;
+                }
+            } else {
+                put(newRow.getInt("message_id"), newRow.getInt("posted_by"), newRow.getLong("time_posted_epoch"),
+                        newRow.getString("message_text"), newRow.getLong("version"));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> messages = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (int messageId = 1; messageId <= maxMessageId; messageId++) {
+                if (texts[messageId] != null) {
+                    messages.add(new Message(messageId, postedBy[messageId], texts[messageId], epochs[messageId]));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return messages;
+    }
+
+    @Override
+    public Message getMessageByMessageID(int message_id) {
+        VersionedMessage message = getVersionedMessage(message_id);
+        return message == null ? null : message.getMessage();
+    }
+
+    @Override
+    public VersionedMessage getVersionedMessage(int message_id) {
+        long stamp = lock.tryOptimisticRead();
+        VersionedMessage message = read(message_id);
+        if (!lock.validate(stamp)) {
+            // A change was applied during the read; reading again while holding off changes
+            stamp = lock.readLock();
+            try {
+                message = read(message_id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids) {
+        List<VersionedMessage> messages = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (Integer message_id : message_ids) {
+                VersionedMessage message = message_id == null ? null : read(message_id);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountID(int account_id) {
+        List<Message> messages = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            IntList messageIds = messagesByAccount.get(account_id);
+            if (messageIds != null) {
+                for (int i = 0; i < messageIds.size(); i++) {
+                    int messageId = messageIds.get(i);
+                    if (isPostedBy(messageId, account_id)) {
+                        messages.add(new Message(messageId, account_id, texts[messageId], epochs[messageId]));
+                    }
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return messages;
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        return database.insertMessage(message);
+    }
+
+    @Override
+    public int insertMessagesBatch(List<Message> messages) {
+        return database.insertMessagesBatch(messages);
+    }
+
+    @Override
+    public Message updateMessage(int message_id, Message message) {
+        return database.updateMessage(message_id, message);
+    }
+
+    @Override
+    public VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion)
+            throws ConcurrentModificationException {
+        return database.updateMessageIfVersion(message_id, message, expectedVersion);
+    }
+
+    @Override
+    public Message deleteMessageById(int message_id) {
+        return database.deleteMessageById(message_id);
+    }
+
+    @Override
+    public int purgeDeletedMessages(long deletedBefore, int limit) {
+        return database.purgeDeletedMessages(deletedBefore, limit);
+    }
+
+    @Override
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        return database.getChangesSince(since, limit);
+    }
+
+    @Override
+    public long streamMessages(Long fromEpoch, Long toEpoch, Integer postedByFilter, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        int cursor = afterId == null ? 0 : Math.max(afterId, 0);
+        long count = 0;
+        boolean done = false;
+        List<Message> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+        while (!done) {
+            // Copying a batch under the lock, then handing it to the callback (which may block on the network) without it
+            batch.clear();
+            long stamp = lock.readLock();
+            try {
+                if (postedByFilter != null) {
+                    IntList messageIds = messagesByAccount.get(postedByFilter);
+                    int index = messageIds == null ? 0 : messageIds.indexAfter(cursor);
+                    while (messageIds != null && index < messageIds.size() && batch.size() < STREAM_BATCH_SIZE) {
+                        cursor = messageIds.get(index++);
+                        if (isPostedBy(cursor, postedByFilter)) {
+                            collect(cursor, fromEpoch, toEpoch, batch);
+                        }
+                    }
+                    done = messageIds == null || index >= messageIds.size();
+                } else {
+                    while (cursor < maxMessageId && batch.size() < STREAM_BATCH_SIZE) {
+                        collect(++cursor, fromEpoch, toEpoch, batch);
+                    }
+                    done = cursor >= maxMessageId;
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            for (Message message : batch) {
+                callback.accept(message);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops mirroring the message table.
+     */
+    @Override
+    public void close() {
+        MirrorTrigger.detach("message", this);
+    }
+
+    /**
+     * Reads a message without assuming the lock is held: the arrays are read once into locals and every index is
+     * bounds-checked, so an optimistic read racing with a change returns garbage (discarded after validation)
+     * instead of throwing.
+     */
+    private VersionedMessage read(int messageId) {
+        String[] currentTexts = texts;
+        int[] currentPostedBy = postedBy;
+        long[] currentEpochs = epochs;
+        long[] currentVersions = versions;
+        if (messageId <= 0 || messageId >= currentTexts.length || messageId >= currentPostedBy.length
+                || messageId >= currentEpochs.length || messageId >= currentVersions.length) {
+            return null;
+        }
+        String text = currentTexts[messageId];
+        return text == null ? null : new VersionedMessage(
+                new Message(messageId, currentPostedBy[messageId], text, currentEpochs[messageId]),
+                currentVersions[messageId]);
+    }
+
+    /**
+     * An account's list keeps the IDs of its deleted messages, and of messages moved to another account by a
+     * direct change of the table, so the message itself is checked.
+     */
+    private boolean isPostedBy(int messageId, int accountId) {
+        return texts[messageId] != null && postedBy[messageId] == accountId;
+    }
+
+    private void collect(int messageId, Long fromEpoch, Long toEpoch, List<Message> batch) {
+        if (texts[messageId] == null) {
+            return;
+        }
+        long epoch = epochs[messageId];
+        if ((fromEpoch == null || epoch >= fromEpoch) && (toEpoch == null || epoch <= toEpoch)) {
+            batch.add(new Message(messageId, postedBy[messageId], texts[messageId], epoch));
+        }
+    }
+
+    private void put(int messageId, int poster, long epoch, String text, long version) {
+        if (messageId <= 0) {
+            return;
+        }
+        ensureCapacity(messageId);
+        postedBy[messageId] = poster;
+        epochs[messageId] = epoch;
+        texts[messageId] = text;
+        versions[messageId] = version;
+        maxMessageId = Math.max(maxMessageId, messageId);
+
+        IntList messageIds = messagesByAccount.get(poster);
+        if (messageIds == null) {
+            messageIds = new IntList();
+            messagesByAccount.put(poster, messageIds);
+        }
+        // An update, or a rolled-back delete, finds the ID already listed
+        messageIds.insert(messageId);
+    }
+
+    private void ensureCapacity(int messageId) {
+        if (messageId >= texts.length) {
+            int length = Math.max(messageId + 1, texts.length * 2);
+            postedBy = Arrays.copyOf(postedBy, length);
+            epochs = Arrays.copyOf(epochs, length);
+            versions = Arrays.copyOf(versions, length);
+            texts = Arrays.copyOf(texts, length);
+        }
+    }
+}
@@ -0,0 +1,834 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import Util.BackgroundTasks;
+import Util.Config;
+import Util.IntHashMap;
+import Util.IntList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A message store for write-heavy deployments: an append-only log of memory-mapped segment files, with the
+ * indexes kept in memory.
+ *
+ * Every change is appended as a record (created, updated or deleted) carrying the full message and a sequence
+ * number, so a write is a copy into mapped memory and never touches existing data. An update appends the new
+ * version; a delete appends a tombstone. The log doubles as the change log for getChangesSince(). Each record
+ * also carries the message's version, 1 when created and incremented by every update, for optimistic
+ * concurrency.
+ *
+ * Two indexes are kept in memory and rebuilt from the log at startup:
+ * - The primary index maps message_id to the position of the message's latest record. It is a plain long[]
+ *   indexed by message_id, since IDs are dense.
+ * - The secondary index lists the message IDs of each posted_by, in growable int arrays.
+ *
+ * Superseded records become garbage. Background compaction rewrites sealed segments whose live share fell below
+ * a threshold, keeping only the latest record of each message and the tombstones. After compaction the change
+ * feed skips the intermediate versions of a message, but replaying it still ends in the same state.
+ *
+ * Records are written in place in the mapped files and reach the disk when the OS writes the pages back, or on
+ * the periodic flush; with "storage.log.fsync" every write is forced to disk before it returns. Each record has a
+ * CRC, so a record torn by a crash is detected and dropped at startup. Only one store may open a directory.
+ */
+public class LogStructuredMessageStore implements MessageRepository {
+    private static final byte CREATED = 1;
+    private static final byte UPDATED = 2;
+    private static final byte DELETED = 3;
+    private static final String[] CHANGE_TYPES = {null, "created", "updated", "deleted"};
+
+    // Record layout: length (int, the whole record), type (byte), seq (long), message_id (int), posted_by (int),
+    // time_posted_epoch (long), version (int), text length (short), text (UTF-8), CRC32 of everything after the
+    // length (int)
+    private static final int TYPE_OFFSET = 4;
+    private static final int SEQ_OFFSET = 5;
+    private static final int ID_OFFSET = 13;
+    private static final int POSTED_BY_OFFSET = 17;
+    private static final int EPOCH_OFFSET = 21;
+    private static final int VERSION_OFFSET = 29;
+    private static final int TEXT_LENGTH_OFFSET = 33;
+    private static final int HEADER_BYTES = 35;
+    private static final int CRC_BYTES = 4;
+
+    private static final long ABSENT = -1;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACT_SUFFIX = ".compact";
+    // Messages read per lock acquisition while streaming, so writers are not blocked by a slow reader
+    private static final int STREAM_BATCH_SIZE = 1000;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final double compactionThreshold;
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ScheduledFuture<?>> backgroundTasks = new ArrayList<>();
+
+    // Guarded by lock
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final IntHashMap<IntList> messagesByAccount = new IntHashMap<>();
+    private Segment active;
+    private long[] positions = new long[1024];
+    private int maxMessageId;
+    private long lastSeq;
+    private boolean closed;
+
+    /**
+     * Opens the store in a directory, creating it if needed, and rebuilds the indexes from the segments found there.
+     *
+     * @param directory The directory holding the segment files.
+     * @param segmentBytes The size of each segment file.
+     * @param fsync True to force every write to disk before returning.
+     * @param compactionThreshold A sealed segment is compacted when its live share drops below this (0 to 1).
+     * @throws IOException If the directory cannot be read, or is already in use by another store.
+     */
+    public LogStructuredMessageStore(Path directory, int segmentBytes, boolean fsync, double compactionThreshold)
+            throws IOException {
+        if (segmentBytes < 4096 || compactionThreshold < 0 || compactionThreshold > 1) {
+            throw new IllegalArgumentException("Segments must be at least 4096 bytes and the threshold between 0 and 1.");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.compactionThreshold = compactionThreshold;
+        Arrays.fill(positions, ABSENT);
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("LOCK"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("The log store in " + directory + " is already open.");
+        }
+        directoryLock = acquired;
+        recover();
+    }
+
+    /**
+     * Opens the store configured by the "storage.log.*" settings. An empty store is first filled with the
+     * messages currently in H2, so switching engines keeps the existing messages and their IDs.
+     *
+     * @param directory The directory holding the segment files.
+     * @return The opened store, with its periodic flush and compaction scheduled.
+     * @throws IOException If the store cannot be opened.
+     */
+    public static LogStructuredMessageStore fromConfig(Path directory) throws IOException {
+        LogStructuredMessageStore store = new LogStructuredMessageStore(directory,
+                Config.getInt("storage.log.segment.bytes", 64 * 1024 * 1024),
+                Config.getBoolean("storage.log.fsync", false),
+                Config.getDouble("storage.log.compaction.threshold", 0.5));
+        if (store.isEmpty()) {
+            store.loadFrom(new MessageDAO());
+        }
+        store.scheduleMaintenance(Config.getLong("storage.log.flush.interval.ms", 1000),
+                Config.getLong("storage.log.compaction.interval.ms", 60 * 1000L));
+        return store;
+    }
+
+    /**
+     * @return True if nothing was ever written to the store.
+     */
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return lastSeq == 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies every message of another repository into this one, keeping their IDs.
+     *
+     * @param source The repository to copy from.
+     * @throws IOException If the copy failed.
+     */
+    public void loadFrom(MessageRepository source) throws IOException {
+        source.streamMessages(null, null, null, null, message -> {
+            lock.writeLock().lock();
+            try {
+                if (message.getMessage_id() <= maxMessageId) {
+                    throw new IOException("Messages must be loaded in message_id order into an empty range.");
+                }
+                long position = append(CREATED, message.getMessage_id(), message.getPosted_by(),
+                        message.getTime_posted_epoch(), 1, message.getMessage_text());
+                apply(CREATED, message.getMessage_id(), message.getPosted_by(), position);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Schedules the periodic flush of written pages to disk and the compaction of sealed segments.
+     *
+     * @param flushMillis The delay between flushes; ignored when every write is forced anyway.
+     * @param compactionMillis The delay between compaction passes.
+     */
+    public void scheduleMaintenance(long flushMillis, long compactionMillis) {
+        if (!fsync) {
+            backgroundTasks.add(BackgroundTasks.scheduleEvery("log-store-flush", this::flush, flushMillis));
+        }
+        backgroundTasks.add(BackgroundTasks.scheduleEvery("log-store-compaction", this::compact, compactionMillis));
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int messageId = 1; messageId <= maxMessageId; messageId++) {
+                if (positions[messageId] != ABSENT) {
+                    messages.add(read(positions[messageId]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public Message getMessageByMessageID(int message_id) {
+        lock.readLock().lock();
+        try {
+            long position = positionOf(message_id);
+            return position == ABSENT ? null : read(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VersionedMessage getVersionedMessage(int message_id) {
+        lock.readLock().lock();
+        try {
+            long position = positionOf(message_id);
+            return position == ABSENT ? null : readVersioned(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids) {
+        List<VersionedMessage> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Integer message_id : message_ids) {
+                long position = message_id == null ? ABSENT : positionOf(message_id);
+                if (position != ABSENT) {
+                    messages.add(readVersioned(position));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountID(int account_id) {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IntList messageIds = messagesByAccount.get(account_id);
+            if (messageIds != null) {
+                for (int i = 0; i < messageIds.size(); i++) {
+                    // Deleted messages stay in the account's list; the primary index tells they are gone
+                    long position = positions[messageIds.get(i)];
+                    if (position != ABSENT) {
+                        messages.add(read(position));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        lock.writeLock().lock();
+        try {
+            int messageId = maxMessageId + 1;
+            long position = append(CREATED, messageId, message.getPosted_by(), message.getTime_posted_epoch(), 1,
+                    message.getMessage_text());
+            apply(CREATED, messageId, message.getPosted_by(), position);
+            return new Message(messageId, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends all messages under a single lock. The segments are prepared before the first record is written,
+     * so a failure to create a segment file leaves nothing half-written.
+     */
+    @Override
+    public int insertMessagesBatch(List<Message> messages) {
+        lock.writeLock().lock();
+        try {
+            List<byte[]> texts = new ArrayList<>(messages.size());
+            long bytes = 0;
+            for (Message message : messages) {
+                byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+                texts.add(text);
+                bytes += recordLength(text);
+            }
+            reserve(bytes);
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                int messageId = maxMessageId + 1;
+                long position = append(CREATED, messageId, message.getPosted_by(), message.getTime_posted_epoch(), 1,
+                        texts.get(i));
+                apply(CREATED, messageId, message.getPosted_by(), position);
+            }
+            return messages.size();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message updateMessage(int message_id, Message message) {
+        VersionedMessage updated = updateMessageIfVersion(message_id, message, null);
+        return updated == null ? null : updated.getMessage();
+    }
+
+    /**
+     * Checks the version and appends the update under the write lock, so no other change comes in between.
+     */
+    @Override
+    public VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion)
+            throws ConcurrentModificationException {
+        lock.writeLock().lock();
+        try {
+            long position = positionOf(message_id);
+            if (position == ABSENT) {
+                return null;
+            }
+            VersionedMessage existing = readVersioned(position);
+            if (expectedVersion != null && existing.getVersion() != expectedVersion) {
+                throw new ConcurrentModificationException("Message " + message_id + " is at version "
+                        + existing.getVersion() + ", not " + expectedVersion + ".");
+            }
+            int postedBy = existing.getMessage().getPosted_by();
+            long epoch = existing.getMessage().getTime_posted_epoch();
+            long version = existing.getVersion() + 1;
+            long updated = append(UPDATED, message_id, postedBy, epoch, (int) version, message.getMessage_text());
+            apply(UPDATED, message_id, postedBy, updated);
+            return new VersionedMessage(new Message(message_id, postedBy, message.getMessage_text(), epoch), version);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message deleteMessageById(int message_id) {
+        lock.writeLock().lock();
+        try {
+            long position = positionOf(message_id);
+            if (position == ABSENT) {
+                return null;
+            }
+            Message existing = read(position);
+            // The tombstone keeps the whole message, so the change feed can report what was deleted
+            long tombstone = append(DELETED, message_id, existing.getPosted_by(), existing.getTime_posted_epoch(),
+                    versionAt(position), existing.getMessage_text());
+            apply(DELETED, message_id, existing.getPosted_by(), tombstone);
+            return existing;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Scans the log from the first segment holding a later sequence number. Segments keep their records in
+     * sequence order, also after compaction.
+     */
+    @Override
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        List<MessageChange> changes = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment.maxSeq <= since) {
+                    continue;
+                }
+                ByteBuffer buffer = segment.buffer;
+                for (int offset = 0; offset < segment.writePosition; offset += buffer.getInt(offset)) {
+                    long seq = buffer.getLong(offset + SEQ_OFFSET);
+                    if (seq > since) {
+                        changes.add(new MessageChange(seq, CHANGE_TYPES[buffer.get(offset + TYPE_OFFSET)],
+                                read(segment, offset)));
+                        if (changes.size() == limit) {
+                            return changes;
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return changes;
+    }
+
+    @Override
+    public long streamMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        int cursor = afterId == null ? 0 : Math.max(afterId, 0);
+        long count = 0;
+        boolean done = false;
+        List<Message> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+        while (!done) {
+            // Collecting a batch under the lock, then handing it to the callback (which may block on the network) without it
+            batch.clear();
+            lock.readLock().lock();
+            try {
+                if (postedBy != null) {
+                    IntList messageIds = messagesByAccount.get(postedBy);
+                    int index = messageIds == null ? 0 : messageIds.indexAfter(cursor);
+                    while (messageIds != null && index < messageIds.size() && batch.size() < STREAM_BATCH_SIZE) {
+                        cursor = messageIds.get(index++);
+                        collect(cursor, fromEpoch, toEpoch, batch);
+                    }
+                    done = messageIds == null || index >= messageIds.size();
+                } else {
+                    while (cursor < maxMessageId && batch.size() < STREAM_BATCH_SIZE) {
+                        collect(++cursor, fromEpoch, toEpoch, batch);
+                    }
+                    done = cursor >= maxMessageId;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (Message message : batch) {
+                callback.accept(message);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forces the pages written to the active segment to disk.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            if (!closed) {
+                active.buffer.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites every sealed segment whose live share is below the threshold, keeping only the latest record of
+     * each message and the tombstones. Segments left with nothing live are deleted. The store is locked while a
+     * pass runs; each segment is copied once, so a pass costs at most a few segment copies.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment != active && segment.liveBytes < compactionThreshold * segment.writePosition) {
+                    compact(segment);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The total size of the segments' records, live or not.
+     */
+    public long getLogBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Segment segment : segments.values()) {
+                bytes += segment.writePosition;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the background tasks, forces all segments to disk and releases the directory.
+     */
+    @Override
+    public void close() {
+        backgroundTasks.forEach(task -> task.cancel(false));
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            directoryLock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(COMPACT_SUFFIX)) {
+                    // Left over by a compaction interrupted before its rename; the original segment is intact
+                    Files.delete(file);
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    files.add(file);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        files.sort(null);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file, map(file, (int) Files.size(file)));
+            segments.put(id, segment);
+            replay(segment);
+        }
+
+        // Appending to the last segment if it is a full-size one with room left, otherwise starting a new one
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last != null && last.capacity == segmentBytes) {
+            active = last;
+        } else {
+            active = createSegment(last == null ? 0 : last.id + 1);
+        }
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES + CRC_BYTES <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < HEADER_BYTES + CRC_BYTES || offset + length > segment.capacity
+                    || buffer.getInt(offset + length - CRC_BYTES) != crc(buffer, offset, length)) {
+                System.out.println("Dropping a torn record at " + segment.path + ":" + offset);
+                // Clearing the torn bytes so later appends are not followed by leftovers that look like records
+                for (int i = offset; i < Math.min(segment.capacity, offset + HEADER_BYTES + Short.MAX_VALUE + CRC_BYTES); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            byte type = buffer.get(offset + TYPE_OFFSET);
+            long seq = buffer.getLong(offset + SEQ_OFFSET);
+            segment.writePosition = offset + length;
+            segment.liveBytes += length;
+            segment.recordSeq(seq);
+            lastSeq = Math.max(lastSeq, seq);
+            apply(type, buffer.getInt(offset + ID_OFFSET), buffer.getInt(offset + POSTED_BY_OFFSET), position(segment.id, offset));
+            offset += length;
+        }
+    }
+
+    private long append(byte type, int messageId, int postedBy, long epoch, int version, String text)
+            throws IOException {
+        return append(type, messageId, postedBy, epoch, version, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long append(byte type, int messageId, int postedBy, long epoch, int version, byte[] text)
+            throws IOException {
+        int length = recordLength(text);
+        if (active.writePosition + length + 4 > active.capacity) {
+            // Keeping at least four zero bytes at the end of a segment to mark where its records stop
+            roll();
+        }
+        ByteBuffer buffer = active.buffer;
+        int offset = active.writePosition;
+        long seq = lastSeq + 1;
+        buffer.putInt(offset, length);
+        buffer.put(offset + TYPE_OFFSET, type);
+        buffer.putLong(offset + SEQ_OFFSET, seq);
+        buffer.putInt(offset + ID_OFFSET, messageId);
+        buffer.putInt(offset + POSTED_BY_OFFSET, postedBy);
+        buffer.putLong(offset + EPOCH_OFFSET, epoch);
+        buffer.putInt(offset + VERSION_OFFSET, version);
+        buffer.putShort(offset + TEXT_LENGTH_OFFSET, (short) text.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_BYTES);
+        view.put(text);
+        buffer.putInt(offset + length - CRC_BYTES, crc(buffer, offset, length));
+        if (fsync) {
+            active.buffer.force();
+        }
+
+        lastSeq = seq;
+        active.writePosition = offset + length;
+        active.liveBytes += length;
+        active.recordSeq(seq);
+        return position(active.id, offset);
+    }
+
+    private int recordLength(byte[] text) throws IOException {
+        int length = HEADER_BYTES + text.length + CRC_BYTES;
+        if (text.length > Short.MAX_VALUE || length + 4 > segmentBytes) {
+            throw new IOException("Message text too large for a log segment.");
+        }
+        return length;
+    }
+
+    /**
+     * Makes sure the given number of record bytes can be appended without creating a segment file halfway.
+     */
+    private void reserve(long bytes) throws IOException {
+        if (active.writePosition + bytes + 4 <= active.capacity) {
+            return;
+        }
+        // Records never span segments, so a batch that does not fit here is written from the start of a new one
+        if (bytes + 4 > segmentBytes) {
+            throw new IOException("Batch too large for a log segment; split it into smaller batches.");
+        }
+        roll();
+    }
+
+    private void roll() throws IOException {
+        active.buffer.force();
+        active = createSegment(active.id + 1);
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, map(path, segmentBytes));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void apply(byte type, int messageId, int postedBy, long position) {
+        if (messageId >= positions.length) {
+            int oldLength = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(messageId + 1, oldLength * 2));
+            Arrays.fill(positions, oldLength, positions.length, ABSENT);
+        }
+        long previous = positions[messageId];
+        if (previous != ABSENT) {
+            // The previous version of the message is now garbage in its segment
+            Segment segment = segments.get(segmentId(previous));
+            segment.liveBytes -= segment.buffer.getInt(offset(previous));
+        }
+        if (type == DELETED) {
+            positions[messageId] = ABSENT;
+        } else {
+            if (previous == ABSENT) {
+                // IDs are never reused, so a message appears in its account's list exactly once
+                IntList messageIds = messagesByAccount.get(postedBy);
+                if (messageIds == null) {
+                    messageIds = new IntList();
+                    messagesByAccount.put(postedBy, messageIds);
+                }
+                messageIds.add(messageId);
+            }
+            positions[messageId] = position;
+        }
+        maxMessageId = Math.max(maxMessageId, messageId);
+    }
+
+    private void compact(Segment segment) throws IOException {
+        if (segment.liveBytes <= 0) {
+            Files.delete(segment.path);
+            segments.remove(segment.id);
+            return;
+        }
+        Path temporary = directory.resolve(segment.path.getFileName() + COMPACT_SUFFIX);
+        int capacity = (int) segment.liveBytes + 4;
+        MappedByteBuffer target = map(temporary, capacity);
+
+        ByteBuffer source = segment.buffer;
+        List<int[]> moved = new ArrayList<>();
+        int written = 0;
+        long maxSeq = 0;
+        for (int offset = 0; offset < segment.writePosition; offset += source.getInt(offset)) {
+            int length = source.getInt(offset);
+            byte type = source.get(offset + TYPE_OFFSET);
+            int messageId = source.getInt(offset + ID_OFFSET);
+            if (type != DELETED && positions[messageId] != position(segment.id, offset)) {
+                continue;
+            }
+            ByteBuffer record = source.duplicate();
+            record.position(offset).limit(offset + length);
+            ByteBuffer destination = target.duplicate();
+            destination.position(written);
+            destination.put(record);
+            if (type != DELETED) {
+                moved.add(new int[]{messageId, written});
+            }
+            maxSeq = source.getLong(offset + SEQ_OFFSET);
+            written += length;
+        }
+        target.force();
+        Files.move(temporary, segment.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The old mapping is released by the garbage collector once nothing references it
+        segment.buffer = target;
+        segment.capacity = capacity;
+        segment.writePosition = written;
+        segment.liveBytes = written;
+        segment.maxSeq = maxSeq;
+        for (int[] entry : moved) {
+            positions[entry[0]] = position(segment.id, entry[1]);
+        }
+    }
+
+    private void collect(int messageId, Long fromEpoch, Long toEpoch, List<Message> batch) {
+        long position = positionOf(messageId);
+        if (position == ABSENT) {
+            return;
+        }
+        Message message = read(position);
+        if ((fromEpoch == null || message.getTime_posted_epoch() >= fromEpoch)
+                && (toEpoch == null || message.getTime_posted_epoch() <= toEpoch)) {
+            batch.add(message);
+        }
+    }
+
+    private long positionOf(int messageId) {
+        return messageId > 0 && messageId <= maxMessageId ? positions[messageId] : ABSENT;
+    }
+
+    private Message read(long position) {
+        return read(segments.get(segmentId(position)), offset(position));
+    }
+
+    private VersionedMessage readVersioned(long position) {
+        return new VersionedMessage(read(position), versionAt(position));
+    }
+
+    private int versionAt(long position) {
+        return segments.get(segmentId(position)).buffer.getInt(offset(position) + VERSION_OFFSET);
+    }
+
+    private Message read(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer;
+        byte[] text = new byte[buffer.getShort(offset + TEXT_LENGTH_OFFSET)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_BYTES);
+        view.get(text);
+        return new Message(buffer.getInt(offset + ID_OFFSET), buffer.getInt(offset + POSTED_BY_OFFSET),
+                new String(text, StandardCharsets.UTF_8), buffer.getLong(offset + EPOCH_OFFSET));
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + TYPE_OFFSET).limit(offset + length - CRC_BYTES);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | offset;
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * One segment file and what is known about its records.
+     */
+    private static class Segment {
+        final int id;
+        final Path path;
+        MappedByteBuffer buffer;
+        int capacity;
+        int writePosition;
+        long liveBytes;
+        long maxSeq;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+
+        void recordSeq(long seq) {
+            maxSeq = seq;
+        }
+    }
+}
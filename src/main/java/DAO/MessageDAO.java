@@ -1,17 +1,66 @@
 package DAO;
 
+import Util.Config;
 import Util.ConnectionUtil;
+import Model.AccountStats;
 import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sql.DataSource;
 
-public class MessageDAO {
+public class MessageDAO implements MessageRepository {
+    // Rows fetched per round of a streaming query
+    static final int STREAM_FETCH_SIZE = 5000;
+    // The SQLSTATE of a unique or primary key violation
+    private static final String DUPLICATE_KEY = "23505";
+
+    // The SQL of each getMessageViews() shape (fields, author, filters). Reusing the exact same text lets H2 reuse
+    // the parsed statement from each pooled connection's query cache instead of parsing it again.
+    private static final ConcurrentHashMap<String, String> VIEW_SQL = new ConcurrentHashMap<>();
+
+    // The database the messages are in; null for the one of ConnectionUtil
+    private final DataSource dataSource;
+    // Assigns the change_seq values of the change log, in commit order
+    private final ChangeClock changeClock;
+    // Hands out the IDs of new messages from blocks of message_id_seq
+    private final IdBlockAllocator messageIds;
+
+    /**
+     * Default constructor: messages are kept in the database of ConnectionUtil.
+     */
+    public MessageDAO() {
+        this(null, new TableChangeClock(), new IdBlockAllocator("message_id_seq", Config.getInt("ids.block.size", 20)));
+    }
+
+    /**
+     * Constructor for a message table in another database, such as one shard of ShardedMessageStore.
+     *
+     * @param dataSource The database holding the 'message' and 'message_change' tables.
+     * @param changeClock Assigns the change_seq of each change log entry.
+     * @param messageIds Assigns the IDs of new messages.
+     */
+    public MessageDAO(DataSource dataSource, ChangeClock changeClock, IdBlockAllocator messageIds) {
+        this.dataSource = dataSource;
+        this.changeClock = changeClock;
+        this.messageIds = messageIds;
+    }
 
     /**
      * Retrieves all messages from the 'message' table.
@@ -24,8 +73,8 @@ public class MessageDAO {
         ResultSet resultSet = null;
         List<Message> messages = new ArrayList<>();
         try {
-            connection = ConnectionUtil.getConnection();
-            String sql = "SELECT * FROM message"; // SQL query to fetch all rows from the 'message' table
+            connection = getConnection();
+            String sql = "SELECT * FROM message WHERE deleted = FALSE"; // SQL query to fetch all live rows from the 'message' table
             preparedStatement = connection.prepareStatement(sql);
             resultSet = preparedStatement.executeQuery(); // Executing the query and retrieving the result set
             while(resultSet.next()){
@@ -33,7 +82,7 @@ public class MessageDAO {
                 Message message = new Message(resultSet.getInt("message_id"),
                         resultSet.getInt("posted_by"),
                         resultSet.getString("message_text"),
-                        resultSet.getInt("time_posted_epoch"));
+                        resultSet.getLong("time_posted_epoch"));
                 messages.add(message);
             }
         } catch(SQLException e) {
@@ -65,8 +114,8 @@ public class MessageDAO {
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null; 
         try {
-            connection = ConnectionUtil.getConnection();
-            String sql = "SELECT * FROM message WHERE message_id = ?";
+            connection = getConnection();
+            String sql = "SELECT * FROM message WHERE message_id = ? AND deleted = FALSE";
             preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, message_id); // Setting the message_id parameter
             resultSet = preparedStatement.executeQuery(); // Executing the query
@@ -75,7 +124,7 @@ public class MessageDAO {
                 Message message = new Message(resultSet.getInt("message_id"),
                         resultSet.getInt("posted_by"),
                         resultSet.getString("message_text"),
-                        resultSet.getInt("time_posted_epoch"));
+                        resultSet.getLong("time_posted_epoch"));
                 return message;
             }
         } catch(SQLException e) {
@@ -105,8 +154,8 @@ public class MessageDAO {
         ResultSet resultSet = null; 
         List<Message> messages = new ArrayList<>();
         try {
-            connection = ConnectionUtil.getConnection();
-            String sql = "SELECT * FROM message WHERE posted_by = ?"; // Query to fetch messages by account_id
+            connection = getConnection();
+            String sql = "SELECT * FROM message WHERE posted_by = ? AND deleted = FALSE"; // Query to fetch messages by account_id
             preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, account_id); // Setting the account_id parameter
             resultSet = preparedStatement.executeQuery();
@@ -114,7 +163,7 @@ public class MessageDAO {
                 Message message = new Message(resultSet.getInt("message_id"),
                         resultSet.getInt("posted_by"),
                         resultSet.getString("message_text"),
-                        resultSet.getInt("time_posted_epoch"));
+                        resultSet.getLong("time_posted_epoch"));
                 messages.add(message);
             }
         } catch(SQLException e) {
@@ -132,42 +181,282 @@ public class MessageDAO {
         return messages; // Returning the list of messages
     }
 
+    /**
+     * Retrieves many messages with a single query on the primary key.
+     *
+     * @param message_ids The IDs of the messages to retrieve.
+     * @return The messages that exist, in no particular order, or an empty list if none do.
+     */
+    @Override
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<Message> messages = new ArrayList<>();
+        try {
+            connection = getConnection();
+            String sql = "SELECT * FROM message WHERE message_id = ANY(?) AND deleted = FALSE";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", message_ids.toArray()));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                messages.add(new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch")));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the latest messages of several accounts with a single query: the messages of the requested
+     * accounts are ranked per account (ROW_NUMBER() over the poster), and only the first 'limit' of each are
+     * returned.
+     *
+     * @param account_ids The IDs of the accounts whose messages are retrieved.
+     * @param limit The maximum number of messages per account.
+     * @return The latest messages of each account that has any, newest first, or an empty map if the query failed.
+     */
+    @Override
+    public Map<Integer, List<Message>> getLatestMessagesByAccountIds(Collection<Integer> account_ids, int limit) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        Map<Integer, List<Message>> timelines = new HashMap<>();
+        try {
+            connection = getConnection();
+            String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM ("
+                    + "SELECT m.*, ROW_NUMBER() OVER (PARTITION BY posted_by "
+                    + "ORDER BY time_posted_epoch DESC, message_id DESC) AS position "
+                    + "FROM message m WHERE posted_by = ANY(?) AND deleted = FALSE) ranked "
+                    + "WHERE position <= ? ORDER BY posted_by, position";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", account_ids.toArray()));
+            preparedStatement.setInt(2, limit);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                Message message = new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch"));
+                timelines.computeIfAbsent(message.getPosted_by(), key -> new ArrayList<>()).add(message);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return timelines;
+    }
+
+    /**
+     * Retrieves the most recently posted messages.
+     *
+     * @param limit The maximum number of messages to return.
+     * @return The latest messages, newest first, or an empty list if no messages exist.
+     */
+    @Override
+    public List<Message> getLatestMessages(int limit){
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<Message> messages = new ArrayList<>();
+        try {
+            connection = getConnection();
+            String sql = "SELECT * FROM message WHERE deleted = FALSE ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, limit);
+            resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                messages.add(new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch")));
+            }
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the messages posted within a time range, reading a range of the (time_posted_epoch, message_id)
+     * index of the requested direction (H2 does not scan indexes backwards), in index order so H2 stops after
+     * 'limit' rows instead of sorting the range. For one poster, the range of the (posted_by, time_posted_epoch,
+     * message_id) index is read and only that range is sorted. Missing bounds are sent as the smallest and largest
+     * epochs, so every call uses one of four statements.
+     *
+     * @param posted_by Only messages posted by this account, or null for every account.
+     * @param fromEpoch Only messages posted at or after this epoch, or null for no lower bound.
+     * @param toEpoch Only messages posted at or before this epoch, or null for no upper bound.
+     * @param newestFirst True for the newest messages first, false for the oldest first.
+     * @param limit The maximum number of messages to return.
+     * @return The first 'limit' messages of the range in that order, or an empty list.
+     */
+    @Override
+    public List<Message> getMessagesInRange(Integer posted_by, Long fromEpoch, Long toEpoch, boolean newestFirst,
+                                            int limit) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<Message> messages = new ArrayList<>();
+        try {
+            connection = getConnection();
+            preparedStatement = connection.prepareStatement(rangeSql(posted_by != null, newestFirst));
+            int parameter = 1;
+            if (posted_by != null) {
+                preparedStatement.setInt(parameter++, posted_by);
+            }
+            preparedStatement.setLong(parameter++, fromEpoch == null ? Long.MIN_VALUE : fromEpoch);
+            preparedStatement.setLong(parameter++, toEpoch == null ? Long.MAX_VALUE : toEpoch);
+            preparedStatement.setInt(parameter, limit);
+            resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                messages.add(new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch")));
+            }
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * The statement of getMessagesInRange(); public so its plan can be checked with EXPLAIN.
+     *
+     * @param byPoster True for the statement filtering on posted_by.
+     * @param newestFirst True for the newest messages first.
+     * @return The SQL, with parameters (posted_by,) fromEpoch, toEpoch and limit.
+     */
+    public static String rangeSql(boolean byPoster, boolean newestFirst) {
+        String direction = newestFirst ? " DESC" : "";
+        // Without statistics H2 rates the foreign key's own posted_by index as good as the composite one
+        return "SELECT * FROM message" + (byPoster ? " USE INDEX (message_posted_by_time_idx) WHERE posted_by = ? AND " : " WHERE ")
+                + "time_posted_epoch >= ? AND time_posted_epoch <= ? AND deleted = FALSE "
+                + "ORDER BY time_posted_epoch" + direction + ", message_id" + direction + " LIMIT ?";
+    }
+
+    /**
+     * Retrieves the statistics of an account from its row of 'account_stats', a primary key lookup.
+     *
+     * @param account_id The ID of the account.
+     * @return The statistics, with a post_count of 0 if the account has no messages (or does not exist), or null
+     *         if the query failed.
+     */
+    @Override
+    public AccountStats getAccountStats(int account_id) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = getConnection();
+            String sql = "SELECT * FROM account_stats WHERE account_id = ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, account_id);
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return new AccountStats(account_id,
+                        resultSet.getLong("post_count"),
+                        resultSet.getLong("total_chars"),
+                        resultSet.getObject("first_post_epoch", Long.class),
+                        resultSet.getObject("last_post_epoch", Long.class));
+            }
+            return new AccountStats(account_id, 0, 0, null, null);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return null;
+    }
+
     /**
      * Inserts a new message into the 'message' table.
+     * The insert and its 'created' entry in the change log are committed in one transaction. The message ID comes
+     * from a block reserved from message_id_seq (see IdBlockAllocator).
      *
      * @param message The Message object containing the data to be inserted.
-     * @return A new Message object representing the inserted message with its generated ID, or null if the insertion fails.
+     * @return A new Message object representing the inserted message with its new ID, or null if the insertion fails.
      */
     public Message insertMessage(Message message){
         Connection connection = null;
         PreparedStatement preparedStatement = null;
-        ResultSet pkeyResultSet = null; 
         try {
-            connection = ConnectionUtil.getConnection();
-            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) Values(?, ?, ?)";
-            preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            connection = getConnection();
+            connection.setAutoCommit(false);
+            // Taking the ID from the reserved block, so the insert needs no generated keys
+            int message_id = messageIds.next(connection);
+            String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) Values(?, ?, ?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
+
+            // Setting the values for message_id, posted_by, message_text, time_posted_epoch
+            preparedStatement.setInt(1, message_id);
+            preparedStatement.setInt(2, message.getPosted_by());
+            preparedStatement.setString(3, message.getMessage_text());
+            preparedStatement.setLong(4, message.getTime_posted_epoch());
 
-            // Setting the values for posted_by, message_text, time_posted_epoch
-            preparedStatement.setInt(1, message.getPosted_by());
-            preparedStatement.setString(2, message.getMessage_text());
-            preparedStatement.setLong(3, message.getTime_posted_epoch());
-            
             // Executing the SQL statement
             preparedStatement.executeUpdate();
 
-            // Retrieving the generated keys to set the message ID
-            pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if (pkeyResultSet.next()) {
-                int generated_message_id = (int) pkeyResultSet.getInt(1);
-                // Returning a new Message object with the generated ID
-                return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
-            }
+            // Recording the creation in the poster's statistics and the change log, and committing all together
+            addToStats(connection, Collections.singletonList(message));
+            logChange(connection, message_id, "created");
+            commit(connection);
+
+            // Returning a new Message object with its ID
+            return new Message(message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            rollback(connection);
         } finally {
-            // Ensuring that resources (pkeyResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
             try {
-                if (pkeyResultSet != null) pkeyResultSet.close();
                 if (preparedStatement != null) preparedStatement.close();
                 if (connection != null) connection.close();
             } catch (SQLException e) {
@@ -178,42 +467,304 @@ public class MessageDAO {
     }
 
     /**
-     * Updates the text of an existing message in the 'message' table by its ID.
+     * Inserts many messages in one transaction using JDBC batches, together with their 'created' entries in the
+     * change log. Either all messages are inserted or none are.
+     *
+     * @param messages The messages to insert; their message_id is ignored.
+     * @return The number of messages inserted, or 0 if the batch failed and was rolled back.
+     */
+    public int insertMessagesBatch(List<Message> messages){
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            connection.setAutoCommit(false);
+            // Taking all IDs from reserved blocks up front, so the batch needs no generated keys
+            insertWithIds(connection, messages, messageIds.next(connection, messages.size()));
+            commit(connection);
+            return messages.size();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+        } finally {
+            // Ensuring that resources (Connection) are closed to prevent resource leaks
+            try {
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Inserts messages that already have their IDs, such as the ones acknowledged by WriteAheadMessageStore
+     * before reaching the database, in one transaction together with their 'created' entries in the change log.
+     * message_id_seq is not advanced; call restartMessageIds() before inserting without IDs again.
+     *
+     * @param messages The messages to insert, with their message_id.
+     * @return The number of messages inserted, or 0 if the batch failed and was rolled back.
+     */
+    public int insertMessagesWithIds(List<Message> messages){
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            connection.setAutoCommit(false);
+            int[] messageIds = new int[messages.size()];
+            for (int i = 0; i < messageIds.length; i++) {
+                messageIds[i] = messages.get(i).getMessage_id();
+            }
+            insertWithIds(connection, messages, messageIds);
+            commit(connection);
+            return messages.size();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+        } finally {
+            // Ensuring that resources (Connection) are closed to prevent resource leaks
+            try {
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Inserts messages under the given IDs in the ongoing transaction, together with their statistics and their
+     * 'created' entries in the change log.
+     */
+    private void insertWithIds(Connection connection, List<Message> messages, int[] messageIds) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) Values(?, ?, ?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
+            for (int i = 0; i < messageIds.length; i++) {
+                Message message = messages.get(i);
+                preparedStatement.setInt(1, messageIds[i]);
+                preparedStatement.setInt(2, message.getPosted_by());
+                preparedStatement.setString(3, message.getMessage_text());
+                preparedStatement.setLong(4, message.getTime_posted_epoch());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        } finally {
+            if (preparedStatement != null) preparedStatement.close();
+        }
+        addToStats(connection, messages);
+        logCreated(connection, messages, messageIds);
+    }
+
+    /**
+     * Retrieves the largest message ID ever assigned, including the IDs of deleted messages still in the change log.
+     *
+     * @return The largest message ID (0 if there were never any messages), or -1 if the database cannot be read.
+     */
+    public int getMaxMessageId(){
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = getConnection();
+            String sql = "SELECT GREATEST((SELECT COALESCE(MAX(message_id), 0) FROM message), "
+                    + "(SELECT COALESCE(MAX(message_id), 0) FROM message_change))";
+            preparedStatement = connection.prepareStatement(sql);
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getInt(1);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves message_id_seq past every ID ever assigned, after messages were inserted with their own IDs, and
+     * forgets the IDs reserved from it before.
+     *
+     * @return True if the sequence was moved.
+     */
+    public boolean restartMessageIds(){
+        int maxMessageId = getMaxMessageId();
+        if (maxMessageId < 0) {
+            return false;
+        }
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = getConnection();
+            statement = connection.createStatement();
+            statement.execute("ALTER SEQUENCE message_id_seq RESTART WITH " + (maxMessageId + 1));
+            messageIds.discard();
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (Statement, Connection) are closed to prevent resource leaks
+            try {
+                if (statement != null) statement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the text of an existing message in the 'message' table by its ID, whatever its version.
      *
      * @param message_id The ID of the message to update.
      * @param message The Message object containing the updated text.
      * @return The updated Message object, or null if the update fails or the message is not found.
      */
     public Message updateMessage(int message_id, Message message){
+        VersionedMessage updated = updateMessageIfVersion(message_id, message, null);
+        return updated == null ? null : updated.getMessage();
+    }
+
+    /**
+     * Updates the text of a message and increments its version, optionally only if it is still at an expected
+     * version. The conditional UPDATE returns the row as it was (OLD TABLE), so a successful update is a single
+     * statement plus its 'updated' entry in the change log, committed in one transaction; no lock is held
+     * between the client's read and its update.
+     *
+     * @param message_id The ID of the message to update.
+     * @param message Holds the new message text.
+     * @param expectedVersion The version the message must be at, or null to update it whatever its version.
+     * @return The updated message with its new version, or null if it does not exist or the update failed.
+     * @throws ConcurrentModificationException If the message is at another version than expectedVersion.
+     */
+    @Override
+    public VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion)
+            throws ConcurrentModificationException {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
         try {
-            connection = ConnectionUtil.getConnection();
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
-            preparedStatement = connection.prepareStatement(sql);
+            connection = getConnection();
+            connection.setAutoCommit(false);
 
-            // Setting parameters for the update query
+            // Returning the row as it was (OLD TABLE): the new row is the old one with the new text and the next
+            // version, and the old text gives the change in length for the poster's statistics
+            String sql = "SELECT * FROM OLD TABLE (UPDATE message SET message_text = ?, version = version + 1 "
+                    + "WHERE message_id = ? AND deleted = FALSE" + (expectedVersion == null ? "" : " AND version = ?") + ")";
+            preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setString(1, message.getMessage_text());
             preparedStatement.setInt(2, message_id);
-            
-            // Executing the update
-            preparedStatement.executeUpdate();
+            if (expectedVersion != null) {
+                preparedStatement.setLong(3, expectedVersion);
+            }
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                String previousText = resultSet.getString("message_text");
+                long previousLength = previousText == null ? 0 : previousText.length();
+                VersionedMessage updated = new VersionedMessage(new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        message.getMessage_text(),
+                        resultSet.getLong("time_posted_epoch")), resultSet.getLong("version") + 1);
+                // Updating the statistics and logging the change only if a row was changed, in the same transaction
+                updateStatsLength(connection, updated.getMessage().getPosted_by(),
+                        updated.getMessage().getMessage_text().length() - previousLength);
+                logChange(connection, message_id, "updated");
+                commit(connection);
+                return updated;
+            }
+            connection.rollback();
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            rollback(connection);
+            return null;
         } finally {
-            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
             try {
+                if (resultSet != null) resultSet.close();
                 if (preparedStatement != null) preparedStatement.close();
                 if (connection != null) connection.close();
             } catch (SQLException e) {
                 System.out.println(e.getMessage());
             }
         }
+
+        // No row was updated: either there is no such message or it is at another version
+        VersionedMessage current = expectedVersion == null ? null : getVersionedMessage(message_id);
+        if (current != null) {
+            throw new ConcurrentModificationException("Message " + message_id + " is at version "
+                    + current.getVersion() + ", not " + expectedVersion + ".");
+        }
         return null;
     }
 
     /**
-     * Deletes a message from the 'message' table by its ID.
+     * Retrieves a message with its version.
+     *
+     * @param message_id The unique ID of the message to retrieve.
+     * @return The message and its version, or null if it does not exist.
+     */
+    @Override
+    public VersionedMessage getVersionedMessage(int message_id) {
+        List<VersionedMessage> messages = getVersionedMessagesByIds(List.of(message_id));
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Retrieves many messages with their versions, with a single query on the primary key.
+     *
+     * @param message_ids The IDs of the messages to retrieve.
+     * @return The messages that exist with their versions, in no particular order.
+     */
+    @Override
+    public List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<VersionedMessage> messages = new ArrayList<>();
+        try {
+            connection = getConnection();
+            String sql = "SELECT * FROM message WHERE message_id = ANY(?) AND deleted = FALSE";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", message_ids.toArray()));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                messages.add(new VersionedMessage(new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch")), resultSet.getLong("version")));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Deletes a message by its ID, as a soft delete: a single UPDATE sets its tombstone and returns the row as it
+     * was (OLD TABLE), and purgeDeletedMessages() removes the row later, in batches. Marking the message, logging
+     * its 'deleted' entry in the change log and updating the poster's statistics are done in one transaction.
+     *
+     * The tombstone is two columns: reads filter on 'deleted = FALSE', a column without an index, so they keep
+     * the plans of their own indexes and only check the flag of the rows they find; 'deleted_at' is only set on
+     * tombstones and its index serves the purge alone (an indexed 'deleted_at IS NULL' filter would lure H2 into
+     * reading every live row through that index).
      *
      * @param message_id The unique ID of the message to delete.
      * @return The deleted Message object, or null if the deletion fails or the message does not exist.
@@ -221,30 +772,40 @@ public class MessageDAO {
     public Message deleteMessageById(int message_id){
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
         try {
-            // Fetching the message using the existing method
-            Message message = getMessageByMessageID(message_id);
-            if (message == null) {
-                return null; // Message doesn't exist
-            }
+            connection = getConnection();
+            connection.setAutoCommit(false);
 
-            // Deleting the message
-            connection = ConnectionUtil.getConnection();
-            String sql = "DELETE FROM message WHERE message_id = ?";
+            // Marking (and locking) the message, and reading it as it was before
+            String sql = "SELECT * FROM OLD TABLE (UPDATE message SET deleted = TRUE, deleted_at = ? "
+                    + "WHERE message_id = ? AND deleted = FALSE)";
             preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setInt(2, message_id);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                connection.rollback();
+                return null; // Message doesn't exist, or was already deleted
+            }
+            Message message = new Message(resultSet.getInt("message_id"),
+                    resultSet.getInt("posted_by"),
+                    resultSet.getString("message_text"),
+                    resultSet.getLong("time_posted_epoch"));
 
-            // Setting the values for message_id
-            preparedStatement.setInt(1, message_id);
-            
-            // Executing the delete query
-            preparedStatement.executeUpdate();
+            // Recording the deletion in the statistics and, from the tombstoned row, in the change log
+            removeFromStats(connection, message);
+            logChange(connection, message_id, "deleted");
+            commit(connection);
 
             return message; // Returning the deleted message
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            rollback(connection);
         } finally {
-            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
             try {
+                if (resultSet != null) resultSet.close();
                 if (preparedStatement != null) preparedStatement.close();
                 if (connection != null) connection.close();
             } catch (SQLException e) {
@@ -253,4 +814,465 @@ public class MessageDAO {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Physically removes messages deleted (tombstoned) at or before a given time, oldest tombstones first: the
+     * batch is picked in deleted_at order from the message_deleted_at_idx index, then deleted by primary key (H2
+     * has no ORDER BY on DELETE). Their change log entries are kept.
+     *
+     * @param deletedBefore Only messages deleted at or before this time, in epoch milliseconds.
+     * @param limit The maximum number of messages to remove in this one transaction.
+     * @return The number of messages removed, or 0 if the delete failed and was rolled back.
+     */
+    @Override
+    public int purgeDeletedMessages(long deletedBefore, int limit){
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = getConnection();
+            String sql = "DELETE FROM message WHERE message_id IN (SELECT message_id FROM message "
+                    + "WHERE deleted_at <= ? ORDER BY deleted_at FETCH FIRST ? ROWS ONLY)";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, deletedBefore);
+            preparedStatement.setInt(2, limit);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Retrieves the changes (creations, updates, deletions) recorded after a given change sequence number,
+     * oldest first. The lookup seeks on the change log's primary key, so its cost depends on the number of
+     * changes returned, not on the size of the message table.
+     *
+     * @param since The last change sequence number the caller has seen (0 for the whole history).
+     * @param limit The maximum number of changes to return.
+     * @return The changes after 'since', or an empty list if there are none.
+     */
+    public List<MessageChange> getChangesSince(long since, int limit){
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<MessageChange> changes = new ArrayList<>();
+        try {
+            connection = getConnection();
+            String sql = "SELECT * FROM message_change WHERE change_seq > ? ORDER BY change_seq LIMIT ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, since);
+            preparedStatement.setInt(2, limit);
+            resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                Message message = new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch"));
+                changes.add(new MessageChange(resultSet.getLong("change_seq"), resultSet.getString("change_type"), message));
+            }
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Retrieves message views with a single query: only the requested columns are selected, and the authors are
+     * joined from the 'account' table (without the password column) rather than looked up one by one.
+     *
+     * @param fields The fields to include, a non-empty subset of VIEW_FIELDS.
+     * @param authors Non-null to embed the authors; they are read from the 'account' table next to 'message'.
+     * @param postedBy Only messages posted by this account (null for all accounts).
+     * @param messageId Only the message with this ID (null for all messages).
+     * @return The views, in message_id order, or an empty list if none match or the query failed.
+     */
+    @Override
+    public List<Map<String, Object>> getMessageViews(List<String> fields, AccountRepository authors,
+                                                     Integer postedBy, Integer messageId) {
+        if (authors != null && dataSource != null) {
+            // A shard database has no 'account' table to join
+            return MessageRepository.super.getMessageViews(fields, authors, postedBy, messageId);
+        }
+        boolean withAuthor = authors != null;
+        String shape = String.join(",", fields) + (withAuthor ? "|author" : "")
+                + (postedBy != null ? "|posted_by" : "") + (messageId != null ? "|message_id" : "");
+        String sql = VIEW_SQL.computeIfAbsent(shape,
+                key -> viewSql(fields, withAuthor, postedBy != null, messageId != null));
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        List<Map<String, Object>> views = new ArrayList<>();
+        try {
+            connection = getConnection();
+            preparedStatement = connection.prepareStatement(sql);
+            int parameter = 1;
+            if (postedBy != null) preparedStatement.setInt(parameter++, postedBy);
+            if (messageId != null) preparedStatement.setInt(parameter, messageId);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                Map<String, Object> view = new LinkedHashMap<>();
+                int column = 1;
+                for (String field : fields) {
+                    if (field.equals("message_text")) {
+                        view.put(field, resultSet.getString(column++));
+                    } else if (field.equals("time_posted_epoch")) {
+                        view.put(field, resultSet.getLong(column++));
+                    } else {
+                        view.put(field, resultSet.getInt(column++));
+                    }
+                }
+                if (withAuthor) {
+                    int accountId = resultSet.getInt(column);
+                    // LEFT JOIN: no account row for the poster gives NULLs
+                    view.put("author", resultSet.wasNull() ? null
+                            : MessageRepository.authorView(accountId, resultSet.getString(column + 1)));
+                }
+                views.add(view);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            // Ensuring that resources (ResultSet, PreparedStatement, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Builds the query of a getMessageViews() shape. Column names only come from VIEW_FIELDS, never from the
+     * request itself.
+     *
+     * @throws IllegalArgumentException If a field is not one of VIEW_FIELDS.
+     */
+    private static String viewSql(List<String> fields, boolean withAuthor, boolean byPoster, boolean byId) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String field : fields) {
+            if (!VIEW_FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Unknown message field: " + field);
+            }
+            sql.append("m.").append(field).append(", ");
+        }
+        if (withAuthor) {
+            sql.append("a.account_id, a.username, ");
+        }
+        sql.setLength(sql.length() - 2);
+        sql.append(" FROM message m");
+        if (withAuthor) {
+            sql.append(" LEFT JOIN account a ON a.account_id = m.posted_by");
+        }
+        sql.append(" WHERE m.deleted = FALSE");
+        if (byPoster) sql.append(" AND m.posted_by = ?");
+        if (byId) sql.append(" AND m.message_id = ?");
+        return sql.append(" ORDER BY m.message_id").toString();
+    }
+
+    /**
+     * Streams messages, in message_id order, to a callback without holding them in memory. The query runs on a
+     * forward-only, read-only cursor with a large fetch size and H2's lazy execution, so rows are produced as the
+     * callback consumes them. Every filter is optional (null to skip).
+     *
+     * @param fromEpoch Only messages posted at or after this epoch.
+     * @param toEpoch Only messages posted at or before this epoch.
+     * @param postedBy Only messages posted by this account.
+     * @param afterId Only messages with a larger message_id, to resume an interrupted export.
+     * @param callback Receives each message.
+     * @return The number of messages streamed.
+     * @throws IOException If the callback or the query failed; the stream is abandoned.
+     */
+    public long streamMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        Connection connection = null;
+        Statement lazyStatement = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        long count = 0;
+        try {
+            connection = getConnection();
+            // Letting H2 compute rows on demand instead of materializing the whole result first
+            lazyStatement = connection.createStatement();
+            lazyStatement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+
+            // Building the WHERE clause from the filters that were given
+            StringBuilder sql = new StringBuilder("SELECT * FROM message WHERE deleted = FALSE");
+            List<Object> parameters = new ArrayList<>();
+            if (fromEpoch != null) { sql.append(" AND time_posted_epoch >= ?"); parameters.add(fromEpoch); }
+            if (toEpoch != null) { sql.append(" AND time_posted_epoch <= ?"); parameters.add(toEpoch); }
+            if (postedBy != null) { sql.append(" AND posted_by = ?"); parameters.add(postedBy); }
+            if (afterId != null) { sql.append(" AND message_id > ?"); parameters.add(afterId); }
+            sql.append(" ORDER BY message_id");
+
+            preparedStatement = connection.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            for (int i = 0; i < parameters.size(); i++) {
+                preparedStatement.setObject(i + 1, parameters.get(i));
+            }
+            resultSet = preparedStatement.executeQuery();
+            while(resultSet.next()){
+                callback.accept(new Message(resultSet.getInt("message_id"),
+                        resultSet.getInt("posted_by"),
+                        resultSet.getString("message_text"),
+                        resultSet.getLong("time_posted_epoch")));
+                count++;
+            }
+        } catch(SQLException e) {
+            // Failing the stream rather than ending it early, so a truncated export is not taken for a complete one
+            throw new IOException(e);
+        } finally {
+            // Ensuring that resources (ResultSet, Statements, Connection) are closed to prevent resource leaks
+            try {
+                if (resultSet != null) resultSet.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (lazyStatement != null) lazyStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends the current state of a message to the change log, on the caller's connection so the entry is
+     * committed (or rolled back) together with the change itself. Its change_seq is reserved from the change
+     * clock, so this must be the last write of the transaction, followed by commit().
+     *
+     * @param connection The connection of the ongoing transaction.
+     * @param message_id The ID of the changed message.
+     * @param change_type "created", "updated" or "deleted".
+     * @throws SQLException If the change log cannot be written; the caller rolls back.
+     */
+    private void logChange(Connection connection, int message_id, String change_type) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            long changeSeq = changeClock.reserve(connection, 1);
+            String sql = "INSERT INTO message_change (change_seq, message_id, change_type, posted_by, message_text, time_posted_epoch) "
+                    + "SELECT ?, message_id, ?, posted_by, message_text, time_posted_epoch FROM message WHERE message_id = ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, changeSeq);
+            preparedStatement.setString(2, change_type);
+            preparedStatement.setInt(3, message_id);
+            preparedStatement.executeUpdate();
+        } finally {
+            if (preparedStatement != null) preparedStatement.close();
+        }
+    }
+
+    /**
+     * Adds messages to their posters' rows of 'account_stats', on the caller's connection so the statistics are
+     * committed (or rolled back) together with the messages. Rows are updated in account_id order, so concurrent
+     * batches lock them in the same order.
+     *
+     * @param connection The connection of the ongoing transaction.
+     * @param messages The messages being inserted.
+     * @throws SQLException If the statistics cannot be written; the caller rolls back.
+     */
+    private void addToStats(Connection connection, List<Message> messages) throws SQLException {
+        // Summing up the messages of each poster: posts, characters, first and last epoch
+        TreeMap<Integer, long[]> byPoster = new TreeMap<>();
+        for (Message message : messages) {
+            long epoch = message.getTime_posted_epoch();
+            long[] sums = byPoster.computeIfAbsent(message.getPosted_by(), posted_by -> new long[] {0, 0, epoch, epoch});
+            sums[0]++;
+            sums[1] += message.getMessage_text().length();
+            sums[2] = Math.min(sums[2], epoch);
+            sums[3] = Math.max(sums[3], epoch);
+        }
+        PreparedStatement updateStatement = null;
+        PreparedStatement insertStatement = null;
+        try {
+            updateStatement = connection.prepareStatement("UPDATE account_stats SET post_count = post_count + ?, "
+                    + "total_chars = total_chars + ?, first_post_epoch = LEAST(COALESCE(first_post_epoch, ?), ?), "
+                    + "last_post_epoch = GREATEST(COALESCE(last_post_epoch, ?), ?) WHERE account_id = ?");
+            for (Map.Entry<Integer, long[]> entry : byPoster.entrySet()) {
+                long[] sums = entry.getValue();
+                updateStatement.setLong(1, sums[0]);
+                updateStatement.setLong(2, sums[1]);
+                updateStatement.setLong(3, sums[2]);
+                updateStatement.setLong(4, sums[2]);
+                updateStatement.setLong(5, sums[3]);
+                updateStatement.setLong(6, sums[3]);
+                updateStatement.setInt(7, entry.getKey());
+                if (updateStatement.executeUpdate() > 0) {
+                    continue;
+                }
+                // The poster's first message in this database: creating its row
+                if (insertStatement == null) {
+                    insertStatement = connection.prepareStatement("INSERT INTO account_stats "
+                            + "(account_id, post_count, total_chars, first_post_epoch, last_post_epoch) Values(?, ?, ?, ?, ?)");
+                }
+                insertStatement.setInt(1, entry.getKey());
+                insertStatement.setLong(2, sums[0]);
+                insertStatement.setLong(3, sums[1]);
+                insertStatement.setLong(4, sums[2]);
+                insertStatement.setLong(5, sums[3]);
+                try {
+                    insertStatement.executeUpdate();
+                } catch (SQLException e) {
+                    // A concurrent first message created the row meanwhile: adding to it instead
+                    if (!DUPLICATE_KEY.equals(e.getSQLState())) {
+                        throw e;
+                    }
+                    updateStatement.executeUpdate();
+                }
+            }
+        } finally {
+            if (updateStatement != null) updateStatement.close();
+            if (insertStatement != null) insertStatement.close();
+        }
+    }
+
+    /**
+     * Adjusts a poster's total characters in 'account_stats' after a text update, on the caller's connection.
+     *
+     * @param connection The connection of the ongoing transaction.
+     * @param posted_by The poster of the updated message.
+     * @param lengthChange The new text's length minus the old one's.
+     * @throws SQLException If the statistics cannot be written; the caller rolls back.
+     */
+    private void updateStatsLength(Connection connection, int posted_by, long lengthChange) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(
+                    "UPDATE account_stats SET total_chars = total_chars + ? WHERE account_id = ?");
+            preparedStatement.setLong(1, lengthChange);
+            preparedStatement.setInt(2, posted_by);
+            preparedStatement.executeUpdate();
+        } finally {
+            if (preparedStatement != null) preparedStatement.close();
+        }
+    }
+
+    /**
+     * Removes a deleted message from its poster's row of 'account_stats', on the caller's connection, after the
+     * message itself was marked deleted. If it was the poster's first or last message, the new first or last epoch is
+     * read from the (posted_by, time_posted_epoch) index; otherwise the row is only adjusted.
+     *
+     * @param connection The connection of the ongoing transaction.
+     * @param message The deleted message.
+     * @throws SQLException If the statistics cannot be written; the caller rolls back.
+     */
+    private void removeFromStats(Connection connection, Message message) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            // Locking the row first, so the epochs below are read after concurrent deletes of the poster committed
+            preparedStatement = connection.prepareStatement(
+                    "SELECT account_id FROM account_stats WHERE account_id = ? FOR UPDATE");
+            preparedStatement.setInt(1, message.getPosted_by());
+            preparedStatement.executeQuery().close();
+            preparedStatement.close();
+
+            preparedStatement = connection.prepareStatement("UPDATE account_stats SET post_count = post_count - 1, "
+                    + "total_chars = total_chars - ?, "
+                    + "first_post_epoch = CASE WHEN first_post_epoch = ? "
+                    + "THEN (SELECT MIN(time_posted_epoch) FROM message WHERE posted_by = ? AND deleted = FALSE) "
+                    + "ELSE first_post_epoch END, "
+                    + "last_post_epoch = CASE WHEN last_post_epoch = ? "
+                    + "THEN (SELECT MAX(time_posted_epoch) FROM message WHERE posted_by = ? AND deleted = FALSE) "
+                    + "ELSE last_post_epoch END "
+                    + "WHERE account_id = ?");
+            preparedStatement.setLong(1, message.getMessage_text().length());
+            preparedStatement.setLong(2, message.getTime_posted_epoch());
+            preparedStatement.setInt(3, message.getPosted_by());
+            preparedStatement.setLong(4, message.getTime_posted_epoch());
+            preparedStatement.setInt(5, message.getPosted_by());
+            preparedStatement.setInt(6, message.getPosted_by());
+            preparedStatement.executeUpdate();
+        } finally {
+            if (preparedStatement != null) preparedStatement.close();
+        }
+    }
+
+    /**
+     * Appends the 'created' entries of newly inserted messages to the change log in one JDBC batch, from the
+     * values already at hand, on the caller's connection. Like logChange(), this must be the last write of the
+     * transaction.
+     *
+     * @param connection The connection of the ongoing transaction.
+     * @param messages The inserted messages.
+     * @param messageIds The ID of each inserted message, in the same order.
+     * @throws SQLException If the change log cannot be written; the caller rolls back.
+     */
+    private void logCreated(Connection connection, List<Message> messages, int[] messageIds) throws SQLException {
+        PreparedStatement changeStatement = null;
+        try {
+            long changeSeq = changeClock.reserve(connection, messageIds.length);
+            changeStatement = connection.prepareStatement("INSERT INTO message_change "
+                    + "(change_seq, message_id, change_type, posted_by, message_text, time_posted_epoch) "
+                    + "Values(?, ?, 'created', ?, ?, ?)");
+            for (int i = 0; i < messageIds.length; i++) {
+                Message message = messages.get(i);
+                changeStatement.setLong(1, changeSeq + i);
+                changeStatement.setInt(2, messageIds[i]);
+                changeStatement.setInt(3, message.getPosted_by());
+                changeStatement.setString(4, message.getMessage_text());
+                changeStatement.setLong(5, message.getTime_posted_epoch());
+                changeStatement.addBatch();
+            }
+            changeStatement.executeBatch();
+        } finally {
+            if (changeStatement != null) changeStatement.close();
+        }
+    }
+
+    /**
+     * @return A connection to the database holding the messages.
+     * @throws SQLException If the database cannot be reached.
+     */
+    private Connection getConnection() throws SQLException {
+        return dataSource == null ? ConnectionUtil.getConnection() : dataSource.getConnection();
+    }
+
+    /**
+     * Rolls back the transaction on a connection after a failure, if there is one.
+     *
+     * @param connection The connection to roll back, possibly null.
+     */
+    private void rollback(Connection connection) {
+        try {
+            if (connection != null) connection.rollback();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            changeClock.release();
+        }
+    }
+
+    /**
+     * Commits the transaction on a connection, then lets other transactions reserve change_seq values again.
+     *
+     * @param connection The connection to commit.
+     * @throws SQLException If the commit failed; the caller rolls back.
+     */
+    private void commit(Connection connection) throws SQLException {
+        try {
+            connection.commit();
+        } finally {
+            changeClock.release();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package DAO;
+
+import Model.AccountStats;
+import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import Util.Config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The storage operations MessageService needs, implemented by each storage engine:
+ * - MessageDAO keeps messages in the H2 database (the default).
+ * - LogStructuredMessageStore appends them to memory-mapped log segments, for write-heavy deployments.
+ * - InMemoryMessageStore serves them from process memory, writing through to H2, for latency-critical reads.
+ * - ShardedMessageStore spreads them over several H2 databases, routed by poster.
+ * - PartitionedMessageStore keeps them in monthly tables of the H2 database.
+ * - WriteAheadMessageStore acknowledges posts from a write-ahead log and applies them to H2 in the background
+ *   (the "h2" engine with "storage.wal.enabled").
+ *
+ * The engine is chosen with the "storage.engine" setting. Every implementation assigns unique message IDs
+ * (increasing, except across the shards of ShardedMessageStore), records each change for getChangesSince(), and
+ * follows MessageDAO's conventions: lookups return null or an empty list when nothing is found, and failed
+ * writes return null (or 0 for batches).
+ */
+public interface MessageRepository {
+    // The order of getLatestMessages()
+    Comparator<Message> LATEST_FIRST = Comparator.comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id).reversed();
+
+    // The message fields a view can hold, in the order they are written
+    List<String> VIEW_FIELDS = List.of("message_id", "posted_by", "message_text", "time_posted_epoch");
+
+    /**
+     * Creates the repository selected by the "storage.engine" setting: "h2" (default), "log", "memory",
+     * "sharded" or "partitioned".
+     * The in-memory store starts with the messages currently in H2 and follows their changes from then on. With
+     * "storage.wal.enabled", the "h2" engine acknowledges posts from a write-ahead log.
+     *
+     * @return A new repository; close() must be called when it is no longer used.
+     * @throws IllegalArgumentException If the engine name is unknown.
+     * @throws UncheckedIOException If the log store or the write-ahead log cannot be opened.
+     */
+    static MessageRepository fromConfig() {
+        String engine = Config.get("storage.engine", "h2");
+        switch (engine) {
+            case "h2":
+                if (Config.getBoolean("storage.wal.enabled", false)) {
+                    try {
+                        return WriteAheadMessageStore.fromConfig(new MessageDAO());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return new MessageDAO();
+            case "log":
+                try {
+                    return LogStructuredMessageStore.fromConfig(Paths.get(Config.get("storage.log.directory", "log-store")));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            case "memory":
+                return InMemoryMessageStore.loadFrom(new MessageDAO());
+            case "sharded":
+                return ShardedMessageStore.fromConfig();
+            case "partitioned":
+                return PartitionedMessageStore.fromConfig();
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    /**
+     * @return All messages, in message_id order.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * @param message_id The unique ID of the message to retrieve.
+     * @return The message, or null if it does not exist.
+     */
+    Message getMessageByMessageID(int message_id);
+
+    /**
+     * @param account_id The ID of the account whose messages are retrieved.
+     * @return The messages posted by the account, or an empty list.
+     */
+    List<Message> getAllMessagesByAccountID(int account_id);
+
+    /**
+     * Retrieves the most recently posted messages. The default implementation sorts every message; engines
+     * override it with an index or by pruning old data.
+     *
+     * @param limit The maximum number of messages to return.
+     * @return The latest messages, newest first (by time_posted_epoch, then message_id).
+     */
+    default List<Message> getLatestMessages(int limit) {
+        List<Message> messages = getAllMessages();
+        messages.sort(LATEST_FIRST);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    /**
+     * Retrieves the messages posted within a time range, in time order. The default implementation filters and
+     * sorts every message (of the poster); the H2 engines read a range of their time_posted_epoch index instead.
+     *
+     * @param posted_by Only messages posted by this account, or null for every account.
+     * @param fromEpoch Only messages posted at or after this epoch, or null for no lower bound.
+     * @param toEpoch Only messages posted at or before this epoch, or null for no upper bound.
+     * @param newestFirst True for the newest messages first, false for the oldest first (by time_posted_epoch,
+     *                    then message_id).
+     * @param limit The maximum number of messages to return.
+     * @return The first 'limit' messages of the range in that order, or an empty list.
+     */
+    default List<Message> getMessagesInRange(Integer posted_by, Long fromEpoch, Long toEpoch, boolean newestFirst,
+                                             int limit) {
+        List<Message> messages = new ArrayList<>(posted_by == null ? getAllMessages() : getAllMessagesByAccountID(posted_by));
+        messages.removeIf(message -> (fromEpoch != null && message.getTime_posted_epoch() < fromEpoch)
+                || (toEpoch != null && message.getTime_posted_epoch() > toEpoch));
+        messages.sort(newestFirst ? LATEST_FIRST : LATEST_FIRST.reversed());
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    /**
+     * Retrieves the statistics of an account's messages. The default implementation counts the account's
+     * messages; MessageDAO keeps them in the 'account_stats' table, updated with every message change.
+     *
+     * @param account_id The ID of the account.
+     * @return The statistics, with a post_count of 0 if the account has no messages (or does not exist).
+     */
+    default AccountStats getAccountStats(int account_id) {
+        long postCount = 0;
+        long totalChars = 0;
+        Long firstPostEpoch = null;
+        Long lastPostEpoch = null;
+        for (Message message : getAllMessagesByAccountID(account_id)) {
+            long epoch = message.getTime_posted_epoch();
+            postCount++;
+            totalChars += message.getMessage_text().length();
+            firstPostEpoch = firstPostEpoch == null ? epoch : Math.min(firstPostEpoch, epoch);
+            lastPostEpoch = lastPostEpoch == null ? epoch : Math.max(lastPostEpoch, epoch);
+        }
+        return new AccountStats(account_id, postCount, totalChars, firstPostEpoch, lastPostEpoch);
+    }
+
+    /**
+     * Retrieves many messages at once. The default implementation looks them up one by one; MessageDAO uses a
+     * single query.
+     *
+     * @param message_ids The IDs of the messages to retrieve.
+     * @return The messages that exist, in no particular order.
+     */
+    default List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        List<Message> messages = new ArrayList<>();
+        for (Integer message_id : message_ids) {
+            Message message = message_id == null ? null : getMessageByMessageID(message_id);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the latest messages of several accounts at once. The default implementation reads each account's
+     * messages in turn; MessageDAO ranks them per account in a single query.
+     *
+     * @param account_ids The IDs of the accounts whose messages are retrieved.
+     * @param limit The maximum number of messages per account.
+     * @return The latest messages of each account that has any, newest first (like getLatestMessages()).
+     */
+    default Map<Integer, List<Message>> getLatestMessagesByAccountIds(Collection<Integer> account_ids, int limit) {
+        Map<Integer, List<Message>> timelines = new HashMap<>();
+        for (Integer account_id : account_ids) {
+            List<Message> messages = account_id == null ? List.of() : getAllMessagesByAccountID(account_id);
+            if (!messages.isEmpty()) {
+                messages = new ArrayList<>(messages);
+                messages.sort(LATEST_FIRST);
+                timelines.put(account_id, messages.size() > limit
+                        ? new ArrayList<>(messages.subList(0, limit)) : messages);
+            }
+        }
+        return timelines;
+    }
+
+    /**
+     * @param message The message to store; its message_id is ignored.
+     * @return The stored message with its generated ID, or null if the insert failed.
+     */
+    Message insertMessage(Message message);
+
+    /**
+     * Stores many messages at once; either all are stored or none are.
+     *
+     * @param messages The messages to store; their message_id is ignored.
+     * @return The number of messages stored, or 0 if the batch failed.
+     */
+    int insertMessagesBatch(List<Message> messages);
+
+    /**
+     * @param message_id The ID of the message to update.
+     * @param message Holds the new message text.
+     * @return The updated message, or null if it does not exist or the update failed.
+     */
+    Message updateMessage(int message_id, Message message);
+
+    /**
+     * Retrieves a message with its version, which starts at 1 and is incremented by every update, so a version
+     * is never seen twice for a message.
+     *
+     * @param message_id The unique ID of the message to retrieve.
+     * @return The message and its version, or null if it does not exist.
+     */
+    VersionedMessage getVersionedMessage(int message_id);
+
+    /**
+     * Retrieves many messages with their versions, like getMessagesByIds().
+     *
+     * @param message_ids The IDs of the messages to retrieve.
+     * @return The messages that exist with their versions, in no particular order.
+     */
+    List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids);
+
+    /**
+     * Updates a message's text and increments its version, optionally only if it is still at the version the
+     * caller last read (optimistic concurrency). The check and the update are one atomic step of the engine.
+     *
+     * @param message_id The ID of the message to update.
+     * @param message Holds the new message text.
+     * @param expectedVersion The version the message must be at, or null to update it whatever its version.
+     * @return The updated message with its new version, or null if it does not exist or the update failed.
+     * @throws ConcurrentModificationException If the message is at another version than expectedVersion.
+     */
+    VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion)
+            throws ConcurrentModificationException;
+
+    /**
+     * @param message_id The ID of the message to delete.
+     * @return The message as it was before deletion, or null if it did not exist.
+     */
+    Message deleteMessageById(int message_id);
+
+    /**
+     * Physically removes messages that were deleted (soft deleted, see MessageDAO) at or before a given time. The
+     * default implementation has nothing to remove, for engines whose deletes are immediate.
+     *
+     * @param deletedBefore Only messages deleted at or before this time, in epoch milliseconds.
+     * @param limit The maximum number of messages to remove in one call.
+     * @return The number of messages removed.
+     */
+    default int purgeDeletedMessages(long deletedBefore, int limit) {
+        return 0;
+    }
+
+    /**
+     * @param since The last change sequence number the caller has seen (0 for the whole history).
+     * @param limit The maximum number of changes to return.
+     * @return The changes after 'since', oldest first.
+     */
+    List<MessageChange> getChangesSince(long since, int limit);
+
+    /**
+     * Streams messages in message_id order without holding them all in memory. Every filter is optional.
+     *
+     * @param fromEpoch Only messages posted at or after this epoch.
+     * @param toEpoch Only messages posted at or before this epoch.
+     * @param postedBy Only messages posted by this account.
+     * @param afterId Only messages with a larger message_id.
+     * @param callback Receives each message.
+     * @return The number of messages streamed.
+     * @throws IOException If the callback or the storage failed; the stream is abandoned.
+     */
+    long streamMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                        RowCallback<Message> callback) throws IOException;
+
+    /**
+     * Retrieves messages as views holding only some of their fields, and optionally their author ("account_id"
+     * and "username", never the password) under "author". The default implementation reads whole messages and
+     * looks up each distinct author once; MessageDAO selects only the requested columns and joins the authors in
+     * the same query.
+     *
+     * @param fields The fields to include, a non-empty subset of VIEW_FIELDS in VIEW_FIELDS order.
+     * @param authors The accounts to embed the authors from, or null to leave them out.
+     * @param postedBy Only messages posted by this account (null for all accounts).
+     * @param messageId Only the message with this ID (null for all messages).
+     * @return The views, in message_id order; "author" is null for messages whose author no longer exists.
+     */
+    default List<Map<String, Object>> getMessageViews(List<String> fields, AccountRepository authors,
+                                                      Integer postedBy, Integer messageId) {
+        List<Message> messages;
+        if (messageId != null) {
+            Message message = getMessageByMessageID(messageId);
+            messages = new ArrayList<>();
+            if (message != null && (postedBy == null || message.getPosted_by() == postedBy)) {
+                messages.add(message);
+            }
+        } else {
+            messages = postedBy == null ? getAllMessages() : getAllMessagesByAccountID(postedBy);
+            messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        }
+
+        Map<Integer, String> usernames = null;
+        if (authors != null && !messages.isEmpty()) {
+            Set<Integer> authorIds = new LinkedHashSet<>();
+            for (Message message : messages) {
+                authorIds.add(message.getPosted_by());
+            }
+            usernames = authors.getUsernamesByIds(authorIds);
+        }
+
+        List<Map<String, Object>> views = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            Map<String, Object> view = new LinkedHashMap<>();
+            for (String field : fields) {
+                switch (field) {
+                    case "message_id": view.put(field, message.getMessage_id()); break;
+                    case "posted_by": view.put(field, message.getPosted_by()); break;
+                    case "message_text": view.put(field, message.getMessage_text()); break;
+                    case "time_posted_epoch": view.put(field, message.getTime_posted_epoch()); break;
+                    default: throw new IllegalArgumentException("Unknown message field: " + field);
+                }
+            }
+            if (authors != null) {
+                String username = usernames.get(message.getPosted_by());
+                view.put("author", username == null ? null : authorView(message.getPosted_by(), username));
+            }
+            views.add(view);
+        }
+        return views;
+    }
+
+    /**
+     * @param accountId The author's account ID.
+     * @param username The author's username.
+     * @return The "author" of a message view.
+     */
+    static Map<String, Object> authorView(int accountId, String username) {
+        Map<String, Object> author = new LinkedHashMap<>();
+        author.put("account_id", accountId);
+        author.put("username", username);
+        return author;
+    }
+
+    /**
+     * Releases the files, threads or connections held by the repository. Nothing to do for H2, whose
+     * connections are opened per call.
+     */
+    default void close() {
+    }
+}
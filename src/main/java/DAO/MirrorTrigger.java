@@ -0,0 +1,162 @@
+package DAO;
+
+import Util.ConnectionUtil;
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Keeps the stores of the "memory" engine in step with the H2 tables they mirror. H2 calls this trigger after
+ * every row inserted, updated or deleted in a mirrored table, by this application or by any other connection to
+ * the database, and calls it again with the rows swapped when the transaction is rolled back. Each call is passed
+ * on to the listeners attached to the table.
+ *
+ * Listeners run inside the writing transaction, so they must not query the database, and they see its changes
+ * before it commits: a store kept up to date this way reads uncommitted. A change that is rolled back is visible
+ * until the rollback undoes it, and a reader may see a change before the writer's own call has returned.
+ */
+public class MirrorTrigger implements Trigger {
+    // The listeners of each mirrored table, by upper-case table name
+    private static final Map<String, Set<Listener>> LISTENERS = new ConcurrentHashMap<>();
+
+    private Set<Listener> listeners;
+    private Map<String, Integer> columns;
+
+    /**
+     * Receives the row changes of a mirrored table.
+     */
+    public interface Listener {
+        /**
+         * @param oldRow The row before the change, or null for an insert.
+         * @param newRow The row after the change, or null for a delete.
+         */
+        void rowChanged(Row oldRow, Row newRow);
+    }
+
+    /**
+     * A row of a mirrored table, read by column name.
+     */
+    public static class Row {
+        private final Object[] values;
+        private final Map<String, Integer> columns;
+
+        Row(Object[] values, Map<String, Integer> columns) {
+            this.values = values;
+            this.columns = columns;
+        }
+
+        public int getInt(String column) {
+            Object value = get(column);
+            return value == null ? 0 : ((Number) value).intValue();
+        }
+
+        public long getLong(String column) {
+            Object value = get(column);
+            return value == null ? 0 : ((Number) value).longValue();
+        }
+
+        public String getString(String column) {
+            return (String) get(column);
+        }
+
+        public boolean getBoolean(String column) {
+            return Boolean.TRUE.equals(get(column));
+        }
+
+        private Object get(String column) {
+            Integer index = columns.get(column);
+            return index == null ? null : values[index];
+        }
+    }
+
+    /**
+     * Starts passing the row changes of a table to a listener, creating the table's trigger if needed.
+     *
+     * @param table The name of the table.
+     * @param listener The listener to add.
+     * @throws IllegalStateException If the trigger cannot be created.
+     */
+    public static void attach(String table, Listener listener) {
+        LISTENERS.computeIfAbsent(table.toUpperCase(Locale.ROOT), name -> new CopyOnWriteArraySet<>()).add(listener);
+        try {
+            execute("CREATE TRIGGER IF NOT EXISTS " + table + "_memory_mirror AFTER INSERT, UPDATE, DELETE, ROLLBACK ON "
+                    + table + " FOR EACH ROW CALL \"" + MirrorTrigger.class.getName() + "\"");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not mirror the " + table + " table: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops passing the row changes of a table to a listener. The trigger is dropped with the last listener, so
+     * the database is not left depending on this class.
+     *
+     * @param table The name of the table.
+     * @param listener The listener to remove.
+     */
+    public static void detach(String table, Listener listener) {
+        Set<Listener> attached = LISTENERS.get(table.toUpperCase(Locale.ROOT));
+        if (attached == null || !attached.remove(listener) || !attached.isEmpty()) {
+            return;
+        }
+        try {
+            execute("DROP TRIGGER IF EXISTS " + table + "_memory_mirror");
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Called by H2 when the trigger is loaded: finds the position of each column of the table.
+     */
+    @Override
+    public void init(Connection connection, String schemaName, String triggerName, String tableName,
+                     boolean before, int type) throws SQLException {
+        listeners = LISTENERS.computeIfAbsent(tableName, name -> new CopyOnWriteArraySet<>());
+        columns = new HashMap<>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet resultSet = metaData.getColumns(null, schemaName, tableName, null);
+        try {
+            while (resultSet.next()) {
+                columns.put(resultSet.getString("COLUMN_NAME").toLowerCase(Locale.ROOT),
+                        resultSet.getInt("ORDINAL_POSITION") - 1);
+            }
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Called by H2 for every changed row, and with the rows swapped for every change rolled back.
+     */
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) {
+        Row before = oldRow == null ? null : new Row(oldRow, columns);
+        Row after = newRow == null ? null : new Row(newRow, columns);
+        for (Listener listener : listeners) {
+            listener.rowChanged(before, after);
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        Connection connection = ConnectionUtil.getConnection();
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } finally {
+            // Ensuring that resources (Statement, Connection) are closed to prevent resource leaks
+            if (statement != null) statement.close();
+            connection.close();
+        }
+    }
+}
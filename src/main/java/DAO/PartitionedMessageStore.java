@@ -0,0 +1,892 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import Util.BackgroundTasks;
+import Util.Config;
+import Util.ConnectionUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Stores messages in monthly tables of the H2 database (message_p202212 holds the messages whose
+ * time_posted_epoch falls in December 2022, UTC), for the "partitioned" storage engine. Most reads only touch
+ * recent messages, and with one table per month they no longer pay for the whole history:
+ *
+ * - Time-bounded exports only query the months overlapping the range, and getLatestMessages() reads the newest
+ *   months first and stops as soon as it has enough messages.
+ * - ID lookups go straight to the right table through an in-memory map from message_id to partition, stored as
+ *   one short per ID (IDs are dense), and rebuilt from the tables at startup.
+ * - Old months are dropped (optionally after being archived to CSV) with one DROP TABLE, instead of deleting
+ *   rows one by one from a large table.
+ *
+ * Message IDs come from one sequence shared by all partitions, and changes are logged in the usual
+ * message_change table, in the same transaction as the change itself and numbered by the same change clock as
+ * MessageDAO's.
+ */
+public class PartitionedMessageStore implements MessageRepository {
+    // Partition tables are named after their month: message_p202212
+    private static final String TABLE_PREFIX = "MESSAGE_P";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    // Epochs outside years 1 to 9999 are stored in the first or last of those months
+    private static final long MIN_EPOCH = -62135596800L;
+    private static final long MAX_EPOCH = 253402300799L;
+
+    /**
+     * One monthly table. Its number is the value stored for its messages in the ID-to-partition map.
+     */
+    private static final class Partition {
+        final short number;
+        final YearMonth month;
+        final String table;
+        final long startEpoch;
+        final long endEpoch;
+
+        Partition(short number, YearMonth month) {
+            this.number = number;
+            this.month = month;
+            this.table = tableName(month);
+            this.startEpoch = month.atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+            this.endEpoch = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        }
+    }
+
+    private final MessageDAO changeLog = new MessageDAO();
+    private final ChangeClock changeClock = new TableChangeClock();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock: the partitions by month, and by number (index 0 unused, as 0 means "no partition")
+    private final NavigableMap<YearMonth, Partition> partitions = new TreeMap<>();
+    private Partition[] partitionsByNumber = new Partition[16];
+    private short lastNumber;
+    // Guarded by lock: the number of the partition holding each message_id, 0 if none
+    private short[] partitionOfMessage = new short[1024];
+    private final List<ScheduledFuture<?>> backgroundTasks = new ArrayList<>();
+
+    /**
+     * Opens the partitions found in the database, rebuilding the ID-to-partition map.
+     */
+    public PartitionedMessageStore() {
+        execute("CREATE SEQUENCE IF NOT EXISTS message_partition_seq");
+        List<String> tables = new ArrayList<>();
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("SELECT table_name FROM information_schema.tables "
+                    + "WHERE table_schema = 'PUBLIC' AND table_name LIKE 'MESSAGE\\_P%' ESCAPE '\\'");
+            while (resultSet.next()) {
+                tables.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not list the message partitions: " + e.getMessage(), e);
+        } finally {
+            close(resultSet, statement, connection);
+        }
+
+        for (String table : tables) {
+            String month = table.substring(TABLE_PREFIX.length());
+            if (month.matches("\\d{6}")) {
+                Partition partition = register(YearMonth.parse(month, MONTH_FORMAT));
+                // Partitions created before messages had versions
+                execute("ALTER TABLE " + partition.table + " ADD COLUMN IF NOT EXISTS version int DEFAULT 1 NOT NULL");
+                for (int messageId : queryIds("SELECT message_id FROM " + partition.table)) {
+                    setPartition(messageId, partition.number);
+                }
+            }
+        }
+        restartIds();
+    }
+
+    /**
+     * Opens the partitions, first filling them with the messages of the 'message' table if there are none, so
+     * switching engines keeps the existing messages and their IDs. Partitions older than
+     * "storage.partitions.retention.months" (default 0: keep all) are dropped every hour, after being archived to
+     * "storage.partitions.archive.directory" if it is set.
+     *
+     * @return The opened store.
+     */
+    public static PartitionedMessageStore fromConfig() {
+        PartitionedMessageStore store = new PartitionedMessageStore();
+        if (store.getPartitionCount() == 0) {
+            store.loadFrom(new MessageDAO());
+        }
+        int retentionMonths = Config.getInt("storage.partitions.retention.months", 0);
+        if (retentionMonths > 0) {
+            String archive = Config.get("storage.partitions.archive.directory", "");
+            Path archiveDirectory = archive.isEmpty() ? null : Paths.get(archive);
+            Runnable retention = () -> {
+                YearMonth oldestKept = YearMonth.now(ZoneOffset.UTC).minusMonths(retentionMonths);
+                store.dropPartitionsBefore(oldestKept.atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond(),
+                        archiveDirectory);
+            };
+            retention.run();
+            store.backgroundTasks.add(BackgroundTasks.scheduleEvery("partition-retention", retention, 60 * 60 * 1000L));
+        }
+        return store;
+    }
+
+    /**
+     * @return The number of monthly partitions.
+     */
+    public int getPartitionCount() {
+        lock.readLock().lock();
+        try {
+            return partitions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies every message of another repository into the partitions, keeping their IDs. The copies are not
+     * logged as changes: the messages are already in the change log shared with MessageDAO.
+     *
+     * @param source The repository to copy from.
+     */
+    public void loadFrom(MessageRepository source) {
+        List<Message> batch = new ArrayList<>();
+        try {
+            source.streamMessages(null, null, null, null, message -> {
+                batch.add(message);
+                if (batch.size() == 1000) {
+                    insert(batch, false);
+                    batch.clear();
+                }
+            });
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        insert(batch, false);
+        restartIds();
+    }
+
+    /**
+     * Drops the partitions whose whole month is before an epoch. The dropped messages disappear without
+     * 'deleted' entries in the change log: dropping is retention, not deletion by a user.
+     *
+     * @param epoch Partitions ending at or before this epoch are dropped.
+     * @param archiveDirectory If not null, each partition is first written there as a CSV file named after its
+     *                         table; a partition that cannot be archived is not dropped.
+     * @return The number of partitions dropped.
+     */
+    public int dropPartitionsBefore(long epoch, Path archiveDirectory) {
+        List<Partition> expired = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Partition partition : partitions.values()) {
+                if (partition.endEpoch <= epoch) {
+                    expired.add(partition);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int dropped = 0;
+        for (Partition partition : expired) {
+            if (archiveDirectory != null) {
+                try {
+                    Files.createDirectories(archiveDirectory);
+                    Path file = archiveDirectory.toAbsolutePath().resolve(partition.table.toLowerCase() + ".csv");
+                    execute("CALL CSVWRITE('" + file.toString().replace("'", "''") + "', "
+                            + "'SELECT * FROM " + partition.table + " ORDER BY message_id')");
+                } catch (IOException | IllegalStateException e) {
+                    System.out.println("Could not archive " + partition.table + ": " + e.getMessage());
+                    continue;
+                }
+            }
+            List<Integer> messageIds = queryIds("SELECT message_id FROM " + partition.table);
+            lock.writeLock().lock();
+            try {
+                execute("DROP TABLE IF EXISTS " + partition.table);
+                partitions.remove(partition.month);
+                partitionsByNumber[partition.number] = null;
+                for (int messageId : messageIds) {
+                    partitionOfMessage[messageId] = 0;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            dropped++;
+        }
+        return dropped;
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> messages = new ArrayList<>();
+        List<Partition> all = partitionsBetween(null, null);
+        if (!all.isEmpty()) {
+            query(union(all, "") + " ORDER BY message_id", new ArrayList<>(), messages);
+        }
+        return messages;
+    }
+
+    @Override
+    public Message getMessageByMessageID(int message_id) {
+        Partition partition = partitionOf(message_id);
+        if (partition == null) {
+            return null;
+        }
+        List<Message> messages = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(message_id);
+        query("SELECT * FROM " + partition.table + " WHERE message_id = ?", parameters, messages);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    @Override
+    public VersionedMessage getVersionedMessage(int message_id) {
+        Partition partition = partitionOf(message_id);
+        if (partition == null) {
+            return null;
+        }
+        List<VersionedMessage> messages = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(message_id);
+        queryVersioned("SELECT * FROM " + partition.table + " WHERE message_id = ?", parameters, messages);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Looks the messages up in the partitions holding them, one query per partition.
+     */
+    @Override
+    public List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids) {
+        Map<Partition, List<Integer>> idsByPartition = new HashMap<>();
+        for (Integer message_id : message_ids) {
+            Partition partition = message_id == null ? null : partitionOf(message_id);
+            if (partition != null) {
+                idsByPartition.computeIfAbsent(partition, key -> new ArrayList<>()).add(message_id);
+            }
+        }
+        List<VersionedMessage> messages = new ArrayList<>();
+        for (Map.Entry<Partition, List<Integer>> entry : idsByPartition.entrySet()) {
+            List<Object> parameters = new ArrayList<>();
+            parameters.add(entry.getValue().toArray());
+            queryVersioned("SELECT * FROM " + entry.getKey().table + " WHERE message_id = ANY(?)", parameters, messages);
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountID(int account_id) {
+        // Every month may hold messages of the account; each partition looks them up in its posted_by index
+        List<Message> messages = new ArrayList<>();
+        List<Partition> all = partitionsBetween(null, null);
+        if (!all.isEmpty()) {
+            List<Object> parameters = new ArrayList<>();
+            for (int i = 0; i < all.size(); i++) {
+                parameters.add(account_id);
+            }
+            query(union(all, " WHERE posted_by = ?") + " ORDER BY message_id", parameters, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Reads the newest partitions first, and stops once the next partition can only hold older messages.
+     */
+    @Override
+    public List<Message> getLatestMessages(int limit) {
+        List<Message> messages = new ArrayList<>();
+        List<Partition> all = partitionsBetween(null, null);
+        for (int i = all.size() - 1; i >= 0 && messages.size() < limit; i--) {
+            List<Object> parameters = new ArrayList<>();
+            parameters.add(limit - messages.size());
+            query("SELECT * FROM " + all.get(i).table + " ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?",
+                    parameters, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Reads the partitions overlapping the range in the requested order, each from its time_posted_epoch index
+     * (or its posted_by index, for one poster), and stops once it has enough messages.
+     */
+    @Override
+    public List<Message> getMessagesInRange(Integer posted_by, Long fromEpoch, Long toEpoch, boolean newestFirst,
+                                            int limit) {
+        List<Message> messages = new ArrayList<>();
+        List<Partition> pruned = partitionsBetween(fromEpoch, toEpoch);
+        if (newestFirst) {
+            Collections.reverse(pruned);
+        }
+        String direction = newestFirst ? " DESC" : "";
+        for (int i = 0; i < pruned.size() && messages.size() < limit; i++) {
+            List<Object> parameters = new ArrayList<>();
+            if (posted_by != null) {
+                parameters.add(posted_by);
+            }
+            parameters.add(fromEpoch == null ? Long.MIN_VALUE : fromEpoch);
+            parameters.add(toEpoch == null ? Long.MAX_VALUE : toEpoch);
+            parameters.add(limit - messages.size());
+            query("SELECT * FROM " + pruned.get(i).table + " WHERE " + (posted_by != null ? "posted_by = ? AND " : "")
+                    + "time_posted_epoch >= ? AND time_posted_epoch <= ? "
+                    + "ORDER BY time_posted_epoch" + direction + ", message_id" + direction + " LIMIT ?",
+                    parameters, messages);
+        }
+        return messages;
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        List<Message> inserted = insert(Arrays.asList(message), true);
+        return inserted.isEmpty() ? null : inserted.get(0);
+    }
+
+    @Override
+    public int insertMessagesBatch(List<Message> messages) {
+        return insert(messages, true).size();
+    }
+
+    @Override
+    public Message updateMessage(int message_id, Message message) {
+        VersionedMessage updated = updateMessageIfVersion(message_id, message, null);
+        return updated == null ? null : updated.getMessage();
+    }
+
+    /**
+     * Updates the text and increments the version with one conditional UPDATE returning the updated row, like
+     * MessageDAO.
+     */
+    @Override
+    public VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion)
+            throws ConcurrentModificationException {
+        Partition partition = partitionOf(message_id);
+        if (partition == null) {
+            return null;
+        }
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            preparedStatement = connection.prepareStatement("SELECT * FROM FINAL TABLE (UPDATE " + partition.table
+                    + " SET message_text = ?, version = version + 1 WHERE message_id = ?"
+                    + (expectedVersion == null ? "" : " AND version = ?") + ")");
+            preparedStatement.setString(1, message.getMessage_text());
+            preparedStatement.setInt(2, message_id);
+            if (expectedVersion != null) {
+                preparedStatement.setLong(3, expectedVersion);
+            }
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                VersionedMessage updated = new VersionedMessage(readMessage(resultSet), resultSet.getLong("version"));
+                logChange(connection, updated.getMessage(), "updated");
+                connection.commit();
+                return updated;
+            }
+            connection.rollback();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+            return null;
+        } finally {
+            close(resultSet, preparedStatement, connection);
+        }
+
+        // No row was updated: either there is no such message or it is at another version
+        VersionedMessage current = expectedVersion == null ? null : getVersionedMessage(message_id);
+        if (current != null) {
+            throw new ConcurrentModificationException("Message " + message_id + " is at version "
+                    + current.getVersion() + ", not " + expectedVersion + ".");
+        }
+        return null;
+    }
+
+    @Override
+    public Message deleteMessageById(int message_id) {
+        Partition partition = partitionOf(message_id);
+        if (partition == null) {
+            return null;
+        }
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        Message message;
+        try {
+            connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            // Deleting the message and reading it as it was, then recording the deletion
+            preparedStatement = connection.prepareStatement(
+                    "SELECT * FROM OLD TABLE (DELETE FROM " + partition.table + " WHERE message_id = ?)");
+            preparedStatement.setInt(1, message_id);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                // Deleted by someone else meanwhile
+                connection.rollback();
+                return null;
+            }
+            message = readMessage(resultSet);
+            logChange(connection, message, "deleted");
+            connection.commit();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+            return null;
+        } finally {
+            close(resultSet, preparedStatement, connection);
+        }
+        setPartition(message_id, (short) 0);
+        return message;
+    }
+
+    @Override
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        return changeLog.getChangesSince(since, limit);
+    }
+
+    /**
+     * Only the partitions whose month overlaps [fromEpoch, toEpoch] are queried.
+     */
+    @Override
+    public long streamMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        List<Partition> pruned = partitionsBetween(fromEpoch, toEpoch);
+        if (pruned.isEmpty()) {
+            return 0;
+        }
+        // Building the same WHERE clause for every partition from the filters that were given
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        List<Object> filters = new ArrayList<>();
+        if (fromEpoch != null) { where.append(" AND time_posted_epoch >= ?"); filters.add(fromEpoch); }
+        if (toEpoch != null) { where.append(" AND time_posted_epoch <= ?"); filters.add(toEpoch); }
+        if (postedBy != null) { where.append(" AND posted_by = ?"); filters.add(postedBy); }
+        if (afterId != null) { where.append(" AND message_id > ?"); filters.add(afterId); }
+        List<Object> parameters = new ArrayList<>();
+        for (int i = 0; i < pruned.size(); i++) {
+            parameters.addAll(filters);
+        }
+        String sql = union(pruned, where.toString()) + " ORDER BY message_id";
+
+        Connection connection = null;
+        Statement lazyStatement = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        long count = 0;
+        try {
+            connection = ConnectionUtil.getConnection();
+            // Letting H2 compute rows on demand instead of materializing the whole result first
+            lazyStatement = connection.createStatement();
+            lazyStatement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(MessageDAO.STREAM_FETCH_SIZE);
+            for (int i = 0; i < parameters.size(); i++) {
+                preparedStatement.setObject(i + 1, parameters.get(i));
+            }
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                callback.accept(readMessage(resultSet));
+                count++;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            if (lazyStatement != null) {
+                try {
+                    lazyStatement.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+            close(resultSet, preparedStatement, connection);
+        }
+        return count;
+    }
+
+    /**
+     * Stops the scheduled retention.
+     */
+    @Override
+    public void close() {
+        for (ScheduledFuture<?> task : backgroundTasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Inserts messages with IDs from the shared sequence (or their own IDs, when copying), creating the partitions
+     * of their months first, in one transaction.
+     *
+     * @param messages The messages to insert.
+     * @param newIds True to assign new IDs and log each message as created, false to keep their IDs.
+     * @return The inserted messages with their IDs, or an empty list if the insert failed.
+     */
+    private List<Message> insert(List<Message> messages, boolean newIds) {
+        if (messages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Creating missing partitions first: in H2, CREATE TABLE commits the ongoing transaction
+        List<Partition> targets = new ArrayList<>();
+        for (Message message : messages) {
+            targets.add(partitionFor(message.getTime_posted_epoch()));
+        }
+
+        List<Message> inserted = new ArrayList<>();
+        Connection connection = null;
+        Statement idStatement = null;
+        ResultSet idResultSet = null;
+        PreparedStatement changeStatement = null;
+        Map<String, PreparedStatement> insertStatements = new HashMap<>();
+        try {
+            connection = ConnectionUtil.getConnection();
+            connection.setAutoCommit(false);
+            if (newIds) {
+                // Taking all the IDs of the batch from the sequence in one query
+                idStatement = connection.createStatement();
+                idResultSet = idStatement.executeQuery(
+                        "SELECT NEXT VALUE FOR message_partition_seq FROM SYSTEM_RANGE(1, " + messages.size() + ")");
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                int messageId = message.getMessage_id();
+                if (newIds) {
+                    idResultSet.next();
+                    messageId = (int) idResultSet.getLong(1);
+                }
+                Partition partition = targets.get(i);
+                PreparedStatement preparedStatement = insertStatements.get(partition.table);
+                if (preparedStatement == null) {
+                    preparedStatement = connection.prepareStatement("INSERT INTO " + partition.table
+                            + " (message_id, posted_by, message_text, time_posted_epoch) Values(?, ?, ?, ?)");
+                    insertStatements.put(partition.table, preparedStatement);
+                }
+                preparedStatement.setInt(1, messageId);
+                preparedStatement.setInt(2, message.getPosted_by());
+                preparedStatement.setString(3, message.getMessage_text());
+                preparedStatement.setLong(4, message.getTime_posted_epoch());
+                preparedStatement.addBatch();
+                inserted.add(new Message(messageId, message.getPosted_by(), message.getMessage_text(),
+                        message.getTime_posted_epoch()));
+            }
+            for (PreparedStatement preparedStatement : insertStatements.values()) {
+                preparedStatement.executeBatch();
+            }
+            if (newIds) {
+                // Logging every created message from the values we already have, as the last write
+                long changeSeq = changeClock.reserve(connection, inserted.size());
+                changeStatement = connection.prepareStatement("INSERT INTO message_change "
+                        + "(change_seq, message_id, change_type, posted_by, message_text, time_posted_epoch) "
+                        + "Values(?, ?, 'created', ?, ?, ?)");
+                for (int i = 0; i < inserted.size(); i++) {
+                    Message message = inserted.get(i);
+                    changeStatement.setLong(1, changeSeq + i);
+                    changeStatement.setInt(2, message.getMessage_id());
+                    changeStatement.setInt(3, message.getPosted_by());
+                    changeStatement.setString(4, message.getMessage_text());
+                    changeStatement.setLong(5, message.getTime_posted_epoch());
+                    changeStatement.addBatch();
+                }
+                changeStatement.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+            return new ArrayList<>();
+        } finally {
+            try {
+                if (idResultSet != null) idResultSet.close();
+                if (idStatement != null) idStatement.close();
+                if (changeStatement != null) changeStatement.close();
+                for (PreparedStatement preparedStatement : insertStatements.values()) {
+                    preparedStatement.close();
+                }
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+            close(null, null, connection);
+        }
+        for (int i = 0; i < inserted.size(); i++) {
+            setPartition(inserted.get(i).getMessage_id(), targets.get(i).number);
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the partition of the month of an epoch, creating its table if needed.
+     */
+    private Partition partitionFor(long epoch) {
+        long clamped = Math.max(MIN_EPOCH, Math.min(MAX_EPOCH, epoch));
+        YearMonth month = YearMonth.from(Instant.ofEpochSecond(clamped).atZone(ZoneOffset.UTC));
+        lock.readLock().lock();
+        try {
+            Partition partition = partitions.get(month);
+            if (partition != null) {
+                return partition;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            Partition partition = partitions.get(month);
+            if (partition == null) {
+                // No foreign key to account, so resetting the account table is not blocked by old partitions
+                String table = tableName(month);
+                execute("CREATE TABLE IF NOT EXISTS " + table + " (message_id int PRIMARY KEY, "
+                        + "posted_by int, message_text varchar(255), time_posted_epoch bigint, version int DEFAULT 1 NOT NULL)");
+                execute("CREATE INDEX IF NOT EXISTS " + table + "_POSTED_BY ON " + table + " (posted_by)");
+                execute("CREATE INDEX IF NOT EXISTS " + table + "_EPOCH ON " + table + " (time_posted_epoch, message_id)");
+                execute("CREATE INDEX IF NOT EXISTS " + table + "_EPOCH_DESC ON " + table
+                        + " (time_posted_epoch DESC, message_id DESC)");
+                partition = register(month);
+            }
+            return partition;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a partition to the maps; the caller holds the write lock, or is the constructor.
+     */
+    private Partition register(YearMonth month) {
+        if (lastNumber == Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many message partitions.");
+        }
+        Partition partition = new Partition(++lastNumber, month);
+        if (partition.number >= partitionsByNumber.length) {
+            partitionsByNumber = Arrays.copyOf(partitionsByNumber, partitionsByNumber.length * 2);
+        }
+        partitionsByNumber[partition.number] = partition;
+        partitions.put(month, partition);
+        return partition;
+    }
+
+    /**
+     * @return The partitions overlapping [fromEpoch, toEpoch] (either bound may be null), oldest first.
+     */
+    private List<Partition> partitionsBetween(Long fromEpoch, Long toEpoch) {
+        lock.readLock().lock();
+        try {
+            List<Partition> result = new ArrayList<>();
+            for (Partition partition : partitions.values()) {
+                boolean afterStart = fromEpoch == null || partition.endEpoch > fromEpoch;
+                boolean beforeEnd = toEpoch == null || partition.startEpoch <= toEpoch;
+                if (afterStart && beforeEnd) {
+                    result.add(partition);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Partition partitionOf(int messageId) {
+        lock.readLock().lock();
+        try {
+            if (messageId <= 0 || messageId >= partitionOfMessage.length) {
+                return null;
+            }
+            return partitionsByNumber[partitionOfMessage[messageId]];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setPartition(int messageId, short number) {
+        lock.writeLock().lock();
+        try {
+            if (messageId >= partitionOfMessage.length) {
+                partitionOfMessage = Arrays.copyOf(partitionOfMessage,
+                        Math.max(messageId + 1, partitionOfMessage.length * 2));
+            }
+            partitionOfMessage[messageId] = number;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the sequence hand out IDs above every message ID in use or in the change log, as H2 would.
+     */
+    private void restartIds() {
+        long maxId = 0;
+        List<Partition> all = partitionsBetween(null, null);
+        for (Partition partition : all) {
+            for (int messageId : queryIds("SELECT COALESCE(MAX(message_id), 0) FROM " + partition.table)) {
+                maxId = Math.max(maxId, messageId);
+            }
+        }
+        for (int messageId : queryIds("SELECT COALESCE(MAX(message_id), 0) FROM message_change")) {
+            maxId = Math.max(maxId, messageId);
+        }
+        execute("ALTER SEQUENCE message_partition_seq RESTART WITH " + (maxId + 1));
+    }
+
+    /**
+     * Appends a message to the change log, on the caller's connection so the entry is committed (or rolled back)
+     * together with the change itself. Its change_seq is reserved from the change clock, so this must be the last
+     * write of the transaction.
+     */
+    private void logChange(Connection connection, Message message, String changeType) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            long changeSeq = changeClock.reserve(connection, 1);
+            preparedStatement = connection.prepareStatement("INSERT INTO message_change "
+                    + "(change_seq, message_id, change_type, posted_by, message_text, time_posted_epoch) "
+                    + "Values(?, ?, ?, ?, ?, ?)");
+            preparedStatement.setLong(1, changeSeq);
+            preparedStatement.setInt(2, message.getMessage_id());
+            preparedStatement.setString(3, changeType);
+            preparedStatement.setInt(4, message.getPosted_by());
+            preparedStatement.setString(5, message.getMessage_text());
+            preparedStatement.setLong(6, message.getTime_posted_epoch());
+            preparedStatement.executeUpdate();
+        } finally {
+            if (preparedStatement != null) preparedStatement.close();
+        }
+    }
+
+    private static String tableName(YearMonth month) {
+        return TABLE_PREFIX + month.format(MONTH_FORMAT);
+    }
+
+    /**
+     * @return A query over the given partitions, each filtered by the same WHERE clause.
+     */
+    private static String union(List<Partition> partitions, String where) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM (");
+        for (int i = 0; i < partitions.size(); i++) {
+            if (i > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT * FROM ").append(partitions.get(i).table).append(where);
+        }
+        return sql.append(")").toString();
+    }
+
+    private void query(String sql, List<Object> parameters, List<Message> messages) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            preparedStatement = connection.prepareStatement(sql);
+            for (int i = 0; i < parameters.size(); i++) {
+                preparedStatement.setObject(i + 1, parameters.get(i));
+            }
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                messages.add(readMessage(resultSet));
+            }
+        } catch (SQLException e) {
+            // Also reached when a partition was dropped meanwhile
+            System.out.println(e.getMessage());
+        } finally {
+            close(resultSet, preparedStatement, connection);
+        }
+    }
+
+    private void queryVersioned(String sql, List<Object> parameters, List<VersionedMessage> messages) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            preparedStatement = connection.prepareStatement(sql);
+            for (int i = 0; i < parameters.size(); i++) {
+                preparedStatement.setObject(i + 1, parameters.get(i));
+            }
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                messages.add(new VersionedMessage(readMessage(resultSet), resultSet.getLong("version")));
+            }
+        } catch (SQLException e) {
+            // Also reached when a partition was dropped meanwhile
+            System.out.println(e.getMessage());
+        } finally {
+            close(resultSet, preparedStatement, connection);
+        }
+    }
+
+    private List<Integer> queryIds(String sql) {
+        List<Integer> messageIds = new ArrayList<>();
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery(sql);
+            while (resultSet.next()) {
+                messageIds.add(resultSet.getInt(1));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            close(resultSet, statement, connection);
+        }
+        return messageIds;
+    }
+
+    private void execute(String sql) {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            close(null, statement, connection);
+        }
+    }
+
+    private static Message readMessage(ResultSet resultSet) throws SQLException {
+        return new Message(resultSet.getInt("message_id"),
+                resultSet.getInt("posted_by"),
+                resultSet.getString("message_text"),
+                resultSet.getLong("time_posted_epoch"));
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            if (connection != null) connection.rollback();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static void close(ResultSet resultSet, Statement statement, Connection connection) {
+        try {
+            if (resultSet != null) resultSet.close();
+            if (statement != null) statement.close();
+            if (connection != null) connection.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
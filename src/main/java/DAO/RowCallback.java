@@ -0,0 +1,18 @@
+package DAO;
+
+import java.io.IOException;
+
+/**
+ * Receives rows one at a time from a streaming DAO query, so large results never have to be held in a list.
+ * Throwing an IOException (for example when the HTTP client went away) stops the query.
+ *
+ * @param <T> The type of row, e.g. Message or Account.
+ */
+public interface RowCallback<T> {
+
+    /**
+     * @param row The next row of the result.
+     * @throws IOException If the row cannot be written; the query is abandoned.
+     */
+    void accept(T row) throws IOException;
+}
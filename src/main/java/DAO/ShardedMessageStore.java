@@ -0,0 +1,756 @@
+package DAO;
+
+import Model.AccountStats;
+import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import Util.Config;
+import Util.ShardConnectionUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Spreads messages over several H2 databases (shards), for the "sharded" storage engine: each shard has its own
+ * file, write lock and, if its directory is on one, disk. Each shard is a MessageDAO over one database of
+ * ShardConnectionUtil.
+ *
+ * - Messages are routed by a hash of posted_by, so the messages of an account are all in one shard and
+ *   per-account reads and writes touch only that shard.
+ * - Message IDs are shard-aware: shard i hands out i+1, i+1+ID_STRIDE, i+1+2*ID_STRIDE... from its own
+ *   message_id_seq, reserved in blocks by an IdBlockAllocator, so IDs are unique without coordination, and an ID tells which shard created the message. ID lookups go to that shard first and
+ *   only scatter to the others when the message was moved there by rebalance().
+ * - Global reads (all messages, the change log, exports) scatter to every shard in parallel and merge the
+ *   results by message_id or change_seq.
+ * - Each shard keeps the change log entries of its own writes; their change_seq values come from one
+ *   SharedChangeClock, which also makes the shards commit them in change_seq order, so the merged log has a
+ *   single order that never gains an entry behind one already read, as with one database.
+ *
+ * Message IDs are increasing within a shard, not across shards. Batches are atomic per shard only.
+ */
+public class ShardedMessageStore implements MessageRepository {
+    // The step between two message IDs of a shard, and so the maximum number of shards
+    public static final int ID_STRIDE = 64;
+    // Messages per transaction when copying or moving messages between databases
+    private static final int COPY_BATCH_SIZE = 1000;
+    // Messages buffered per shard while merging an export
+    private static final int STREAM_BUFFER_SIZE = 1000;
+    // Marks the end of a shard's export in its buffer
+    private static final Message END_OF_SHARD = new Message();
+    // Counts the statistics of posters from their live messages; completed with a GROUP BY clause
+    private static final String STATS_FROM_MESSAGES = "INSERT INTO account_stats "
+            + "(account_id, post_count, total_chars, first_post_epoch, last_post_epoch) "
+            + "SELECT posted_by, COUNT(*), SUM(CHAR_LENGTH(message_text)), MIN(time_posted_epoch), MAX(time_posted_epoch) "
+            + "FROM message WHERE deleted = FALSE";
+
+    private final ShardConnectionUtil shards;
+    private final MessageDAO[] shardDAOs;
+    private final IdBlockAllocator[] shardIds;
+    private final SharedChangeClock changeClock;
+    private final ExecutorService queries;
+    private final ExecutorService streams;
+
+    /**
+     * Opens the shards, creating their tables if needed.
+     *
+     * @param shards The shard databases.
+     * @throws IllegalArgumentException If there are more shards than ID_STRIDE.
+     */
+    public ShardedMessageStore(ShardConnectionUtil shards) {
+        if (shards.size() > ID_STRIDE) {
+            throw new IllegalArgumentException("At most " + ID_STRIDE + " shards are supported.");
+        }
+        this.shards = shards;
+        long maxChangeSeq = 0;
+        boolean sequencesAdded = false;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            sequencesAdded |= createTables(shard);
+            maxChangeSeq = Math.max(maxChangeSeq, queryLong(shard, "SELECT COALESCE(MAX(change_seq), 0) FROM message_change"));
+        }
+        this.changeClock = new SharedChangeClock(maxChangeSeq);
+        this.shardDAOs = new MessageDAO[shards.size()];
+        this.shardIds = new IdBlockAllocator[shards.size()];
+        int blockSize = Config.getInt("ids.block.size", 20);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            shardIds[shard] = new IdBlockAllocator("message_id_seq", blockSize);
+            shardDAOs[shard] = new MessageDAO(shards.getDataSource(shard), changeClock, shardIds[shard]);
+        }
+        if (sequencesAdded) {
+            // Shards created before IDs were reserved in blocks: starting the new sequences above their messages
+            restartIds();
+        }
+        this.queries = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Exports get their own threads, as they block on slow clients and would starve the queries
+        this.streams = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the shards configured by "storage.shards.count" (default 4) and "storage.shards.directory" (default
+     * h2/shards). Empty shards are first filled with the messages currently in H2, so switching engines keeps the
+     * existing messages and their IDs.
+     *
+     * @return The opened store.
+     */
+    public static ShardedMessageStore fromConfig() {
+        ShardedMessageStore store = new ShardedMessageStore(new ShardConnectionUtil(
+                Paths.get(Config.get("storage.shards.directory", "h2/shards")),
+                Config.getInt("storage.shards.count", 4)));
+        if (store.isEmpty()) {
+            store.loadFrom(new MessageDAO());
+        }
+        return store;
+    }
+
+    /**
+     * @param posted_by The account that posted the message.
+     * @param shardCount The number of shards.
+     * @return The index of the shard holding the account's messages.
+     */
+    public static int shardFor(int posted_by, int shardCount) {
+        // Mixing the bits first, so consecutive account IDs do not land on consecutive shards in lockstep
+        int hash = posted_by * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    /**
+     * @return True if nothing was ever written to any shard.
+     */
+    public boolean isEmpty() {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (queryLong(shard, "SELECT COUNT(*) FROM message_change") > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies every message of another repository into the shards, keeping their IDs and versions and logging each
+     * as created.
+     * New IDs are then handed out above the largest copied one.
+     *
+     * @param source The repository to copy from.
+     */
+    public void loadFrom(MessageRepository source) {
+        List<List<Message>> pending = newShardLists();
+        try {
+            source.streamMessages(null, null, null, null, message -> {
+                List<Message> batch = pending.get(shardFor(message.getPosted_by(), shards.size()));
+                batch.add(message);
+                if (batch.size() == COPY_BATCH_SIZE) {
+                    copy(batch, source, true);
+                    batch.clear();
+                }
+            });
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        for (List<Message> batch : pending) {
+            copy(batch, source, true);
+        }
+        restartIds();
+        rebuildStats();
+    }
+
+    /**
+     * Moves every message to the shard its poster hashes to under the current number of shards, keeping its ID
+     * and version.
+     * Used offline after shards were added: open the store with the new number of shards, then call this once.
+     * Change log entries stay in the shard that wrote them, as the log is merged across all shards anyway.
+     * Moving is idempotent, so an interrupted rebalance can simply be run again.
+     *
+     * @return The number of messages moved.
+     */
+    public long rebalance() {
+        long moved = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            final int source = shard;
+            List<Message> misplaced = new ArrayList<>();
+            try {
+                shardDAOs[source].streamMessages(null, null, null, null, message -> {
+                    if (shardFor(message.getPosted_by(), shards.size()) != source) {
+                        misplaced.add(message);
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            for (int start = 0; start < misplaced.size(); start += COPY_BATCH_SIZE) {
+                List<Message> batch = misplaced.subList(start, Math.min(start + COPY_BATCH_SIZE, misplaced.size()));
+                // Writing the copies before deleting the originals, so a crash leaves duplicates rather than losses
+                List<List<Message>> byTarget = newShardLists();
+                for (Message message : batch) {
+                    byTarget.get(shardFor(message.getPosted_by(), shards.size())).add(message);
+                }
+                for (List<Message> target : byTarget) {
+                    copy(target, shardDAOs[source], false);
+                }
+                delete(source, batch);
+                moved += batch.size();
+            }
+        }
+        restartIds();
+        rebuildStats();
+        return moved;
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> messages = new ArrayList<>();
+        for (List<Message> shardMessages : scatter(MessageDAO::getAllMessages)) {
+            messages.addAll(shardMessages);
+        }
+        messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        return messages;
+    }
+
+    @Override
+    public Message getMessageByMessageID(int message_id) {
+        int shard = locate(message_id);
+        return shard < 0 ? null : shardDAOs[shard].getMessageByMessageID(message_id);
+    }
+
+    @Override
+    public VersionedMessage getVersionedMessage(int message_id) {
+        int shard = locate(message_id);
+        return shard < 0 ? null : shardDAOs[shard].getVersionedMessage(message_id);
+    }
+
+    @Override
+    public List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids) {
+        List<VersionedMessage> messages = new ArrayList<>();
+        for (List<VersionedMessage> shardMessages : scatter(dao -> dao.getVersionedMessagesByIds(message_ids))) {
+            messages.addAll(shardMessages);
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountID(int account_id) {
+        return shardDAOs[shardFor(account_id, shards.size())].getAllMessagesByAccountID(account_id);
+    }
+
+    /**
+     * Each shard returns its latest messages, and the newest 'limit' of them are kept.
+     */
+    @Override
+    public List<Message> getLatestMessages(int limit) {
+        List<Message> messages = new ArrayList<>();
+        for (List<Message> shardMessages : scatter(dao -> dao.getLatestMessages(limit))) {
+            messages.addAll(shardMessages);
+        }
+        messages.sort(LATEST_FIRST);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    /**
+     * One poster's range is read from its shard. Otherwise each shard returns the first 'limit' messages of its
+     * range, and the first 'limit' of them all are kept.
+     */
+    @Override
+    public List<Message> getMessagesInRange(Integer posted_by, Long fromEpoch, Long toEpoch, boolean newestFirst,
+                                            int limit) {
+        if (posted_by != null) {
+            return shardDAOs[shardFor(posted_by, shards.size())]
+                    .getMessagesInRange(posted_by, fromEpoch, toEpoch, newestFirst, limit);
+        }
+        List<Message> messages = new ArrayList<>();
+        for (List<Message> shardMessages : scatter(dao -> dao.getMessagesInRange(null, fromEpoch, toEpoch, newestFirst, limit))) {
+            messages.addAll(shardMessages);
+        }
+        messages.sort(newestFirst ? LATEST_FIRST : LATEST_FIRST.reversed());
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    @Override
+    public AccountStats getAccountStats(int account_id) {
+        return shardDAOs[shardFor(account_id, shards.size())].getAccountStats(account_id);
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        return shardDAOs[shardFor(message.getPosted_by(), shards.size())].insertMessage(message);
+    }
+
+    /**
+     * Inserts the messages of each shard in one transaction per shard, in parallel. If a shard fails, the other
+     * shards keep their messages and only their number is returned.
+     */
+    @Override
+    public int insertMessagesBatch(List<Message> messages) {
+        List<List<Message>> byShard = newShardLists();
+        for (Message message : messages) {
+            byShard.get(shardFor(message.getPosted_by(), shards.size())).add(message);
+        }
+        int inserted = 0;
+        List<Integer> counts = scatter(dao -> {
+            List<Message> batch = byShard.get(indexOf(dao));
+            return batch.isEmpty() ? 0 : dao.insertMessagesBatch(batch);
+        });
+        for (int count : counts) {
+            inserted += count;
+        }
+        return inserted;
+    }
+
+    @Override
+    public Message updateMessage(int message_id, Message message) {
+        int shard = locate(message_id);
+        return shard < 0 ? null : shardDAOs[shard].updateMessage(message_id, message);
+    }
+
+    @Override
+    public VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion)
+            throws ConcurrentModificationException {
+        int shard = locate(message_id);
+        return shard < 0 ? null : shardDAOs[shard].updateMessageIfVersion(message_id, message, expectedVersion);
+    }
+
+    @Override
+    public Message deleteMessageById(int message_id) {
+        int shard = locate(message_id);
+        return shard < 0 ? null : shardDAOs[shard].deleteMessageById(message_id);
+    }
+
+    /**
+     * Purges the shards in parallel, each removing at most 'limit' deleted messages in its own transaction.
+     */
+    @Override
+    public int purgeDeletedMessages(long deletedBefore, int limit) {
+        int purged = 0;
+        for (int count : scatter(dao -> dao.purgeDeletedMessages(deletedBefore, limit))) {
+            purged += count;
+        }
+        return purged;
+    }
+
+    @Override
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        // Each shard returns its first 'limit' changes, so the first 'limit' of the merged log are among them
+        List<MessageChange> changes = new ArrayList<>();
+        for (List<MessageChange> shardChanges : scatter(dao -> dao.getChangesSince(since, limit))) {
+            changes.addAll(shardChanges);
+        }
+        changes.sort(Comparator.comparingLong(MessageChange::getChange_seq));
+        return changes.size() > limit ? new ArrayList<>(changes.subList(0, limit)) : changes;
+    }
+
+    /**
+     * A stream for one account reads only its shard. Otherwise every shard is streamed by its own thread into a
+     * bounded buffer, and the buffers are merged by message_id as the callback consumes them.
+     */
+    @Override
+    public long streamMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        if (postedBy != null) {
+            return shardDAOs[shardFor(postedBy, shards.size())].streamMessages(fromEpoch, toEpoch, postedBy, afterId, callback);
+        }
+        List<BlockingQueue<Message>> buffers = new ArrayList<>();
+        List<Future<?>> producers = new ArrayList<>();
+        // Set when the merge ends early, so producers blocked on a full buffer give up
+        AtomicBoolean abandoned = new AtomicBoolean();
+        // The first shard failure, rethrown by the merge instead of ending the stream early
+        AtomicReference<IOException> failed = new AtomicReference<>();
+        for (MessageDAO dao : shardDAOs) {
+            BlockingQueue<Message> buffer = new ArrayBlockingQueue<>(STREAM_BUFFER_SIZE);
+            buffers.add(buffer);
+            producers.add(streams.submit(() -> {
+                try {
+                    dao.streamMessages(fromEpoch, toEpoch, null, afterId, message -> {
+                        try {
+                            while (!buffer.offer(message, 100, TimeUnit.MILLISECONDS)) {
+                                if (abandoned.get()) {
+                                    throw new IOException("Export abandoned.");
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException("Export abandoned.");
+                        }
+                    });
+                } catch (IOException e) {
+                    failed.compareAndSet(null, e);
+                } finally {
+                    putEnd(buffer, abandoned);
+                }
+                return null;
+            }));
+        }
+
+        // Merging the next message of each shard: the shard with the smallest message_id is always at the top
+        Message[] next = new Message[buffers.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Comparator.comparingInt(
+                (Integer shard) -> next[shard].getMessage_id()));
+        long count = 0;
+        try {
+            for (int shard = 0; shard < buffers.size(); shard++) {
+                next[shard] = takeNext(buffers.get(shard), failed);
+                if (next[shard] != END_OF_SHARD) {
+                    heads.add(shard);
+                }
+            }
+            while (!heads.isEmpty()) {
+                int shard = heads.poll();
+                callback.accept(next[shard]);
+                count++;
+                next[shard] = takeNext(buffers.get(shard), failed);
+                if (next[shard] != END_OF_SHARD) {
+                    heads.add(shard);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging the shards.");
+        } finally {
+            abandoned.set(true);
+            for (Future<?> producer : producers) {
+                producer.cancel(true);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the query threads and closes the shard databases.
+     */
+    @Override
+    public void close() {
+        queries.shutdownNow();
+        streams.shutdownNow();
+        shards.shutdown();
+    }
+
+    /**
+     * Finds the shard holding a message: the one that created it, or any other if it was moved by rebalance().
+     *
+     * @return The shard index, or -1 if no shard has the message.
+     */
+    private int locate(int message_id) {
+        if (message_id <= 0) {
+            return -1;
+        }
+        int origin = (message_id - 1) % ID_STRIDE;
+        if (origin < shards.size() && shardDAOs[origin].getMessageByMessageID(message_id) != null) {
+            return origin;
+        }
+        List<Boolean> found = scatter(dao -> indexOf(dao) != origin && dao.getMessageByMessageID(message_id) != null);
+        return found.indexOf(true);
+    }
+
+    /**
+     * Runs a query on every shard in parallel.
+     *
+     * @return The result of each shard, in shard order.
+     */
+    private <T> List<T> scatter(Function<MessageDAO, T> query) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (MessageDAO dao : shardDAOs) {
+            futures.add(queries.submit(() -> query.apply(dao)));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying the shards.");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    private int indexOf(MessageDAO dao) {
+        for (int shard = 0; shard < shardDAOs.length; shard++) {
+            if (shardDAOs[shard] == dao) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    private List<List<Message>> newShardLists() {
+        List<List<Message>> lists = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            lists.add(new ArrayList<>());
+        }
+        return lists;
+    }
+
+    /**
+     * Takes the next message of a shard, or END_OF_SHARD once it is exhausted.
+     *
+     * @throws IOException If a shard failed, so the merge is not mistaken for a complete one.
+     */
+    private Message takeNext(BlockingQueue<Message> buffer, AtomicReference<IOException> failed)
+            throws InterruptedException, IOException {
+        Message message = buffer.take();
+        if (message == END_OF_SHARD && failed.get() != null) {
+            throw failed.get();
+        }
+        return message;
+    }
+
+    private void putEnd(BlockingQueue<Message> buffer, AtomicBoolean abandoned) {
+        try {
+            while (!buffer.offer(END_OF_SHARD, 100, TimeUnit.MILLISECONDS)) {
+                if (abandoned.get()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes messages with their IDs and versions into the shard of their poster (all of them must share one),
+     * replacing any copy already there, in one transaction.
+     *
+     * @param messages The messages to write.
+     * @param versionSource The repository the messages are read from, which holds their versions.
+     * @param logCreated True to log each message as created, false when it is only moved between shards.
+     */
+    private void copy(List<Message> messages, MessageRepository versionSource, boolean logCreated) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            ids.add(message.getMessage_id());
+        }
+        Map<Integer, Long> versions = new HashMap<>();
+        for (VersionedMessage versioned : versionSource.getVersionedMessagesByIds(ids)) {
+            versions.put(versioned.getMessage().getMessage_id(), versioned.getVersion());
+        }
+        int shard = shardFor(messages.get(0).getPosted_by(), shards.size());
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        PreparedStatement changeStatement = null;
+        try {
+            connection = shards.getConnection(shard);
+            connection.setAutoCommit(false);
+            String sql = "MERGE INTO message (message_id, posted_by, message_text, time_posted_epoch, version) "
+                    + "KEY (message_id) Values(?, ?, ?, ?, ?)";
+            preparedStatement = connection.prepareStatement(sql);
+            for (Message message : messages) {
+                preparedStatement.setInt(1, message.getMessage_id());
+                preparedStatement.setInt(2, message.getPosted_by());
+                preparedStatement.setString(3, message.getMessage_text());
+                preparedStatement.setLong(4, message.getTime_posted_epoch());
+                // A message deleted since it was read keeps the initial version; the delete removes it anyway
+                preparedStatement.setLong(5, versions.getOrDefault(message.getMessage_id(), 1L));
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            if (logCreated) {
+                String changeSql = "INSERT INTO message_change (change_seq, message_id, change_type, posted_by, message_text, time_posted_epoch) "
+                        + "Values(?, ?, 'created', ?, ?, ?)";
+                changeStatement = connection.prepareStatement(changeSql);
+                // Reserving as the last write, as the shared clock holds off every shard's commits until this one's
+                long changeSeq = changeClock.reserve(connection, messages.size());
+                for (Message message : messages) {
+                    changeStatement.setLong(1, changeSeq++);
+                    changeStatement.setInt(2, message.getMessage_id());
+                    changeStatement.setInt(3, message.getPosted_by());
+                    changeStatement.setString(4, message.getMessage_text());
+                    changeStatement.setLong(5, message.getTime_posted_epoch());
+                    changeStatement.addBatch();
+                }
+                changeStatement.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+            throw new IllegalStateException("Could not write messages to shard " + shard + ".", e);
+        } finally {
+            changeClock.release();
+            try {
+                if (changeStatement != null) changeStatement.close();
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes moved messages from their former shard, without logging the deletion.
+     */
+    private void delete(int shard, List<Message> messages) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = shards.getConnection(shard);
+            connection.setAutoCommit(false);
+            preparedStatement = connection.prepareStatement("DELETE FROM message WHERE message_id = ?");
+            for (Message message : messages) {
+                preparedStatement.setInt(1, message.getMessage_id());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            rollback(connection);
+            throw new IllegalStateException("Could not delete moved messages from shard " + shard + ".", e);
+        } finally {
+            try {
+                if (preparedStatement != null) preparedStatement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Makes every shard hand out its next IDs above the largest message ID of all shards, keeping each shard's
+     * own IDs apart (shard i only uses IDs equal to i+1 modulo ID_STRIDE). IDs reserved before are forgotten.
+     */
+    private void restartIds() {
+        long maxId = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            maxId = Math.max(maxId, queryLong(shard, "SELECT COALESCE(MAX(message_id), 0) FROM message"));
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            long next = maxId + 1 + Math.floorMod(shard - maxId, ID_STRIDE);
+            execute(shard, "ALTER SEQUENCE message_id_seq RESTART WITH " + next);
+            shardIds[shard].discard();
+        }
+    }
+
+    /**
+     * Creates the tables of a shard that are missing.
+     *
+     * @return True if the shard's message_id_seq was missing.
+     */
+    private boolean createTables(int shard) {
+        boolean sequenceAdded = queryLong(shard, "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SEQUENCES "
+                + "WHERE SEQUENCE_NAME = 'MESSAGE_ID_SEQ'") == 0;
+        execute(shard, "CREATE SEQUENCE IF NOT EXISTS message_id_seq START WITH " + (shard + 1)
+                + " INCREMENT BY " + ID_STRIDE);
+        // No foreign key to account: accounts stay in the main database, and MessageService checks them
+        execute(shard, "CREATE TABLE IF NOT EXISTS message ("
+                + "message_id int DEFAULT NEXT VALUE FOR message_id_seq PRIMARY KEY, "
+                + "posted_by int, message_text varchar(255), time_posted_epoch bigint, version int DEFAULT 1 NOT NULL, "
+                + "deleted boolean DEFAULT FALSE NOT NULL, deleted_at bigint)");
+        // Shards created before IDs were reserved in blocks, when message_id was an identity column
+        execute(shard, "ALTER TABLE message ALTER COLUMN message_id DROP IDENTITY");
+        execute(shard, "ALTER TABLE message ALTER COLUMN message_id SET DEFAULT NEXT VALUE FOR message_id_seq");
+        // Shards created before messages had versions, or soft deletes
+        execute(shard, "ALTER TABLE message ADD COLUMN IF NOT EXISTS version int DEFAULT 1 NOT NULL");
+        execute(shard, "ALTER TABLE message ADD COLUMN IF NOT EXISTS deleted boolean DEFAULT FALSE NOT NULL");
+        execute(shard, "ALTER TABLE message ADD COLUMN IF NOT EXISTS deleted_at bigint");
+        execute(shard, "CREATE INDEX IF NOT EXISTS message_posted_by ON message (posted_by)");
+        execute(shard, "CREATE INDEX IF NOT EXISTS message_time_posted_idx ON message (time_posted_epoch, message_id)");
+        execute(shard, "CREATE INDEX IF NOT EXISTS message_time_posted_desc_idx "
+                + "ON message (time_posted_epoch DESC, message_id DESC)");
+        execute(shard, "CREATE INDEX IF NOT EXISTS message_posted_by_time_idx "
+                + "ON message (posted_by, time_posted_epoch, message_id)");
+        execute(shard, "CREATE INDEX IF NOT EXISTS message_deleted_at_idx ON message (deleted_at)");
+        execute(shard, "CREATE TABLE IF NOT EXISTS message_change ("
+                + "change_seq bigint PRIMARY KEY, message_id int, change_type varchar(10), "
+                + "posted_by int, message_text varchar(255), time_posted_epoch bigint)");
+        execute(shard, "CREATE TABLE IF NOT EXISTS account_stats (account_id int PRIMARY KEY, "
+                + "post_count bigint DEFAULT 0 NOT NULL, total_chars bigint DEFAULT 0 NOT NULL, "
+                + "first_post_epoch bigint, last_post_epoch bigint)");
+        // Shards created before the statistics were kept: counting the posters that have no row yet
+        execute(shard, STATS_FROM_MESSAGES + " AND posted_by NOT IN (SELECT account_id FROM account_stats) GROUP BY posted_by");
+        return sequenceAdded;
+    }
+
+    /**
+     * Recounts the statistics of every shard after messages were copied or moved without going through MessageDAO.
+     */
+    private void rebuildStats() {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            execute(shard, "DELETE FROM account_stats");
+            execute(shard, STATS_FROM_MESSAGES + " GROUP BY posted_by");
+        }
+    }
+
+    private void execute(int shard, String sql) {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = shards.getConnection(shard);
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not prepare shard " + shard + ": " + e.getMessage(), e);
+        } finally {
+            try {
+                if (statement != null) statement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private long queryLong(int shard, String sql) {
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = shards.getConnection(shard);
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery(sql);
+            resultSet.next();
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read shard " + shard + ": " + e.getMessage(), e);
+        } finally {
+            try {
+                if (resultSet != null) resultSet.close();
+                if (statement != null) statement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private void rollback(Connection connection) {
+        try {
+            if (connection != null) connection.rollback();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
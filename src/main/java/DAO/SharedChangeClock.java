@@ -0,0 +1,38 @@
+package DAO;
+
+import java.sql.Connection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The change clock of several databases sharing one change log order, such as the shards of
+ * ShardedMessageStore. The databases commit independently, so the clock serializes the commits itself: a
+ * reservation takes a process-wide lock that is only released once the reserving transaction has committed or
+ * rolled back. Commits that log changes therefore happen one at a time across all databases, but only for the
+ * few statements between the reservation and the commit.
+ */
+public class SharedChangeClock implements ChangeClock {
+    private final ReentrantLock commitLock = new ReentrantLock();
+    // Guarded by commitLock
+    private long lastChangeSeq;
+
+    /**
+     * @param lastChangeSeq The largest change_seq already used in any of the databases.
+     */
+    public SharedChangeClock(long lastChangeSeq) {
+        this.lastChangeSeq = lastChangeSeq;
+    }
+
+    @Override
+    public long reserve(Connection connection, int count) {
+        commitLock.lock();
+        lastChangeSeq += count;
+        return lastChangeSeq - count + 1;
+    }
+
+    @Override
+    public void release() {
+        while (commitLock.isHeldByCurrentThread()) {
+            commitLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The change clock of a single database: the one-row 'change_clock' table holds the last change_seq handed out.
+ * Reserving increments it on the transaction's own connection, so the row stays locked until that transaction
+ * commits or rolls back, and the next writer reads the value it left. Commits of the change log are thereby
+ * serialized, but only for the few statements between the reservation and the commit.
+ */
+public class TableChangeClock implements ChangeClock {
+    @Override
+    public long reserve(Connection connection, int count) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement("SELECT last_change_seq FROM FINAL TABLE "
+                    + "(UPDATE change_clock SET last_change_seq = last_change_seq + ?)");
+            preparedStatement.setInt(1, count);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("The change_clock table is empty.");
+            }
+            return resultSet.getLong(1) - count + 1;
+        } finally {
+            if (resultSet != null) resultSet.close();
+            if (preparedStatement != null) preparedStatement.close();
+        }
+    }
+}
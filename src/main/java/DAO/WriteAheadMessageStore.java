@@ -0,0 +1,720 @@
+package DAO;
+
+import Model.AccountStats;
+import Model.Message;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import Util.BackgroundTasks;
+import Util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A fast-acknowledge write path in front of the H2 message table, for peaks of posting.
+ *
+ * A new message is given the next message ID by the application, appended to a write-ahead log of
+ * memory-mapped segment files and acknowledged once the log is on disk; no database round trip is on the path.
+ * A background applier then moves acknowledged messages into H2 in large transactions, with their IDs and
+ * their 'created' entries in the change log. Until then they are held in an overlay, and every read merges the
+ * overlay with H2, so a message can be read as soon as it is acknowledged.
+ *
+ * Durability: with "storage.wal.fsync" (the default) a post returns only after the log is forced to disk.
+ * Concurrent posts share one force (group commit); "storage.wal.fsync.delay.ms" waits a little before forcing so
+ * more posts share it. Without fsync, a post survives a crash of the process but not of the machine.
+ *
+ * Recovery: the largest message ID in H2 (including the change log, so deleted messages count) tells which
+ * logged messages were already applied, since messages are applied in ID order and each transaction is atomic.
+ * At startup the messages after it are replayed into H2 before anything else runs. A record torn by a crash
+ * fails its CRC and is dropped; it was never acknowledged.
+ *
+ * Updates, deletes and bulk inserts go to H2 directly, after applying the pending messages they may depend on.
+ * The change feed (getChangesSince) reports a message once it is applied. Only one store may open a directory.
+ */
+public class WriteAheadMessageStore implements MessageRepository {
+    // Record layout: length (int, the whole record), message_id (int), posted_by (int), time_posted_epoch (long),
+    // text length (short), text (UTF-8), CRC32 of everything after the length (int)
+    private static final int ID_OFFSET = 4;
+    private static final int POSTED_BY_OFFSET = 8;
+    private static final int EPOCH_OFFSET = 12;
+    private static final int TEXT_LENGTH_OFFSET = 20;
+    private static final int HEADER_BYTES = 22;
+    private static final int CRC_BYTES = 4;
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final MessageDAO database;
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final long fsyncDelayMillis;
+    private final int applyBatchSize;
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    private final List<ScheduledFuture<?>> backgroundTasks = new ArrayList<>();
+
+    // Messages acknowledged but not yet in H2, in message_id order
+    private final ConcurrentSkipListMap<Integer, Message> pending = new ConcurrentSkipListMap<>();
+
+    // Taken before appendLock when both are needed
+    private final ReentrantLock applyLock = new ReentrantLock();
+    // Guarded by applyLock: every message up to this ID is in H2
+    private int appliedMessageId;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Guarded by appendLock
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private int nextMessageId;
+    private long appended;
+    private boolean closed;
+
+    // Guarded by syncLock: the number of appended records known to be on disk
+    private final Object syncLock = new Object();
+    private long synced;
+
+    /**
+     * Opens the log in a directory, creating it if needed, and applies the messages logged there but missing
+     * from H2.
+     *
+     * @param database The H2 message table the log is applied to.
+     * @param directory The directory holding the segment files.
+     * @param segmentBytes The size of each segment file.
+     * @param fsync True to acknowledge a message only once it is forced to disk.
+     * @param fsyncDelayMillis How long to gather posts before forcing them to disk together (0 for no wait).
+     * @param applyBatchSize The maximum number of messages applied to H2 in one transaction.
+     * @throws IOException If the directory cannot be read or is already in use, or the log cannot be applied.
+     */
+    public WriteAheadMessageStore(MessageDAO database, Path directory, int segmentBytes, boolean fsync,
+                                  long fsyncDelayMillis, int applyBatchSize) throws IOException {
+        if (segmentBytes < 4096 || fsyncDelayMillis < 0 || applyBatchSize <= 0) {
+            throw new IllegalArgumentException("Segments must be at least 4096 bytes, the delay not negative and the batch size positive.");
+        }
+        this.database = database;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.fsyncDelayMillis = fsyncDelayMillis;
+        this.applyBatchSize = applyBatchSize;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("LOCK"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("The write-ahead log in " + directory + " is already open.");
+        }
+        directoryLock = acquired;
+        try {
+            recover();
+        } catch (IOException e) {
+            directoryLock.release();
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the log configured by the "storage.wal.*" settings in front of the H2 message table.
+     *
+     * @param database The H2 message table.
+     * @return The opened store, with its background applier scheduled.
+     * @throws IOException If the log cannot be opened or recovered.
+     */
+    public static WriteAheadMessageStore fromConfig(MessageDAO database) throws IOException {
+        WriteAheadMessageStore store = new WriteAheadMessageStore(database,
+                Paths.get(Config.get("storage.wal.directory", "wal")),
+                Config.getInt("storage.wal.segment.bytes", 16 * 1024 * 1024),
+                Config.getBoolean("storage.wal.fsync", true),
+                Config.getLong("storage.wal.fsync.delay.ms", 0),
+                Config.getInt("storage.wal.apply.batch", 10000));
+        store.scheduleApply(Config.getLong("storage.wal.apply.interval.ms", 100));
+        return store;
+    }
+
+    /**
+     * Schedules the background applier.
+     *
+     * @param intervalMillis The delay between two runs of applyPending().
+     */
+    public void scheduleApply(long intervalMillis) {
+        backgroundTasks.add(BackgroundTasks.scheduleEvery("wal-apply", this::applyPending, intervalMillis));
+    }
+
+    /**
+     * @return The number of acknowledged messages not yet applied to H2.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Applies the pending messages to H2 in ID order, in transactions of up to the batch size, then deletes the
+     * segments whose messages are all applied. A failed transaction is retried on the next run.
+     *
+     * @return True if no message is left pending.
+     */
+    public boolean applyPending() {
+        applyLock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                List<Message> batch = new ArrayList<>(Math.min(pending.size(), applyBatchSize));
+                Iterator<Message> iterator = pending.values().iterator();
+                while (iterator.hasNext() && batch.size() < applyBatchSize) {
+                    batch.add(iterator.next());
+                }
+                if (database.insertMessagesWithIds(batch) == 0) {
+                    return false;
+                }
+                // Removing the messages only now, so readers find them in the overlay or in H2 at every moment
+                for (Message message : batch) {
+                    pending.remove(message.getMessage_id());
+                }
+                appliedMessageId = batch.get(batch.size() - 1).getMessage_id();
+            }
+            deleteAppliedSegments();
+            return true;
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        // Taking the overlay before reading H2, so a message applied in between is found in one or the other
+        List<Message> unapplied = new ArrayList<>(pending.values());
+        return appendUnapplied(database.getAllMessages(), unapplied);
+    }
+
+    @Override
+    public Message getMessageByMessageID(int message_id) {
+        Message message = pending.get(message_id);
+        return message != null ? message : database.getMessageByMessageID(message_id);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        List<Message> messages = new ArrayList<>();
+        List<Integer> applied = new ArrayList<>();
+        for (Integer message_id : message_ids) {
+            Message message = message_id == null ? null : pending.get(message_id);
+            if (message != null) {
+                messages.add(message);
+            } else if (message_id != null) {
+                applied.add(message_id);
+            }
+        }
+        if (!applied.isEmpty()) {
+            messages.addAll(database.getMessagesByIds(applied));
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountID(int account_id) {
+        List<Message> unapplied = new ArrayList<>();
+        for (Message message : pending.values()) {
+            if (message.getPosted_by() == account_id) {
+                unapplied.add(message);
+            }
+        }
+        return appendUnapplied(database.getAllMessagesByAccountID(account_id), unapplied);
+    }
+
+    @Override
+    public List<Message> getLatestMessages(int limit) {
+        List<Message> unapplied = new ArrayList<>(pending.values());
+        List<Message> messages = database.getLatestMessages(limit);
+        Set<Integer> found = new HashSet<>();
+        for (Message message : messages) {
+            found.add(message.getMessage_id());
+        }
+        for (Message message : unapplied) {
+            if (!found.contains(message.getMessage_id())) {
+                messages.add(message);
+            }
+        }
+        messages.sort(LATEST_FIRST);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    @Override
+    public List<Message> getMessagesInRange(Integer posted_by, Long fromEpoch, Long toEpoch, boolean newestFirst,
+                                            int limit) {
+        List<Message> unapplied = new ArrayList<>(pending.values());
+        List<Message> messages = database.getMessagesInRange(posted_by, fromEpoch, toEpoch, newestFirst, limit);
+        Set<Integer> found = new HashSet<>();
+        for (Message message : messages) {
+            found.add(message.getMessage_id());
+        }
+        for (Message message : unapplied) {
+            long epoch = message.getTime_posted_epoch();
+            if (!found.contains(message.getMessage_id())
+                    && (posted_by == null || message.getPosted_by() == posted_by)
+                    && (fromEpoch == null || epoch >= fromEpoch) && (toEpoch == null || epoch <= toEpoch)) {
+                messages.add(message);
+            }
+        }
+        messages.sort(newestFirst ? LATEST_FIRST : LATEST_FIRST.reversed());
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    /**
+     * The statistics kept in H2, plus the account's messages still waiting in the log. Both are read while no
+     * batch is being applied, so no message is counted twice or missed.
+     */
+    @Override
+    public AccountStats getAccountStats(int account_id) {
+        AccountStats stats;
+        List<Message> unapplied;
+        applyLock.lock();
+        try {
+            stats = database.getAccountStats(account_id);
+            unapplied = new ArrayList<>(pending.values());
+        } finally {
+            applyLock.unlock();
+        }
+        if (stats == null) {
+            return null;
+        }
+        long postCount = stats.getPost_count();
+        long totalChars = stats.getTotal_chars();
+        Long firstPostEpoch = stats.getFirst_post_epoch();
+        Long lastPostEpoch = stats.getLast_post_epoch();
+        for (Message message : unapplied) {
+            if (message.getPosted_by() != account_id) {
+                continue;
+            }
+            long epoch = message.getTime_posted_epoch();
+            postCount++;
+            totalChars += message.getMessage_text().length();
+            firstPostEpoch = firstPostEpoch == null ? epoch : Math.min(firstPostEpoch, epoch);
+            lastPostEpoch = lastPostEpoch == null ? epoch : Math.max(lastPostEpoch, epoch);
+        }
+        return new AccountStats(account_id, postCount, totalChars, firstPostEpoch, lastPostEpoch);
+    }
+
+    /**
+     * Appends the message to the log and acknowledges it once the log is on disk; it reaches H2 later.
+     */
+    @Override
+    public Message insertMessage(Message message) {
+        byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        Message stored;
+        long ticket;
+        appendLock.lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            int length = recordLength(text);
+            if (active.writePosition + length + 4 > active.capacity) {
+                // Keeping at least four zero bytes at the end of a segment to mark where its records stop
+                roll();
+            }
+            stored = new Message(nextMessageId, message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+            append(stored, text, length);
+            nextMessageId++;
+            pending.put(stored.getMessage_id(), stored);
+            ticket = ++appended;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            appendLock.unlock();
+        }
+        if (fsync) {
+            sync(ticket);
+        }
+        return stored;
+    }
+
+    /**
+     * Inserts the batch in H2 directly, since a bulk import gains nothing from the log. The pending messages are
+     * applied first and new posts wait, so the batch takes the IDs after them.
+     */
+    @Override
+    public int insertMessagesBatch(List<Message> messages) {
+        applyLock.lock();
+        appendLock.lock();
+        try {
+            if (closed || !applyPending() || !database.restartMessageIds()) {
+                return 0;
+            }
+            int inserted = database.insertMessagesBatch(messages);
+            nextMessageId = Math.max(nextMessageId, database.getMaxMessageId() + 1);
+            return inserted;
+        } finally {
+            appendLock.unlock();
+            applyLock.unlock();
+        }
+    }
+
+    @Override
+    public Message updateMessage(int message_id, Message message) {
+        if (pending.containsKey(message_id) && !applyPending()) {
+            return null;
+        }
+        return database.updateMessage(message_id, message);
+    }
+
+    /**
+     * A pending message has never been updated, so it is at the version H2 gives new rows.
+     */
+    @Override
+    public VersionedMessage getVersionedMessage(int message_id) {
+        Message message = pending.get(message_id);
+        return message != null ? new VersionedMessage(message, 1) : database.getVersionedMessage(message_id);
+    }
+
+    @Override
+    public List<VersionedMessage> getVersionedMessagesByIds(Collection<Integer> message_ids) {
+        List<VersionedMessage> messages = new ArrayList<>();
+        List<Integer> applied = new ArrayList<>();
+        for (Integer message_id : message_ids) {
+            Message message = message_id == null ? null : pending.get(message_id);
+            if (message != null) {
+                messages.add(new VersionedMessage(message, 1));
+            } else if (message_id != null) {
+                applied.add(message_id);
+            }
+        }
+        if (!applied.isEmpty()) {
+            messages.addAll(database.getVersionedMessagesByIds(applied));
+        }
+        return messages;
+    }
+
+    @Override
+    public VersionedMessage updateMessageIfVersion(int message_id, Message message, Long expectedVersion) {
+        if (pending.containsKey(message_id) && !applyPending()) {
+            return null;
+        }
+        return database.updateMessageIfVersion(message_id, message, expectedVersion);
+    }
+
+    @Override
+    public Message deleteMessageById(int message_id) {
+        if (pending.containsKey(message_id) && !applyPending()) {
+            return null;
+        }
+        return database.deleteMessageById(message_id);
+    }
+
+    @Override
+    public int purgeDeletedMessages(long deletedBefore, int limit) {
+        return database.purgeDeletedMessages(deletedBefore, limit);
+    }
+
+    /**
+     * Reports the changes recorded in H2; a message's 'created' change appears once it is applied.
+     */
+    @Override
+    public List<MessageChange> getChangesSince(long since, int limit) {
+        return database.getChangesSince(since, limit);
+    }
+
+    @Override
+    public long streamMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        List<Message> unapplied = new ArrayList<>();
+        for (Message message : pending.values()) {
+            if ((fromEpoch == null || message.getTime_posted_epoch() >= fromEpoch)
+                    && (toEpoch == null || message.getTime_posted_epoch() <= toEpoch)
+                    && (postedBy == null || message.getPosted_by() == postedBy)) {
+                unapplied.add(message);
+            }
+        }
+        int[] lastId = {afterId == null ? 0 : afterId};
+        long count = database.streamMessages(fromEpoch, toEpoch, postedBy, afterId, message -> {
+            lastId[0] = message.getMessage_id();
+            callback.accept(message);
+        });
+        // Continuing with the overlay after the last message H2 returned, skipping the ones applied meanwhile
+        for (Message message : unapplied) {
+            if (message.getMessage_id() > lastId[0]) {
+                callback.accept(message);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the applier, applies what is pending and releases the directory. Segments whose messages could not
+     * be applied are kept and replayed at the next start.
+     */
+    @Override
+    public void close() {
+        backgroundTasks.forEach(task -> task.cancel(false));
+        applyLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                active.buffer.force();
+            } finally {
+                appendLock.unlock();
+            }
+            // Leaving the auto-increment counter after our IDs, so the database can be used without the log again
+            if (applyPending()) {
+                database.restartMessageIds();
+            }
+            directoryLock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        appliedMessageId = database.getMaxMessageId();
+        if (appliedMessageId < 0) {
+            throw new IOException("Cannot read the message table to recover the write-ahead log.");
+        }
+        List<Path> files = new ArrayList<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX);
+        try {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } finally {
+            stream.close();
+        }
+        files.sort(null);
+
+        int lastMessageId = appliedMessageId;
+        int lastSegmentId = -1;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file, map(file, (int) Files.size(file)));
+            segments.put(id, segment);
+            lastSegmentId = id;
+            for (Message message : replay(segment)) {
+                lastMessageId = Math.max(lastMessageId, message.getMessage_id());
+                if (message.getMessage_id() > appliedMessageId) {
+                    pending.put(message.getMessage_id(), message);
+                }
+            }
+        }
+        nextMessageId = lastMessageId + 1;
+        // Old segments are only read, never appended to, so a torn tail needs no clearing
+        active = createSegment(lastSegmentId + 1);
+
+        int replayed = pending.size();
+        if (!applyPending() || !database.restartMessageIds()) {
+            throw new IOException("Cannot apply the write-ahead log in " + directory + " to the database.");
+        }
+        if (replayed > 0) {
+            System.out.println("Replayed " + replayed + " messages from the write-ahead log in " + directory);
+        }
+    }
+
+    private List<Message> replay(Segment segment) {
+        List<Message> messages = new ArrayList<>();
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES + CRC_BYTES <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < HEADER_BYTES + CRC_BYTES || offset + length > segment.capacity
+                    || buffer.getInt(offset + length - CRC_BYTES) != crc(buffer, offset, length)) {
+                System.out.println("Dropping a torn record at " + segment.path + ":" + offset);
+                break;
+            }
+            Message message = read(buffer, offset);
+            messages.add(message);
+            segment.maxMessageId = message.getMessage_id();
+            offset += length;
+        }
+        segment.writePosition = offset;
+        return messages;
+    }
+
+    private void append(Message message, byte[] text, int length) {
+        ByteBuffer buffer = active.buffer;
+        int offset = active.writePosition;
+        buffer.putInt(offset, length);
+        buffer.putInt(offset + ID_OFFSET, message.getMessage_id());
+        buffer.putInt(offset + POSTED_BY_OFFSET, message.getPosted_by());
+        buffer.putLong(offset + EPOCH_OFFSET, message.getTime_posted_epoch());
+        buffer.putShort(offset + TEXT_LENGTH_OFFSET, (short) text.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_BYTES);
+        view.put(text);
+        buffer.putInt(offset + length - CRC_BYTES, crc(buffer, offset, length));
+        active.writePosition = offset + length;
+        active.maxMessageId = message.getMessage_id();
+    }
+
+    /**
+     * Forces the log to disk up to a given record. A caller finding its record already forced by another one
+     * returns at once, so posts waiting on each other share a single force.
+     *
+     * @param ticket The number of the record, counted from the opening of the store.
+     */
+    private void sync(long ticket) {
+        synchronized (syncLock) {
+            if (synced >= ticket) {
+                return;
+            }
+            if (fsyncDelayMillis > 0) {
+                try {
+                    Thread.sleep(fsyncDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Segment segment;
+            long target;
+            appendLock.lock();
+            try {
+                segment = active;
+                target = appended;
+            } finally {
+                appendLock.unlock();
+            }
+            // The records in earlier segments were forced when they were sealed
+            segment.buffer.force();
+            synced = target;
+        }
+    }
+
+    private int recordLength(byte[] text) throws IOException {
+        int length = HEADER_BYTES + text.length + CRC_BYTES;
+        if (text.length > Short.MAX_VALUE || length + 4 > segmentBytes) {
+            throw new IOException("Message text too large for a write-ahead log segment.");
+        }
+        return length;
+    }
+
+    private void roll() throws IOException {
+        active.buffer.force();
+        active = createSegment(active.id + 1);
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, map(path, segmentBytes));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Deletes the segments, other than the one being appended to, whose messages are all in H2.
+     */
+    private void deleteAppliedSegments() {
+        appendLock.lock();
+        try {
+            Iterator<Segment> iterator = segments.values().iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                if ((segment != active || closed) && segment.maxMessageId <= appliedMessageId) {
+                    Files.deleteIfExists(segment.path);
+                    iterator.remove();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the overlay's messages after the last one found in H2, keeping message_id order.
+     */
+    private static List<Message> appendUnapplied(List<Message> messages, List<Message> unapplied) {
+        int lastId = 0;
+        for (Message message : messages) {
+            lastId = Math.max(lastId, message.getMessage_id());
+        }
+        for (Message message : unapplied) {
+            if (message.getMessage_id() > lastId) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private static Message read(ByteBuffer buffer, int offset) {
+        byte[] text = new byte[buffer.getShort(offset + TEXT_LENGTH_OFFSET)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_BYTES);
+        view.get(text);
+        return new Message(buffer.getInt(offset + ID_OFFSET), buffer.getInt(offset + POSTED_BY_OFFSET),
+                new String(text, StandardCharsets.UTF_8), buffer.getLong(offset + EPOCH_OFFSET));
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + ID_OFFSET).limit(offset + length - CRC_BYTES);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * One segment file: where the next record goes and the last message ID in it.
+     */
+    private static class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        int writePosition;
+        int maxMessageId;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import Service.SyntheticDataService;
+import Util.Config;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command-line generator of a synthetic dataset in the database used by ConnectionUtil.
+ *
+ * Usage: GenerateData [generate|restore]
+ *
+ * "generate" (the default) replaces the database contents with the seed rows and a dataset shaped by the
+ * "generator.*" settings, then saves it to the snapshot file "generator.snapshot" (default h2/synthetic.zip).
+ * "restore" puts a previously saved snapshot back in place of the database file, which is much faster than
+ * generating it again; the application must not be running while a snapshot is restored.
+ */
+public class GenerateData {
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "generate";
+        Path snapshot = Paths.get(Config.get("generator.snapshot", "h2/synthetic.zip"));
+        SyntheticDataService generator = new SyntheticDataService();
+        long start = System.nanoTime();
+
+        if (command.equals("restore")) {
+            if (!Files.exists(snapshot)) {
+                System.out.println("No snapshot at " + snapshot + "; run GenerateData generate first.");
+                System.exit(1);
+            }
+            generator.restoreSnapshot(snapshot);
+            System.out.printf("Restored %s in %.1f s%n", snapshot, (System.nanoTime() - start) / 1e9);
+            return;
+        }
+        if (!command.equals("generate")) {
+            System.out.println("Usage: GenerateData [generate|restore]");
+            System.exit(2);
+        }
+
+        SyntheticDataService.Settings settings = SyntheticDataService.Settings.fromConfig();
+        generator.generate(settings, (table, inserted, total) -> {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d / %d (%.1f s)%n", table, inserted, total, seconds);
+        });
+        generator.saveSnapshot(snapshot);
+        System.out.printf("Generated %d accounts and %d messages (seed %d), saved to %s in %.1f s%n",
+                settings.accounts, settings.messages, settings.seed, snapshot, (System.nanoTime() - start) / 1e9);
+    }
+}
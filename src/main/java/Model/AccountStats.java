@@ -0,0 +1,64 @@
+package Model;
+
+/**
+ * This is a class that models the statistics of an account's messages, kept up to date with every message change
+ * so a profile page reads them without counting the messages.
+ */
+public class AccountStats {
+    private final int account_id;
+    private final long post_count;
+    /**
+     * The characters of all the account's message texts together.
+     */
+    private final long total_chars;
+    /**
+     * The time_posted_epoch of the account's oldest and newest messages, or null if it has none.
+     */
+    private final Long first_post_epoch;
+    private final Long last_post_epoch;
+
+    /**
+     * @param account_id
+     * @param post_count
+     * @param total_chars
+     * @param first_post_epoch
+     * @param last_post_epoch
+     */
+    public AccountStats(int account_id, long post_count, long total_chars, Long first_post_epoch, Long last_post_epoch) {
+        this.account_id = account_id;
+        this.post_count = post_count;
+        this.total_chars = total_chars;
+        this.first_post_epoch = first_post_epoch;
+        this.last_post_epoch = last_post_epoch;
+    }
+    /**
+     * @return account_id
+     */
+    public int getAccount_id() {
+        return account_id;
+    }
+    /**
+     * @return post_count
+     */
+    public long getPost_count() {
+        return post_count;
+    }
+    /**
+     * @return total_chars
+     */
+    public long getTotal_chars() {
+        return total_chars;
+    }
+    /**
+     * @return first_post_epoch, or null if the account has no messages
+     */
+    public Long getFirst_post_epoch() {
+        return first_post_epoch;
+    }
+    /**
+     * @return last_post_epoch, or null if the account has no messages
+     */
+    public Long getLast_post_epoch() {
+        return last_post_epoch;
+    }
+}
@@ -0,0 +1,86 @@
+package Model;
+
+/**
+ * This is a class that models one entry of the message change log: a message that was created, updated or
+ * deleted, and the sequence number of that change.
+ */
+public class MessageChange {
+    /**
+     * The position of this change in the change log. Sequence numbers only ever increase, so a client can ask for
+     * everything after the last sequence number it has seen.
+     */
+    public long change_seq;
+    /**
+     * What happened to the message: "created", "updated" or "deleted".
+     */
+    public String change_type;
+    /**
+     * The message as it was right after the change (or right before it, for a deletion).
+     */
+    public Message message;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public MessageChange(){
+    }
+    /**
+     * When reading the change log, all fields will be needed.
+     * @param change_seq
+     * @param change_type
+     * @param message
+     */
+    public MessageChange(long change_seq, String change_type, Message message) {
+        this.change_seq = change_seq;
+        this.change_type = change_type;
+        this.message = message;
+    }
+    /**
+     * @return change_seq
+     */
+    public long getChange_seq() {
+        return change_seq;
+    }
+    /**
+     * @param change_seq
+     */
+    public void setChange_seq(long change_seq) {
+        this.change_seq = change_seq;
+    }
+    /**
+     * @return change_type
+     */
+    public String getChange_type() {
+        return change_type;
+    }
+    /**
+     * @param change_type
+     */
+    public void setChange_type(String change_type) {
+        this.change_type = change_type;
+    }
+    /**
+     * @return message
+     */
+    public Message getMessage() {
+        return message;
+    }
+    /**
+     * @param message
+     */
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "MessageChange{" +
+                "change_seq=" + change_seq +
+                ", change_type='" + change_type + '\'' +
+                ", message=" + message +
+                '}';
+    }
+}
@@ -0,0 +1,87 @@
+package Model;
+
+/**
+ * This is a class that models the response to a request sent with an Idempotency-Key header, kept so a retry of
+ * the request gets the same response without running it again.
+ */
+public class RecordedResponse {
+    /**
+     * The key the client sent, scoped to the method and path of the request.
+     */
+    private final String idempotency_key;
+    /**
+     * A hash of the request body and its content type, to tell a retry from a different request reusing the key.
+     */
+    private final String fingerprint;
+    /**
+     * When the request was first received, in milliseconds since the epoch.
+     */
+    private final long created_at;
+    private final int status;
+    private final String content_type;
+    private final byte[] body;
+
+    /**
+     * A response just produced by a handler, not yet tied to a key.
+     * @param status
+     * @param content_type
+     * @param body
+     */
+    public RecordedResponse(int status, String content_type, byte[] body) {
+        this(null, null, 0, status, content_type, body);
+    }
+    /**
+     * A recorded response, with all fields.
+     * @param idempotency_key
+     * @param fingerprint
+     * @param created_at
+     * @param status
+     * @param content_type
+     * @param body
+     */
+    public RecordedResponse(String idempotency_key, String fingerprint, long created_at, int status,
+                            String content_type, byte[] body) {
+        this.idempotency_key = idempotency_key;
+        this.fingerprint = fingerprint;
+        this.created_at = created_at;
+        this.status = status;
+        this.content_type = content_type;
+        this.body = body;
+    }
+    /**
+     * @return idempotency_key
+     */
+    public String getIdempotency_key() {
+        return idempotency_key;
+    }
+    /**
+     * @return fingerprint
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+    /**
+     * @return created_at
+     */
+    public long getCreated_at() {
+        return created_at;
+    }
+    /**
+     * @return status
+     */
+    public int getStatus() {
+        return status;
+    }
+    /**
+     * @return content_type, or null if the response had none
+     */
+    public String getContent_type() {
+        return content_type;
+    }
+    /**
+     * @return body
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
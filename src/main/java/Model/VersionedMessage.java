@@ -0,0 +1,32 @@
+package Model;
+
+/**
+ * This is a class that models a message together with its version, which changes with every update. The version
+ * is sent in the ETag header rather than in the message itself, so clients can make updates conditional on it
+ * (If-Match) without the message JSON changing.
+ */
+public class VersionedMessage {
+    private final Message message;
+    private final long version;
+
+    /**
+     * @param message
+     * @param version
+     */
+    public VersionedMessage(Message message, long version) {
+        this.message = message;
+        this.version = version;
+    }
+    /**
+     * @return message
+     */
+    public Message getMessage() {
+        return message;
+    }
+    /**
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,42 @@
+import DAO.ShardedMessageStore;
+import Util.Config;
+import Util.ShardConnectionUtil;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command-line tool moving messages between the shards of the "sharded" storage engine after shards were added.
+ *
+ * Usage: RebalanceShards <shards>
+ *
+ * Opens the shard directory "storage.shards.directory" (default h2/shards) with the given number of shards,
+ * creating the new ones, and moves every message to the shard its poster now hashes to. Afterwards, start the
+ * application with "storage.shards.count" set to the same number. The application must not be running, and
+ * the number of shards can only grow.
+ */
+public class RebalanceShards {
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: RebalanceShards <shards>");
+            System.exit(2);
+        }
+        int count = Integer.parseInt(args[0]);
+        Path directory = Paths.get(Config.get("storage.shards.directory", "h2/shards"));
+        if (Files.exists(directory.resolve("shard-" + count + ".mv.db"))) {
+            System.out.println(directory + " already has more than " + count + " shards; shards cannot be removed.");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        ShardedMessageStore store = new ShardedMessageStore(new ShardConnectionUtil(directory, count));
+        try {
+            long moved = store.rebalance();
+            System.out.printf("Moved %d messages across %d shards in %.1f s%n", moved, count,
+                    (System.nanoTime() - start) / 1e9);
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -1,18 +1,20 @@
 package Service;
 
 import Model.Account;
-import DAO.AccountDAO;
+import DAO.AccountRepository;
+import DAO.RowCallback;
+import java.io.IOException;
 
 public class AccountService {
-    private AccountDAO accountDAO;
+    private AccountRepository accountDAO;
 
-    // Default constructor initializes accountDAO
+    // Default constructor initializes the account storage selected with the "storage.engine" setting
     public AccountService(){
-        accountDAO = new AccountDAO();
+        accountDAO = AccountRepository.fromConfig();
     }
 
-    // Constructor to inject AccountDAO
-    public AccountService(AccountDAO accountDAO){
+    // Constructor to inject the account storage (AccountDAO or another engine)
+    public AccountService(AccountRepository accountDAO){
         this.accountDAO = accountDAO;
     }
 
@@ -26,13 +28,13 @@ public class AccountService {
     public Account registerAccount(Account account) {
         // Validating username
         String username = account.getUsername();
-        if (username == null || username.isBlank()) {
+        if (!isValidUsername(username)) {
             throw new IllegalArgumentException(""); // "Username cannot be blank."
         }
 
         // Validating password
         String password = account.getPassword();
-        if (password == null || password.length() < 4) {
+        if (!isValidPassword(password)) {
             throw new IllegalArgumentException(""); // "Password must be at least 4 characters long."
         }
 
@@ -45,6 +47,27 @@ public class AccountService {
         return accountDAO.insertAccount(account);
     }
 
+    /**
+     * Checks the username rule for registration: the username must not be blank.
+     * Shared with the bulk importer so both paths accept exactly the same accounts.
+     *
+     * @param username The username to check.
+     * @return True if the username is acceptable.
+     */
+    public static boolean isValidUsername(String username) {
+        return username != null && !username.isBlank();
+    }
+
+    /**
+     * Checks the password rule for registration: the password must be at least 4 characters long.
+     *
+     * @param password The password to check.
+     * @return True if the password is acceptable.
+     */
+    public static boolean isValidPassword(String password) {
+        return password != null && password.length() >= 4;
+    }
+
     /**
      * Retrieves an account by its username.
      * 
@@ -91,4 +114,23 @@ public class AccountService {
         // Returning the authenticated account if successful
         return account;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streams all accounts, in account_id order, without loading them all in memory. Passwords are not included.
+     *
+     * @param afterId Only accounts after this account_id (null to start from the beginning).
+     * @param callback Receives each account.
+     * @return The number of accounts streamed.
+     * @throws IOException If the callback failed, e.g. because the client disconnected.
+     */
+    public long exportAccounts(Integer afterId, RowCallback<Account> callback) throws IOException {
+        return accountDAO.streamAccounts(afterId, callback);
+    }
+
+    /**
+     * Releases the account storage when the application stops.
+     */
+    public void close() {
+        accountDAO.close();
+    }
+}
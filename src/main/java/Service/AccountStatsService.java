@@ -0,0 +1,126 @@
+package Service;
+
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import Model.AccountStats;
+import Model.Message;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the statistics of accounts' messages (post count, total characters, first and last post time) for
+ * profile pages. The storage keeps them up to date with every message change (MessageDAO in the 'account_stats'
+ * table, in the same transaction as the change), so a read is one primary key lookup; this service keeps the
+ * statistics of recently viewed accounts in memory on top of that.
+ *
+ * A cached entry is dropped as soon as a message of its account changes (reported as a MessageListener), and the
+ * whole cache is dropped once per time-to-live, so no entry outlives it and changes made without going through
+ * MessageService (bulk imports, other instances) are picked up. Loading an entry and dropping it are serialized per
+ * account, so an entry loaded before a change is never kept after it.
+ */
+public class AccountStatsService implements MessageListener {
+    private final MessageRepository messageDAO;
+    private final AccountRepository accountDAO;
+    private final int maxEntries;
+    private final ConcurrentHashMap<Integer, AccountStats> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param messageDAO The storage for messages, which keeps the statistics.
+     * @param accountDAO The storage for accounts, to tell unknown accounts from accounts without messages.
+     * @param maxEntries The maximum number of accounts kept in memory (0 to read the storage every time).
+     * @throws IllegalArgumentException If maxEntries is negative.
+     */
+    public AccountStatsService(MessageRepository messageDAO, AccountRepository accountDAO, int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("The cache size must not be negative.");
+        }
+        this.messageDAO = messageDAO;
+        this.accountDAO = accountDAO;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void onMessageCreated(Message message) {
+        cache.remove(message.getPosted_by());
+    }
+
+    @Override
+    public void onMessageUpdated(Message message) {
+        cache.remove(message.getPosted_by());
+    }
+
+    @Override
+    public void onMessageDeleted(Message message) {
+        cache.remove(message.getPosted_by());
+    }
+
+    /**
+     * Retrieves the statistics of an account.
+     *
+     * @param accountId The ID of the account.
+     * @return The statistics, or null if the account does not exist (or the storage failed).
+     */
+    public AccountStats getAccountStats(int accountId) {
+        AccountStats stats = cache.get(accountId);
+        if (stats != null) {
+            hits.increment();
+            return stats;
+        }
+        misses.increment();
+        if (maxEntries == 0) {
+            return load(accountId);
+        }
+        if (cache.size() >= maxEntries) {
+            Iterator<Integer> victims = cache.keySet().iterator();
+            if (victims.hasNext()) {
+                cache.remove(victims.next());
+            }
+        }
+        // Loading under the entry's lock: a change of the account waits for the load to end before dropping it
+        return cache.computeIfAbsent(accountId, this::load);
+    }
+
+    /**
+     * Reads the statistics, and looks the account up only when it has no messages: the storage reports unknown
+     * accounts like accounts without messages, and an account with messages necessarily exists.
+     */
+    private AccountStats load(int accountId) {
+        AccountStats stats = messageDAO.getAccountStats(accountId);
+        if (stats == null || (stats.getPost_count() == 0 && !accountDAO.accountExistsById(accountId))) {
+            return null;
+        }
+        return stats;
+    }
+
+    /**
+     * Drops every cached entry, so the next reads get the statistics from the storage. Run once per time-to-live.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return The number of accounts currently cached.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return The number of reads answered from memory since startup.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of reads that went to the storage since startup.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
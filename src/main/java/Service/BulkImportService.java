@@ -0,0 +1,461 @@
+package Service;
+
+import DAO.AccountDAO;
+import DAO.AccountRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import Model.Account;
+import Model.Message;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports large NDJSON or CSV files of accounts or messages.
+ *
+ * The input is read sequentially and cut into chunks of lines. Chunks are parsed and validated in parallel on a
+ * thread pool, then loaded strictly in input order, each chunk in a single transaction using JDBC batches. The
+ * validation rules are the ones of AccountService.registerAccount and MessageService.postMessage, applied to a
+ * whole chunk at once: account existence and username uniqueness are checked with one query per chunk instead of
+ * one per row. Rows that fail validation are counted and skipped; they never abort the import.
+ *
+ * After each committed chunk, progress is reported and the number of input lines fully handled is saved to the
+ * optional checkpoint file, so an interrupted import can resume where it stopped.
+ */
+public class BulkImportService {
+    // Rows per chunk: one transaction and one validation query per chunk
+    private static final int DEFAULT_CHUNK_SIZE = 10000;
+    // Errors kept in the result; the rest are only counted
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    /**
+     * The supported input formats. CSV files start with a header row naming the columns; quoted fields may
+     * contain commas and doubled quotes, but not line breaks.
+     */
+    public enum Format { NDJSON, CSV }
+
+    /**
+     * Receives progress updates, after each committed chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(ImportResult progress);
+    }
+
+    /**
+     * The outcome (or the progress so far) of an import.
+     */
+    public static class ImportResult {
+        public long lines;
+        public long imported;
+        public long rejected;
+        public List<String> errors = new ArrayList<>();
+
+        public long getLines() { return lines; }
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public List<String> getErrors() { return errors; }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MessageRepository messageDAO;
+    private final AccountRepository accountDAO;
+    private final int chunkSize;
+    private final int threads;
+
+    /**
+     * Default constructor: initializes DAOs, uses the default chunk size and one parser thread per processor.
+     */
+    public BulkImportService() {
+        this(new MessageDAO(), new AccountDAO(), DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor importing into the given storage, with the default tuning.
+     *
+     * @param messageDAO The storage for messages, shared with MessageService.
+     * @param accountDAO The storage for accounts, shared with AccountService and MessageService.
+     */
+    public BulkImportService(MessageRepository messageDAO, AccountRepository accountDAO) {
+        this(messageDAO, accountDAO, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor to inject the DAOs and tune the import.
+     *
+     * @param messageDAO The storage for messages (MessageDAO or another engine).
+     * @param accountDAO The storage for accounts (AccountDAO or another engine).
+     * @param chunkSize The number of lines per chunk (and per transaction).
+     * @param threads The number of threads parsing and validating chunks.
+     */
+    public BulkImportService(MessageRepository messageDAO, AccountRepository accountDAO, int chunkSize, int threads) {
+        this.messageDAO = messageDAO;
+        this.accountDAO = accountDAO;
+        this.chunkSize = chunkSize;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Imports messages. NDJSON lines and CSV columns use the fields posted_by, message_text and time_posted_epoch.
+     *
+     * @param reader The input.
+     * @param format The input format.
+     * @param skipLines The number of input lines already imported by an earlier attempt (0 to start over).
+     * @param checkpoint A file recording progress for resuming, or null. If it exists, its line count is skipped.
+     * @param listener Receives progress updates, or null.
+     * @return The outcome of the import.
+     * @throws IOException If the input or the checkpoint cannot be read or written.
+     */
+    public ImportResult importMessages(BufferedReader reader, Format format, long skipLines, Path checkpoint,
+                                       ProgressListener listener) throws IOException {
+        // Account IDs confirmed to exist, shared by the parser threads so each ID is queried at most once
+        Set<Integer> knownAccounts = ConcurrentHashMap.newKeySet();
+
+        return this.<Message>run(reader, format, skipLines, checkpoint, listener, chunk -> {
+            List<Message> candidates = new ArrayList<>();
+            List<Long> lineNumbers = new ArrayList<>();
+            for (int i = 0; i < chunk.records.size(); i++) {
+                Map<String, String> record = chunk.records.get(i);
+                long lineNumber = chunk.lineNumbers.get(i);
+                if (record == null) {
+                    chunk.reject(lineNumber, "unreadable row");
+                    continue;
+                }
+                try {
+                    Message message = new Message(Integer.parseInt(record.get("posted_by")),
+                            record.get("message_text"), Long.parseLong(record.get("time_posted_epoch")));
+                    if (!MessageService.isValidMessageText(message.getMessage_text())) {
+                        chunk.reject(lineNumber, "message_text must not be blank or over 255 characters");
+                        continue;
+                    }
+                    candidates.add(message);
+                    lineNumbers.add(lineNumber);
+                } catch (NumberFormatException e) {
+                    chunk.reject(lineNumber, "posted_by and time_posted_epoch must be numbers");
+                }
+            }
+
+            // Checking posted_by for the whole chunk with one query for the IDs not seen before
+            Set<Integer> unknown = new HashSet<>();
+            for (Message message : candidates) {
+                if (!knownAccounts.contains(message.getPosted_by())) {
+                    unknown.add(message.getPosted_by());
+                }
+            }
+            if (!unknown.isEmpty()) {
+                knownAccounts.addAll(accountDAO.getExistingAccountIds(unknown));
+            }
+            List<Message> valid = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                if (knownAccounts.contains(candidates.get(i).getPosted_by())) {
+                    valid.add(candidates.get(i));
+                } else {
+                    chunk.reject(lineNumbers.get(i), "posted_by does not refer to an existing account");
+                }
+            }
+            return valid;
+        }, (chunk, messages) -> {
+            int inserted = messageDAO.insertMessagesBatch(messages);
+            return inserted == 0 ? -1 : inserted;
+        });
+    }
+
+    /**
+     * Imports accounts. NDJSON lines and CSV columns use the fields username and password.
+     *
+     * @param reader The input.
+     * @param format The input format.
+     * @param skipLines The number of input lines already imported by an earlier attempt (0 to start over).
+     * @param checkpoint A file recording progress for resuming, or null. If it exists, its line count is skipped.
+     * @param listener Receives progress updates, or null.
+     * @return The outcome of the import.
+     * @throws IOException If the input or the checkpoint cannot be read or written.
+     */
+    public ImportResult importAccounts(BufferedReader reader, Format format, long skipLines, Path checkpoint,
+                                       ProgressListener listener) throws IOException {
+        return this.<Account>run(reader, format, skipLines, checkpoint, listener, chunk -> {
+            List<Account> valid = new ArrayList<>();
+            for (int i = 0; i < chunk.records.size(); i++) {
+                Map<String, String> record = chunk.records.get(i);
+                long lineNumber = chunk.lineNumbers.get(i);
+                if (record == null) {
+                    chunk.reject(lineNumber, "unreadable row");
+                } else if (!AccountService.isValidUsername(record.get("username"))) {
+                    chunk.reject(lineNumber, "username must not be blank");
+                } else if (!AccountService.isValidPassword(record.get("password"))) {
+                    chunk.reject(lineNumber, "password must be at least 4 characters long");
+                } else {
+                    valid.add(new Account(record.get("username"), record.get("password")));
+                    chunk.validLines.add(lineNumber);
+                }
+            }
+            return valid;
+        }, (chunk, accounts) -> {
+            // Uniqueness is checked here, in input order, so earlier chunks (and earlier rows) win
+            Set<String> usernames = new HashSet<>();
+            for (Account account : accounts) {
+                usernames.add(account.getUsername());
+            }
+            Set<String> taken = accountDAO.getExistingUsernames(usernames);
+            List<Account> unique = new ArrayList<>();
+            for (int i = 0; i < accounts.size(); i++) {
+                Account account = accounts.get(i);
+                if (taken.add(account.getUsername())) {
+                    unique.add(account);
+                } else {
+                    chunk.reject(chunk.validLines.get(i), "username already exists");
+                }
+            }
+            if (unique.isEmpty()) {
+                return 0;
+            }
+            int inserted = accountDAO.insertAccountsBatch(unique);
+            return inserted == 0 ? -1 : inserted;
+        });
+    }
+
+    /**
+     * The import pipeline: sequential reading, parallel parsing and validation, in-order loading.
+     */
+    private <T> ImportResult run(BufferedReader reader, Format format, long skipLines, Path checkpoint,
+                                 ProgressListener listener, ChunkValidator<T> validator, ChunkLoader<T> loader)
+            throws IOException {
+        ImportResult result = new ImportResult();
+        long resumeAfter = Math.max(skipLines, readCheckpoint(checkpoint));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Chunks being parsed, oldest first; bounded so a fast reader cannot fill the heap
+        ArrayDeque<Future<ValidatedChunk<T>>> inFlight = new ArrayDeque<>();
+        try {
+            String[] header = null;
+            long lineNumber = 0;
+            if (format == Format.CSV) {
+                String headerLine = reader.readLine();
+                if (headerLine == null) {
+                    return result;
+                }
+                lineNumber++;
+                header = parseCsvLine(headerLine).toArray(new String[0]);
+            }
+
+            RawChunk raw = new RawChunk(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumeAfter || line.isBlank()) {
+                    continue;
+                }
+                raw.add(lineNumber, line);
+                if (raw.lines.size() == chunkSize) {
+                    raw.lastLine = lineNumber;
+                    inFlight.add(submit(pool, raw, format, header, validator));
+                    raw = new RawChunk(chunkSize);
+                    if (inFlight.size() >= threads * 2) {
+                        load(inFlight.poll(), loader, result, checkpoint, listener);
+                    }
+                }
+            }
+            if (!raw.lines.isEmpty()) {
+                raw.lastLine = lineNumber;
+                inFlight.add(submit(pool, raw, format, header, validator));
+            }
+            while (!inFlight.isEmpty()) {
+                load(inFlight.poll(), loader, result, checkpoint, listener);
+            }
+            result.lines = lineNumber;
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private <T> Future<ValidatedChunk<T>> submit(ExecutorService pool, RawChunk raw, Format format, String[] header,
+                                                 ChunkValidator<T> validator) {
+        return pool.submit(() -> {
+            ValidatedChunk<T> chunk = new ValidatedChunk<>(raw.lastLine);
+            for (int i = 0; i < raw.lines.size(); i++) {
+                chunk.records.add(parseRecord(raw.lines.get(i), format, header));
+                chunk.lineNumbers.add(raw.lineNumbers.get(i));
+            }
+            chunk.rows = validator.validate(chunk);
+            return chunk;
+        });
+    }
+
+    private <T> void load(Future<ValidatedChunk<T>> pending, ChunkLoader<T> loader, ImportResult result,
+                          Path checkpoint, ProgressListener listener) throws IOException {
+        ValidatedChunk<T> chunk;
+        try {
+            chunk = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed while parsing: " + e.getCause().getMessage(), e.getCause());
+        }
+        int loaded = chunk.rows.isEmpty() ? 0 : loader.load(chunk, chunk.rows);
+        if (loaded < 0) {
+            // The batch was rolled back: stopping here keeps the checkpoint before this chunk
+            throw new IOException("Import failed while loading the lines before " + (chunk.lastLine + 1) + ".");
+        }
+        result.imported += loaded;
+        result.rejected += chunk.rejectedCount;
+        for (String error : chunk.errors) {
+            if (result.errors.size() < MAX_REPORTED_ERRORS) {
+                result.errors.add(error);
+            }
+        }
+        result.lines = chunk.lastLine;
+        writeCheckpoint(checkpoint, chunk.lastLine);
+        if (listener != null) {
+            listener.onProgress(result);
+        }
+    }
+
+    /**
+     * Turns one input line into a field map, or null if it cannot be read.
+     */
+    private Map<String, String> parseRecord(String line, Format format, String[] header) {
+        Map<String, String> record = new HashMap<>();
+        if (format == Format.CSV) {
+            List<String> fields = parseCsvLine(line);
+            for (int i = 0; i < header.length && i < fields.size(); i++) {
+                record.put(header[i].trim(), fields.get(i));
+            }
+            return record;
+        }
+        try {
+            JsonNode node = mapper.readTree(line);
+            if (node == null || !node.isObject()) {
+                return null;
+            }
+            node.fields().forEachRemaining(field ->
+                    record.put(field.getKey(), field.getValue().isNull() ? null : field.getValue().asText()));
+            return record;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Splits a CSV line into fields, honoring double-quoted fields and doubled quotes inside them.
+     *
+     * @param line One CSV line.
+     * @return The unquoted field values.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static long readCheckpoint(Path checkpoint) throws IOException {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return 0;
+        }
+        String value = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? 0 : Long.parseLong(value);
+    }
+
+    private static void writeCheckpoint(Path checkpoint, long line) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        // Writing to a temporary file and renaming it, so a crash never leaves a half-written checkpoint
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temporary, String.valueOf(line).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private interface ChunkValidator<T> {
+        List<T> validate(ValidatedChunk<T> chunk);
+    }
+
+    private interface ChunkLoader<T> {
+        // Returns the number of rows inserted, or -1 if the chunk's transaction was rolled back
+        int load(ValidatedChunk<T> chunk, List<T> rows);
+    }
+
+    private static class RawChunk {
+        final List<String> lines;
+        final List<Long> lineNumbers;
+        // The last input line covered by this chunk, including skipped blank lines
+        long lastLine;
+
+        RawChunk(int capacity) {
+            this.lines = new ArrayList<>(capacity);
+            this.lineNumbers = new ArrayList<>(capacity);
+        }
+
+        void add(long lineNumber, String line) {
+            lines.add(line);
+            lineNumbers.add(lineNumber);
+        }
+    }
+
+    private static class ValidatedChunk<T> {
+        final long lastLine;
+        final List<Map<String, String>> records = new ArrayList<>();
+        final List<Long> lineNumbers = new ArrayList<>();
+        // Line numbers of the rows passed to the loader, in the same order, for rejections found while loading
+        final List<Long> validLines = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        List<T> rows = Collections.emptyList();
+        long rejectedCount;
+
+        ValidatedChunk(long lastLine) {
+            this.lastLine = lastLine;
+        }
+
+        void reject(long lineNumber, String reason) {
+            rejectedCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("line " + lineNumber + ": " + reason);
+            }
+        }
+    }
+}
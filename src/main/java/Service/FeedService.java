@@ -0,0 +1,448 @@
+package Service;
+
+import DAO.AccountRepository;
+import DAO.FollowDAO;
+import DAO.MessageRepository;
+import Model.Message;
+import Util.Config;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Follows between accounts, and each account's home feed: the latest messages of the accounts it follows.
+ *
+ * Feeds mix fan-out on write and fan-out on read:
+ * - A new message of an account with at most "fanout.max.followers" followers is pushed (as a reference) into
+ *   the feed buffer of each of its followers, when it is created (reported as a MessageListener). A buffer keeps
+ *   the latest "buffer.size" messages of an account's feed. Buffers are only kept for accounts that read their
+ *   feed: the first read builds it from the followed accounts' latest messages.
+ * - Messages of accounts with more followers are not pushed, which would mean one write per follower. Each read
+ *   pulls the latest messages of the followed high-follower accounts instead, with one query, and merges them
+ *   with the buffer.
+ *
+ * The pull runs with a time budget ("pull.budget.ms"). If it takes longer, the read returns the pushed messages
+ * alone and reports the feed as incomplete, so reads stay fast however many accounts are followed. Buffers hold
+ * message IDs, resolved with one multi-get per read, so updated texts show and deleted messages drop out.
+ *
+ * Follower counts are loaded once and kept in memory, so classifying an account costs nothing. Follows made by
+ * other instances are only seen after a restart.
+ */
+public class FeedService implements MessageListener {
+    // The order of a feed: newest first (by time_posted_epoch, then message_id)
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong((Entry entry) -> entry.epoch)
+            .thenComparingInt(entry -> entry.messageId).reversed();
+
+    private final FollowDAO followDAO;
+    private final MessageRepository messageDAO;
+    private final AccountRepository accountDAO;
+    private final int bufferSize;
+    private final int fanOutMaxFollowers;
+    private final int maxBuffers;
+    private final long pullBudgetMillis;
+    private final ExecutorService pulls;
+
+    private final ConcurrentHashMap<Integer, Integer> followerCounts;
+    private final ConcurrentHashMap<Integer, FeedBuffer> buffers = new ConcurrentHashMap<>();
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder pulled = new LongAdder();
+    private final LongAdder incompleteReads = new LongAdder();
+
+    /**
+     * @param followDAO The follow table.
+     * @param messageDAO The storage for messages.
+     * @param accountDAO The storage for accounts.
+     * @param bufferSize The most messages kept per feed, and so the most a read returns.
+     * @param fanOutMaxFollowers The most followers an account may have for its messages to be pushed.
+     * @param maxBuffers The most feed buffers kept in memory.
+     * @param pullBudgetMillis How long a read waits for the messages it pulls.
+     * @param pullThreads The threads running the pulls.
+     * @throws IllegalArgumentException If a size, the budget or the number of threads is not positive.
+     */
+    public FeedService(FollowDAO followDAO, MessageRepository messageDAO, AccountRepository accountDAO, int bufferSize,
+                       int fanOutMaxFollowers, int maxBuffers, long pullBudgetMillis, int pullThreads) {
+        if (bufferSize <= 0 || fanOutMaxFollowers < 0 || maxBuffers <= 0 || pullBudgetMillis <= 0 || pullThreads <= 0) {
+            throw new IllegalArgumentException("The feed sizes, budget and threads must be positive.");
+        }
+        this.followDAO = followDAO;
+        this.messageDAO = messageDAO;
+        this.accountDAO = accountDAO;
+        this.bufferSize = bufferSize;
+        this.fanOutMaxFollowers = fanOutMaxFollowers;
+        this.maxBuffers = maxBuffers;
+        this.pullBudgetMillis = pullBudgetMillis;
+        this.followerCounts = new ConcurrentHashMap<>(followDAO.getFollowerCounts());
+        this.pulls = Executors.newFixedThreadPool(pullThreads, runnable -> {
+            Thread thread = new Thread(runnable, "feed-pull");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the service from the "feed.*" settings: "buffer.size" (default 200), "fanout.max.followers"
+     * (default 1000), "buffers" (default 10000), "pull.budget.ms" (default 50) and "pull.threads" (default 4).
+     *
+     * @param messageDAO The storage for messages.
+     * @param accountDAO The storage for accounts.
+     * @return A new service; close() must be called when it is no longer used.
+     */
+    public static FeedService fromConfig(MessageRepository messageDAO, AccountRepository accountDAO) {
+        return new FeedService(new FollowDAO(), messageDAO, accountDAO,
+                Config.getInt("feed.buffer.size", 200),
+                Config.getInt("feed.fanout.max.followers", 1000),
+                Config.getInt("feed.buffers", 10000),
+                Config.getLong("feed.pull.budget.ms", 50),
+                Config.getInt("feed.pull.threads", 4));
+    }
+
+    /**
+     * Makes an account follow another. The follower's feed is rebuilt on its next read, with the new account's
+     * messages.
+     *
+     * @param followerId The account following.
+     * @param followeeId The account to follow.
+     * @throws IllegalArgumentException If an account does not exist, they are the same, or it already follows it.
+     */
+    public void follow(int followerId, int followeeId) throws IllegalArgumentException {
+        if (followerId == followeeId || !accountDAO.accountExistsById(followerId) || !accountDAO.accountExistsById(followeeId)) {
+            throw new IllegalArgumentException(""); // "Both accounts must exist and be different."
+        }
+        if (!followDAO.insertFollow(followerId, followeeId)) {
+            throw new IllegalArgumentException(""); // "The account already follows it."
+        }
+        followerCounts.merge(followeeId, 1, Integer::sum);
+        buffers.remove(followerId);
+    }
+
+    /**
+     * Makes an account stop following another.
+     *
+     * @param followerId The account following.
+     * @param followeeId The account to stop following.
+     * @throws IllegalArgumentException If it does not follow it.
+     */
+    public void unfollow(int followerId, int followeeId) throws IllegalArgumentException {
+        if (!followDAO.deleteFollow(followerId, followeeId)) {
+            throw new IllegalArgumentException(""); // "The account does not follow it."
+        }
+        Integer after = followerCounts.computeIfPresent(followeeId, (accountId, count) -> count > 1 ? count - 1 : null);
+        int remaining = after == null ? 0 : after;
+        buffers.remove(followerId);
+        if (remaining == fanOutMaxFollowers) {
+            // Its messages are pushed again from now on, but those posted meanwhile are in no buffer: rebuilding
+            // the buffers of its followers, the only ones that can hold its messages
+            for (Integer remainingFollowerId : followDAO.getFollowerIds(followeeId)) {
+                buffers.remove(remainingFollowerId);
+            }
+        }
+    }
+
+    /**
+     * @param accountId An account.
+     * @return True if its messages are pulled at read time rather than pushed.
+     */
+    private boolean isPulled(int accountId) {
+        return followerCounts.getOrDefault(accountId, 0) > fanOutMaxFollowers;
+    }
+
+    /**
+     * Pushes a new message into the feed buffers of its poster's followers, unless the poster has too many.
+     */
+    @Override
+    public void onMessageCreated(Message message) {
+        int postedBy = message.getPosted_by();
+        if (buffers.isEmpty() || followerCounts.getOrDefault(postedBy, 0) == 0 || isPulled(postedBy)) {
+            return;
+        }
+        Entry entry = new Entry(message.getMessage_id(), message.getTime_posted_epoch());
+        for (Integer followerId : followDAO.getFollowerIds(postedBy)) {
+            // Waiting for a buffer being built, which may or may not hold the message yet
+            buffers.computeIfPresent(followerId, (accountId, buffer) -> {
+                buffer.add(entry);
+                pushes.increment();
+                return buffer;
+            });
+        }
+    }
+
+    /**
+     * Reads an account's home feed: the latest messages of the accounts it follows, newest first.
+     *
+     * @param accountId The account reading its feed.
+     * @param limit The most messages to return.
+     * @return The feed, or null if the account does not exist.
+     * @throws IllegalArgumentException If 'limit' is not between 1 and the buffer size.
+     */
+    public Feed getFeed(int accountId, int limit) throws IllegalArgumentException {
+        if (limit <= 0 || limit > bufferSize) {
+            throw new IllegalArgumentException(""); // "limit must be between 1 and the feed buffer size."
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pullBudgetMillis);
+        if (!accountDAO.accountExistsById(accountId)) {
+            return null;
+        }
+        List<Integer> pushedFollowees = new ArrayList<>();
+        List<Integer> pulledFollowees = new ArrayList<>();
+        for (Integer followeeId : followDAO.getFolloweeIds(accountId)) {
+            (isPulled(followeeId) ? pulledFollowees : pushedFollowees).add(followeeId);
+        }
+
+        // Starting the pull first, so it runs while the buffer is read
+        Future<Map<Integer, List<Message>>> pull = pulledFollowees.isEmpty() ? null
+                : pulls.submit(() -> messageDAO.getLatestMessagesByAccountIds(pulledFollowees, limit));
+
+        List<List<Message>> sources = new ArrayList<>();
+        sources.add(readBuffer(accountId, pushedFollowees, limit));
+        boolean complete = true;
+        if (pull != null) {
+            try {
+                Map<Integer, List<Message>> timelines = pull.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                sources.addAll(timelines.values());
+                pulled.add(pulledFollowees.size());
+            } catch (TimeoutException | ExecutionException e) {
+                pull.cancel(false);
+                complete = false;
+                incompleteReads.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                complete = false;
+                incompleteReads.increment();
+            }
+        }
+        return new Feed(merge(sources, limit), complete);
+    }
+
+    /**
+     * Resolves the newest messages of an account's buffer, building the buffer first if needed. Messages deleted
+     * since they were pushed are dropped from the buffer.
+     */
+    private List<Message> readBuffer(int accountId, List<Integer> pushedFollowees, int limit) {
+        FeedBuffer buffer = buffers.get(accountId);
+        if (buffer == null) {
+            if (buffers.size() >= maxBuffers) {
+                Iterator<Integer> victims = buffers.keySet().iterator();
+                if (victims.hasNext()) {
+                    buffers.remove(victims.next());
+                }
+            }
+            // Building under the entry's lock: pushes to this account wait, so none is lost
+            buffer = buffers.computeIfAbsent(accountId, id -> build(pushedFollowees));
+        }
+        while (true) {
+            List<Integer> messageIds = buffer.newest(limit);
+            List<Message> messages = new ArrayList<>();
+            List<Integer> deleted = new ArrayList<>();
+            Map<Integer, Message> found = new HashMap<>();
+            for (Message message : messageDAO.getMessagesByIds(messageIds)) {
+                found.put(message.getMessage_id(), message);
+            }
+            for (Integer messageId : messageIds) {
+                Message message = found.get(messageId);
+                if (message != null) {
+                    messages.add(message);
+                } else {
+                    deleted.add(messageId);
+                }
+            }
+            if (deleted.isEmpty()) {
+                return messages;
+            }
+            buffer.removeAll(deleted);
+        }
+    }
+
+    private FeedBuffer build(List<Integer> pushedFollowees) {
+        FeedBuffer buffer = new FeedBuffer(bufferSize);
+        if (!pushedFollowees.isEmpty()) {
+            for (List<Message> timeline : messageDAO.getLatestMessagesByAccountIds(pushedFollowees, bufferSize).values()) {
+                for (Message message : timeline) {
+                    buffer.add(new Entry(message.getMessage_id(), message.getTime_posted_epoch()));
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Merges lists that are each newest first into the newest 'limit' messages, with a heap over the heads of
+     * the lists (a k-way merge). A message found in several lists is kept once.
+     */
+    private static List<Message> merge(List<List<Message>> sources, int limit) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                Comparator.comparing(Head::peek, MessageRepository.LATEST_FIRST));
+        for (List<Message> source : sources) {
+            if (!source.isEmpty()) {
+                heads.add(new Head(source.iterator()));
+            }
+        }
+        List<Message> merged = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            Head head = heads.poll();
+            Message message = head.next();
+            if (seen.add(message.getMessage_id())) {
+                merged.add(message);
+            }
+            if (head.hasNext()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Stops the pull threads.
+     */
+    public void close() {
+        pulls.shutdownNow();
+    }
+
+    /**
+     * @return The number of feed buffers kept in memory.
+     */
+    public int size() {
+        return buffers.size();
+    }
+
+    /**
+     * @return The number of messages pushed into feed buffers since startup.
+     */
+    public long getPushCount() {
+        return pushes.sum();
+    }
+
+    /**
+     * @return The number of followed accounts pulled at read time since startup.
+     */
+    public long getPullCount() {
+        return pulled.sum();
+    }
+
+    /**
+     * @return The number of reads whose pull did not finish within the budget since startup.
+     */
+    public long getIncompleteCount() {
+        return incompleteReads.sum();
+    }
+
+    /**
+     * A feed as read: its messages, newest first, and whether every followed account is in it.
+     */
+    public static class Feed {
+        private final List<Message> messages;
+        private final boolean complete;
+
+        Feed(List<Message> messages, boolean complete) {
+            this.messages = messages;
+            this.complete = complete;
+        }
+
+        /**
+         * @return The messages, newest first.
+         */
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return False if the messages of high-follower accounts could not be read within the budget.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    /**
+     * A message in a feed buffer: its ID, and its time for ordering.
+     */
+    private static final class Entry {
+        final int messageId;
+        final long epoch;
+
+        Entry(int messageId, long epoch) {
+            this.messageId = messageId;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * The latest messages of one account's feed, at most 'capacity' of them, newest first.
+     */
+    private static final class FeedBuffer {
+        private final int capacity;
+        private final TreeSet<Entry> entries = new TreeSet<>(NEWEST_FIRST);
+
+        FeedBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(Entry entry) {
+            entries.add(entry);
+            if (entries.size() > capacity) {
+                entries.pollLast();
+            }
+        }
+
+        synchronized List<Integer> newest(int limit) {
+            List<Integer> messageIds = new ArrayList<>(Math.min(limit, entries.size()));
+            for (Entry entry : entries) {
+                if (messageIds.size() == limit) {
+                    break;
+                }
+                messageIds.add(entry.messageId);
+            }
+            return messageIds;
+        }
+
+        synchronized void removeAll(List<Integer> messageIds) {
+            Set<Integer> removed = new HashSet<>(messageIds);
+            entries.removeIf(entry -> removed.contains(entry.messageId));
+        }
+    }
+
+    /**
+     * An iterator over one list of the merge, with its next message at hand.
+     */
+    private static final class Head implements Iterator<Message> {
+        private final Iterator<Message> source;
+        private Message next;
+
+        Head(Iterator<Message> source) {
+            this.source = source;
+            this.next = source.next();
+        }
+
+        Message peek() {
+            return next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Message next() {
+            Message current = next;
+            next = source.hasNext() ? source.next() : null;
+            return current;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package Service;
+
+import DAO.IdempotencyDAO;
+import Model.RecordedResponse;
+import Util.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs requests sent with an Idempotency-Key header at most once: the first request with a key runs and its
+ * response is recorded, and retries with the same key get the recorded response instead of running again.
+ * A retry arriving while the first request is still running waits for it.
+ *
+ * Responses are kept in memory for a limited time (the TTL) and up to a maximum number of keys, the oldest being
+ * dropped first. Keys whose first request is still running are never dropped, as a retry would then run it again,
+ * so more keys may be kept while that many requests are in flight. They can also be recorded in the
+ * 'idempotency_key' table, so retries are recognized after a restart. Server errors (5xx) are not recorded, so a
+ * retry runs the request again; neither are requests that failed with an exception.
+ */
+public class IdempotencyService {
+    private final IdempotencyDAO idempotencyDAO;
+    private final long ttlMillis;
+    private final int maxKeys;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // The entries in the order they were created, for eviction; may hold entries already removed
+    private final ConcurrentLinkedQueue<Entry> creationOrder = new ConcurrentLinkedQueue<>();
+    private final LongAdder replays = new LongAdder();
+
+    /**
+     * @param idempotencyDAO The table responses are also recorded in, or null to keep them in memory only.
+     * @param ttlMillis How long a response is replayed.
+     * @param maxKeys The most keys kept in memory.
+     * @throws IllegalArgumentException If ttlMillis or maxKeys is not positive.
+     */
+    public IdempotencyService(IdempotencyDAO idempotencyDAO, long ttlMillis, int maxKeys) {
+        if (ttlMillis <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("The TTL and the number of keys must be positive.");
+        }
+        this.idempotencyDAO = idempotencyDAO;
+        this.ttlMillis = ttlMillis;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Creates the service from the "idempotency.*" settings: "ttl.ms" (default 24 hours), "keys" (default 100000)
+     * and "persist" (default false, to also record responses in H2).
+     *
+     * @return A new service.
+     */
+    public static IdempotencyService fromConfig() {
+        return new IdempotencyService(
+                Config.getBoolean("idempotency.persist", false) ? new IdempotencyDAO() : null,
+                Config.getLong("idempotency.ttl.ms", 24 * 60 * 60 * 1000L),
+                Config.getInt("idempotency.keys", 100000));
+    }
+
+    /**
+     * Computes the fingerprint of a request, to tell a retry from a different request reusing a key.
+     *
+     * @param contentType The Content-Type header of the request, possibly null.
+     * @param body The request body.
+     * @return A hex-encoded SHA-256 hash of both.
+     */
+    public static String fingerprint(String contentType, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(contentType).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(body)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs a request once per key: the first call with a key runs the action and records its response, later
+     * calls with the key return that response.
+     *
+     * @param key The key of the request, already scoped to its method and path.
+     * @param fingerprint The fingerprint of the request.
+     * @param action Runs the request and returns its response.
+     * @return The response, new or recorded.
+     * @throws IllegalStateException If the key was used before for a request with another fingerprint.
+     * @throws Exception If the action failed; the key is then free to be used again.
+     */
+    public RecordedResponse execute(String key, String fingerprint, Callable<RecordedResponse> action) throws Exception {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry entry = entries.get(key);
+            if (entry != null && isExpired(entry, now)) {
+                entries.remove(key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                RecordedResponse recorded = idempotencyDAO == null ? null : idempotencyDAO.getResponse(key);
+                Entry created = new Entry(key, recorded != null ? recorded.getFingerprint() : fingerprint,
+                        recorded != null ? recorded.getCreated_at() : now);
+                if (recorded != null && !isExpired(created, now)) {
+                    created.response.complete(recorded);
+                } else {
+                    recorded = null;
+                }
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    creationOrder.add(created);
+                    evictOverflow();
+                    if (recorded == null) {
+                        return runFirst(created, action);
+                    }
+                    entry = created;
+                }
+            }
+
+            if (!entry.fingerprint.equals(fingerprint)) {
+                throw new IllegalStateException(""); // "The key was already used for a different request."
+            }
+            try {
+                RecordedResponse response = entry.response.get();
+                replays.increment();
+                return response;
+            } catch (ExecutionException e) {
+                // The first request failed and gave up the key: trying again, possibly running the action
+            }
+        }
+    }
+
+    private RecordedResponse runFirst(Entry entry, Callable<RecordedResponse> action) throws Exception {
+        RecordedResponse response;
+        try {
+            response = action.call();
+        } catch (Exception | Error e) {
+            entries.remove(entry.key, entry);
+            entry.response.completeExceptionally(e);
+            throw e;
+        }
+        if (response.getStatus() >= 500) {
+            // Not recorded: the retries waiting for it, and later ones, run the request themselves
+            entries.remove(entry.key, entry);
+            entry.response.completeExceptionally(new IllegalStateException("Server error, not recorded."));
+            return response;
+        }
+        RecordedResponse recorded = new RecordedResponse(entry.key, entry.fingerprint, entry.createdAt,
+                response.getStatus(), response.getContent_type(), response.getBody());
+        entry.response.complete(recorded);
+        if (idempotencyDAO != null) {
+            idempotencyDAO.insertResponse(recorded);
+        }
+        return recorded;
+    }
+
+    /**
+     * Drops the responses older than the TTL, from memory and from the table. Run periodically.
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        Entry oldest;
+        while ((oldest = creationOrder.peek()) != null && isExpired(oldest, now)) {
+            if (creationOrder.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+        if (idempotencyDAO != null) {
+            idempotencyDAO.deleteExpired(now - ttlMillis);
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> oldestFirst = creationOrder.iterator();
+        while (entries.size() > maxKeys && oldestFirst.hasNext()) {
+            Entry oldest = oldestFirst.next();
+            if (!oldest.response.isDone()) {
+                // Still running: it keeps its place, and its retries keep waiting for it
+                continue;
+            }
+            oldestFirst.remove();
+            entries.remove(oldest.key, oldest);
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdAt >= ttlMillis;
+    }
+
+    /**
+     * @return The number of keys currently kept in memory.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of requests answered with a recorded response since startup.
+     */
+    public long getReplayCount() {
+        return replays.sum();
+    }
+
+    /**
+     * A key, the fingerprint of its first request and that request's response once it is known.
+     */
+    private static class Entry {
+        final String key;
+        final String fingerprint;
+        final long createdAt;
+        final CompletableFuture<RecordedResponse> response = new CompletableFuture<>();
+
+        Entry(String key, String fingerprint, long createdAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package Service;
+
+import Model.Message;
+
+/**
+ * Receives notifications from MessageService after a message change has been persisted.
+ * Listeners are called on the request thread, so they must return quickly and must not throw.
+ */
+public interface MessageListener {
+
+    /**
+     * Called after a new message was persisted.
+     *
+     * @param message The created message, including its generated ID.
+     */
+    default void onMessageCreated(Message message) {
+    }
+
+    /**
+     * Called after a message's text was updated.
+     *
+     * @param message The message as it is now stored.
+     */
+    default void onMessageUpdated(Message message) {
+    }
+
+    /**
+     * Called after a message was deleted.
+     *
+     * @param message The message as it was before deletion.
+     */
+    default void onMessageDeleted(Message message) {
+    }
+}
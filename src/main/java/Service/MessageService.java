@@ -1,31 +1,116 @@
 package Service;
 
 import Model.Message;
-import DAO.MessageDAO;
-import DAO.AccountDAO;
+import Model.MessageChange;
+import Model.VersionedMessage;
+import DAO.MessageRepository;
+import DAO.AccountRepository;
+import DAO.RowCallback;
+import Util.BatchLoader;
+import Util.Config;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
 
 public class MessageService {
-    private MessageDAO messageDAO;
-    private AccountDAO accountDAO;
+    // The most messages or accounts a single multi-get may ask for
+    public static final int MAX_BATCH_IDS = 100;
+
+    private MessageRepository messageDAO;
+    private AccountRepository accountDAO;
+    private TrendingService trendingService;
+    // Coalesces concurrent reads of single messages; null if disabled
+    private BatchLoader<Integer, VersionedMessage> messageLoader;
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Default constructor: initializes DAOs for Message and Account.
+     * Messages and accounts are stored by the engine selected with the "storage.engine" setting.
      */
     public MessageService(){
-        messageDAO = new MessageDAO();
-        accountDAO = new AccountDAO();
+        messageDAO = MessageRepository.fromConfig();
+        accountDAO = AccountRepository.fromConfig();
+        trendingService = new TrendingService();
+        listeners.add(trendingService);
+        messageLoader = createMessageLoader();
     }
 
     /**
-     * Constructor to inject MessageDAO and AccountDAO.
+     * Constructor to inject the message and account storage.
      *
-     * @param messageDAO The Data Access Object for messages.
-     * @param accountDAO The Data Access Object for accounts.
+     * @param messageDAO The storage for messages (MessageDAO or another engine).
+     * @param accountDAO The storage for accounts (AccountDAO or another engine).
      */
-    public MessageService(MessageDAO messageDAO, AccountDAO accountDAO){
+    public MessageService(MessageRepository messageDAO, AccountRepository accountDAO){
         this.messageDAO = messageDAO;
         this.accountDAO = accountDAO;
+        this.trendingService = new TrendingService();
+        listeners.add(trendingService);
+        this.messageLoader = createMessageLoader();
+    }
+
+    /**
+     * Creates the loader batching concurrent message reads, from the "messages.loader.*" settings: "enabled"
+     * (default true), "batch" (the most messages per query, default 100) and "window.us" (how long a batch
+     * gathers reads, default 200 microseconds).
+     *
+     * @return The loader, or null if disabled.
+     */
+    private BatchLoader<Integer, VersionedMessage> createMessageLoader() {
+        if (!Config.getBoolean("messages.loader.enabled", true)) {
+            return null;
+        }
+        return new BatchLoader<>(messageIds -> {
+            Map<Integer, VersionedMessage> messages = new HashMap<>();
+            if (messageIds.size() == 1) {
+                // A lone read keeps the plain primary key lookup
+                Integer messageId = messageIds.iterator().next();
+                VersionedMessage message = messageDAO.getVersionedMessage(messageId);
+                if (message != null) {
+                    messages.put(messageId, message);
+                }
+            } else {
+                for (VersionedMessage message : messageDAO.getVersionedMessagesByIds(messageIds)) {
+                    messages.put(message.getMessage().getMessage_id(), message);
+                }
+            }
+            return messages;
+        }, Config.getInt("messages.loader.batch", 100), Config.getLong("messages.loader.window.us", 200));
+    }
+
+    /**
+     * Releases the message storage (files, background tasks) when the application stops.
+     */
+    public void close() {
+        messageDAO.close();
+    }
+
+    /**
+     * Registers a listener to be notified after messages are created, updated or deleted.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(MessageListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Checks the message text rule: the text must not be blank and must be no more than 255 characters long.
+     * Shared with the bulk importer so both paths accept exactly the same messages.
+     *
+     * @param text The message text to check.
+     * @return True if the text is acceptable.
+     */
+    public static boolean isValidMessageText(String text) {
+        return text != null && !text.isBlank() && text.length() <= 255;
     }
 
     /**
@@ -36,12 +121,25 @@ public class MessageService {
      * @throws IllegalArgumentException If the message text is invalid or the user does not exist.
      */
     public Message postMessage(Message message) throws IllegalArgumentException {
+        return postMessage(message, null);
+    }
+
+    /**
+     * Posts a new message, letting the caller admit or reject it once it is known to be valid and its poster to
+     * exist, before anything is written (rate limiting by account, ...).
+     *
+     * @param message The Message object containing the message text, posted_by (account), and time posted.
+     * @param admit Receives the poster's account ID and may throw to reject the message; null to admit every one.
+     * @return The persisted Message object after being saved to the database.
+     * @throws IllegalArgumentException If the message text is invalid or the user does not exist.
+     */
+    public Message postMessage(Message message, IntConsumer admit) throws IllegalArgumentException {
         int postedBy = message.getPosted_by();
         String text = message.getMessage_text();
         long time = message.getTime_posted_epoch();
 
         // Validating message_text to ensure it's not empty or too long
-        if (text == null || text.isBlank() || text.length() > 255) {
+        if (!isValidMessageText(text)) {
             throw new IllegalArgumentException(""); // "Message cannot be blank and must be no more than 255 characters long."
         }
 
@@ -49,9 +147,20 @@ public class MessageService {
         if (!accountDAO.accountExistsById(postedBy)) {
             throw new IllegalArgumentException(""); // "The user posting the message does not exist."
         }
+        if (admit != null) {
+            admit.accept(postedBy);
+        }
 
         // Persisting the message in the database
-        return messageDAO.insertMessage(new Message(postedBy, text, time));
+        Message addedMessage = messageDAO.insertMessage(new Message(postedBy, text, time));
+
+        // Notifying listeners (trending statistics, live stream, ...) of the persisted message
+        if (addedMessage != null) {
+            for (MessageListener listener : listeners) {
+                listener.onMessageCreated(addedMessage);
+            }
+        }
+        return addedMessage;
     }
 
     /**
@@ -63,6 +172,82 @@ public class MessageService {
         return messageDAO.getAllMessages();
     }
 
+    /**
+     * Streams the messages matching the optional filters, in message_id order, without loading them all in memory.
+     *
+     * @param fromEpoch Only messages posted at or after this epoch (null for no lower bound).
+     * @param toEpoch Only messages posted at or before this epoch (null for no upper bound).
+     * @param postedBy Only messages posted by this account (null for all accounts).
+     * @param afterId Only messages after this message_id (null to start from the beginning).
+     * @param callback Receives each message.
+     * @return The number of messages streamed.
+     * @throws IOException If the callback failed, e.g. because the client disconnected.
+     */
+    public long exportMessages(Long fromEpoch, Long toEpoch, Integer postedBy, Integer afterId,
+                               RowCallback<Message> callback) throws IOException {
+        return messageDAO.streamMessages(fromEpoch, toEpoch, postedBy, afterId, callback);
+    }
+
+    /**
+     * Retrieves the most recently posted messages.
+     *
+     * @param limit The maximum number of messages to return.
+     * @return The latest messages, newest first.
+     * @throws IllegalArgumentException If 'limit' is not positive.
+     */
+    public List<Message> getLatestMessages(int limit) throws IllegalArgumentException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException(""); // "limit must be positive."
+        }
+        return messageDAO.getLatestMessages(limit);
+    }
+
+    /**
+     * Retrieves the messages posted within a time range, in time order.
+     *
+     * @param accountId Only messages posted by this account, or null for every account.
+     * @param fromEpoch Only messages posted at or after this epoch, or null for no lower bound.
+     * @param toEpoch Only messages posted at or before this epoch, or null for no upper bound.
+     * @param order "asc" for the oldest messages first, "desc" for the newest first.
+     * @param limit The maximum number of messages to return.
+     * @return The first 'limit' messages of the range in that order.
+     * @throws IllegalArgumentException If the order is unknown or 'limit' is not positive.
+     */
+    public List<Message> getMessagesInRange(Integer accountId, Long fromEpoch, Long toEpoch, String order, int limit)
+            throws IllegalArgumentException {
+        if (!"asc".equals(order) && !"desc".equals(order)) {
+            throw new IllegalArgumentException(""); // "order must be asc or desc."
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException(""); // "limit must be positive."
+        }
+        return messageDAO.getMessagesInRange(accountId, fromEpoch, toEpoch, "desc".equals(order), limit);
+    }
+
+    /**
+     * Retrieves the message changes recorded after a given change sequence number, for incremental sync.
+     *
+     * @param since The last change sequence number the client has seen (0 for the whole history).
+     * @param limit The maximum number of changes to return.
+     * @return The changes after 'since', oldest first.
+     * @throws IllegalArgumentException If 'since' is negative or 'limit' is not positive.
+     */
+    public List<MessageChange> getChangesSince(long since, int limit) throws IllegalArgumentException {
+        if (since < 0 || limit <= 0) {
+            throw new IllegalArgumentException(""); // "since must not be negative and limit must be positive."
+        }
+        return messageDAO.getChangesSince(since, limit);
+    }
+
+    /**
+     * Retrieves the trending statistics for the current time window.
+     *
+     * @return The trending service holding the top hashtags and most active posters.
+     */
+    public TrendingService getTrendingService() {
+        return trendingService;
+    }
+
     /**
      * Retrieves a specific message by its unique ID.
      *
@@ -70,7 +255,26 @@ public class MessageService {
      * @return The Message object corresponding to the given ID, or null if not found.
      */
     public Message getMessageById(int messageId) {
-        return messageDAO.getMessageByMessageID(messageId);
+        VersionedMessage message = getVersionedMessageById(messageId);
+        return message == null ? null : message.getMessage();
+    }
+
+    /**
+     * Retrieves a specific message with its version, for clients that make their updates conditional on it.
+     *
+     * @param messageId The unique ID of the message to retrieve.
+     * @return The message and its version, or null if not found.
+     */
+    public VersionedMessage getVersionedMessageById(int messageId) {
+        // Concurrent reads are answered together, with one query for the whole batch
+        return messageLoader == null ? messageDAO.getVersionedMessage(messageId) : messageLoader.load(messageId);
+    }
+
+    /**
+     * @return The loader batching concurrent message reads, or null if disabled.
+     */
+    public BatchLoader<Integer, VersionedMessage> getMessageLoader() {
+        return messageLoader;
     }
 
     /**
@@ -83,6 +287,98 @@ public class MessageService {
         return messageDAO.getAllMessagesByAccountID(accountId);
     }
 
+    /**
+     * Retrieves many messages in one call, e.g. the messages a feed refers to.
+     *
+     * @param messageIds The IDs of the messages to retrieve; repeated IDs are only retrieved once.
+     * @return Each distinct ID in request order, mapped to its message, or to null if there is no such message.
+     * @throws IllegalArgumentException If no ID or more than MAX_BATCH_IDS distinct IDs are given.
+     */
+    public Map<Integer, Message> getMessagesByIds(List<Integer> messageIds) throws IllegalArgumentException {
+        Map<Integer, Message> messages = new LinkedHashMap<>();
+        for (Integer messageId : messageIds) {
+            messages.put(messageId, null);
+        }
+        if (messages.isEmpty() || messages.size() > MAX_BATCH_IDS) {
+            throw new IllegalArgumentException(""); // "Between 1 and MAX_BATCH_IDS message IDs must be given."
+        }
+        for (Message message : messageDAO.getMessagesByIds(messages.keySet())) {
+            messages.put(message.getMessage_id(), message);
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the latest messages of several accounts in one call, e.g. to render their timelines side by side.
+     *
+     * @param accountIds The IDs of the accounts; repeated IDs are only retrieved once.
+     * @param limit The maximum number of messages per account.
+     * @return Each distinct account ID in request order, mapped to its latest messages (newest first, possibly
+     *         none), or to null if there is no such account.
+     * @throws IllegalArgumentException If no ID or more than MAX_BATCH_IDS distinct IDs are given, or 'limit' is
+     *                                  not positive.
+     */
+    public Map<Integer, List<Message>> getTimelines(List<Integer> accountIds, int limit) throws IllegalArgumentException {
+        Map<Integer, List<Message>> timelines = new LinkedHashMap<>();
+        for (Integer accountId : accountIds) {
+            timelines.put(accountId, null);
+        }
+        if (timelines.isEmpty() || timelines.size() > MAX_BATCH_IDS) {
+            throw new IllegalArgumentException(""); // "Between 1 and MAX_BATCH_IDS account IDs must be given."
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException(""); // "limit must be positive."
+        }
+        Set<Integer> existing = accountDAO.getExistingAccountIds(timelines.keySet());
+        Map<Integer, List<Message>> latest = existing.isEmpty() ? new HashMap<>()
+                : messageDAO.getLatestMessagesByAccountIds(existing, limit);
+        for (Integer accountId : existing) {
+            timelines.put(accountId, latest.getOrDefault(accountId, List.of()));
+        }
+        return timelines;
+    }
+
+    /**
+     * Retrieves messages holding only the requested fields, optionally with their author embedded, so a client
+     * rendering a list with usernames needs one request instead of one per message.
+     *
+     * @param fields Comma-separated message fields to include (null for all of them), e.g. "message_id,posted_by".
+     * @param expand "author" to embed each message's author (account_id and username), or null.
+     * @param accountId Only messages posted by this account (null for all accounts).
+     * @param messageId Only the message with this ID (null for all messages).
+     * @return The message views, in message_id order; each holds the fields in a fixed order, then "author".
+     * @throws IllegalArgumentException If a field or expansion is unknown, or no field is requested.
+     */
+    public List<Map<String, Object>> getMessageViews(String fields, String expand, Integer accountId,
+                                                     Integer messageId) throws IllegalArgumentException {
+        List<String> columns = MessageRepository.VIEW_FIELDS;
+        if (fields != null) {
+            List<String> requested = Arrays.asList(fields.split(","));
+            for (String field : requested) {
+                if (!MessageRepository.VIEW_FIELDS.contains(field.trim())) {
+                    throw new IllegalArgumentException(""); // "Unknown message field."
+                }
+            }
+            // Keeping the canonical order, so each combination of fields is a single query shape
+            columns = new ArrayList<>();
+            for (String field : MessageRepository.VIEW_FIELDS) {
+                for (String candidate : requested) {
+                    if (candidate.trim().equals(field)) {
+                        columns.add(field);
+                        break;
+                    }
+                }
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException(""); // "At least one field must be requested."
+        }
+        if (expand != null && !expand.equals("author")) {
+            throw new IllegalArgumentException(""); // "Only the author can be expanded."
+        }
+        return messageDAO.getMessageViews(columns, expand == null ? null : accountDAO, accountId, messageId);
+    }
+
     /**
      * Updates an existing message with new content.
      *
@@ -92,23 +388,41 @@ public class MessageService {
      * @throws IllegalArgumentException If the new message text is invalid or the message does not exist.
      */
     public Message updateMessage(int messageId, Message message) throws IllegalArgumentException {
-        // Step 1: Validating the input message
+        return updateMessage(messageId, message, null).getMessage();
+    }
+
+    /**
+     * Updates an existing message with new content, optionally only if it is still at the version the client
+     * last read. The check and the update are one conditional write, so concurrent edits cannot overwrite each
+     * other unnoticed, and no lock is held between the client's read and its update.
+     *
+     * @param messageId The ID of the message to update.
+     * @param message The Message object containing the updated message content.
+     * @param expectedVersion The version the message must be at (from the ETag the client read), or null to
+     *                        update it whatever its version.
+     * @return The updated message with its new version.
+     * @throws IllegalArgumentException If the new message text is invalid or the message does not exist.
+     * @throws ConcurrentModificationException If the message is no longer at expectedVersion.
+     */
+    public VersionedMessage updateMessage(int messageId, Message message, Long expectedVersion)
+            throws IllegalArgumentException, ConcurrentModificationException {
+        // Validating the input message
         String text = message.getMessage_text();
-        if (text == null || text.isBlank() || text.length() > 255) {
+        if (!isValidMessageText(text)) {
             throw new IllegalArgumentException(""); // "Message cannot be blank and must be no more than 255 characters long."
         }
-    
-        // Step 2: Checking if the message exists (using DAO method)
-        Message existingMessage = messageDAO.getMessageByMessageID(messageId);
-        if (existingMessage == null) {
+
+        // Updating the message in one step, which also tells whether it exists
+        VersionedMessage updatedMessage = messageDAO.updateMessageIfVersion(messageId, message, expectedVersion);
+        if (updatedMessage == null) {
             throw new IllegalArgumentException(""); // "No message found with the given message_id."
         }
-    
-        // Step 3: Updating the message in the database
-        messageDAO.updateMessage(messageId, message);
-    
-        // Step 4: Returning the updated message by fetching it from the database
-        return messageDAO.getMessageByMessageID(messageId);
+
+        // Notifying listeners of the new message text
+        for (MessageListener listener : listeners) {
+            listener.onMessageUpdated(updatedMessage.getMessage());
+        }
+        return updatedMessage;
     }
     
     /**
@@ -118,6 +432,14 @@ public class MessageService {
      * @return The deleted Message object, or null if the deletion fails or the message does not exist.
      */
     public Message deleteMessage(int messageId) {
-        return messageDAO.deleteMessageById(messageId);
+        Message deletedMessage = messageDAO.deleteMessageById(messageId);
+
+        // Notifying listeners only if a message was actually removed
+        if (deletedMessage != null) {
+            for (MessageListener listener : listeners) {
+                listener.onMessageDeleted(deletedMessage);
+            }
+        }
+        return deletedMessage;
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package Service;
+
+import DAO.MessageRepository;
+import Util.Config;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Physically removes deleted messages in the background. Deleting a message only sets its tombstone (see
+ * MessageDAO.deleteMessageById()), which keeps DELETE /messages/{message_id} to a single UPDATE; this service
+ * later removes the tombstoned rows, and their index entries, in large batches.
+ *
+ * Each run removes at most "batches.per.run" batches of "batch.size" messages, oldest deletions first, which bounds
+ * the rows removed per run interval. A run is skipped, or stopped between batches, while more than
+ * "max.in.flight" requests are being processed, so purging happens when the server is not busy and never
+ * competes with a traffic peak. Messages are only removed once they have been deleted for "grace.ms", so
+ * change feed readers and the tombstone checks of late requests still find them for a while.
+ *
+ * Runs are scheduled on a thread of their own (see start()): a batch can take a while on a large table, and the
+ * shared BackgroundTasks thread must stay free for short housekeeping.
+ */
+public class PurgeService {
+    private final MessageRepository messageDAO;
+    private final int batchSize;
+    private final int batchesPerRun;
+    private final IntSupplier inFlight;
+    private final int maxInFlight;
+    private final long graceMillis;
+    private ScheduledExecutorService scheduler;
+    private final LongAdder purged = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+
+    /**
+     * Creates a service that removes deleted messages without a grace period.
+     *
+     * @param messageDAO The storage for messages.
+     * @param batchSize The most messages removed per transaction.
+     * @param batchesPerRun The most transactions per run.
+     * @param inFlight Reports the number of requests currently being processed.
+     * @param maxInFlight The most requests in flight for the server to count as not busy.
+     * @throws IllegalArgumentException If a batch size or count is not positive, or maxInFlight is negative.
+     */
+    public PurgeService(MessageRepository messageDAO, int batchSize, int batchesPerRun, IntSupplier inFlight,
+                        int maxInFlight) {
+        this(messageDAO, batchSize, batchesPerRun, inFlight, maxInFlight, 0);
+    }
+
+    /**
+     * @param messageDAO The storage for messages.
+     * @param batchSize The most messages removed per transaction.
+     * @param batchesPerRun The most transactions per run.
+     * @param inFlight Reports the number of requests currently being processed.
+     * @param maxInFlight The most requests in flight for the server to count as not busy.
+     * @param graceMillis How long a message stays deleted before it is removed, in milliseconds.
+     * @throws IllegalArgumentException If a batch size or count is not positive, or maxInFlight or graceMillis is
+     *                                  negative.
+     */
+    public PurgeService(MessageRepository messageDAO, int batchSize, int batchesPerRun, IntSupplier inFlight,
+                        int maxInFlight, long graceMillis) {
+        if (batchSize <= 0 || batchesPerRun <= 0 || maxInFlight < 0 || graceMillis < 0) {
+            throw new IllegalArgumentException("The purge batches must be positive and the load threshold and grace not negative.");
+        }
+        this.messageDAO = messageDAO;
+        this.batchSize = batchSize;
+        this.batchesPerRun = batchesPerRun;
+        this.inFlight = inFlight;
+        this.maxInFlight = maxInFlight;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * Creates the service from the "purge.*" settings: "batch.size" (default 1000), "batches.per.run" (default 1),
+     * "max.in.flight" (default 4) and "grace.ms" (default 60000). The run interval, "purge.interval.ms", is read by
+     * the caller starting the service.
+     *
+     * @param messageDAO The storage for messages.
+     * @param inFlight Reports the number of requests currently being processed.
+     * @return A new service.
+     */
+    public static PurgeService fromConfig(MessageRepository messageDAO, IntSupplier inFlight) {
+        return new PurgeService(messageDAO,
+                Config.getInt("purge.batch.size", 1000),
+                Config.getInt("purge.batches.per.run", 1),
+                inFlight,
+                Config.getInt("purge.max.in.flight", 4),
+                Config.getLong("purge.grace.ms", 60 * 1000L));
+    }
+
+    /**
+     * Runs the purge repeatedly on a daemon thread of its own, with a fixed delay between runs. A failed run is
+     * logged and does not stop later runs.
+     *
+     * @param intervalMillis The delay between the end of one run and the start of the next, in milliseconds.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                // Logging the failure so one bad run does not cancel the schedule
+                System.out.println("message-purge: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the scheduled runs; a batch in progress is left to finish.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Removes the messages deleted at least the grace period before this run started, batch by batch, until none
+     * are left, the batches of the run are used up, or the server gets busy. Run periodically.
+     */
+    public void run() {
+        long deletedBefore = System.currentTimeMillis() - graceMillis;
+        for (int batch = 0; batch < batchesPerRun; batch++) {
+            if (inFlight.getAsInt() > maxInFlight) {
+                deferred.increment();
+                return;
+            }
+            int removed = messageDAO.purgeDeletedMessages(deletedBefore, batchSize);
+            if (removed == 0) {
+                return;
+            }
+            batches.increment();
+            purged.add(removed);
+            if (removed < batchSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The number of deleted messages removed since startup.
+     */
+    public long getPurgedCount() {
+        return purged.sum();
+    }
+
+    /**
+     * @return The number of batches that removed messages since startup.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return The number of runs skipped or cut short because the server was busy, since startup.
+     */
+    public long getDeferredCount() {
+        return deferred.sum();
+    }
+}
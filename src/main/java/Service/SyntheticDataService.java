@@ -0,0 +1,310 @@
+package Service;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.Config;
+import Util.ConnectionUtil;
+import Util.ZipfDistribution;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.h2.tools.Restore;
+
+/**
+ * Fills the database with a reproducible synthetic dataset for benchmarks and load tests.
+ *
+ * Everything is derived from a single seed, so the same settings always produce the same rows with the same IDs:
+ * - Accounts are named user1 .. userN.
+ * - Each message's poster is drawn from a Zipf distribution over the accounts (a few very active posters and a
+ *   long tail), with ranks assigned to accounts in a shuffled order so activity does not follow account IDs.
+ * - Message lengths follow a log-normal distribution around a median, capped at 255 characters.
+ * - Some messages get a hashtag, drawn from a Zipf distribution over a fixed set of tags.
+ * - Posting times increase with the message ID and are spread over a time span ending at a fixed epoch.
+ *
+ * Rows are written through the batch inserts of the DAOs (the bulk import path), with the next chunk being
+ * generated while the previous one is inserted. A finished dataset can be saved to a snapshot file and restored
+ * later in seconds, instead of generating it again.
+ */
+public class SyntheticDataService {
+    // The database location used by ConnectionUtil, needed to restore a snapshot over it
+    private static final String DATABASE_DIRECTORY = "./h2";
+    private static final String DATABASE_NAME = "db";
+    private static final int MAX_MESSAGE_LENGTH = 255;
+    private static final String[] WORDS = {
+            "the", "a", "new", "just", "today", "really", "great", "post", "coffee", "code", "java", "release",
+            "weekend", "team", "launch", "bug", "fixed", "shipping", "music", "game", "travel", "photo", "morning",
+            "late", "night", "build", "test", "deploy", "database", "query", "fast", "slow", "love", "hate", "why",
+            "how", "when", "finally", "again", "never", "always", "learning", "reading", "writing", "thinking",
+            "about", "with", "without", "from", "into", "our", "my", "your", "their", "first", "last", "best",
+    };
+
+    /**
+     * The shape of the generated dataset. The defaults describe about ten million messages from 100,000 accounts.
+     */
+    public static class Settings {
+        public long seed = 42;
+        public int accounts = 100_000;
+        public long messages = 10_000_000;
+        // Skew of messages per account
+        public double accountSkew = 1.0;
+        public int textLengthMedian = 60;
+        public double textLengthSigma = 0.6;
+        // Fraction of messages carrying a hashtag, the number of distinct tags, and how skewed their use is
+        public double hashtagProbability = 0.3;
+        public int hashtags = 1000;
+        public double hashtagSkew = 1.1;
+        // Messages are posted during the span ending at this epoch (in seconds)
+        public long endEpoch = 1_700_000_000L;
+        public long spanDays = 365;
+        public int chunkSize = 10_000;
+
+        /**
+         * Reads the settings from the "generator.*" configuration, keeping the defaults for anything unset.
+         *
+         * @return The configured settings.
+         */
+        public static Settings fromConfig() {
+            Settings settings = new Settings();
+            settings.seed = Config.getLong("generator.seed", settings.seed);
+            settings.accounts = Config.getInt("generator.accounts", settings.accounts);
+            settings.messages = Config.getLong("generator.messages", settings.messages);
+            settings.accountSkew = Config.getDouble("generator.account.skew", settings.accountSkew);
+            settings.textLengthMedian = Config.getInt("generator.text.length.median", settings.textLengthMedian);
+            settings.textLengthSigma = Config.getDouble("generator.text.length.sigma", settings.textLengthSigma);
+            settings.hashtagProbability = Config.getDouble("generator.hashtag.probability", settings.hashtagProbability);
+            settings.hashtags = Config.getInt("generator.hashtags", settings.hashtags);
+            settings.hashtagSkew = Config.getDouble("generator.hashtag.skew", settings.hashtagSkew);
+            settings.endEpoch = Config.getLong("generator.time.end.epoch", settings.endEpoch);
+            settings.spanDays = Config.getLong("generator.time.span.days", settings.spanDays);
+            settings.chunkSize = Config.getInt("generator.chunk.size", settings.chunkSize);
+            return settings;
+        }
+    }
+
+    /**
+     * Receives progress updates, after each inserted chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(String table, long inserted, long total);
+    }
+
+    private final AccountDAO accountDAO;
+    private final MessageDAO messageDAO;
+
+    public SyntheticDataService() {
+        this(new AccountDAO(), new MessageDAO());
+    }
+
+    public SyntheticDataService(AccountDAO accountDAO, MessageDAO messageDAO) {
+        this.accountDAO = accountDAO;
+        this.messageDAO = messageDAO;
+    }
+
+    /**
+     * Replaces the contents of the database with the seed rows of SocialMedia.sql followed by a generated dataset.
+     *
+     * @param settings The shape of the dataset.
+     * @param listener Receives progress updates; may be null.
+     * @throws IllegalArgumentException If the settings are out of range.
+     * @throws IllegalStateException If a batch insert fails.
+     */
+    public void generate(Settings settings, ProgressListener listener) {
+        if (settings.accounts <= 0 || settings.messages < 0 || settings.chunkSize <= 0 || settings.spanDays <= 0
+                || settings.hashtags <= 0 || settings.textLengthMedian <= 0) {
+            throw new IllegalArgumentException("Counts, sizes and the time span must be positive.");
+        }
+        ConnectionUtil.resetTestDatabase();
+        SplittableRandom random = new SplittableRandom(settings.seed);
+        ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "synthetic-data-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            int firstAccountId = generateAccounts(settings, writer, listener);
+            generateMessages(settings, random, firstAccountId, writer, listener);
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    private int generateAccounts(Settings settings, ExecutorService writer, ProgressListener listener) {
+        Future<?> pending = null;
+        long inserted = 0;
+        for (int start = 1; start <= settings.accounts; start += settings.chunkSize) {
+            int end = (int) Math.min((long) start + settings.chunkSize - 1, settings.accounts);
+            List<Account> chunk = new ArrayList<>(end - start + 1);
+            for (int i = start; i <= end; i++) {
+                chunk.add(new Account("user" + i, "password" + i));
+            }
+            // Waiting for the previous chunk only now, so it was inserted while this one was being built
+            await(pending);
+            inserted += chunk.size();
+            long progress = inserted;
+            pending = writer.submit(() -> {
+                if (accountDAO.insertAccountsBatch(chunk) != chunk.size()) {
+                    throw new IllegalStateException("Inserting generated accounts failed.");
+                }
+                if (listener != null) listener.onProgress("account", progress, settings.accounts);
+            });
+        }
+        await(pending);
+
+        // A single writer inserting in order gets consecutive IDs from the identity column; checking rather than assuming
+        Account first = accountDAO.getAccountByUserName("user1");
+        Account last = accountDAO.getAccountByUserName("user" + settings.accounts);
+        if (first == null || last == null || last.getAccount_id() - first.getAccount_id() != settings.accounts - 1) {
+            throw new IllegalStateException("Generated accounts did not get consecutive IDs.");
+        }
+        return first.getAccount_id();
+    }
+
+    private void generateMessages(Settings settings, SplittableRandom random, int firstAccountId,
+                                  ExecutorService writer, ProgressListener listener) {
+        ZipfDistribution posters = new ZipfDistribution(settings.accounts, settings.accountSkew);
+        ZipfDistribution tags = new ZipfDistribution(settings.hashtags, settings.hashtagSkew);
+
+        // Shuffling which account gets which activity rank (Fisher-Yates)
+        int[] accountByRank = new int[settings.accounts];
+        for (int i = 0; i < accountByRank.length; i++) {
+            accountByRank[i] = firstAccountId + i;
+        }
+        for (int i = accountByRank.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = accountByRank[i];
+            accountByRank[i] = accountByRank[j];
+            accountByRank[j] = swap;
+        }
+
+        long spanSeconds = settings.spanDays * 24 * 60 * 60;
+        long startEpoch = settings.endEpoch - spanSeconds;
+        StringBuilder text = new StringBuilder(MAX_MESSAGE_LENGTH);
+        Future<?> pending = null;
+        long generated = 0;
+        while (generated < settings.messages) {
+            int size = (int) Math.min(settings.chunkSize, settings.messages - generated);
+            List<Message> chunk = new ArrayList<>(size);
+            for (int i = 0; i < size; i++, generated++) {
+                int postedBy = accountByRank[posters.sample(random)];
+                // Evenly spaced with jitter, so posting times never go backwards as IDs grow
+                long epoch = startEpoch + (long) ((generated + random.nextDouble()) * spanSeconds / settings.messages);
+                chunk.add(new Message(postedBy, messageText(settings, random, tags, text), epoch));
+            }
+            await(pending);
+            long progress = generated;
+            pending = writer.submit(() -> {
+                if (messageDAO.insertMessagesBatch(chunk) != chunk.size()) {
+                    throw new IllegalStateException("Inserting generated messages failed.");
+                }
+                if (listener != null) listener.onProgress("message", progress, settings.messages);
+            });
+        }
+        await(pending);
+    }
+
+    private String messageText(Settings settings, SplittableRandom random, ZipfDistribution tags, StringBuilder text) {
+        // Log-normal length: exp(N(ln median, sigma)), clamped to a valid message length
+        double gaussian = nextGaussian(random);
+        int length = (int) Math.round(settings.textLengthMedian * Math.exp(settings.textLengthSigma * gaussian));
+        length = Math.max(1, Math.min(MAX_MESSAGE_LENGTH, length));
+
+        String hashtag = random.nextDouble() < settings.hashtagProbability ? " #tag" + tags.sample(random) : "";
+        int wordsLength = Math.max(1, length - hashtag.length());
+
+        text.setLength(0);
+        while (text.length() < wordsLength) {
+            if (text.length() > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        text.setLength(wordsLength);
+        while (text.length() > 1 && text.charAt(text.length() - 1) == ' ') {
+            text.setLength(text.length() - 1);
+        }
+        if (text.length() + hashtag.length() <= MAX_MESSAGE_LENGTH) {
+            text.append(hashtag);
+        }
+        return text.toString();
+    }
+
+    // SplittableRandom has no nextGaussian() before Java 17; Box-Muller from two uniform draws
+    private static double nextGaussian(SplittableRandom random) {
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+
+    private static void await(Future<?> pending) {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating data.");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Saves the whole database to a zip file with H2's online BACKUP, which copies the database file as is.
+     *
+     * @param snapshot The zip file to write.
+     * @throws IllegalStateException If the backup fails.
+     */
+    public void saveSnapshot(Path snapshot) {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = ConnectionUtil.getConnection();
+            statement = connection.createStatement();
+            statement.execute("BACKUP TO '" + snapshot.toString().replace("'", "''") + "'");
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            throw new IllegalStateException("Saving the snapshot failed.");
+        } finally {
+            // Ensuring that resources (Statement, Connection) are closed to prevent resource leaks
+            try {
+                if (statement != null) statement.close();
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replaces the database file with one saved by saveSnapshot(). The database must not be open: ConnectionUtil
+     * keeps the database open once resetTestDatabase() has been called, so this is meant to run in a fresh process
+     * (the GenerateData tool) before the application starts.
+     *
+     * @param snapshot The zip file to restore.
+     */
+    public void restoreSnapshot(Path snapshot) {
+        restoreSnapshot(snapshot, Paths.get(DATABASE_DIRECTORY));
+    }
+
+    /**
+     * Extracts a snapshot saved by saveSnapshot() into a directory, as the database file "db.mv.db".
+     *
+     * @param snapshot The zip file to restore.
+     * @param directory The directory to write the database file to.
+     */
+    public void restoreSnapshot(Path snapshot, Path directory) {
+        Restore.execute(snapshot.toString(), directory.toString(), DATABASE_NAME);
+    }
+}
@@ -0,0 +1,244 @@
+package Service;
+
+import Model.Message;
+import Util.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps running "trending" statistics over newly posted messages: the most used hashtags and the most active
+ * posters over a sliding time window.
+ *
+ * Counting is done with one count-min sketch per time bucket, so memory stays fixed no matter how many distinct
+ * hashtags or accounts show up. A small min-heap of the top K candidates is kept next to the sketches, and a
+ * ready-made snapshot of it is published after every write so reads cost O(K).
+ *
+ * Accuracy: with the default sketch width of 2048 and depth of 8, a reported count can exceed the true count
+ * within the window by at most e / 2048 (about 0.13%) of all hashtags (or posts) seen in the window, with
+ * probability at least 1 - 12 * e^-8 (about 99.6%): each of the 12 bucket sketches summed for a window count
+ * misses its own bound with probability at most e^-8. Counts are never under-reported. A key that falls out of the
+ * candidate heap and later comes back is still counted correctly, because its history lives in the sketches.
+ */
+public class TrendingService implements MessageListener {
+    // Window of 12 buckets of 5 minutes: the statistics cover the last hour.
+    private static final int BUCKET_COUNT = 12;
+    private static final long BUCKET_MILLIS = 5 * 60 * 1000L;
+    private static final int SKETCH_WIDTH = 2048;
+    private static final int SKETCH_DEPTH = 8;
+    private static final int TOP_K = 10;
+
+    // Hashtags are a '#' followed by letters, digits or underscores.
+    private static final Pattern HASHTAG = Pattern.compile("#(\\w+)");
+
+    private final WindowedTopK<String> hashtags;
+    private final WindowedTopK<Integer> posters;
+
+    /**
+     * Default constructor: uses the system clock.
+     */
+    public TrendingService() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor to inject a clock, which makes the sliding window testable.
+     *
+     * @param clock Supplies the current time in milliseconds.
+     */
+    public TrendingService(LongSupplier clock) {
+        this.hashtags = new WindowedTopK<>(clock, CountMinSketch::hash, "hashtag");
+        this.posters = new WindowedTopK<>(clock, accountId -> accountId, "account_id");
+    }
+
+    /**
+     * Feeds a newly created message into the statistics. Each distinct hashtag in a message is counted once.
+     *
+     * @param message The message that was just persisted.
+     */
+    @Override
+    public void onMessageCreated(Message message) {
+        posters.add(message.getPosted_by());
+        for (String tag : extractHashtags(message.getMessage_text())) {
+            hashtags.add(tag);
+        }
+    }
+
+    /**
+     * @return The top hashtags of the current window, highest count first, as {"hashtag", "count"} entries.
+     */
+    public List<Map<String, Object>> getTrendingHashtags() {
+        return hashtags.top();
+    }
+
+    /**
+     * @return The most active posters of the current window, highest count first, as {"account_id", "count"} entries.
+     */
+    public List<Map<String, Object>> getMostActivePosters() {
+        return posters.top();
+    }
+
+    /**
+     * Extracts the distinct, lower-cased hashtags from a message text.
+     *
+     * @param text The message text.
+     * @return The hashtags without their leading '#', in order of first appearance.
+     */
+    static Set<String> extractHashtags(String text) {
+        Set<String> tags = new LinkedHashSet<>();
+        if (text == null) {
+            return tags;
+        }
+        Matcher matcher = HASHTAG.matcher(text);
+        while (matcher.find()) {
+            tags.add(matcher.group(1).toLowerCase(Locale.ROOT));
+        }
+        return tags;
+    }
+
+    /**
+     * Sliding-window heavy hitters for one kind of key: a ring of count-min sketches (one per time bucket)
+     * plus a min-heap holding the current top K candidates.
+     */
+    private static class WindowedTopK<K> {
+        private final LongSupplier clock;
+        private final ToLongFunction<K> hasher;
+        private final String keyName;
+        private final CountMinSketch[] buckets = new CountMinSketch[BUCKET_COUNT];
+        // The absolute bucket number each ring slot currently holds.
+        private final long[] bucketIds = new long[BUCKET_COUNT];
+        private final Map<K, Candidate<K>> candidates = new HashMap<>();
+        private final PriorityQueue<Candidate<K>> heap =
+                new PriorityQueue<>((a, b) -> Long.compare(a.count, b.count));
+        private volatile long currentBucket = Long.MIN_VALUE;
+        // Published snapshot, rebuilt on each write and read without locking.
+        private volatile List<Map<String, Object>> snapshot = Collections.emptyList();
+
+        WindowedTopK(LongSupplier clock, ToLongFunction<K> hasher, String keyName) {
+            this.clock = clock;
+            this.hasher = hasher;
+            this.keyName = keyName;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH);
+                bucketIds[i] = Long.MIN_VALUE;
+            }
+        }
+
+        synchronized void add(K key) {
+            advance();
+            long hash = hasher.applyAsLong(key);
+            int slot = (int) Math.floorMod(currentBucket, (long) BUCKET_COUNT);
+            buckets[slot].add(hash, 1);
+            offer(key, estimate(hash));
+            publish();
+        }
+
+        List<Map<String, Object>> top() {
+            // Rotating on read keeps a quiet window from reporting stale counts forever.
+            if (clock.getAsLong() / BUCKET_MILLIS != currentBucket) {
+                synchronized (this) {
+                    advance();
+                    publish();
+                }
+            }
+            return snapshot;
+        }
+
+        /**
+         * Moves the window forward to the current bucket, clearing slots that fell out of the window and
+         * re-estimating the candidates whose counts may have dropped.
+         */
+        private void advance() {
+            long now = clock.getAsLong() / BUCKET_MILLIS;
+            if (now == currentBucket) {
+                return;
+            }
+            currentBucket = now;
+            int slot = (int) Math.floorMod(now, (long) BUCKET_COUNT);
+            if (bucketIds[slot] != now) {
+                buckets[slot].clear();
+                bucketIds[slot] = now;
+            }
+            List<Candidate<K>> all = new ArrayList<>(heap);
+            heap.clear();
+            for (Candidate<K> candidate : all) {
+                candidate.count = estimate(hasher.applyAsLong(candidate.key));
+                if (candidate.count > 0) {
+                    heap.add(candidate);
+                } else {
+                    candidates.remove(candidate.key);
+                }
+            }
+        }
+
+        /**
+         * Sums a key's counts over the buckets still inside the window.
+         */
+        private long estimate(long hash) {
+            long sum = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (bucketIds[i] > currentBucket - BUCKET_COUNT) {
+                    sum += buckets[i].estimate(hash);
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Updates a key's position in the top-K heap, evicting the smallest candidate when the heap is full.
+         */
+        private void offer(K key, long count) {
+            Candidate<K> existing = candidates.get(key);
+            if (existing != null) {
+                heap.remove(existing);
+                existing.count = count;
+                heap.add(existing);
+                return;
+            }
+            if (heap.size() >= TOP_K) {
+                if (heap.peek().count >= count) {
+                    return;
+                }
+                candidates.remove(heap.poll().key);
+            }
+            Candidate<K> candidate = new Candidate<>(key, count);
+            candidates.put(key, candidate);
+            heap.add(candidate);
+        }
+
+        private void publish() {
+            List<Candidate<K>> sorted = new ArrayList<>(heap);
+            sorted.sort((a, b) -> Long.compare(b.count, a.count));
+            List<Map<String, Object>> entries = new ArrayList<>(sorted.size());
+            for (Candidate<K> candidate : sorted) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put(keyName, candidate.key);
+                entry.put("count", candidate.count);
+                entries.add(Collections.unmodifiableMap(entry));
+            }
+            snapshot = Collections.unmodifiableList(entries);
+        }
+    }
+
+    private static class Candidate<K> {
+        final K key;
+        long count;
+
+        Candidate(K key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package Util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BackgroundTasks class runs periodic housekeeping work (evicting idle entries, flushing counters, ...)
+ * on a single shared daemon thread, so components do not each start their own threads and the JVM can still
+ * exit without shutting them down.
+ *
+ * Tasks should be short. Callers keep the returned future and cancel it when their owner is stopped.
+ */
+public class BackgroundTasks {
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "background-tasks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BackgroundTasks() {
+    }
+
+    /**
+     * Runs a task repeatedly with a fixed delay between runs. Exceptions are logged and do not stop later runs.
+     *
+     * @param name A short name used when logging failures.
+     * @param task The work to run.
+     * @param periodMillis The delay between the end of one run and the start of the next, in milliseconds.
+     * @return A future that can be cancelled to stop the task.
+     */
+    public static ScheduledFuture<?> scheduleEvery(String name, Runnable task, long periodMillis) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Logging the failure so one bad run does not cancel the schedule
+                System.out.println(name + ": " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,177 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent point lookups into batch lookups (the "DataLoader" pattern), so many requests reading
+ * different keys at the same time cost one query instead of one each.
+ *
+ * The first caller of a batch is its leader: it waits for the batch window (or until the batch is full, in which
+ * case the caller that filled it runs it), then runs one batch lookup for every key gathered and hands each
+ * waiting caller its value. Callers run the lookups themselves; there is no background thread. A leader that is
+ * the only caller in the loader runs its batch right away, so an idle server pays no window.
+ *
+ * Concurrent loads of the same key share one lookup (single flight), but only while its batch has not started:
+ * once the query runs, a new load of the key waits for the next batch. A load therefore never returns a value
+ * read before it was called, and a read after a write sees the write.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class BatchLoader<K, V> {
+    private final Function<Set<K>, Map<K, V>> batchLookup;
+    private final int maxBatchSize;
+    private final long windowNanos;
+
+    // Loads waiting for a batch that has not started yet, by key
+    private final ConcurrentHashMap<K, CompletableFuture<V>> pending = new ConcurrentHashMap<>();
+    private final Object batchLock = new Object();
+    // Guarded by batchLock: the keys of the batch being gathered
+    private List<K> batch = new ArrayList<>();
+    private final AtomicInteger callers = new AtomicInteger();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder keys = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param batchLookup Looks up many keys at once; keys without a value are left out of the result.
+     * @param maxBatchSize The most keys looked up in one batch.
+     * @param windowMicros How long the leader of a batch waits for more keys.
+     * @throws IllegalArgumentException If maxBatchSize is not positive or windowMicros is negative.
+     */
+    public BatchLoader(Function<Set<K>, Map<K, V>> batchLookup, int maxBatchSize, long windowMicros) {
+        if (maxBatchSize < 1 || windowMicros < 0) {
+            throw new IllegalArgumentException("The batch size must be positive and the window not negative.");
+        }
+        this.batchLookup = batchLookup;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Looks up one key, in a batch with the keys other threads are loading at the same time.
+     *
+     * @param key The key to look up.
+     * @return Its value, or null if it has none.
+     * @throws RuntimeException If the batch lookup failed; every caller of the batch gets the failure.
+     */
+    public V load(K key) {
+        callers.incrementAndGet();
+        try {
+            CompletableFuture<V> result = new CompletableFuture<>();
+            CompletableFuture<V> shared = pending.putIfAbsent(key, result);
+            if (shared != null) {
+                coalesced.increment();
+                return join(shared);
+            }
+
+            List<K> gathering;
+            boolean leader;
+            List<K> full = null;
+            synchronized (batchLock) {
+                gathering = batch;
+                gathering.add(key);
+                leader = gathering.size() == 1;
+                if (gathering.size() >= maxBatchSize) {
+                    full = gathering;
+                    batch = new ArrayList<>();
+                }
+            }
+            if (full != null) {
+                run(full);
+            } else if (leader) {
+                // Leading this batch: gathering keys for the window unless nobody else is loading
+                if (callers.get() > 1 && windowNanos > 0) {
+                    try {
+                        result.get(windowNanos, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException | ExecutionException e) {
+                        // The window is over, or the batch already ran (and failed) when another caller filled it
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                boolean mine;
+                synchronized (batchLock) {
+                    mine = batch == gathering;
+                    if (mine) {
+                        batch = new ArrayList<>();
+                    }
+                }
+                if (mine) {
+                    run(gathering);
+                }
+            }
+            return join(result);
+        } finally {
+            callers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs one batch and completes the loads waiting for it.
+     */
+    private void run(List<K> batchKeys) {
+        // Taking the loads out first, so loads arriving during the query wait for a fresh read
+        Map<K, CompletableFuture<V>> waiting = new HashMap<>();
+        for (K key : batchKeys) {
+            waiting.put(key, pending.remove(key));
+        }
+        batches.increment();
+        keys.add(batchKeys.size());
+        Map<K, V> values;
+        try {
+            values = batchLookup.apply(new LinkedHashSet<>(batchKeys));
+        } catch (RuntimeException e) {
+            waiting.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        waiting.forEach((key, future) -> future.complete(values.get(key)));
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of batch lookups run since startup.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return The number of keys looked up in batches since startup.
+     */
+    public long getKeyCount() {
+        return keys.sum();
+    }
+
+    /**
+     * @return The number of loads that shared the lookup of a concurrent load of the same key.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+}
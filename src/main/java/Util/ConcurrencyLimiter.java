@@ -0,0 +1,155 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An adaptive limit on the number of requests processed at the same time, adjusted with AIMD
+ * (additive increase, multiplicative decrease) from observed latency.
+ *
+ * While requests finish within the latency target, the limit grows by about one per "limit" completed requests.
+ * When a request is slower than the target, the limit is cut by the backoff ratio (at most once per target
+ * interval, so one slow burst does not collapse it). Requests arriving when the limit is reached are shed
+ * immediately instead of queueing behind a slow database.
+ *
+ * The limit is a double kept as its bits in an AtomicLong, and both adjustments are compare-and-set loops, so an
+ * increase computed from a value read before a cut can never overwrite the cut.
+ *
+ * Critical requests may use the whole limit; other requests may only use the non-reserved part of it, so under
+ * pressure they are shed first and critical routes keep working.
+ */
+public class ConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final double backoffRatio;
+    private final double reservedFraction;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+    private final AtomicLong limitBits;
+    private long lastDecreaseNanos;
+
+    /**
+     * @param initialLimit The starting limit.
+     * @param minLimit The limit never drops below this value.
+     * @param maxLimit The limit never grows above this value.
+     * @param latencyTargetMillis Requests slower than this are treated as a sign of overload.
+     * @param backoffRatio The factor (between 0 and 1) the limit is multiplied by on overload.
+     * @param reservedFraction The fraction of the limit (between 0 and 1) only critical requests may use.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyTargetMillis,
+                              double backoffRatio, double reservedFraction) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max.");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1 || reservedFraction < 0 || reservedFraction >= 1) {
+            throw new IllegalArgumentException("Backoff ratio and reserved fraction must be between 0 and 1.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTargetMillis * 1_000_000L;
+        this.backoffRatio = backoffRatio;
+        this.reservedFraction = reservedFraction;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(initialLimit));
+    }
+
+    /**
+     * Creates a limiter from the "concurrency.*" settings.
+     *
+     * @return A new limiter.
+     */
+    public static ConcurrencyLimiter fromConfig() {
+        return new ConcurrencyLimiter(
+                Config.getInt("concurrency.limit.initial", 20),
+                Config.getInt("concurrency.limit.min", 4),
+                Config.getInt("concurrency.limit.max", 200),
+                Config.getLong("concurrency.latency.target.ms", 250),
+                Config.getDouble("concurrency.backoff.ratio", 0.9),
+                Config.getDouble("concurrency.reserved.fraction", 0.2));
+    }
+
+    /**
+     * Tries to start a request.
+     *
+     * @param critical True if the request may use the reserved part of the limit.
+     * @return True if the request may proceed (release() must then be called), false if it was shed.
+     */
+    public boolean tryAcquire(boolean critical) {
+        double current = limit();
+        int allowed = (int) (critical ? current : Math.max(1, current * (1 - reservedFraction)));
+        while (true) {
+            int running = inFlight.get();
+            if (running >= allowed) {
+                shed.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finishes a request started with tryAcquire() and feeds its latency into the limit.
+     *
+     * @param latencyNanos How long the request took, in nanoseconds.
+     */
+    public void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        if (latencyNanos > latencyTargetNanos) {
+            decrease();
+        } else {
+            // Additive increase: about +1 after "limit" fast requests
+            while (true) {
+                long bits = limitBits.get();
+                double current = Double.longBitsToDouble(bits);
+                if (current >= maxLimit
+                        || limitBits.compareAndSet(bits, Double.doubleToLongBits(Math.min(maxLimit, current + 1.0 / current)))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized void decrease() {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < latencyTargetNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        while (true) {
+            long bits = limitBits.get();
+            double cut = Math.max(minLimit, Double.longBitsToDouble(bits) * backoffRatio);
+            if (limitBits.compareAndSet(bits, Double.doubleToLongBits(cut))) {
+                return;
+            }
+        }
+    }
+
+    private double limit() {
+        return Double.longBitsToDouble(limitBits.get());
+    }
+
+    /**
+     * @return The current limit, rounded down.
+     */
+    public int getLimit() {
+        return (int) limit();
+    }
+
+    /**
+     * @return The number of requests currently being processed.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return The number of requests shed since the limiter was created.
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+}
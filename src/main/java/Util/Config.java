@@ -0,0 +1,92 @@
+package Util;
+
+/**
+ * The Config class reads application settings. A setting is looked up first as a JVM system property
+ * (-Dratelimit.messages.rate=5), then as an environment variable with dots replaced by underscores and upper-cased
+ * (RATELIMIT_MESSAGES_RATE=5). If neither is set, the given default is used.
+ *
+ * Settings are read when the component using them is created, so changing a system property only affects
+ * controllers and services built afterwards.
+ */
+public class Config {
+
+    private Config() {
+    }
+
+    /**
+     * @param key The setting name, e.g. "ratelimit.messages.rate".
+     * @param defaultValue The value used if the setting is not configured.
+     * @return The configured value, or the default.
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.replace('.', '_').toUpperCase());
+        }
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    /**
+     * @param key The setting name.
+     * @param defaultValue The value used if the setting is not configured.
+     * @return The configured value parsed as an int, or the default.
+     * @throws IllegalArgumentException If the configured value is not a number.
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be an integer: " + value);
+        }
+    }
+
+    /**
+     * @param key The setting name.
+     * @param defaultValue The value used if the setting is not configured.
+     * @return The configured value parsed as a long, or the default.
+     * @throws IllegalArgumentException If the configured value is not a number.
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be an integer: " + value);
+        }
+    }
+
+    /**
+     * @param key The setting name.
+     * @param defaultValue The value used if the setting is not configured.
+     * @return The configured value parsed as a double, or the default.
+     * @throws IllegalArgumentException If the configured value is not a number.
+     */
+    public static double getDouble(String key, double defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be a number: " + value);
+        }
+    }
+
+    /**
+     * @param key The setting name.
+     * @param defaultValue The value used if the setting is not configured.
+     * @return True if the setting is "true" (ignoring case), the default if it is not configured.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,112 @@
+package Util;
+
+/**
+ * A count-min sketch: a fixed-size table of counters that estimates how often each key has been seen.
+ *
+ * The sketch never under-counts. With width w and depth d, an estimate exceeds the true count by more than
+ * (e / w) * N (N being the total of all counts added) with probability at most e^-d. The memory used is
+ * w * d longs, no matter how many distinct keys are added.
+ *
+ * This class is not thread-safe; callers are expected to guard it themselves.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[][] counters;
+    private long total;
+
+    /**
+     * Creates a sketch with the given table dimensions.
+     *
+     * @param width The number of counters per row. Larger widths reduce the over-count error.
+     * @param depth The number of rows (independent hash functions). Larger depths reduce the error probability.
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Width and depth must be positive.");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[depth][width];
+    }
+
+    /**
+     * Adds the given count to a key.
+     *
+     * @param key The 64-bit hash of the key being counted.
+     * @param count The amount to add.
+     */
+    public void add(long key, long count) {
+        for (int row = 0; row < depth; row++) {
+            counters[row][index(key, row)] += count;
+        }
+        total += count;
+    }
+
+    /**
+     * Estimates the count of a key. The estimate is never lower than the true count.
+     *
+     * @param key The 64-bit hash of the key.
+     * @return The smallest counter the key maps to across all rows.
+     */
+    public long estimate(long key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[row][index(key, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * @return The sum of all counts added since the last clear.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Resets every counter to zero so the sketch can be reused.
+     */
+    public void clear() {
+        for (long[] row : counters) {
+            java.util.Arrays.fill(row, 0L);
+        }
+        total = 0;
+    }
+
+    /**
+     * Maps a key to a column for the given row. Each row mixes in its own seed so rows behave like
+     * independent hash functions.
+     */
+    private int index(long key, int row) {
+        long h = mix(key + (row + 1) * 0x9E3779B97F4A7C15L);
+        return (int) ((h >>> 1) % width);
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3, used to spread the bits of the key.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e94c3L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Hashes a string into 64 bits (FNV-1a) so it can be used as a sketch key.
+     *
+     * @param value The string to hash.
+     * @return A 64-bit hash of the string.
+     */
+    public static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,93 @@
+package Util;
+
+/**
+ * A hash map from int keys to objects, using open addressing with linear probing in two parallel arrays, so
+ * lookups neither box the key nor follow entry pointers. Values may not be null, and entries cannot be removed,
+ * which is all the in-memory indexes need.
+ *
+ * This class is not thread-safe; callers are expected to guard it themselves.
+ *
+ * @param <V> The type of values.
+ */
+public class IntHashMap<V> {
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntHashMap() {
+        keys = new int[16];
+        values = new Object[16];
+    }
+
+    /**
+     * @param key The key to look up.
+     * @return The value stored for the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a value for a key, replacing any previous value.
+     *
+     * @param key The key.
+     * @param value The value; must not be null.
+     */
+    public void put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values must not be null.");
+        }
+        // Keeping the table at most half full, so probe sequences stay short
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == null) {
+            size++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * @return The number of keys with a value.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slot(oldKeys[i], mask);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slot(int key, int mask) {
+        // Fibonacci hashing spreads consecutive IDs over the table
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,72 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of ints, without boxing. Used for index postings such as the message IDs of an account,
+ * which are appended in increasing order.
+ *
+ * This class is not thread-safe; callers are expected to guard it themselves.
+ */
+public class IntList {
+    private int[] values = new int[4];
+    private int size;
+
+    /**
+     * @param value The value to append.
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Inserts a value at its place among values kept in increasing order, unless it is already there.
+     *
+     * @param value The value to insert.
+     * @return True if the value was inserted, false if it was already there.
+     */
+    public boolean insert(int value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param index A position between 0 and size() - 1.
+     * @return The value at that position.
+     */
+    public int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The number of values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds where the values larger than a given one start. Only meaningful if the values were added in
+     * increasing order.
+     *
+     * @param value The value to search for.
+     * @return The index of the first value larger than the given one, or size() if there is none.
+     */
+    public int indexAfter(int value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
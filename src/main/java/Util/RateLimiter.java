@@ -0,0 +1,139 @@
+package Util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token-bucket rate limiter keyed by client (an IP address, an account ID, ...).
+ *
+ * Each key gets its own bucket holding up to "burst" tokens and refilling at "rate" tokens per second; a request
+ * is allowed if it can take one token. A bucket's whole state (last refill time and token count) is packed into a
+ * single long and updated with compare-and-set, so checks never lock and, once a key's bucket exists, never
+ * allocate. Buckets live in a ConcurrentHashMap; idle ones are removed by evictIdle(), which the owner schedules
+ * in the background. At most "maxKeys" keys get their own bucket: once the map is full, new keys share a single
+ * overflow bucket until evictIdle() frees room, so a client inventing keys cannot grow the map.
+ *
+ * @param <K> The type of key the limiter is partitioned by.
+ */
+public class RateLimiter<K> {
+    // Tokens are stored in thousandths, in the low 24 bits; the refill time (ms since creation) uses the high 40.
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long ONE_TOKEN = 1000;
+    private static final int MAX_BURST = (int) (TOKEN_MASK / ONE_TOKEN);
+
+    private final double ratePerMilli;
+    private final long capacity;
+    private final long idleMillis;
+    private final int maxKeys;
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentHashMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflow;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param ratePerSecond The number of tokens added to each bucket per second.
+     * @param burst The maximum number of tokens a bucket can hold, i.e. the largest allowed burst.
+     * @param idleMillis How long a bucket must go unused before evictIdle() removes it.
+     * @param maxKeys The most keys with a bucket of their own.
+     */
+    public RateLimiter(double ratePerSecond, int burst, long idleMillis, int maxKeys) {
+        if (ratePerSecond <= 0 || burst < 1 || burst > MAX_BURST || maxKeys < 1) {
+            throw new IllegalArgumentException("Rate must be positive, burst between 1 and " + MAX_BURST
+                    + " and the number of keys positive.");
+        }
+        // Thousandths of a token per millisecond is numerically the same as tokens per second.
+        this.ratePerMilli = ratePerSecond;
+        this.capacity = burst * ONE_TOKEN;
+        this.idleMillis = idleMillis;
+        this.maxKeys = maxKeys;
+        this.overflow = new AtomicLong(pack(now(), capacity));
+    }
+
+    /**
+     * Creates a limiter from the settings "prefix.rate" (tokens per second), "prefix.burst" and "prefix.max.keys"
+     * (default 100000).
+     *
+     * @param prefix The settings prefix, e.g. "ratelimit.messages.account".
+     * @param defaultRate The rate used if "prefix.rate" is not configured.
+     * @param defaultBurst The burst used if "prefix.burst" is not configured.
+     * @param <K> The type of key the limiter is partitioned by.
+     * @return A new limiter. Buckets idle for ten minutes are eligible for eviction.
+     */
+    public static <K> RateLimiter<K> fromConfig(String prefix, double defaultRate, int defaultBurst) {
+        return new RateLimiter<>(Config.getDouble(prefix + ".rate", defaultRate),
+                Config.getInt(prefix + ".burst", defaultBurst), 10 * 60 * 1000L,
+                Config.getInt(prefix + ".max.keys", 100000));
+    }
+
+    /**
+     * Tries to take a token from the key's bucket.
+     *
+     * @param key The client the request is attributed to.
+     * @return 0 if the request is allowed, otherwise the number of milliseconds until a token will be available.
+     */
+    public long tryAcquire(K key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            // The size is approximate under contention, so the map may briefly hold a few more keys
+            bucket = buckets.size() < maxKeys
+                    ? buckets.computeIfAbsent(key, k -> new AtomicLong(pack(now(), capacity)))
+                    : overflow;
+        }
+        while (true) {
+            long now = now();
+            long state = bucket.get();
+            long last = state >>> TOKEN_BITS;
+            long tokens = state & TOKEN_MASK;
+
+            // Refilling for the time elapsed since the last refill. The refill time only moves forward when at
+            // least one thousandth of a token was added, so frequent checks cannot starve a slow bucket.
+            long added = (long) ((now - last) * ratePerMilli);
+            if (added > 0) {
+                tokens = Math.min(capacity, tokens + added);
+                last = now;
+            }
+
+            if (tokens < ONE_TOKEN) {
+                rejected.increment();
+                return Math.max(1, (long) Math.ceil((ONE_TOKEN - tokens) / ratePerMilli));
+            }
+            if (bucket.compareAndSet(state, pack(last, tokens - ONE_TOKEN))) {
+                return 0;
+            }
+            // Another request updated the bucket first; retrying with its state
+        }
+    }
+
+    /**
+     * Removes buckets that have not been used for the idle period. A removed bucket would have been full anyway,
+     * so the client sees no difference when a new one is created.
+     */
+    public void evictIdle() {
+        long now = now();
+        buckets.values().removeIf(bucket -> now - (bucket.get() >>> TOKEN_BITS) > idleMillis);
+    }
+
+    /**
+     * @return The number of keys that currently have a bucket of their own.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * @return The number of requests rejected since the limiter was created.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private long now() {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    private static long pack(long millis, long tokens) {
+        return (millis << TOKEN_BITS) | tokens;
+    }
+}
@@ -0,0 +1,85 @@
+package Util;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * The ShardConnectionUtil class creates connections to the shard databases of the "sharded" storage engine,
+ * the way ConnectionUtil does for the main database. Shard i is the H2 database file "shard-i" in the shard
+ * directory (h2/shards by default).
+ *
+ * Shard databases are kept open until shutdown() is called (DB_CLOSE_DELAY=-1), since H2 would otherwise close
+ * and reopen a shard file each time its last connection is closed.
+ */
+public class ShardConnectionUtil {
+    private final JdbcDataSource[] pools;
+
+    /**
+     * @param directory The directory holding the shard database files.
+     * @param shards The number of shards.
+     */
+    public ShardConnectionUtil(Path directory, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive: " + shards);
+        }
+        pools = new JdbcDataSource[shards];
+        for (int i = 0; i < shards; i++) {
+            pools[i] = new JdbcDataSource();
+            pools[i].setURL("jdbc:h2:" + directory.toAbsolutePath().resolve("shard-" + i) + ";DB_CLOSE_DELAY=-1");
+            pools[i].setUser("sa");
+            pools[i].setPassword("sa");
+        }
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    public int size() {
+        return pools.length;
+    }
+
+    /**
+     * @param shard The shard index, from 0 to size() - 1.
+     * @return The data source of the shard database.
+     */
+    public JdbcDataSource getDataSource(int shard) {
+        return pools[shard];
+    }
+
+    /**
+     * @param shard The shard index, from 0 to size() - 1.
+     * @return An active connection to the shard database.
+     * @throws SQLException If the shard database cannot be opened.
+     */
+    public Connection getConnection(int shard) throws SQLException {
+        return pools[shard].getConnection();
+    }
+
+    /**
+     * Closes every shard database, releasing its file.
+     */
+    public void shutdown() {
+        for (int i = 0; i < pools.length; i++) {
+            Connection connection = null;
+            Statement statement = null;
+            try {
+                connection = getConnection(i);
+                statement = connection.createStatement();
+                statement.execute("SHUTDOWN");
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            } finally {
+                try {
+                    if (statement != null) statement.close();
+                    if (connection != null) connection.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+}
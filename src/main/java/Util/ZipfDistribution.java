@@ -0,0 +1,54 @@
+package Util;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A Zipf distribution over the ranks 0 .. n-1: rank k is drawn with probability proportional to 1 / (k + 1)^s.
+ *
+ * With s around 1, a few ranks get most of the draws and the long tail gets a handful each, which is how activity
+ * is usually spread over users, hashtags and similar keys. Sampling inverts a precomputed cumulative table with a
+ * binary search, so it costs O(log n) per draw and n doubles of memory.
+ */
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    /**
+     * @param n The number of ranks.
+     * @param exponent The skew s; 0 gives a uniform distribution, larger values concentrate draws on the first ranks.
+     */
+    public ZipfDistribution(int n, double exponent) {
+        if (n <= 0 || exponent < 0) {
+            throw new IllegalArgumentException("Size must be positive and exponent non-negative.");
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    /**
+     * Draws a rank.
+     *
+     * @param random The source of randomness; a seeded one gives a reproducible sequence.
+     * @return A rank between 0 and n-1.
+     */
+    public int sample(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        // A miss returns -(insertion point) - 1; the insertion point is the first rank whose cumulative is larger
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+
+    /**
+     * @return The number of ranks.
+     */
+    public int size() {
+        return cumulative.length;
+    }
+}
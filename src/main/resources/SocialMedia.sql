@@ -1,17 +1,73 @@
+drop table if exists follow;
+drop table if exists account_stats;
+drop table if exists idempotency_key;
+drop table if exists change_clock;
+drop table if exists message_change;
 drop table if exists message;
 drop table if exists account;
+drop sequence if exists message_id_seq;
+drop sequence if exists account_id_seq;
+create sequence account_id_seq;
+create sequence message_id_seq;
 create table account (
-    account_id int primary key auto_increment,
+    account_id int default next value for account_id_seq primary key,
     username varchar(255) unique,
     password varchar(255)
 );
 create table message (
-    message_id int primary key auto_increment,
+    message_id int default next value for message_id_seq primary key,
     posted_by int,
     message_text varchar(255),
     time_posted_epoch bigint,
+    version int default 1 not null,
+    deleted boolean default false not null,
+    deleted_at bigint,
     foreign key (posted_by) references  account(account_id)
 );
+create index message_time_posted_idx on message (time_posted_epoch, message_id);
+create index message_time_posted_desc_idx on message (time_posted_epoch desc, message_id desc);
+create index message_posted_by_time_idx on message (posted_by, time_posted_epoch, message_id);
+create index message_deleted_at_idx on message (deleted_at);
+create table message_change (
+    change_seq bigint primary key auto_increment,
+    message_id int,
+    change_type varchar(10),
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint
+);
+create table change_clock (
+    last_change_seq bigint not null
+);
+create table account_stats (
+    account_id int primary key,
+    post_count bigint default 0 not null,
+    total_chars bigint default 0 not null,
+    first_post_epoch bigint,
+    last_post_epoch bigint
+);
+create table follow (
+    follower_id int,
+    followee_id int,
+    created_at bigint,
+    primary key (follower_id, followee_id)
+);
+create index follow_followee_idx on follow (followee_id, follower_id);
+create table idempotency_key (
+    idempotency_key varchar(512) primary key,
+    fingerprint varchar(64),
+    created_at bigint,
+    status int,
+    content_type varchar(255),
+    body varbinary
+);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
+insert into message_change (message_id, change_type, posted_by, message_text, time_posted_epoch)
+    select message_id, 'created', posted_by, message_text, time_posted_epoch from message;
+insert into change_clock (last_change_seq) select coalesce(max(change_seq), 0) from message_change;
+insert into account_stats (account_id, post_count, total_chars, first_post_epoch, last_post_epoch)
+    select a.account_id, count(m.message_id), coalesce(sum(char_length(m.message_text)), 0),
+        min(m.time_posted_epoch), max(m.time_posted_epoch)
+    from account a left join message m on m.posted_by = a.account_id group by a.account_id;
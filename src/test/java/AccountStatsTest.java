@@ -0,0 +1,145 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.AccountStats;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AccountStatsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String message(int postedBy, String text, long epoch) {
+        return "{\"posted_by\":" + postedBy + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": " + epoch + "}";
+    }
+
+    private void assertStats(AccountStats expected) throws Exception {
+        HttpResponse<String> response = send("GET", "/accounts/" + expected.getAccount_id() + "/stats", null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(objectMapper.writeValueAsString(expected), response.body());
+    }
+
+    /**
+     * Checks that every row of 'account_stats' matches the aggregates computed from the messages not deleted.
+     */
+    private void assertTableMatchesMessages() throws Exception {
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet mismatches = statement.executeQuery("SELECT COUNT(*) FROM account_stats s LEFT JOIN "
+                    + "(SELECT posted_by, COUNT(*) AS posts, SUM(CHAR_LENGTH(message_text)) AS chars, "
+                    + "MIN(time_posted_epoch) AS first_epoch, MAX(time_posted_epoch) AS last_epoch FROM message WHERE deleted = FALSE GROUP BY posted_by) m "
+                    + "ON m.posted_by = s.account_id "
+                    + "WHERE s.post_count <> COALESCE(m.posts, 0) OR s.total_chars <> COALESCE(m.chars, 0) "
+                    + "OR s.first_post_epoch IS DISTINCT FROM m.first_epoch OR s.last_post_epoch IS DISTINCT FROM m.last_epoch");
+            mismatches.next();
+            Assert.assertEquals(0, mismatches.getInt(1));
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Reading the statistics of account 1 while its messages are created, updated and deleted
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the statistics follow every change, including the last post time after the newest message
+     *  is deleted; an account without messages has a post_count of 0, and an unknown account gets an empty body
+     */
+    @Test
+    public void statsFollowMessageChanges() throws Exception {
+        assertStats(new AccountStats(1, 1, 14, 1669947792L, 1669947792L));
+
+        Assert.assertEquals(200, send("POST", "/messages", message(1, "earlier", 1669947700)).statusCode());
+        Assert.assertEquals(200, send("POST", "/messages", message(1, "later!", 1669947900)).statusCode());
+        assertStats(new AccountStats(1, 3, 14 + 7 + 6, 1669947700L, 1669947900L));
+
+        Assert.assertEquals(200, send("PATCH", "/messages/1", "{\"message_text\": \"x\"}").statusCode());
+        assertStats(new AccountStats(1, 3, 1 + 7 + 6, 1669947700L, 1669947900L));
+
+        Assert.assertEquals(200, send("DELETE", "/messages/3", null).statusCode());
+        assertStats(new AccountStats(1, 2, 1 + 7, 1669947700L, 1669947792L));
+        assertTableMatchesMessages();
+
+        Assert.assertEquals(200, send("POST", "/register", "{\"username\": \"quiet\", \"password\": \"password\"}").statusCode());
+        assertStats(new AccountStats(2, 0, 0, null, null));
+        HttpResponse<String> unknown = send("GET", "/accounts/99/stats", null);
+        Assert.assertEquals(200, unknown.statusCode());
+        Assert.assertEquals("", unknown.body());
+    }
+
+    /**
+     * A new account posting several messages at once, its first ones included
+     *
+     * Expected Response:
+     *  Status Code: 200 for every post
+     *  Response Body: the statistics count every message exactly once, in the table and over HTTP
+     */
+    @Test
+    public void concurrentPostsAreAllCounted() throws Exception {
+        Assert.assertEquals(200, send("POST", "/register", "{\"username\": \"busy\", \"password\": \"password\"}").statusCode());
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(webClient.sendAsync(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString(message(2, "post " + i, 1669950000 + i)))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.get(10, TimeUnit.SECONDS).statusCode());
+        }
+        assertStats(new AccountStats(2, 10, 10 * 6, 1669950000L, 1669950009L));
+        assertTableMatchesMessages();
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class BinaryFormatTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    ObjectMapper messagePackMapper = new ObjectMapper(new MessagePackFactory());
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private String contentType(HttpResponse<byte[]> response) {
+        return response.headers().firstValue("Content-Type").orElse("").split(";")[0];
+    }
+
+    /**
+     * Posting a message in CBOR, registering an account in MessagePack, and reading messages back in Smile and CBOR
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: each response is in the format the Accept header asked for, with the same fields as in JSON
+     */
+    @Test
+    public void binaryRequestsAndResponses() throws IOException, InterruptedException {
+        Message sent = new Message(1, "posted in cbor", 1669947800);
+        HttpResponse<byte[]> posted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Content-Type", "application/cbor")
+                .header("Accept", "application/x-msgpack")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(cborMapper.writeValueAsBytes(sent))));
+        Assert.assertEquals(200, posted.statusCode());
+        Assert.assertEquals("application/x-msgpack", contentType(posted));
+        Message created = messagePackMapper.readValue(posted.body(), Message.class);
+        Assert.assertEquals(new Message(2, 1, "posted in cbor", 1669947800), created);
+
+        HttpResponse<byte[]> registered = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .header("Content-Type", "application/x-msgpack")
+                .header("Accept", "application/x-msgpack")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(
+                        messagePackMapper.writeValueAsBytes(new Account("binary", "password")))));
+        Assert.assertEquals(200, registered.statusCode());
+        Map<String, Object> account = messagePackMapper.readValue(registered.body(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals("binary", account.get("username"));
+
+        HttpResponse<byte[]> all = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Accept", "application/x-jackson-smile"));
+        Assert.assertEquals("application/x-jackson-smile", contentType(all));
+        List<Message> messages = smileMapper.readValue(all.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792), created), messages);
+
+        HttpResponse<byte[]> one = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .header("Accept", "application/json;q=0.5, application/cbor"));
+        Assert.assertEquals("application/cbor", contentType(one));
+        Assert.assertEquals(created, cborMapper.readValue(one.body(), Message.class));
+    }
+
+    /**
+     * Sending requests with JSON-only, wildcard or unsupported Accept headers, and a truncated MessagePack body
+     *
+     * Expected Response:
+     *  Status Code: 200 with a JSON body for the reads, and 400 for the truncated body
+     */
+    @Test
+    public void jsonRemainsTheDefault() throws IOException, InterruptedException {
+        for (String accept : new String[]{"*/*", "text/html", "application/cbor;q=0.1, application/json"}) {
+            HttpResponse<byte[]> response = send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .header("Accept", accept));
+            Assert.assertEquals("application/json", contentType(response));
+            Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                    objectMapper.readValue(response.body(), Message.class));
+        }
+
+        byte[] body = messagePackMapper.writeValueAsBytes(new Message(1, "truncated", 1669947800));
+        HttpResponse<byte[]> truncated = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Content-Type", "application/x-msgpack")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(Arrays.copyOf(body, body.length - 5))));
+        Assert.assertEquals(400, truncated.statusCode());
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.BodyFormat;
+import Model.Message;
+
+/**
+ * Compares the body formats of the REST API (JSON, Smile, CBOR and MessagePack): the payload size and the cost of
+ * encoding and decoding a single message and a page of 1,000 messages. This is a main class, not a test, so the
+ * test run does not pick it up; run it against a compiled tree, e.g.
+ *
+ * java -cp target/classes:target/test-classes:<dependencies> BodyFormatBenchmark [iterations]
+ *
+ * The messages are synthetic, with texts of 20 to 200 characters and realistic IDs and epochs. Each format uses
+ * the same mapper as the API (BodyFormat.getMapper()), and is warmed up before measuring.
+ */
+public class BodyFormatBenchmark {
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        SplittableRandom random = new SplittableRandom(42);
+        List<Message> page = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = 20 + random.nextInt(181);
+            while (text.length() < length) {
+                text.append("word").append(random.nextInt(1000)).append(' ');
+            }
+            page.add(new Message(1_000_000 + i, 1 + random.nextInt(100_000), text.toString().trim(),
+                    1_669_947_800L + random.nextInt(86_400 * 365)));
+        }
+        Message single = page.get(0);
+
+        System.out.printf("%-13s %-6s %10s %14s %14s%n", "format", "body", "bytes", "encode ns/op", "decode ns/op");
+        for (BodyFormat format : BodyFormat.values()) {
+            ObjectMapper mapper = format.getMapper();
+            JavaType pageType = mapper.getTypeFactory().constructCollectionType(List.class, Message.class);
+            run(format, "single", mapper, single, mapper.constructType(Message.class), iterations);
+            run(format, "page", mapper, page, pageType, Math.max(1, iterations / 100));
+        }
+    }
+
+    private static void run(BodyFormat format, String body, ObjectMapper mapper, Object value, JavaType type,
+                            int iterations) throws Exception {
+        byte[] encoded = mapper.writeValueAsBytes(value);
+        // Warming up the JIT for both directions before measuring
+        for (int i = 0; i < iterations; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(value), type);
+        }
+
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += mapper.writeValueAsBytes(value).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += mapper.readValue(encoded, type).hashCode() & 1;
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        System.out.printf("%-13s %-6s %,10d %,14d %,14d%n", format, body, encoded.length,
+                encodeNanos / iterations, decodeNanos / iterations);
+        if (sink == 0) {
+            System.out.println("(nothing encoded)");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class BulkImportTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, enable the import routes, reset the database, restart the Javalin app, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("admin.import.enabled", "true");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("admin.import.enabled");
+    }
+
+    private JsonNode importBody(String path, String contentType, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", contentType)
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    /**
+     * Sending a CSV file of accounts to POST localhost:8080/admin/import/accounts
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: valid accounts imported; blank usernames, short passwords and taken usernames rejected
+     */
+    @Test
+    public void importAccountsCsv() throws IOException, InterruptedException {
+        JsonNode result = importBody("/admin/import/accounts", "text/csv",
+                "username,password\n" +
+                "user2,password\n" +
+                "\"user,3\",\"pass\"\"word\"\n" +
+                ",password\n" +
+                "user4,abc\n" +
+                "testuser1,password\n" +
+                "user2,password\n");
+        Assert.assertEquals(7, result.get("lines").asLong());
+        Assert.assertEquals(2, result.get("imported").asLong());
+        Assert.assertEquals(4, result.get("rejected").asLong());
+
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user,3\", \"password\": \"pass\\\"word\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Sending an NDJSON file of messages to POST localhost:8080/admin/import/messages, then resuming with skip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: valid messages imported, rows with unknown accounts or blank text rejected, skipped lines ignored
+     */
+    @Test
+    public void importMessagesNdjson() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1,\"message_text\":\"imported 1\",\"time_posted_epoch\":1669947800}\n" +
+                "{\"posted_by\":9,\"message_text\":\"unknown account\",\"time_posted_epoch\":1669947801}\n" +
+                "{\"posted_by\":1,\"message_text\":\" \",\"time_posted_epoch\":1669947802}\n" +
+                "not json\n" +
+                "{\"posted_by\":1,\"message_text\":\"imported 2\",\"time_posted_epoch\":1669947803}\n";
+        JsonNode result = importBody("/admin/import/messages?skip=0", "application/x-ndjson", body);
+        Assert.assertEquals(2, result.get("imported").asLong());
+        Assert.assertEquals(3, result.get("rejected").asLong());
+
+        JsonNode resumed = importBody("/admin/import/messages?skip=4", "application/x-ndjson", body);
+        Assert.assertEquals(1, resumed.get("imported").asLong());
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .build();
+        List<Message> messages = objectMapper.readValue(
+                webClient.send(request, HttpResponse.BodyHandlers.ofString()).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(4, messages.size());
+        Assert.assertEquals(new Message(2, 1, "imported 1", 1669947800), messages.get(1));
+    }
+}
@@ -3,6 +3,10 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -74,6 +78,47 @@ public class CreateMessageTest {
         Assert.assertEquals(expectedResult, actualResult);
     }
 
+    /**
+     * Sending two http requests to POST localhost:8080/messages, with a message inserted directly in the database
+     * between them
+     *
+     * Expected Response:
+     *  Status Code: 200 for both, with message IDs 2 and 3 from the block reserved by the first post; the message
+     *  inserted directly takes its ID from the sequence, past that block
+     */
+    @Test
+    public void createMessagesAroundDirectInsert() throws IOException, InterruptedException, SQLException {
+        Message first = postMessage("first message");
+        Connection connection = ConnectionUtil.getConnection();
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("INSERT INTO message (posted_by, message_text, time_posted_epoch) "
+                + "VALUES (1, 'direct message', 1669947792)", Statement.RETURN_GENERATED_KEYS);
+        ResultSet generated = statement.getGeneratedKeys();
+        Assert.assertTrue(generated.next());
+        int directId = generated.getInt(1);
+        statement.close();
+        connection.close();
+        Message second = postMessage("second message");
+
+        Assert.assertEquals(2, first.getMessage_id());
+        Assert.assertEquals(3, second.getMessage_id());
+        Assert.assertTrue(directId > second.getMessage_id());
+    }
+
+    private Message postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
     /**
      * Sending an http request to POST localhost:8080/messages with empty message
      * 
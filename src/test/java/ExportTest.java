@@ -0,0 +1,112 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ExportTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/export/messages with a time range and a resume point
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one JSON message per line, only for the matching messages, in message_id order
+     */
+    @Test
+    public void exportMessagesWithFilters() throws IOException, InterruptedException {
+        postMessage("second", 1669947800);
+        postMessage("third", 1669947900);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/export/messages?from=1669947792&to=1669947850&after_id=1"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/x-ndjson", response.headers().firstValue("Content-Type").orElse(""));
+
+        String[] lines = response.body().split("\n");
+        Assert.assertEquals(1, lines.length);
+        Assert.assertEquals(new Message(2, 1, "second", 1669947800), objectMapper.readValue(lines[0], Message.class));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/export/accounts accepting gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: gzip-compressed NDJSON of the accounts, without passwords
+     */
+    @Test
+    public void exportAccountsGzip() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/export/accounts"))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(""));
+
+        String body = new String(new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes(),
+                StandardCharsets.UTF_8);
+        String[] lines = body.split("\n");
+        Assert.assertEquals(1, lines.length);
+        JsonNode account = objectMapper.readTree(lines[0]);
+        Assert.assertEquals(1, account.get("account_id").asInt());
+        Assert.assertEquals("testuser1", account.get("username").asText());
+        Assert.assertNull(account.get("password"));
+    }
+}
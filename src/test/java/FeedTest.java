@@ -0,0 +1,152 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class FeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Accounts with more than one follower are pulled at read time, with a
+     * budget large enough that a slow test machine does not cut the pull short.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("feed.fanout.max.followers", "1");
+        System.setProperty("feed.pull.budget.ms", "10000");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("feed.fanout.max.followers");
+        System.clearProperty("feed.pull.budget.ms");
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int register(String username) throws Exception {
+        HttpResponse<String> response = send("POST", "/register", "{\"username\": \"" + username + "\", \"password\": \"password\"}");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body()).get("account_id").asInt();
+    }
+
+    private int follow(String path, int followerId, int followeeId) throws Exception {
+        return send("POST", path, "{\"follower_id\": " + followerId + ", \"followee_id\": " + followeeId + "}").statusCode();
+    }
+
+    private Message post(int postedBy, String text, long epoch) throws Exception {
+        HttpResponse<String> response = send("POST", "/messages",
+                "{\"posted_by\":" + postedBy + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": " + epoch + "}");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private void assertFeed(String query, List<Message> expected) throws Exception {
+        HttpResponse<String> response = send("GET", "/feed?" + query, null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Feed-Partial").isPresent());
+        Assert.assertEquals(objectMapper.writeValueAsString(expected), response.body());
+    }
+
+    /**
+     * Account 2 follows account 1, which has two followers (pulled at read time), and account 3, which has one
+     * (pushed to its followers)
+     *
+     * Expected Response:
+     *  Status Code: 200 for valid follows, unfollows and feed reads; 400 for self-follows, repeated follows,
+     *  unknown accounts, unfollowing an account not followed and invalid feed parameters
+     *  Response Body: the feed merges the messages of both accounts newest first, and drops account 3's once
+     *  it is unfollowed
+     */
+    @Test
+    public void pushedAndPulledMessagesAreMerged() throws Exception {
+        Message seeded = new Message(1, 1, "test message 1", 1669947792);
+        int reader = register("reader");
+        int other = register("other");
+        int friend = register("friend");
+        Assert.assertEquals(200, follow("/follow", reader, 1));
+        Assert.assertEquals(200, follow("/follow", other, 1));
+        HttpResponse<String> followed = send("POST", "/follow", "{\"follower_id\": " + reader + ", \"followee_id\": " + friend + "}");
+        Assert.assertEquals(200, followed.statusCode());
+        Assert.assertEquals("{\"follower_id\":" + reader + ",\"followee_id\":" + friend + "}", followed.body());
+
+        Assert.assertEquals(400, follow("/follow", reader, reader));
+        Assert.assertEquals(400, follow("/follow", reader, 1));
+        Assert.assertEquals(400, follow("/follow", reader, 99));
+        Assert.assertEquals(400, send("POST", "/follow", "{\"follower_id\": \"x\"}").statusCode());
+
+        Message fromFriend = post(friend, "pushed", 1669947800);
+        Message fromPopular = post(1, "pulled", 1669947700);
+        assertFeed("account_id=" + reader, List.of(fromFriend, seeded, fromPopular));
+        assertFeed("account_id=" + reader + "&limit=2", List.of(fromFriend, seeded));
+        assertFeed("account_id=" + friend, List.of());
+
+        Assert.assertEquals(200, follow("/unfollow", reader, friend));
+        Assert.assertEquals(400, follow("/unfollow", reader, friend));
+        assertFeed("account_id=" + reader, List.of(seeded, fromPopular));
+
+        Assert.assertEquals(400, send("GET", "/feed", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/feed?account_id=99", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/feed?account_id=" + reader + "&limit=0", null).statusCode());
+    }
+
+    /**
+     * Account 2 reads its feed, then account 1 (its only followee, pushed) posts, updates and deletes messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the new message is pushed into the existing feed, its new text shows after the update, and
+     *  the deleted message disappears
+     */
+    @Test
+    public void feedFollowsMessageChanges() throws Exception {
+        Message seeded = new Message(1, 1, "test message 1", 1669947792);
+        int reader = register("reader");
+        Assert.assertEquals(200, follow("/follow", reader, 1));
+        assertFeed("account_id=" + reader, List.of(seeded));
+
+        Message posted = post(1, "new post", 1669947800);
+        assertFeed("account_id=" + reader, List.of(posted, seeded));
+        HttpResponse<String> metrics = send("GET", "/metrics", null);
+        Assert.assertTrue(metrics.body().contains("\"feed\":{\"buffers\":1,\"pushes\":1,\"pulls\":0,\"partial\":0}"));
+
+        Assert.assertEquals(200, send("PATCH", "/messages/" + posted.getMessage_id(), "{\"message_text\": \"edited\"}").statusCode());
+        Message edited = new Message(posted.getMessage_id(), 1, "edited", 1669947800);
+        assertFeed("account_id=" + reader, List.of(edited, seeded));
+
+        Assert.assertEquals(200, send("DELETE", "/messages/1", null).statusCode());
+        assertFeed("account_id=" + reader, List.of(edited));
+    }
+}
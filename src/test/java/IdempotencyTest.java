@@ -0,0 +1,193 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.RecordedResponse;
+import Service.IdempotencyService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class IdempotencyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("idempotency.persist");
+    }
+
+    private HttpRequest post(String path, String key, String body) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", key)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> getAllMessages() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages")).build());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Retrying a message post and a registration with the same Idempotency-Key, then reusing the key for another
+     * message
+     *
+     * Expected Response:
+     *  Status Code: 200 for the retries, with the first response's body and an Idempotent-Replayed header, and
+     *  422 for the other message
+     *  Response Body: the message is created once
+     */
+    @Test
+    public void retriesReplayTheFirstResponse() throws Exception {
+        String body = "{\"posted_by\":1, \"message_text\": \"posted once\", \"time_posted_epoch\": 1669947800}";
+        HttpResponse<String> first = send(post("/messages", "retry-1", body));
+        HttpResponse<String> retry = send(post("/messages", "retry-1", body));
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(200, retry.statusCode());
+        Assert.assertEquals(first.body(), retry.body());
+        Assert.assertFalse(first.headers().firstValue("Idempotent-Replayed").isPresent());
+        Assert.assertEquals("true", retry.headers().firstValue("Idempotent-Replayed").orElse(""));
+        Assert.assertEquals(2, getAllMessages().size());
+
+        String other = "{\"posted_by\":1, \"message_text\": \"another\", \"time_posted_epoch\": 1669947801}";
+        Assert.assertEquals(422, send(post("/messages", "retry-1", other)).statusCode());
+        Assert.assertEquals(200, send(post("/messages", "retry-2", other)).statusCode());
+
+        // Without the key, registering the same username twice fails; with it, the retry gets the first answer
+        String account = "{\"username\": \"idempotent\", \"password\": \"password\"}";
+        HttpResponse<String> registered = send(post("/register", "retry-1", account));
+        HttpResponse<String> registeredAgain = send(post("/register", "retry-1", account));
+        Assert.assertEquals(200, registered.statusCode());
+        Assert.assertEquals(200, registeredAgain.statusCode());
+        Assert.assertEquals(registered.body(), registeredAgain.body());
+    }
+
+    /**
+     * Sending the same post with the same key from several clients at once, then again after a restart with
+     * responses recorded in the database
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every client gets the same message, which is created once, and the retry after the restart
+     *  gets it too
+     */
+    @Test
+    public void concurrentAndPersistedRetries() throws Exception {
+        app.stop();
+        System.setProperty("idempotency.persist", "true");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+
+        String body = "{\"posted_by\":1, \"message_text\": \"concurrent\", \"time_posted_epoch\": 1669947800}";
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(webClient.sendAsync(post("/messages", "concurrent", body), HttpResponse.BodyHandlers.ofString()));
+        }
+        String expected = responses.get(0).get(10, TimeUnit.SECONDS).body();
+        Assert.assertEquals(new Message(2, 1, "concurrent", 1669947800), objectMapper.readValue(expected, Message.class));
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.get(10, TimeUnit.SECONDS).statusCode());
+            Assert.assertEquals(expected, response.get(10, TimeUnit.SECONDS).body());
+        }
+        Assert.assertEquals(2, getAllMessages().size());
+
+        app.stop();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        HttpResponse<String> afterRestart = send(post("/messages", "concurrent", body));
+        Assert.assertEquals(expected, afterRestart.body());
+        Assert.assertEquals("application/json", afterRestart.headers().firstValue("Content-Type").orElse("").split(";")[0]);
+        Assert.assertEquals(2, getAllMessages().size());
+    }
+
+    /**
+     * Filling the only key slot while the first request with another key is still running, then retrying that key
+     *
+     * Expected Response:
+     *  The running request is not evicted: its retry waits for it and gets its response, and it runs only once
+     */
+    @Test
+    public void runningKeysAreNotEvicted() throws Exception {
+        IdempotencyService service = new IdempotencyService(null, 60000L, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Callable<RecordedResponse> slow = () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return new RecordedResponse(200, "text/plain", "slow".getBytes(StandardCharsets.UTF_8));
+        };
+        CompletableFuture<RecordedResponse> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.execute("slow", "fingerprint", slow);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        service.execute("fast", "fingerprint", () -> new RecordedResponse(200, "text/plain", new byte[0]));
+        Assert.assertEquals(2, service.size());
+
+        CompletableFuture<RecordedResponse> retry = CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.execute("slow", "fingerprint", slow);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        release.countDown();
+        Assert.assertEquals("slow", new String(retry.get(5, TimeUnit.SECONDS).getBody(), StandardCharsets.UTF_8));
+        Assert.assertEquals("slow", new String(first.get(5, TimeUnit.SECONDS).getBody(), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, runs.get());
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.LogStructuredMessageStore;
+import Model.Message;
+import Model.MessageChange;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class LogStructuredStoreTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    Path directory;
+    String previousEngine;
+
+    /**
+     * Before every test, select the log-structured storage engine in a fresh directory, reset the database, restart
+     * the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        directory = Files.createTempDirectory("log-store");
+        previousEngine = System.getProperty("storage.engine");
+        System.setProperty("storage.engine", "log");
+        System.setProperty("storage.log.directory", directory.toString());
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        app.stop();
+        // Restoring the engine the rest of the suite runs against (set with -Dstorage.engine)
+        if (previousEngine == null) {
+            System.clearProperty("storage.engine");
+        } else {
+            System.setProperty("storage.engine", previousEngine);
+        }
+        System.clearProperty("storage.log.directory");
+        Stream<Path> files = Files.walk(directory);
+        try {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } finally {
+            files.close();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Posting, updating and deleting a message through the API while messages are stored in the log
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the seed message copied from H2 keeps ID 1, the new message gets ID 2, and
+     *  GET localhost:8080/messages/changes reports the creations, the update and the deletion in order
+     */
+    @Test
+    public void crudThroughLogStore() throws IOException, InterruptedException {
+        HttpResponse<String> posted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"hello log\", \"time_posted_epoch\": 1669947800}")));
+        Assert.assertEquals(200, posted.statusCode());
+        Assert.assertEquals(new Message(2, 1, "hello log", 1669947800),
+                objectMapper.readValue(posted.body(), Message.class));
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")));
+        Assert.assertEquals(new Message(2, 1, "edited", 1669947800),
+                objectMapper.readValue(updated.body(), Message.class));
+
+        HttpResponse<String> deleted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .DELETE());
+        Assert.assertEquals(new Message(2, 1, "edited", 1669947800),
+                objectMapper.readValue(deleted.body(), Message.class));
+
+        List<Message> messages = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), messages.get(0));
+
+        JsonNode changes = objectMapper.readTree(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes?since=0"))).body()).get("changes");
+        Assert.assertEquals(4, changes.size());
+        String[] types = {"created", "created", "updated", "deleted"};
+        for (int i = 0; i < types.length; i++) {
+            Assert.assertEquals(types[i], changes.get(i).get("change_type").asText());
+        }
+        Assert.assertEquals(4, changes.get(3).get("change_seq").asLong());
+    }
+
+    /**
+     * Writing, updating and deleting many messages across small segments, then reopening and compacting the log
+     *
+     * Expected Response:
+     *  The same messages are found after reopening and after compaction, compaction shrinks the log, and replaying
+     *  the change feed from the start still ends in the same state
+     */
+    @Test
+    public void recoveryAndCompaction() throws IOException {
+        app.stop();
+        Path storeDirectory = directory.resolve("small");
+        LogStructuredMessageStore store = new LogStructuredMessageStore(storeDirectory, 4096, false, 0.5);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            batch.add(new Message(1 + i % 7, "message number " + i, 1669947800L + i));
+            if (batch.size() == 20) {
+                Assert.assertEquals(20, store.insertMessagesBatch(batch));
+                batch.clear();
+            }
+        }
+        for (int messageId = 2; messageId <= 300; messageId += 2) {
+            Assert.assertNotNull(store.updateMessage(messageId, new Message(0, "first edit " + messageId, 0)));
+            Assert.assertNotNull(store.updateMessage(messageId, new Message(0, "second edit " + messageId, 0)));
+        }
+        for (int messageId = 3; messageId <= 300; messageId += 3) {
+            Assert.assertNotNull(store.deleteMessageById(messageId));
+        }
+        Assert.assertNull(store.deleteMessageById(3));
+        List<Message> expected = store.getAllMessages();
+        Assert.assertEquals(200, expected.size());
+        Assert.assertEquals(new Message(2, 3, "second edit 2", 1669947802L), store.getMessageByMessageID(2));
+        store.close();
+
+        store = new LogStructuredMessageStore(storeDirectory, 4096, false, 0.5);
+        Assert.assertEquals(expected, store.getAllMessages());
+        Assert.assertEquals(store.getAllMessagesByAccountID(3).size(),
+                expected.stream().filter(message -> message.getPosted_by() == 3).count());
+
+        long before = store.getLogBytes();
+        store.compact();
+        Assert.assertTrue(store.getLogBytes() < before);
+        Assert.assertEquals(expected, store.getAllMessages());
+
+        Map<Integer, Message> replayed = new LinkedHashMap<>();
+        for (MessageChange change : store.getChangesSince(0, 10000)) {
+            if (change.getChange_type().equals("deleted")) {
+                replayed.remove(change.getMessage().getMessage_id());
+            } else {
+                replayed.put(change.getMessage().getMessage_id(), change.getMessage());
+            }
+        }
+        List<Message> replayedMessages = new ArrayList<>(replayed.values());
+        replayedMessages.sort(Comparator.comparingInt(Message::getMessage_id));
+        Assert.assertEquals(expected, replayedMessages);
+
+        Message added = store.insertMessage(new Message(1, "after compaction", 1669948000L));
+        Assert.assertEquals(301, added.getMessage_id());
+        store.close();
+
+        store = new LogStructuredMessageStore(storeDirectory, 4096, false, 0.5);
+        Assert.assertEquals(expected.size() + 1, store.getAllMessages().size());
+        Assert.assertEquals(added, store.getMessageByMessageID(301));
+        store.close();
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageJsonCacheTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)));
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/json", response.headers().firstValue("Content-Type").orElse("").split(";")[0]);
+        return response.body();
+    }
+
+    private JsonNode cacheMetrics() throws IOException, InterruptedException {
+        return objectMapper.readTree(get("/metrics")).get("json_cache");
+    }
+
+    /**
+     * Reading the same messages repeatedly, then updating and deleting one of them
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the list and single-message responses are byte for byte what Jackson writes, later reads
+     *  are served from the cache, and reads after the update and the delete never return the old content
+     */
+    @Test
+    public void cachedResponsesStayCurrent() throws IOException, InterruptedException {
+        HttpResponse<String> posted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"caf\u00e9 \\\"quoted\\\"\", \"time_posted_epoch\": 1669947800}")));
+        Message second = objectMapper.readValue(posted.body(), Message.class);
+        Message first = new Message(1, 1, "test message 1", 1669947792);
+
+        String expected = objectMapper.writeValueAsString(List.of(first, second));
+        Assert.assertEquals(expected, get("/messages"));
+        long misses = cacheMetrics().get("misses").asLong();
+        Assert.assertEquals(expected, get("/messages"));
+        Assert.assertEquals(expected, get("/accounts/1/messages"));
+        Assert.assertEquals(objectMapper.writeValueAsString(second), get("/messages/2"));
+        JsonNode metrics = cacheMetrics();
+        Assert.assertEquals(misses, metrics.get("misses").asLong());
+        Assert.assertTrue(metrics.get("hits").asLong() >= 5);
+        Assert.assertEquals(2, metrics.get("entries").asInt());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")));
+        Message edited = new Message(2, 1, "edited", 1669947800);
+        Assert.assertEquals(objectMapper.writeValueAsString(edited), get("/messages/2"));
+        Assert.assertEquals(objectMapper.writeValueAsString(List.of(edited, first)), get("/messages/latest"));
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).DELETE());
+        Assert.assertEquals(objectMapper.writeValueAsString(List.of(edited)), get("/messages"));
+        Assert.assertEquals(1, cacheMetrics().get("entries").asInt());
+    }
+}
@@ -0,0 +1,160 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.BatchLoader;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageLoaderTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Loading keys while an earlier batch is still running: the new keys are looked up together, and a key of the
+     * running batch is read again rather than given the running batch's result
+     *
+     * Expected Response:
+     *  One batch for the four concurrent keys, and a fresh lookup for the key loaded during the first batch
+     */
+    @Test
+    public void concurrentLoadsShareOneBatch() throws Exception {
+        // Each load needs its own thread, since the first one stays blocked in its lookup
+        ExecutorService threads = Executors.newCachedThreadPool();
+        try {
+            loadWhileABatchRuns(threads);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private void loadWhileABatchRuns(ExecutorService threads) throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        List<Set<Integer>> batches = new CopyOnWriteArrayList<>();
+        CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        BatchLoader<Integer, String> loader = new BatchLoader<>(keys -> {
+            int call = calls.incrementAndGet();
+            batches.add(keys);
+            if (call == 1) {
+                firstBatchStarted.countDown();
+                try {
+                    releaseFirstBatch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Map<Integer, String> values = new HashMap<>();
+            keys.forEach(key -> values.put(key, key + "@" + call));
+            return values;
+        }, 4, 50_000);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> loader.load(0), threads);
+        Assert.assertTrue(firstBatchStarted.await(10, TimeUnit.SECONDS));
+
+        List<CompletableFuture<String>> wave = new ArrayList<>();
+        for (int key = 1; key <= 4; key++) {
+            int k = key;
+            wave.add(CompletableFuture.supplyAsync(() -> loader.load(k), threads));
+        }
+        for (int key = 1; key <= 4; key++) {
+            Assert.assertEquals(key + "@2", wave.get(key - 1).get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(Set.of(1, 2, 3, 4), batches.get(1));
+
+        // Key 0 is being read by the first batch; this load must not get a value read before it was called
+        Assert.assertEquals("0@3", CompletableFuture.supplyAsync(() -> loader.load(0), threads).get(10, TimeUnit.SECONDS));
+
+        releaseFirstBatch.countDown();
+        Assert.assertEquals("0@1", first.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, loader.getBatchCount());
+        Assert.assertEquals(6, loader.getKeyCount());
+    }
+
+    /**
+     * Reading many messages at once over HTTP, including the same message from several clients
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every client gets its message, and the loader accounts for every read as a batched key or a
+     *  coalesced load
+     */
+    @Test
+    public void concurrentHttpReads() throws Exception {
+        List<Message> posted = new ArrayList<>();
+        posted.add(new Message(1, 1, "test message 1", 1669947792));
+        for (int i = 0; i < 5; i++) {
+            HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            objectMapper.writeValueAsString(new Message(1, "message " + i, 1669947800 + i))))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            posted.add(objectMapper.readValue(response.body(), Message.class));
+        }
+
+        List<CompletableFuture<HttpResponse<String>>> reads = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            reads.add(webClient.sendAsync(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/" + (i % posted.size() + 1)))
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        for (int i = 0; i < reads.size(); i++) {
+            HttpResponse<String> response = reads.get(i).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals(posted.get(i % posted.size()), objectMapper.readValue(response.body(), Message.class));
+        }
+
+        HttpResponse<String> metrics = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode loader = objectMapper.readTree(metrics.body()).get("message_loader");
+        Assert.assertEquals(12, loader.get("keys").asLong() + loader.get("coalesced").asLong());
+        Assert.assertTrue(loader.get("batches").asLong() <= loader.get("keys").asLong());
+    }
+}
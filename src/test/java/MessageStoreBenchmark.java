@@ -0,0 +1,101 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.SplittableRandom;
+
+import DAO.InMemoryMessageStore;
+import DAO.LogStructuredMessageStore;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import DAO.ShardedMessageStore;
+import DAO.WriteAheadMessageStore;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.ShardConnectionUtil;
+
+/**
+ * Compares the insert and point-read throughput of the storage engines. This is a main class, not a test, so the
+ * test run does not pick it up; run it against a compiled tree, e.g.
+ *
+ * java -cp target/classes:target/test-classes:<dependencies> MessageStoreBenchmark [messages]
+ *
+ * Each engine gets the same single-threaded workload: one insertMessage() call per message, then as many
+ * getMessageByMessageID() calls for random IDs. The H2 database is reset first; the log store uses a new
+ * temporary directory with the default segment size, the sharded store four new shards in a temporary directory,
+ * the in-memory store starts from the reset database and writes through to it, and the write-ahead log (forced
+ * to disk on every post, as the benchmark has a single writer) is applied to the reset database in the
+ * background.
+ *
+ * One H2 connection is held open during the whole run. H2 closes a database when its last connection is closed,
+ * and the DAOs close theirs after every call, so without it each call would reopen the database file and the
+ * benchmark would measure that instead of H2's reads and writes.
+ */
+public class MessageStoreBenchmark {
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        ConnectionUtil.resetTestDatabase();
+        Connection keepOpen = ConnectionUtil.getConnection();
+        run("h2", new MessageDAO(), messages);
+        keepOpen.close();
+
+        Path directory = Files.createTempDirectory("log-store-benchmark");
+        LogStructuredMessageStore store = new LogStructuredMessageStore(directory, 64 * 1024 * 1024, false, 0.5);
+        run("log", store, messages);
+        store.close();
+
+        ShardedMessageStore shards = new ShardedMessageStore(
+                new ShardConnectionUtil(Files.createTempDirectory("shard-benchmark"), 4));
+        run("sharded", shards, messages);
+        shards.close();
+
+        ConnectionUtil.resetTestDatabase();
+        keepOpen = ConnectionUtil.getConnection();
+        InMemoryMessageStore memory = InMemoryMessageStore.loadFrom(new MessageDAO());
+        run("memory", memory, messages);
+        memory.close();
+        keepOpen.close();
+
+        ConnectionUtil.resetTestDatabase();
+        keepOpen = ConnectionUtil.getConnection();
+        WriteAheadMessageStore wal = new WriteAheadMessageStore(new MessageDAO(),
+                Files.createTempDirectory("wal-benchmark"), 16 * 1024 * 1024, true, 0, 10000);
+        wal.scheduleApply(100);
+        run("wal", wal, messages);
+        wal.close();
+        keepOpen.close();
+    }
+
+    private static void run(String engine, MessageRepository repository, int messages) {
+        // Warming up the JIT and the connection path before measuring
+        for (int i = 0; i < 2000; i++) {
+            repository.insertMessage(new Message(1, "warm up " + i, 1669947800L));
+            repository.getMessageByMessageID(1 + i);
+        }
+
+        long start = System.nanoTime();
+        int lastId = 0;
+        for (int i = 0; i < messages; i++) {
+            lastId = repository.insertMessage(new Message(1, "benchmark message number " + i, 1669947800L + i)).getMessage_id();
+        }
+        report(engine, "insert", messages, System.nanoTime() - start);
+
+        SplittableRandom random = new SplittableRandom(42);
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < messages; i++) {
+            if (repository.getMessageByMessageID(1 + random.nextInt(lastId)) != null) {
+                found++;
+            }
+        }
+        report(engine, "point read", messages, System.nanoTime() - start);
+        if (found != messages) {
+            System.out.println(engine + ": only " + found + " of " + messages + " reads found a message");
+        }
+    }
+
+    private static void report(String engine, String operation, int count, long nanos) {
+        System.out.printf("%-4s %-10s %,12.0f ops/s  (%,d in %.2f s)%n",
+                engine, operation, count / (nanos / 1e9), count, nanos / 1e9);
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(int postedBy, String text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + postedBy + ", " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Reads lines from the stream until a "data:" line arrives, and returns it without the prefix.
+     */
+    private String nextData(Iterator<String> lines) {
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (line.startsWith("data:")) {
+                return line.substring("data:".length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Connecting to GET localhost:8080/messages/stream and posting a message
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: a "created" event carrying the new message
+     */
+    @Test
+    public void streamReceivesCreatedMessage() throws Exception {
+        HttpRequest streamRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream"))
+                .header("Accept", "text/event-stream")
+                .build();
+        CompletableFuture<HttpResponse<Stream<String>>> pending =
+                webClient.sendAsync(streamRequest, HttpResponse.BodyHandlers.ofLines());
+        HttpResponse<Stream<String>> response = pending.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.statusCode());
+
+        postMessage(1, "streamed message");
+
+        Iterator<String> lines = response.body().iterator();
+        String data = CompletableFuture.supplyAsync(() -> nextData(lines)).get(5, TimeUnit.SECONDS);
+        Message expectedResult = new Message(2, 1, "streamed message", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(data, Message.class));
+    }
+
+    /**
+     * Reconnecting to GET localhost:8080/messages/stream with a Last-Event-ID and a posted_by filter
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the missed events of the filtered account are replayed
+     */
+    @Test
+    public void streamResumesFromLastEventId() throws Exception {
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user2\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        postMessage(1, "first");
+        postMessage(2, "other account");
+        postMessage(1, "second");
+
+        HttpRequest streamRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?posted_by=1"))
+                .header("Accept", "text/event-stream")
+                .header("Last-Event-ID", "1")
+                .build();
+        HttpResponse<Stream<String>> response = webClient
+                .sendAsync(streamRequest, HttpResponse.BodyHandlers.ofLines()).get(5, TimeUnit.SECONDS);
+
+        Iterator<String> lines = response.body().iterator();
+        String data = CompletableFuture.supplyAsync(() -> nextData(lines)).get(5, TimeUnit.SECONDS);
+        Message expectedResult = new Message(4, 1, "second", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(data, Message.class));
+    }
+
+    /**
+     * Reconnecting to GET localhost:8080/messages/stream with a Last-Event-ID from before a restart
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: a "reset" event carrying the current event ID, followed by new events
+     */
+    @Test
+    public void streamResetsUnknownLastEventId() throws Exception {
+        postMessage(1, "before reconnect");
+
+        HttpRequest streamRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream"))
+                .header("Accept", "text/event-stream")
+                .header("Last-Event-ID", "100")
+                .build();
+        HttpResponse<Stream<String>> response = webClient
+                .sendAsync(streamRequest, HttpResponse.BodyHandlers.ofLines()).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.statusCode());
+
+        Iterator<String> lines = response.body().iterator();
+        String reset = CompletableFuture.supplyAsync(() -> {
+            StringBuilder event = new StringBuilder();
+            while (lines.hasNext()) {
+                String line = lines.next();
+                if (line.startsWith("id:") || line.startsWith("event:")) {
+                    event.append(line.replace(" ", "")).append(';');
+                } else if (line.startsWith("data:")) {
+                    return event.toString();
+                }
+            }
+            return null;
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(reset, reset.contains("id:1;") && reset.contains("event:reset;"));
+
+        postMessage(1, "after reconnect");
+        String data = CompletableFuture.supplyAsync(() -> nextData(lines)).get(5, TimeUnit.SECONDS);
+        Message expectedResult = new Message(3, 1, "after reconnect", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(data, Message.class));
+    }
+}
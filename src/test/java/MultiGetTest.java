@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MultiGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Message postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(new Message(1, text, epoch)))));
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private HttpResponse<String> batchGet(String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/messages:batchGet"))
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+    }
+
+    /**
+     * Retrieving several messages, including repeated and missing IDs, with GET /messages?ids=
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages in the order their IDs were listed, each once, and the IDs that were not found;
+     *  400 for a non-numeric ID
+     */
+    @Test
+    public void getMessagesByIds() throws IOException, InterruptedException {
+        Message second = postMessage("second", 1669947800);
+        Message first = new Message(1, 1, "test message 1", 1669947792);
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=2,99,1,2")));
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode body = objectMapper.readTree(response.body());
+        Assert.assertEquals(objectMapper.writeValueAsString(List.of(second, first)), body.get("messages").toString());
+        Assert.assertEquals(objectMapper.writeValueAsString(List.of(99)), body.get("missing_ids").toString());
+
+        HttpResponse<String> invalid = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=1,two")));
+        Assert.assertEquals(400, invalid.statusCode());
+    }
+
+    /**
+     * Retrieving the timelines of an existing and a missing account with POST /accounts/messages:batchGet
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the latest messages of the existing account, newest first and no more than "limit", and
+     *  the missing account listed apart; 400 for a body without account_ids
+     */
+    @Test
+    public void batchGetTimelines() throws IOException, InterruptedException {
+        Message second = postMessage("second", 1669947800);
+        Message third = postMessage("third", 1669947900);
+
+        HttpResponse<String> response = batchGet("{\"account_ids\": [42, 1], \"limit\": 2}");
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode body = objectMapper.readTree(response.body());
+        Assert.assertEquals(1, body.get("timelines").size());
+        JsonNode timeline = body.get("timelines").get(0);
+        Assert.assertEquals(1, timeline.get("account_id").asInt());
+        Assert.assertEquals(objectMapper.writeValueAsString(List.of(third, second)), timeline.get("messages").toString());
+        Assert.assertEquals(objectMapper.writeValueAsString(List.of(42)), body.get("missing_account_ids").toString());
+
+        JsonNode all = objectMapper.readTree(batchGet("{\"account_ids\": [1]}").body());
+        Assert.assertEquals(3, all.get("timelines").get(0).get("messages").size());
+
+        Assert.assertEquals(400, batchGet("{\"limit\": 2}").statusCode());
+        Assert.assertEquals(400, batchGet("{\"account_ids\": [1], \"limit\": 0}").statusCode());
+    }
+}
@@ -0,0 +1,152 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class OptimisticConcurrencyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpRequest patch(String text, String ifMatch) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + text + "\"}"))
+                .header("Content-Type", "application/json");
+        if (ifMatch != null) {
+            builder.header("If-Match", ifMatch);
+        }
+        return builder.build();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> getMessage() throws Exception {
+        return send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).build());
+    }
+
+    /**
+     * Reading message 1, updating it with its ETag, then updating it again with the stale ETag
+     *
+     * Expected Response:
+     *  Status Code: 200 for the first update, with the next ETag, and 412 for the stale one
+     *  Response Body: the message keeps the text of the first update; If-Match: * and no If-Match still update it
+     */
+    @Test
+    public void staleETagIsRejected() throws Exception {
+        HttpResponse<String> read = getMessage();
+        Assert.assertEquals("\"1\"", read.headers().firstValue("ETag").orElse(""));
+
+        HttpResponse<String> updated = send(patch("first writer", "\"1\""));
+        Assert.assertEquals(200, updated.statusCode());
+        Assert.assertEquals("\"2\"", updated.headers().firstValue("ETag").orElse(""));
+        Assert.assertEquals(new Message(1, 1, "first writer", 1669947792),
+                objectMapper.readValue(updated.body(), Message.class));
+
+        HttpResponse<String> stale = send(patch("second writer", "\"1\""));
+        Assert.assertEquals(412, stale.statusCode());
+        Assert.assertEquals("", stale.body());
+        Assert.assertEquals(new Message(1, 1, "first writer", 1669947792),
+                objectMapper.readValue(getMessage().body(), Message.class));
+
+        // Several tags match if any of them is current; a weak or unknown tag never does
+        Assert.assertEquals(200, send(patch("listed", "\"1\", \"2\"")).statusCode());
+        Assert.assertEquals(412, send(patch("weak", "W/\"3\"")).statusCode());
+        Assert.assertEquals(412, send(patch("garbage", "abc")).statusCode());
+
+        Assert.assertEquals(200, send(patch("any version", "*")).statusCode());
+        HttpResponse<String> unconditional = send(patch("no precondition", null));
+        Assert.assertEquals(200, unconditional.statusCode());
+        Assert.assertEquals("\"5\"", unconditional.headers().firstValue("ETag").orElse(""));
+        Assert.assertEquals("\"5\"", getMessage().headers().firstValue("ETag").orElse(""));
+    }
+
+    /**
+     * Updating message 1 to another text and back to its original text
+     *
+     * Expected Response:
+     *  Status Code: 200 for both updates, then 412 for an update with the ETag read before them
+     *  Response Body: restoring the original text still gives the message a new ETag, so a client holding the
+     *  original one cannot overwrite the changes it missed
+     */
+    @Test
+    public void restoredTextGetsANewETag() throws Exception {
+        Assert.assertEquals("\"1\"", getMessage().headers().firstValue("ETag").orElse(""));
+        Assert.assertEquals(200, send(patch("changed", null)).statusCode());
+        HttpResponse<String> restored = send(patch("test message 1", null));
+        Assert.assertEquals(200, restored.statusCode());
+        Assert.assertEquals("\"3\"", restored.headers().firstValue("ETag").orElse(""));
+        Assert.assertEquals(412, send(patch("lost update", "\"1\"")).statusCode());
+    }
+
+    /**
+     * Several clients updating message 1 at once, all with the ETag they read
+     *
+     * Expected Response:
+     *  Status Code: 200 for exactly one of them, 412 for the others
+     *  Response Body: the message holds the text of the update that succeeded
+     */
+    @Test
+    public void concurrentUpdatesWithTheSameETag() throws Exception {
+        String etag = getMessage().headers().firstValue("ETag").orElse("");
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(webClient.sendAsync(patch("writer " + i, etag), HttpResponse.BodyHandlers.ofString()));
+        }
+        String winner = null;
+        int rejected = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            HttpResponse<String> result = response.get(10, TimeUnit.SECONDS);
+            if (result.statusCode() == 200) {
+                Assert.assertNull(winner);
+                winner = objectMapper.readValue(result.body(), Message.class).getMessage_text();
+            } else {
+                Assert.assertEquals(412, result.statusCode());
+                rejected++;
+            }
+        }
+        Assert.assertEquals(7, rejected);
+        Assert.assertEquals(winner, objectMapper.readValue(getMessage().body(), Message.class).getMessage_text());
+        Assert.assertEquals("\"2\"", getMessage().headers().firstValue("ETag").orElse(""));
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.PartitionedMessageStore;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class PartitionedStoreTest {
+    // Epochs in November 2022, December 2022 and January 2023 (UTC)
+    static final long NOVEMBER = 1668000000L;
+    static final long DECEMBER = 1670000000L;
+    static final long JANUARY = 1673000000L;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    Path archive;
+    String previousEngine;
+
+    /**
+     * Before every test, drop the partitions left by earlier runs, reset the database, select the partitioned
+     * storage engine, restart the Javalin app, and create a new webClient and ObjectMapper for interacting locally
+     * on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        archive = Files.createTempDirectory("partition-archive");
+        new PartitionedMessageStore().dropPartitionsBefore(Long.MAX_VALUE, null);
+        ConnectionUtil.resetTestDatabase();
+        previousEngine = System.getProperty("storage.engine");
+        System.setProperty("storage.engine", "partitioned");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        app.stop();
+        // Restoring the engine the rest of the suite runs against (set with -Dstorage.engine)
+        if (previousEngine == null) {
+            System.clearProperty("storage.engine");
+        } else {
+            System.setProperty("storage.engine", previousEngine);
+        }
+        Stream<Path> files = Files.walk(archive);
+        try {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } finally {
+            files.close();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Message post(long epoch, String text) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text
+                        + "\", \"time_posted_epoch\": " + epoch + "}")));
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    /**
+     * Posting messages in three months, then reading, updating and deleting them through the API
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages keep increasing IDs whatever their month, GET localhost:8080/messages/latest returns
+     *  the newest first, GET localhost:8080/export/messages?from=..&to=.. returns only the messages of the range,
+     *  and GET localhost:8080/messages/changes reports every change in order
+     */
+    @Test
+    public void crudAcrossPartitions() throws IOException, InterruptedException {
+        Message january = post(JANUARY, "january");
+        Message november = post(NOVEMBER, "november");
+        Message december = post(DECEMBER + 10, "december");
+        Assert.assertEquals(2, january.getMessage_id());
+        Assert.assertEquals(3, november.getMessage_id());
+        Assert.assertEquals(4, december.getMessage_id());
+
+        Assert.assertEquals(november, objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))).body(), Message.class));
+
+        List<Message> latest = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/latest?limit=2"))).body(),
+                new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(january, december), latest);
+
+        String[] lines = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/export/messages?from=" + DECEMBER + "&to=" + JANUARY)))
+                .body().split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals(january, objectMapper.readValue(lines[0], Message.class));
+        Assert.assertEquals(december, objectMapper.readValue(lines[1], Message.class));
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")));
+        Assert.assertEquals(new Message(3, 1, "edited", NOVEMBER), objectMapper.readValue(updated.body(), Message.class));
+        HttpResponse<String> deleted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .DELETE());
+        Assert.assertEquals(december, objectMapper.readValue(deleted.body(), Message.class));
+
+        List<Message> messages = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792), january,
+                new Message(3, 1, "edited", NOVEMBER)), messages);
+        List<Message> byAccount = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(messages, byAccount);
+
+        JsonNode changes = objectMapper.readTree(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes?since=0"))).body()).get("changes");
+        String[] types = {"created", "created", "created", "created", "updated", "deleted"};
+        Assert.assertEquals(types.length, changes.size());
+        for (int i = 0; i < types.length; i++) {
+            Assert.assertEquals(types[i], changes.get(i).get("change_type").asText());
+        }
+    }
+
+    /**
+     * Archiving and dropping the partitions before January 2023, then reopening the store
+     *
+     * Expected Response:
+     *  The archived months are written as CSV files and their messages are gone, the newer messages are still
+     *  found by ID after reopening, and new messages get IDs above every earlier one
+     */
+    @Test
+    public void dropOldPartitions() throws IOException {
+        app.stop();
+        PartitionedMessageStore store = new PartitionedMessageStore();
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 90; i++) {
+            long epoch = i % 3 == 0 ? NOVEMBER : i % 3 == 1 ? DECEMBER : JANUARY;
+            batch.add(new Message(1, "message " + i, epoch + i));
+        }
+        Assert.assertEquals(90, store.insertMessagesBatch(batch));
+        Assert.assertEquals(3, store.getPartitionCount());
+        List<Message> kept = new ArrayList<>();
+        store.streamMessages(JANUARY - 100000, null, null, null, kept::add);
+        Assert.assertEquals(30, kept.size());
+
+        Assert.assertEquals(2, store.dropPartitionsBefore(JANUARY, archive));
+        Assert.assertTrue(Files.exists(archive.resolve("message_p202211.csv")));
+        Assert.assertTrue(Files.exists(archive.resolve("message_p202212.csv")));
+        Assert.assertEquals(1, store.getPartitionCount());
+        Assert.assertNull(store.getMessageByMessageID(2));
+        Assert.assertEquals(kept, store.getAllMessages());
+        store.close();
+
+        store = new PartitionedMessageStore();
+        for (Message message : kept) {
+            Assert.assertEquals(message, store.getMessageByMessageID(message.getMessage_id()));
+        }
+        Assert.assertEquals(kept.get(kept.size() - 1), store.getLatestMessages(1).get(0));
+        Message added = store.insertMessage(new Message(1, "after drop", JANUARY));
+        Assert.assertEquals(92, added.getMessage_id());
+        store.close();
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+public class RateLimitTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, configure tight limits, reset the database, restart the Javalin app, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("ratelimit.register.ip.rate", "0.01");
+        System.setProperty("ratelimit.register.ip.burst", "2");
+        System.setProperty("ratelimit.messages.account.rate", "0.01");
+        System.setProperty("ratelimit.messages.account.burst", "1");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("ratelimit.register.ip.rate");
+        System.clearProperty("ratelimit.register.ip.burst");
+        System.clearProperty("ratelimit.messages.account.rate");
+        System.clearProperty("ratelimit.messages.account.burst");
+    }
+
+    private HttpResponse<String> register(String username) throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> postMessage(int postedBy) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + postedBy + ", " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending more POST localhost:8080/register requests from one IP than its burst allows
+     *
+     * Expected Response:
+     *  Status Code: 200 for the first two requests, then 429 with a Retry-After header
+     */
+    @Test
+    public void registerOverLimit() throws IOException, InterruptedException {
+        Assert.assertEquals(200, register("user1").statusCode());
+        Assert.assertEquals(200, register("user2").statusCode());
+
+        HttpResponse<String> response = register("user3");
+        Assert.assertEquals(429, response.statusCode());
+        long retryAfter = Long.parseLong(response.headers().firstValue("Retry-After").orElse("0"));
+        Assert.assertTrue(retryAfter > 0);
+    }
+
+    /**
+     * Sending a second POST localhost:8080/messages for an account whose limit is one message
+     *
+     * Expected Response:
+     *  Status Code: 200 for the first message, 429 for the second, and other accounts are not affected
+     */
+    @Test
+    public void postMessageOverAccountLimit() throws IOException, InterruptedException {
+        Assert.assertEquals(200, postMessage(1).statusCode());
+        Assert.assertEquals(429, postMessage(1).statusCode());
+
+        // The limit is per account: an unknown account still reaches validation and gets 400
+        Assert.assertEquals(400, postMessage(3).statusCode());
+        Assert.assertEquals(400, postMessage(4).statusCode());
+
+        // Unknown accounts get no bucket: only the client IP and account 1 are tracked
+        HttpRequest metricsRequest = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/metrics")).build();
+        String metrics = webClient.send(metricsRequest, HttpResponse.BodyHandlers.ofString()).body();
+        Assert.assertTrue(metrics, metrics.contains("\"tracked_keys\":2"));
+    }
+
+    /**
+     * Checking a limiter that may track two keys
+     *
+     * Expected Response:
+     *  The first two keys get their own bucket; the next ones share a single bucket and the map does not grow
+     */
+    @Test
+    public void trackedKeysAreCapped() {
+        RateLimiter<Integer> limiter = new RateLimiter<>(0.01, 1, 60 * 1000L, 2);
+        Assert.assertEquals(0, limiter.tryAcquire(1));
+        Assert.assertEquals(0, limiter.tryAcquire(2));
+        Assert.assertEquals(0, limiter.tryAcquire(3));
+        Assert.assertTrue(limiter.tryAcquire(4) > 0);
+        Assert.assertEquals(2, limiter.size());
+    }
+}
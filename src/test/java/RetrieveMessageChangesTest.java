@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessageChangesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private JsonNode getChanges(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes" + query))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/changes?since=... after an update and a delete
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the changes after "since", including the deletion, and the next "since" value
+     */
+    @Test
+    public void getChangesSinceToken() throws IOException, InterruptedException {
+        JsonNode initial = getChanges("");
+        Assert.assertEquals(1, initial.get("changes").size());
+        Assert.assertEquals("created", initial.get("changes").get(0).get("change_type").asText());
+        long since = initial.get("next_since").asLong();
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        JsonNode delta = getChanges("?since=" + since);
+        Assert.assertEquals(2, delta.get("changes").size());
+        Assert.assertEquals("updated", delta.get("changes").get(0).get("change_type").asText());
+        Assert.assertEquals("deleted", delta.get("changes").get(1).get("change_type").asText());
+        Message expectedResult = new Message(1, 1, "updated message", 1669947792);
+        Assert.assertEquals(expectedResult,
+                objectMapper.treeToValue(delta.get("changes").get(1).get("message"), Message.class));
+
+        JsonNode caughtUp = getChanges("?since=" + delta.get("next_since").asLong());
+        Assert.assertEquals(0, caughtUp.get("changes").size());
+        Assert.assertEquals(delta.get("next_since").asLong(), caughtUp.get("next_since").asLong());
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    /**
+     * Posting a message whose transaction is held up (its poster's statistics row is locked by another
+     * connection) while a second message is posted and committed, reading the changes in between
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the held-up message is numbered after the one that committed first, so the "since" value
+     *  read in between still returns it once it commits
+     */
+    @Test
+    public void changesCommittedOutOfOrderAreNotSkipped() throws Exception {
+        Assert.assertEquals(200, webClient.send(post("/register",
+                "{\"username\": \"testuser2\", \"password\": \"password\"}"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        long since = getChanges("").get("next_since").asLong();
+
+        Connection blocker = ConnectionUtil.getConnection();
+        CompletableFuture<HttpResponse<String>> slow;
+        try {
+            blocker.setAutoCommit(false);
+            blocker.createStatement().executeUpdate("UPDATE account_stats SET post_count = post_count WHERE account_id = 1");
+            slow = webClient.sendAsync(post("/messages",
+                    "{\"posted_by\":1, \"message_text\": \"slow\", \"time_posted_epoch\": 1669947800}"),
+                    HttpResponse.BodyHandlers.ofString());
+            Thread.sleep(200);
+            Assert.assertEquals(200, webClient.send(post("/messages",
+                    "{\"posted_by\":2, \"message_text\": \"fast\", \"time_posted_epoch\": 1669947801}"),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            JsonNode first = getChanges("?since=" + since);
+            Assert.assertEquals(1, first.get("changes").size());
+            Assert.assertEquals("fast", first.get("changes").get(0).get("message").get("message_text").asText());
+            since = first.get("next_since").asLong();
+        } finally {
+            blocker.commit();
+            blocker.close();
+        }
+        Assert.assertEquals(200, slow.get(10, TimeUnit.SECONDS).statusCode());
+
+        JsonNode second = getChanges("?since=" + since);
+        Assert.assertEquals(1, second.get("changes").size());
+        Assert.assertEquals("slow", second.get("changes").get(0).get("message").get("message_text").asText());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/changes with an invalid token
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getChangesInvalidToken() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes?since=abc"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(400, response.statusCode());
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.ShardedMessageStore;
+import Model.Message;
+import Model.VersionedMessage;
+import Util.ConnectionUtil;
+import Util.ShardConnectionUtil;
+import io.javalin.Javalin;
+
+public class ShardedStoreTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    Path directory;
+    String previousEngine;
+
+    /**
+     * Before every test, select the sharded storage engine with 4 shards in a fresh directory, reset the database,
+     * restart the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        directory = Files.createTempDirectory("shards");
+        previousEngine = System.getProperty("storage.engine");
+        System.setProperty("storage.engine", "sharded");
+        System.setProperty("storage.shards.directory", directory.toString());
+        System.setProperty("storage.shards.count", "4");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        app.stop();
+        // Restoring the engine the rest of the suite runs against (set with -Dstorage.engine)
+        if (previousEngine == null) {
+            System.clearProperty("storage.engine");
+        } else {
+            System.setProperty("storage.engine", previousEngine);
+        }
+        System.clearProperty("storage.shards.directory");
+        System.clearProperty("storage.shards.count");
+        Stream<Path> files = Files.walk(directory);
+        try {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } finally {
+            files.close();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Registering accounts and posting, updating and deleting their messages through the API while messages are
+     * spread over 4 shards
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the seed message copied from H2 keeps ID 1, new messages get IDs of the shard of their poster,
+     *  GET localhost:8080/messages and GET localhost:8080/export/messages list every message in message_id order,
+     *  and GET localhost:8080/messages/changes reports every change once, in order
+     */
+    @Test
+    public void crudAcrossShards() throws IOException, InterruptedException {
+        List<Message> posted = new ArrayList<>();
+        for (int account = 2; account <= 9; account++) {
+            HttpResponse<String> registered = send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"username\": \"user" + account + "\", \"password\": \"password\"}")));
+            Assert.assertEquals(200, registered.statusCode());
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> response = send(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/messages"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + account
+                                + ", \"message_text\": \"message " + i + "\", \"time_posted_epoch\": 1669947800}")));
+                Assert.assertEquals(200, response.statusCode());
+                Message message = objectMapper.readValue(response.body(), Message.class);
+                int shard = ShardedMessageStore.shardFor(account, 4);
+                Assert.assertEquals(shard, (message.getMessage_id() - 1) % ShardedMessageStore.ID_STRIDE);
+                posted.add(message);
+            }
+        }
+
+        Message first = posted.get(0);
+        HttpResponse<String> updated = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + first.getMessage_id()))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")));
+        Assert.assertEquals(200, updated.statusCode());
+        Assert.assertEquals("edited", objectMapper.readValue(updated.body(), Message.class).getMessage_text());
+        HttpResponse<String> deleted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + posted.get(1).getMessage_id()))
+                .DELETE());
+        Assert.assertEquals(200, deleted.statusCode());
+        Assert.assertEquals("", send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + posted.get(1).getMessage_id()))).body());
+
+        List<Message> messages = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(1 + posted.size() - 1, messages.size());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), messages.get(0));
+        for (int i = 1; i < messages.size(); i++) {
+            Assert.assertTrue(messages.get(i - 1).getMessage_id() < messages.get(i).getMessage_id());
+        }
+
+        String[] lines = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/export/messages"))).body().split("\n");
+        List<Message> exported = new ArrayList<>();
+        for (String line : lines) {
+            exported.add(objectMapper.readValue(line, Message.class));
+        }
+        Assert.assertEquals(messages, exported);
+
+        List<Message> byAccount = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + first.getPosted_by() + "/messages"))).body(),
+                new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, byAccount.size());
+
+        JsonNode changes = objectMapper.readTree(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes?since=0"))).body()).get("changes");
+        Assert.assertEquals(1 + posted.size() + 2, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            Assert.assertEquals(i + 1, changes.get(i).get("change_seq").asLong());
+        }
+        Assert.assertEquals("updated", changes.get(changes.size() - 2).get("change_type").asText());
+        Assert.assertEquals("deleted", changes.get(changes.size() - 1).get("change_type").asText());
+    }
+
+    /**
+     * Writing messages of many accounts into 2 shards, then adding 3 shards and rebalancing
+     *
+     * Expected Response:
+     *  After rebalancing, every message is still found by ID with the same content and version, each account's
+     *  messages are in its new shard, the merged export is in message_id order, and new messages get unused IDs
+     */
+    @Test
+    public void rebalanceAfterAddingShards() throws IOException {
+        app.stop();
+        Path shardDirectory = directory.resolve("rebalance");
+        ShardedMessageStore store = new ShardedMessageStore(new ShardConnectionUtil(shardDirectory, 2));
+        List<Message> batch = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            batch.add(new Message(1 + i % 23, "message number " + i, 1669947800L + i));
+        }
+        Assert.assertEquals(500, store.insertMessagesBatch(batch));
+        List<Message> expected = store.getAllMessages();
+        Assert.assertEquals(500, expected.size());
+        for (Message message : expected.subList(0, 50)) {
+            store.updateMessageIfVersion(message.getMessage_id(), message, 1L);
+        }
+        store.close();
+
+        store = new ShardedMessageStore(new ShardConnectionUtil(shardDirectory, 5));
+        Assert.assertTrue(store.rebalance() > 0);
+        Assert.assertEquals(0, store.rebalance());
+        Assert.assertEquals(expected, store.getAllMessages());
+        for (int i = 0; i < expected.size(); i++) {
+            Message message = expected.get(i);
+            VersionedMessage moved = store.getVersionedMessage(message.getMessage_id());
+            Assert.assertEquals(message, moved.getMessage());
+            Assert.assertEquals(i < 50 ? 2 : 1, moved.getVersion());
+        }
+        for (int account = 1; account <= 23; account++) {
+            int accountId = account;
+            Assert.assertEquals(expected.stream().filter(message -> message.getPosted_by() == accountId).count(),
+                    store.getAllMessagesByAccountID(account).size());
+        }
+
+        List<Message> streamed = new ArrayList<>();
+        store.streamMessages(null, null, null, null, streamed::add);
+        Assert.assertEquals(expected, streamed);
+
+        Set<Integer> ids = new HashSet<>();
+        for (Message message : expected) {
+            ids.add(message.getMessage_id());
+        }
+        for (int account = 1; account <= 23; account++) {
+            Message added = store.insertMessage(new Message(account, "after rebalance", 1669948000L));
+            Assert.assertTrue(ids.add(added.getMessage_id()));
+        }
+        Assert.assertEquals(500 + 50 + 23, store.getChangesSince(0, 10000).size());
+        store.close();
+    }
+}
@@ -0,0 +1,155 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.PurgeService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SoftDeleteTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. The background purge is pushed out so tombstones stay until a test
+     * purges them.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("purge.interval.ms", "600000");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("purge.interval.ms");
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String query(String sql) throws Exception {
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery(sql);
+            resultSet.next();
+            String value = resultSet.getString(1);
+            statement.close();
+            return value;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Deleting message 1, then reading, updating and deleting it again
+     *
+     * Expected Response:
+     *  Status Code: 200, and 400 for the update
+     *  Response Body: the first delete returns the message, which stays in the table with its tombstone set but no
+     *  longer appears in any read or in the statistics; the second delete gets an empty body, and the next new
+     *  message still gets ID 2
+     */
+    @Test
+    public void deletedMessagesAreHiddenFromReads() throws Exception {
+        Message seeded = new Message(1, 1, "test message 1", 1669947792);
+        HttpResponse<String> deleted = send("DELETE", "/messages/1", null);
+        Assert.assertEquals(200, deleted.statusCode());
+        Assert.assertEquals(objectMapper.writeValueAsString(seeded), deleted.body());
+        Assert.assertNotNull(query("SELECT deleted_at FROM message WHERE message_id = 1"));
+
+        Assert.assertEquals("[]", send("GET", "/messages", null).body());
+        Assert.assertEquals("", send("GET", "/messages/1", null).body());
+        Assert.assertEquals("[]", send("GET", "/accounts/1/messages", null).body());
+        Assert.assertEquals("[]", send("GET", "/messages/latest", null).body());
+        Assert.assertEquals("[]", send("GET", "/messages?from=0", null).body());
+        Assert.assertEquals(400, send("PATCH", "/messages/1", "{\"message_text\": \"back\"}").statusCode());
+        HttpResponse<String> again = send("DELETE", "/messages/1", null);
+        Assert.assertEquals(200, again.statusCode());
+        Assert.assertEquals("", again.body());
+        Assert.assertEquals("{\"account_id\":1,\"post_count\":0,\"total_chars\":0,\"first_post_epoch\":null,\"last_post_epoch\":null}",
+                send("GET", "/accounts/1/stats", null).body());
+
+        HttpResponse<String> created = send("POST", "/messages",
+                "{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}");
+        Assert.assertEquals(200, created.statusCode());
+        Assert.assertEquals(2, objectMapper.readValue(created.body(), Message.class).getMessage_id());
+    }
+
+    /**
+     * Deleting four messages, then purging with batches of two while the server is idle and while it is busy
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: a run keeps tombstones younger than its grace period, an idle run removes one batch of
+     *  tombstones through the deleted_at index, a busy run removes nothing, and a longer idle run removes the rest;
+     *  live messages are kept
+     */
+    @Test
+    public void purgeRemovesTombstonesInBatches() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(200, send("POST", "/messages",
+                    "{\"posted_by\":1, \"message_text\": \"post " + i + "\", \"time_posted_epoch\": " + (1669947800 + i) + "}").statusCode());
+        }
+        for (int messageId = 2; messageId <= 5; messageId++) {
+            Assert.assertEquals(200, send("DELETE", "/messages/" + messageId, null).statusCode());
+        }
+        Assert.assertEquals("4", query("SELECT COUNT(*) FROM message WHERE deleted_at IS NOT NULL"));
+        String plan = query("EXPLAIN DELETE FROM message WHERE message_id IN (SELECT message_id FROM message "
+                + "WHERE deleted_at <= 0 ORDER BY deleted_at FETCH FIRST 2 ROWS ONLY)");
+        Assert.assertTrue(plan.contains("MESSAGE_DELETED_AT_IDX"));
+        Assert.assertTrue(plan.contains("index sorted"));
+
+        PurgeService early = new PurgeService(new MessageDAO(), 2, 1, () -> 0, 4, 60000);
+        early.run();
+        Assert.assertEquals(0, early.getPurgedCount());
+
+        PurgeService idle = new PurgeService(new MessageDAO(), 2, 1, () -> 0, 4);
+        idle.run();
+        Assert.assertEquals(2, idle.getPurgedCount());
+        Assert.assertEquals("2", query("SELECT COUNT(*) FROM message WHERE deleted_at IS NOT NULL"));
+
+        PurgeService busy = new PurgeService(new MessageDAO(), 2, 10, () -> 5, 4);
+        busy.run();
+        Assert.assertEquals(0, busy.getPurgedCount());
+        Assert.assertEquals(1, busy.getDeferredCount());
+
+        PurgeService longer = new PurgeService(new MessageDAO(), 2, 10, () -> 0, 4);
+        longer.run();
+        Assert.assertEquals(2, longer.getPurgedCount());
+        Assert.assertEquals("0", query("SELECT COUNT(*) FROM message WHERE deleted_at IS NOT NULL"));
+        Assert.assertEquals("2", query("SELECT COUNT(*) FROM message"));
+        Assert.assertTrue(send("GET", "/metrics", null).body().contains("\"purge\":{\"purged\":0,\"batches\":0,\"deferred\":0}"));
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SparseFieldsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)));
+    }
+
+    private void postMessage(String body) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    /**
+     * Reading messages with only some fields, with their author expanded, and both
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the requested fields, in the usual order, and "author" with the account_id and username
+     *  but never the password
+     */
+    @Test
+    public void projectedFieldsAndAuthors() throws IOException, InterruptedException {
+        postMessage("{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947800}");
+
+        Assert.assertEquals("[{\"message_id\":1},{\"message_id\":2}]",
+                get("/messages?fields=message_id").body());
+        Assert.assertEquals("[{\"message_id\":1,\"time_posted_epoch\":1669947792},"
+                        + "{\"message_id\":2,\"time_posted_epoch\":1669947800}]",
+                get("/messages?fields=time_posted_epoch,message_id").body());
+        Assert.assertEquals("[{\"message_id\":1,\"author\":{\"account_id\":1,\"username\":\"testuser1\"}},"
+                        + "{\"message_id\":2,\"author\":{\"account_id\":1,\"username\":\"testuser1\"}}]",
+                get("/accounts/1/messages?fields=message_id&expand=author").body());
+        Assert.assertEquals("{\"message_id\":2,\"posted_by\":1,\"message_text\":\"second\","
+                        + "\"time_posted_epoch\":1669947800,\"author\":{\"account_id\":1,\"username\":\"testuser1\"}}",
+                get("/messages/2?expand=author").body());
+
+        Assert.assertEquals("[]", get("/accounts/2/messages?fields=message_text").body());
+        HttpResponse<String> missing = get("/messages/99?fields=message_text");
+        Assert.assertEquals(200, missing.statusCode());
+        Assert.assertEquals("", missing.body());
+    }
+
+    /**
+     * Asking for unknown fields, no fields, or expanding something other than the author
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body: (empty)
+     */
+    @Test
+    public void invalidFieldsAreRejected() throws IOException, InterruptedException {
+        for (String query : new String[]{"fields=password", "fields=", "fields=message_id,username",
+                "expand=account", "fields=message_id&expand=password"}) {
+            HttpResponse<String> response = get("/messages?" + query);
+            Assert.assertEquals(query, 400, response.statusCode());
+            Assert.assertEquals(query, "", response.body());
+        }
+        Assert.assertEquals(400, get("/messages/1?fields=message_id;drop").statusCode());
+    }
+}
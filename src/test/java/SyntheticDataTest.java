@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.SyntheticDataService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SyntheticDataTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    SyntheticDataService generator;
+    SyntheticDataService.Settings settings;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web, and a small dataset shape for the generator.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        generator = new SyntheticDataService();
+        settings = new SyntheticDataService.Settings();
+        settings.accounts = 50;
+        settings.messages = 2000;
+        settings.chunkSize = 300;
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Generates the dataset, then restarts the app: the generator writes to H2 directly, and storage engines
+     * other than H2 load their data when the app starts.
+     */
+    private void generate() throws InterruptedException {
+        generator.generate(settings, null);
+        app.stop();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    private List<Message> getAllMessages() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Generating the same dataset twice, then sending an HTTP GET request to localhost:8080/messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the seed message followed by the generated messages, identical for both runs, with valid
+     *  posters, increasing posting times and a skewed number of messages per account
+     */
+    @Test
+    public void generateIsDeterministic() throws IOException, InterruptedException {
+        generate();
+        List<Message> first = getAllMessages();
+        generate();
+        List<Message> second = getAllMessages();
+
+        Assert.assertEquals(1 + settings.messages, first.size());
+        Assert.assertEquals(first, second);
+
+        Map<Integer, Integer> perAccount = new HashMap<>();
+        long previousEpoch = 0;
+        for (Message message : first.subList(1, first.size())) {
+            Assert.assertTrue(message.getPosted_by() >= 2 && message.getPosted_by() <= 1 + settings.accounts);
+            Assert.assertTrue(message.getTime_posted_epoch() >= previousEpoch);
+            Assert.assertTrue(message.getTime_posted_epoch() <= settings.endEpoch);
+            Assert.assertTrue(!message.getMessage_text().isBlank() && message.getMessage_text().length() <= 255);
+            previousEpoch = message.getTime_posted_epoch();
+            perAccount.merge(message.getPosted_by(), 1, Integer::sum);
+        }
+        int busiest = perAccount.values().stream().max(Integer::compare).get();
+        Assert.assertTrue(busiest > 5 * settings.messages / settings.accounts);
+    }
+
+    /**
+     * Saving a generated dataset to a snapshot and restoring it into another directory, then reading the restored
+     * database directly
+     *
+     * Expected Response:
+     *  The restored database holds the seed and generated messages, with the same last message as
+     *  GET localhost:8080/messages
+     */
+    @Test
+    public void snapshotRestoresDataset() throws IOException, InterruptedException, SQLException {
+        Path snapshot = Files.createTempFile("synthetic", ".zip");
+        Path directory = Files.createTempDirectory("synthetic");
+        try {
+            generate();
+            List<Message> generated = getAllMessages();
+            generator.saveSnapshot(snapshot);
+            generator.restoreSnapshot(snapshot, directory);
+
+            Connection connection = DriverManager.getConnection("jdbc:h2:" + directory.resolve("db"), "sa", "sa");
+            try {
+                ResultSet resultSet = connection.createStatement().executeQuery(
+                        "SELECT COUNT(*), MAX(message_id) FROM message");
+                resultSet.next();
+                Assert.assertEquals(generated.size(), resultSet.getInt(1));
+                Assert.assertEquals(generated.get(generated.size() - 1).getMessage_id(), resultSet.getInt(2));
+            } finally {
+                connection.close();
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(directory.resolve("db.mv.db"));
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TimeRangeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void post(int postedBy, String text, long epoch) throws Exception {
+        String body = "{\"posted_by\":" + postedBy + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": " + epoch + "}";
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private List<Message> getMessages(String path) throws Exception {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Listing the messages of a time range, oldest or newest first, with epochs beyond 32 bits
+     *
+     * Expected Response:
+     *  Status Code: 200, and 400 for an unknown order or a non-numeric bound
+     *  Response Body: the messages of the range in time order, with their epochs unchanged
+     */
+    @Test
+    public void rangeQueriesKeepFullEpochs() throws Exception {
+        post(1, "millis", 1669947792000L);
+        post(1, "far future", 4102444800000L);
+        post(1, "same millis", 1669947792000L);
+
+        Message seed = new Message(1, 1, "test message 1", 1669947792);
+        Message millis = new Message(2, 1, "millis", 1669947792000L);
+        Message farFuture = new Message(3, 1, "far future", 4102444800000L);
+        Message sameMillis = new Message(4, 1, "same millis", 1669947792000L);
+
+        Assert.assertEquals(Arrays.asList(seed, millis, farFuture, sameMillis), getMessages("/messages"));
+        Assert.assertEquals(Arrays.asList(seed, millis, farFuture, sameMillis), getMessages("/accounts/1/messages"));
+
+        Assert.assertEquals(Arrays.asList(millis, sameMillis, farFuture),
+                getMessages("/messages?from=1669947792000"));
+        Assert.assertEquals(Arrays.asList(farFuture, sameMillis),
+                getMessages("/messages?order=desc&limit=2"));
+        Assert.assertEquals(Arrays.asList(sameMillis, millis, seed),
+                getMessages("/accounts/1/messages?to=4102444799999&order=desc"));
+        Assert.assertEquals(Arrays.asList(millis, sameMillis),
+                getMessages("/accounts/1/messages?from=1669947792000&to=1669947792000"));
+        Assert.assertEquals(Arrays.asList(), getMessages("/accounts/2/messages?from=0"));
+
+        Assert.assertEquals(400, get("/messages?order=sideways").statusCode());
+        Assert.assertEquals(400, get("/messages?from=yesterday").statusCode());
+        Assert.assertEquals(400, get("/messages?limit=0").statusCode());
+    }
+
+    /**
+     * Checking the plans of the range queries with EXPLAIN
+     *
+     * Expected Response:
+     *  Every query reads a range of a time_posted_epoch index, in index order, and never scans the table
+     */
+    @Test
+    public void rangeQueriesUseTheIndexes() throws Exception {
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            for (boolean byPoster : new boolean[] {false, true}) {
+                for (boolean newestFirst : new boolean[] {false, true}) {
+                    PreparedStatement explain = connection.prepareStatement("EXPLAIN " + MessageDAO.rangeSql(byPoster, newestFirst));
+                    int parameter = 1;
+                    if (byPoster) {
+                        explain.setInt(parameter++, 1);
+                    }
+                    explain.setLong(parameter++, 1669947792L);
+                    explain.setLong(parameter++, Long.MAX_VALUE);
+                    explain.setInt(parameter, 10);
+                    ResultSet plan = explain.executeQuery();
+                    Assert.assertTrue(plan.next());
+                    String text = plan.getString(1).toUpperCase();
+                    plan.close();
+                    explain.close();
+
+                    Assert.assertFalse(text, text.contains("TABLESCAN"));
+                    if (byPoster) {
+                        Assert.assertTrue(text, text.contains("MESSAGE_POSTED_BY_TIME_IDX"));
+                    } else {
+                        // Read in index order: no sort of the range before the limit
+                        Assert.assertTrue(text, text.contains(newestFirst ? "MESSAGE_TIME_POSTED_DESC_IDX" : "MESSAGE_TIME_POSTED_IDX:"));
+                        Assert.assertTrue(text, text.contains("INDEX SORTED"));
+                    }
+                }
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
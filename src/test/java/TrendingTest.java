@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TrendingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/trending after posting messages with hashtags
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON with the most used hashtag first and the posting account as most active
+     */
+    @Test
+    public void getTrendingAfterPosts() throws IOException, InterruptedException {
+        postMessage("learning #Java today");
+        postMessage("more #java and #h2");
+        postMessage("just #h2");
+        postMessage("#java again");
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/trending"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        Assert.assertEquals("java", body.get("hashtags").get(0).get("hashtag").asText());
+        Assert.assertEquals(3, body.get("hashtags").get(0).get("count").asLong());
+        Assert.assertEquals("h2", body.get("hashtags").get(1).get("hashtag").asText());
+        Assert.assertEquals(2, body.get("hashtags").get(1).get("count").asLong());
+        Assert.assertEquals(1, body.get("posters").get(0).get("account_id").asInt());
+        Assert.assertEquals(4, body.get("posters").get(0).get("count").asLong());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/trending before anything was posted
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON with empty lists
+     */
+    @Test
+    public void getTrendingNoPosts() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/trending"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        Assert.assertEquals(0, body.get("hashtags").size());
+        Assert.assertEquals(0, body.get("posters").size());
+    }
+}
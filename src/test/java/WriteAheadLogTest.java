@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import DAO.WriteAheadMessageStore;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class WriteAheadLogTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    Path directory;
+    String previousEngine;
+
+    /**
+     * Before every test, reset the database, select the H2 engine behind a write-ahead log in a fresh directory
+     * (applied only on demand), restart the Javalin app, and create a new webClient and ObjectMapper for
+     * interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        directory = Files.createTempDirectory("wal");
+        ConnectionUtil.resetTestDatabase();
+        previousEngine = System.getProperty("storage.engine");
+        System.setProperty("storage.engine", "h2");
+        System.setProperty("storage.wal.enabled", "true");
+        System.setProperty("storage.wal.directory", directory.resolve("app").toString());
+        System.setProperty("storage.wal.apply.interval.ms", "600000");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        app.stop();
+        // Restoring the engine the rest of the suite runs against (set with -Dstorage.engine)
+        if (previousEngine == null) {
+            System.clearProperty("storage.engine");
+        } else {
+            System.setProperty("storage.engine", previousEngine);
+        }
+        System.clearProperty("storage.wal.enabled");
+        System.clearProperty("storage.wal.directory");
+        System.clearProperty("storage.wal.apply.interval.ms");
+        Stream<Path> files = Files.walk(directory);
+        try {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } finally {
+            files.close();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Message post(long epoch, String text) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text
+                        + "\", \"time_posted_epoch\": " + epoch + "}")));
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    /**
+     * Posting messages that are acknowledged from the log, reading them before they reach H2, then updating one
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the posts get the next IDs and every read endpoint returns them while H2 does not have them
+     *  yet; the update applies them to H2, and after the app stops, H2 hands out the IDs after them
+     */
+    @Test
+    public void postsAreReadableBeforeApplied() throws IOException, InterruptedException {
+        Message first = post(1669947800, "first");
+        Message second = post(1669947900, "second");
+        Message third = post(1669947850, "third");
+        Assert.assertEquals(new Message(2, 1, "first", 1669947800), first);
+        Assert.assertEquals(3, second.getMessage_id());
+        Assert.assertEquals(4, third.getMessage_id());
+        Assert.assertNull(new MessageDAO().getMessageByMessageID(2));
+
+        Assert.assertEquals(second, objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))).body(), Message.class));
+        Message seed = new Message(1, 1, "test message 1", 1669947792);
+        List<Message> messages = objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(seed, first, second, third), messages);
+        Assert.assertEquals(messages, objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))).body(), new TypeReference<List<Message>>(){}));
+        Assert.assertEquals(List.of(second, third), objectMapper.readValue(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/latest?limit=2"))).body(), new TypeReference<List<Message>>(){}));
+        String[] lines = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/export/messages?after_id=1"))).body().split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals(third, objectMapper.readValue(lines[2], Message.class));
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")));
+        Assert.assertEquals(new Message(3, 1, "edited", 1669947900), objectMapper.readValue(updated.body(), Message.class));
+        Assert.assertEquals(first, new MessageDAO().getMessageByMessageID(2));
+        Assert.assertEquals(third, new MessageDAO().getMessageByMessageID(4));
+        JsonNode changes = objectMapper.readTree(send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes?since=0"))).body()).get("changes");
+        Assert.assertEquals(5, changes.size());
+        Assert.assertEquals("updated", changes.get(4).get("change_type").asText());
+
+        app.stop();
+        Assert.assertEquals(5, new MessageDAO().insertMessage(new Message(1, "after the log", 1669948000)).getMessage_id());
+    }
+
+    /**
+     * Writing messages to a log across several segments, applying some, then reopening a copy of the log taken
+     * while the rest were unapplied and the last record was torn
+     *
+     * Expected Response:
+     *  The copy's unapplied messages are replayed into H2 with their IDs, the torn message is dropped and its ID
+     *  is given to the next post
+     */
+    @Test
+    public void recoversUnappliedTail() throws IOException {
+        app.stop();
+        Path crashed = directory.resolve("crashed");
+        WriteAheadMessageStore store = new WriteAheadMessageStore(new MessageDAO(), crashed, 4096, true, 0, 16);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(2 + i, store.insertMessage(new Message(1, "message number " + i, 1669947800L + i)).getMessage_id());
+        }
+        Assert.assertTrue(store.applyPending());
+        for (int i = 50; i < 200; i++) {
+            store.insertMessage(new Message(1, "message number " + i, 1669947800L + i));
+        }
+        Assert.assertEquals(150, store.getPendingCount());
+        Assert.assertNull(new MessageDAO().getMessageByMessageID(52));
+
+        // Copying the log as a crash would leave it, tearing the last record; the first store is abandoned
+        Path recovered = directory.resolve("recovered");
+        Files.createDirectories(recovered);
+        DirectoryStream<Path> segments = Files.newDirectoryStream(crashed, "*.wal");
+        try {
+            for (Path segment : segments) {
+                byte[] bytes = Files.readAllBytes(segment);
+                String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+                int last = contents.indexOf("message number 199");
+                if (last >= 0) {
+                    bytes[last] = 'M';
+                }
+                Files.write(recovered.resolve(segment.getFileName()), bytes);
+            }
+        } finally {
+            segments.close();
+        }
+        Assert.assertTrue(Files.list(recovered).count() > 1);
+
+        WriteAheadMessageStore reopened = new WriteAheadMessageStore(new MessageDAO(), recovered, 4096, true, 0, 16);
+        Assert.assertEquals(0, reopened.getPendingCount());
+        MessageDAO database = new MessageDAO();
+        for (int i = 0; i < 199; i++) {
+            Assert.assertEquals(new Message(2 + i, 1, "message number " + i, 1669947800L + i),
+                    database.getMessageByMessageID(2 + i));
+        }
+        Assert.assertNull(database.getMessageByMessageID(201));
+        Assert.assertEquals(201, reopened.insertMessage(new Message(1, "after recovery", 1669948000L)).getMessage_id());
+        reopened.close();
+        Assert.assertEquals(1, Files.list(recovered).count());
+        Assert.assertEquals(202, database.insertMessage(new Message(1, "after the log", 1669948000L)).getMessage_id());
+    }
+}